@@ -0,0 +1,203 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.benchmark;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.mustachejava.Mustache;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.template.EmailTemplateRegistry;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.template.TemplateBodyPart;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.ConsumerRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.ProviderRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.RequestRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.RequesterRes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.mail.javamail.MimeMessageHelper;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-email cost of the stages of {@code EmailService}: template loading and compilation, Mustache rendering
+ * against the {@code data} context, MIME message assembly and deserialization of the incoming request.
+ * Requests are generated with a varying number of {@code properties} and {@code dataProductPortsFqn} entries,
+ * and messages are assembled both as plain text and as HTML.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmailRenderingBenchmark {
+    private static final String TEMPLATE_PATH = "classpath:templates/email/subscribe-template.mustache";
+    private static final String TEMPLATE_NAME = "subscribe-email-template";
+
+    @Param({"0", "10", "200"})
+    public int propertyCount;
+
+    @Param({"1", "50"})
+    public int portCount;
+
+    @Param({"false", "true"})
+    public boolean useHtml;
+
+    private ObjectMapper objectMapper;
+    private Session session;
+    private Mustache mustache;
+    private MarketplaceRequestRes request;
+    private Map<String, Object> context;
+    private String renderedContent;
+    private byte[] requestJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        // Same settings as the ObjectMapper configured by Spring Boot from application.yml
+        objectMapper = new ObjectMapper()
+                .setDateFormat(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ"))
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        session = Session.getInstance(new Properties());
+        mustache = new EmailTemplateRegistry(0).getTemplate(TEMPLATE_PATH, TEMPLATE_NAME);
+        request = createRequest(propertyCount, portCount);
+        context = new HashMap<>();
+        context.put("data", request);
+        renderedContent = render();
+        requestJson = objectMapper.writeValueAsBytes(request);
+    }
+
+    @Benchmark
+    public Mustache loadAndCompileTemplate() {
+        return new EmailTemplateRegistry(0).getTemplate(TEMPLATE_PATH, TEMPLATE_NAME);
+    }
+
+    @Benchmark
+    public String renderTemplate() {
+        return render();
+    }
+
+    @Benchmark
+    public MimeMessage buildMimeMessage() throws MessagingException {
+        return assemble(renderedContent);
+    }
+
+    @Benchmark
+    public MimeMessage renderAndBuildMimeMessage() throws MessagingException {
+        return assemble(render());
+    }
+
+    /**
+     * Renders the body into a {@code String}, assembles the message and writes it out, as the message is written
+     * to the SMTP server. Baseline of {@link #streamAndWriteMimeMessage()}.
+     */
+    @Benchmark
+    public void renderAndWriteMimeMessage(Blackhole blackhole) throws MessagingException, IOException {
+        MimeMessage message = assemble(render());
+        message.writeTo(OutputStream.nullOutputStream());
+        blackhole.consume(message);
+    }
+
+    /**
+     * Assembles the message with a {@link TemplateBodyPart} and writes it out, rendering the body straight into
+     * the encoded message.
+     */
+    @Benchmark
+    public void streamAndWriteMimeMessage(Blackhole blackhole) throws MessagingException, IOException {
+        MimeMessage message = new MimeMessage(session);
+        MimeMessageHelper helper = new MimeMessageHelper(message, true);
+        setHeaders(helper);
+        helper.getMimeMultipart().addBodyPart(new TemplateBodyPart(mustache, context, useHtml, blackhole::consume));
+        message.saveChanges();
+        message.writeTo(OutputStream.nullOutputStream());
+        blackhole.consume(message);
+    }
+
+    @Benchmark
+    public MarketplaceRequestRes deserializeRequest() throws IOException {
+        return objectMapper.readValue(requestJson, MarketplaceRequestRes.class);
+    }
+
+    private String render() {
+        StringWriter writer = new StringWriter();
+        mustache.execute(writer, context);
+        return writer.toString();
+    }
+
+    private MimeMessage assemble(String content) throws MessagingException {
+        MimeMessage message = new MimeMessage(session);
+        MimeMessageHelper helper = new MimeMessageHelper(message, true);
+        setHeaders(helper);
+        helper.setText(content, useHtml);
+        // Builds the multipart structure and headers, as done before the message is written to the SMTP server
+        message.saveChanges();
+        return message;
+    }
+
+    private void setHeaders(MimeMessageHelper helper) throws MessagingException {
+        helper.setFrom("marketplace@example.com");
+        helper.setTo(request.getRequest().getRequester().getIdentifier());
+        helper.setSubject("Access Granted: " + request.getRequest().getProvider().getDataProductFqn());
+    }
+
+    private static MarketplaceRequestRes createRequest(int propertyCount, int portCount) {
+        ProviderRes provider = new ProviderRes();
+        provider.setDataProductFqn("urn:dpds:benchmark:dataproducts:sales:1");
+        List<String> ports = new ArrayList<>(portCount);
+        for (int i = 0; i < portCount; i++) {
+            ports.add("urn:dpds:benchmark:dataproducts:sales:1:outputports:port-" + i);
+        }
+        provider.setDataProductPortsFqn(ports);
+
+        ConsumerRes consumer = new ConsumerRes();
+        consumer.setType("user");
+        consumer.setIdentifier("consumer@example.com");
+        RequesterRes requester = new RequesterRes();
+        requester.setType("user");
+        requester.setIdentifier("requester@example.com");
+
+        Map<String, Object> properties = new LinkedHashMap<>();
+        for (int i = 0; i < propertyCount; i++) {
+            properties.put("property-" + i, "value of property " + i);
+        }
+
+        RequestRes requestRes = new RequestRes();
+        requestRes.setName("Benchmark request");
+        requestRes.setIdentifier("benchmark-request");
+        requestRes.setProvider(provider);
+        requestRes.setConsumer(consumer);
+        requestRes.setRequester(requester);
+        requestRes.setProperties(properties);
+        requestRes.setStartDate(new Date(0));
+        requestRes.setEndDate(new Date(TimeUnit.DAYS.toMillis(365)));
+
+        MarketplaceRequestRes request = new MarketplaceRequestRes();
+        request.setV("1.0");
+        request.setOperation("MARKETPLACE_SUBSCRIBE");
+        request.setRequest(requestRes);
+        return request;
+    }
+}
@@ -0,0 +1,170 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.benchmark;
+
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.FakeSmtpServer;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.MailDispatcher;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.PooledTransportMailSender;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.VirtualThreadTaskExecutor;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.VirtualThreads;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-flight capacity of the request executor for I/O-bound requests: every operation submits {@code inFlight}
+ * requests that each hold an SMTP session for {@code ioMillis}, bounded by {@code odm.email.max-connections}, and
+ * waits for all of them. The time per operation is about {@code inFlight / concurrency * ioMillis}, so it shows how
+ * many requests actually wait for I/O at once: the pool size for {@code platform}, the SMTP sessions for
+ * {@code virtual}.
+ * <p>
+ * With {@code io=sleep} a request holds a session by sleeping; with {@code io=smtp} it sends a message through the
+ * real path, {@link MailDispatcher} and a pooled JavaMail transport, to a local SMTP server that answers the data
+ * after {@code ioMillis}. JavaMail sends under the monitor of the transport ({@code SMTPTransport.sendMessage} is
+ * {@code synchronized}), and a virtual thread blocking inside a monitor pins its carrier thread up to Java 23: the
+ * {@code virtual}/{@code smtp} runs show the SMTP concurrency actually reached, bounded by the number of carrier
+ * threads ({@code -Djdk.virtualThreadScheduler.parallelism}, the CPU count by default) rather than by the sessions.
+ * <p>
+ * With the GC profiler, {@code gc.alloc.rate.norm / inFlight} is the heap used per request. Virtual thread stacks
+ * live on the heap and are included; platform threads are reused and their stacks, about 1 MB reserved each, are
+ * not. The {@code virtual} executor needs Java 21 or later and fails on older versions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestExecutorBenchmark {
+    // Defaults of application.yml
+    private static final int MAX_POOL_SIZE = 8;
+    private static final int MAX_CONNECTIONS = 16;
+
+    @Param({"platform", "virtual"})
+    public String executorType;
+
+    @Param({"100", "1000"})
+    public int inFlight;
+
+    @Param({"20"})
+    public int ioMillis;
+
+    @Param({"sleep", "smtp"})
+    public String io;
+
+    private TaskExecutor executor;
+    private Semaphore smtpConnections;
+    private FakeSmtpServer smtpServer;
+    private PooledTransportMailSender mailSender;
+    private MailDispatcher mailDispatcher;
+    private final AtomicInteger failures = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        smtpConnections = new Semaphore(MAX_CONNECTIONS, true);
+        if ("smtp".equals(io)) {
+            smtpServer = new FakeSmtpServer();
+            smtpServer.discardMessages();
+            smtpServer.setDataLatencyMillis(ioMillis);
+            JavaMailSenderImpl javaMailSender = new JavaMailSenderImpl();
+            javaMailSender.setHost("localhost");
+            javaMailSender.setPort(smtpServer.getPort());
+            mailSender = new PooledTransportMailSender(javaMailSender, MAX_CONNECTIONS, 30_000, 30_000);
+            mailDispatcher = new MailDispatcher(mailSender, false, 50, 50, 1, MAX_CONNECTIONS, 30_000);
+        }
+        if ("virtual".equals(executorType)) {
+            if (!VirtualThreads.isSupported()) {
+                throw new IllegalStateException("Virtual threads require Java 21 or later");
+            }
+            executor = new VirtualThreadTaskExecutor("benchmark-request-", 10_000, 30);
+        } else {
+            ThreadPoolTaskExecutor pool = new ThreadPoolTaskExecutor();
+            pool.setCorePoolSize(MAX_POOL_SIZE);
+            pool.setMaxPoolSize(MAX_POOL_SIZE);
+            pool.setQueueCapacity(10_000);
+            pool.setThreadNamePrefix("benchmark-request-");
+            pool.initialize();
+            executor = pool;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (executor instanceof ThreadPoolTaskExecutor) {
+            ((ThreadPoolTaskExecutor) executor).shutdown();
+        } else {
+            ((VirtualThreadTaskExecutor) executor).destroy();
+        }
+        if (smtpServer != null) {
+            mailDispatcher.shutdown();
+            mailSender.close();
+            smtpServer.close();
+            if (failures.get() > 0) {
+                throw new IllegalStateException(failures.get() + " message(s) failed, the results are not valid");
+            }
+        }
+    }
+
+    @Benchmark
+    public void processInFlightRequests() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(inFlight);
+        for (int i = 0; i < inFlight; i++) {
+            int index = i;
+            executor.execute(() -> {
+                try {
+                    if (mailDispatcher != null) {
+                        mailDispatcher.send(createMessage(index));
+                    } else {
+                        sleepHoldingSession();
+                    }
+                } catch (MessagingException e) {
+                    failures.incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+
+    private void sleepHoldingSession() throws InterruptedException {
+        smtpConnections.acquire();
+        try {
+            // SMTP round-trips
+            Thread.sleep(ioMillis);
+        } finally {
+            smtpConnections.release();
+        }
+    }
+
+    private MimeMessage createMessage(int index) throws MessagingException {
+        MimeMessage message = mailDispatcher.createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(message, false);
+        helper.setFrom("sender@example.com");
+        helper.setTo("user" + index + "@example.com");
+        helper.setSubject("Access Granted: benchmark/product/1.0.0");
+        helper.setText("Access granted to benchmark/product/1.0.0");
+        return message;
+    }
+}
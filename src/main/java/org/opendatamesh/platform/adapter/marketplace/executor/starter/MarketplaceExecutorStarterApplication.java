@@ -5,7 +5,8 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.scheduling.annotation.EnableAsync;
 
 @SpringBootApplication
-@EnableAsync
+// Class-based proxies, so that the services implementing a narrow interface can still be injected by class
+@EnableAsync(proxyTargetClass = true)
 public class MarketplaceExecutorStarterApplication {
     public static void main(String[] args) {
         SpringApplication.run(MarketplaceExecutorStarterApplication.class, args);
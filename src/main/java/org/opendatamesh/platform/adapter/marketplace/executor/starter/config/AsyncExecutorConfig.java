@@ -0,0 +1,158 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.config;
+
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.KeyedOrderingExecutor;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.ProcessingStage;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.VirtualThreadTaskExecutor;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.VirtualThreads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Executors of the processing pipeline. Accepted requests are prepared (validated, rate limited and their email
+ * assembled) by the request executor, then handed over to the delivery stage, which sends the emails over SMTP with
+ * its own workers; results are posted to the marketplace service by the workers of the
+ * {@link org.opendatamesh.platform.adapter.marketplace.executor.starter.service.MarketplaceCallbackDispatcher}.
+ * <p>
+ * The queue of the request executor is bounded and full-queue submissions are rejected instead of piling up in memory;
+ * the controller turns a rejection into a 429 response with a Retry-After header.
+ * <p>
+ * When ordering is enabled, requests are queued in the lanes of a {@link KeyedOrderingExecutor}, bounded by the
+ * queue capacity, and the thread pool only runs the lanes: it holds at most one task per lane and runs with
+ * max-pool-size threads.
+ * <p>
+ * With {@code odm.processing.virtual-threads.enabled} on Java 21 or later, every request runs on its own virtual
+ * thread instead of a pool thread: up to {@code odm.processing.virtual-threads.max-in-flight} requests are processed
+ * at once and the number of concurrent SMTP sessions is bounded by {@code odm.email.max-connections} instead: the
+ * delivery stage then runs one virtual worker per SMTP session and {@code odm.processing.delivery.threads} is ignored.
+ * JavaMail does its SMTP I/O inside {@code synchronized} methods, which pin a virtual thread to its carrier thread up
+ * to Java 23: there, at most as many emails as carrier threads are sent at once, whatever the other limits.
+ */
+@Configuration
+public class AsyncExecutorConfig {
+    private static final Logger log = LoggerFactory.getLogger(AsyncExecutorConfig.class);
+
+    public static final String MARKETPLACE_REQUEST_EXECUTOR = "marketplaceRequestExecutor";
+
+    @Value("${odm.processing.executor.core-pool-size:4}")
+    private int corePoolSize;
+
+    @Value("${odm.processing.executor.max-pool-size:8}")
+    private int maxPoolSize;
+
+    @Value("${odm.processing.executor.queue-capacity:500}")
+    private int queueCapacity;
+
+    @Value("${odm.processing.executor.keep-alive-seconds:60}")
+    private int keepAliveSeconds;
+
+    @Value("${odm.processing.executor.await-termination-seconds:30}")
+    private int awaitTerminationSeconds;
+
+    @Value("${odm.processing.ordering.enabled:true}")
+    private boolean orderingEnabled;
+
+    @Value("${odm.processing.ordering.lanes:256}")
+    private int orderingLanes;
+
+    @Value("${odm.processing.ordering.drain-batch-size:16}")
+    private int orderingDrainBatchSize;
+
+    @Value("${odm.processing.virtual-threads.enabled:false}")
+    private boolean virtualThreadsEnabled;
+
+    @Value("${odm.processing.virtual-threads.max-in-flight:10000}")
+    private int virtualThreadsMaxInFlight;
+
+    @Value("${odm.processing.delivery.threads:8}")
+    private int deliveryThreads;
+
+    @Value("${odm.processing.delivery.queue-capacity:500}")
+    private int deliveryQueueCapacity;
+
+    @Value("${odm.email.max-connections:16}")
+    private int maxEmailConnections;
+
+    // Stopped before the delivery stage, so that the requests it finishes can still hand their email over
+    @Bean(name = MARKETPLACE_REQUEST_EXECUTOR)
+    @DependsOn("marketplaceDeliveryStage")
+    public TaskExecutor marketplaceRequestExecutor() {
+        if (isVirtualThreadsEnabled()) {
+            // Ordering lanes are drained by one task each, so every lane must be able to run at once
+            int maxInFlight = orderingEnabled
+                    ? Math.max(virtualThreadsMaxInFlight, KeyedOrderingExecutor.roundLaneCount(orderingLanes))
+                    : virtualThreadsMaxInFlight;
+            return new VirtualThreadTaskExecutor("marketplace-request-", maxInFlight, awaitTerminationSeconds);
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        if (orderingEnabled) {
+            // The queue never fills up, as it holds at most one task per lane, so the pool would never grow
+            executor.setCorePoolSize(Math.max(corePoolSize, maxPoolSize));
+            executor.setMaxPoolSize(Math.max(corePoolSize, maxPoolSize));
+            executor.setQueueCapacity(KeyedOrderingExecutor.roundLaneCount(orderingLanes));
+        } else {
+            executor.setCorePoolSize(corePoolSize);
+            executor.setMaxPoolSize(Math.max(corePoolSize, maxPoolSize));
+            executor.setQueueCapacity(queueCapacity);
+        }
+        executor.setKeepAliveSeconds(keepAliveSeconds);
+        executor.setThreadNamePrefix("marketplace-request-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(awaitTerminationSeconds);
+        return executor;
+    }
+
+    /**
+     * Lanes keeping the requests of the same consumer and data product in order, run by the request executor.
+     */
+    @Bean
+    public KeyedOrderingExecutor marketplaceRequestLanes(@Qualifier(MARKETPLACE_REQUEST_EXECUTOR) TaskExecutor requestExecutor) {
+        return new KeyedOrderingExecutor(requestExecutor, orderingLanes, queueCapacity, orderingDrainBatchSize);
+    }
+
+    /**
+     * Stage sending the prepared emails. Ordered like the request executor, so that the emails of the same consumer
+     * and data product leave in the order their requests were prepared. Its workers are virtual threads when the
+     * requests are, one per SMTP session, so that concurrent sends are bounded by the SMTP sessions alone.
+     */
+    @Bean
+    public ProcessingStage marketplaceDeliveryStage() {
+        int lanes = orderingEnabled ? orderingLanes : 0;
+        // The request executor warns when virtual threads are not supported
+        if (virtualThreadsEnabled && VirtualThreads.isSupported()) {
+            int workers = Math.max(1, maxEmailConnections);
+            warnIfSendsArePinned(workers);
+            return new ProcessingStage("delivery", workers, deliveryQueueCapacity, lanes, orderingDrainBatchSize,
+                    awaitTerminationSeconds, VirtualThreads.threadFactory("delivery-stage-"));
+        }
+        return new ProcessingStage("delivery", deliveryThreads, deliveryQueueCapacity, lanes, orderingDrainBatchSize,
+                awaitTerminationSeconds);
+    }
+
+    private void warnIfSendsArePinned(int deliveryWorkers) {
+        int carrierThreads = Integer.getInteger("jdk.virtualThreadScheduler.parallelism", Runtime.getRuntime().availableProcessors());
+        if (Runtime.version().feature() < 24 && carrierThreads < deliveryWorkers) {
+            log.warn("JavaMail pins virtual threads to their carrier thread during SMTP I/O on Java {}: at most {} emails are sent "
+                            + "at once instead of {}; raise -Djdk.virtualThreadScheduler.parallelism or run on Java 24 or later",
+                    Runtime.version().feature(), carrierThreads, deliveryWorkers);
+        }
+    }
+
+    private boolean isVirtualThreadsEnabled() {
+        if (virtualThreadsEnabled && !VirtualThreads.isSupported()) {
+            log.warn("Virtual threads require Java 21 or later, running on Java {}: requests are processed by a thread pool",
+                    System.getProperty("java.specification.version"));
+            return false;
+        }
+        return virtualThreadsEnabled;
+    }
+}
@@ -0,0 +1,72 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.config;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP client used to post operation results to the marketplace service.
+ * Connections to the marketplace service are kept alive in a bounded pool and every call is bounded by
+ * connect, read and pool-wait timeouts, so a slow marketplace response cannot hold a thread indefinitely.
+ * The {@code reactive} profile posts with the WebClient of {@code ReactiveConfig} instead.
+ */
+@Configuration
+@Profile("!reactive")
+public class MarketplaceHttpClientConfig {
+
+    public static final String MARKETPLACE_REST_TEMPLATE = "marketplaceRestTemplate";
+
+    @Value("${odm.product-plane.marketplace-service.http-client.max-connections:20}")
+    private int maxConnections;
+
+    @Value("${odm.product-plane.marketplace-service.http-client.connect-timeout-ms:2000}")
+    private int connectTimeoutMillis;
+
+    @Value("${odm.product-plane.marketplace-service.http-client.read-timeout-ms:10000}")
+    private int readTimeoutMillis;
+
+    @Value("${odm.product-plane.marketplace-service.http-client.connection-request-timeout-ms:5000}")
+    private int connectionRequestTimeoutMillis;
+
+    @Value("${odm.product-plane.marketplace-service.http-client.idle-timeout-ms:30000}")
+    private long idleTimeoutMillis;
+
+    @Bean
+    public PoolingHttpClientConnectionManager marketplaceConnectionManager() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        // All callbacks go to the same marketplace service address
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        connectionManager.setValidateAfterInactivity(2000);
+        return connectionManager;
+    }
+
+    @Bean
+    public CloseableHttpClient marketplaceHttpClient(PoolingHttpClientConnectionManager marketplaceConnectionManager) {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMillis)
+                .setSocketTimeout(readTimeoutMillis)
+                .setConnectionRequestTimeout(connectionRequestTimeoutMillis)
+                .build();
+        return HttpClientBuilder.create()
+                .setConnectionManager(marketplaceConnectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @Bean(name = MARKETPLACE_REST_TEMPLATE)
+    public RestTemplate marketplaceRestTemplate(CloseableHttpClient marketplaceHttpClient) {
+        return new RestTemplate(new HttpComponentsClientHttpRequestFactory(marketplaceHttpClient));
+    }
+}
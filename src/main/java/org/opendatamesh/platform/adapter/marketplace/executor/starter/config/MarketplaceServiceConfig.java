@@ -11,6 +11,12 @@ public class MarketplaceServiceConfig {
     @Value("${odm.product-plane.marketplace-service.active}")
     private boolean active;
 
+    @Value("${odm.product-plane.marketplace-service.callback-delay-ms:2000}")
+    private long callbackDelayMillis;
+
+    @Value("${odm.product-plane.marketplace-service.callback-dispatcher-threads:2}")
+    private int callbackDispatcherThreads;
+
     public boolean isActive() {
         return active;
     }
@@ -26,4 +32,20 @@ public class MarketplaceServiceConfig {
     public void setAddress(String address) {
         this.address = address;
     }
-} 
\ No newline at end of file
+
+    public long getCallbackDelayMillis() {
+        return callbackDelayMillis;
+    }
+
+    public void setCallbackDelayMillis(long callbackDelayMillis) {
+        this.callbackDelayMillis = callbackDelayMillis;
+    }
+
+    public int getCallbackDispatcherThreads() {
+        return callbackDispatcherThreads;
+    }
+
+    public void setCallbackDispatcherThreads(int callbackDispatcherThreads) {
+        this.callbackDispatcherThreads = callbackDispatcherThreads;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,28 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.config;
+
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.VirtualThreads;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Handles every HTTP request on its own virtual thread instead of a Tomcat worker thread when
+ * {@code odm.processing.virtual-threads.enabled} is set, so that requests waiting for the journal do not tie up a
+ * worker. On Java versions without virtual threads Tomcat keeps its worker pool.
+ */
+@Configuration
+@ConditionalOnProperty(name = "odm.processing.virtual-threads.enabled", havingValue = "true")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class VirtualThreadWebServerConfig {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> {
+            if (VirtualThreads.isSupported()) {
+                protocolHandler.setExecutor(VirtualThreads.newThreadPerTaskExecutor("http-handler-"));
+            }
+        };
+    }
+}
@@ -2,32 +2,45 @@ package org.opendatamesh.platform.adapter.marketplace.executor.starter.controlle
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceBatchResultRes;
 import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.service.MarketplaceBatchIngestionService;
 import org.opendatamesh.platform.adapter.marketplace.executor.starter.service.MarketplaceExecutorService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.validation.Valid;
+import java.io.InputStream;
 
 @RestController
+@Profile("!reactive")
 @RequestMapping("/api/v1/up/marketplace-executor")
 @Tag(name = "Marketplace Executor", description = "API for handling marketplace subscription and unsubscription requests")
 public class MarketplaceExecutorController {
     private final MarketplaceExecutorService marketplaceExecutorService;
+    private final MarketplaceBatchIngestionService marketplaceBatchIngestionService;
 
     @Autowired
-    public MarketplaceExecutorController(MarketplaceExecutorService marketplaceExecutorService) {
+    public MarketplaceExecutorController(MarketplaceExecutorService marketplaceExecutorService,
+                                         MarketplaceBatchIngestionService marketplaceBatchIngestionService) {
         this.marketplaceExecutorService = marketplaceExecutorService;
+        this.marketplaceBatchIngestionService = marketplaceBatchIngestionService;
     }
 
     @Operation(summary = "Process a marketplace request", description = "Handles subscription and unsubscription requests for data products asynchronously")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "202", description = "Request accepted for processing"),
         @ApiResponse(responseCode = "400", description = "Invalid request parameters"),
+        @ApiResponse(responseCode = "429", description = "Too many pending requests, retry after the number of seconds in the Retry-After header"),
         @ApiResponse(responseCode = "500", description = "Internal server error")
     })
     @PostMapping("/requests")
@@ -37,4 +50,22 @@ public class MarketplaceExecutorController {
         marketplaceExecutorService.processRequest(request);
         return ResponseEntity.accepted().build();
     }
-} 
\ No newline at end of file
+
+    @Operation(summary = "Process a batch of marketplace requests", description = "Accepts a JSON array of requests, or newline-delimited JSON requests (application/x-ndjson), "
+            + "reading the body incrementally. Each item is validated like a single request and the outcome of every item is reported; "
+            + "valid items are processed asynchronously")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Batch read; the body reports which requests were accepted for processing"),
+        @ApiResponse(responseCode = "400", description = "Empty or malformed batch"),
+        @ApiResponse(responseCode = "500", description = "Internal server error")
+    })
+    @io.swagger.v3.oas.annotations.parameters.RequestBody(description = "Marketplace requests, as a JSON array or as NDJSON", required = true,
+            content = {
+                @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, array = @ArraySchema(schema = @Schema(implementation = MarketplaceRequestRes.class))),
+                @Content(mediaType = MediaType.APPLICATION_NDJSON_VALUE, schema = @Schema(implementation = MarketplaceRequestRes.class))
+            })
+    @PostMapping(value = "/requests/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<MarketplaceBatchResultRes> processBatch(InputStream body) {
+        return ResponseEntity.ok(marketplaceBatchIngestionService.processBatch(body));
+    }
+}
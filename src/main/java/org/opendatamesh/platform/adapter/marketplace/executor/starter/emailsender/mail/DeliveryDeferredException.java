@@ -0,0 +1,18 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail;
+
+/**
+ * Thrown when an email cannot be sent yet because its recipient domain is over its rate limit.
+ * The email is not failed: it must be sent again after {@link #getDelayMillis()}.
+ */
+public class DeliveryDeferredException extends RuntimeException {
+    private final long delayMillis;
+
+    public DeliveryDeferredException(String message, long delayMillis) {
+        super(message);
+        this.delayMillis = delayMillis;
+    }
+
+    public long getDelayMillis() {
+        return delayMillis;
+    }
+}
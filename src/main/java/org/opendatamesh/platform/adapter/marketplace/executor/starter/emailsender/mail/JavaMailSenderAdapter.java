@@ -1,17 +1,25 @@
 package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.stereotype.Component;
 
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Adapter implementation that uses Spring's JavaMailSender to send emails.
+ * This is the default transport ({@code odm.email.transport=javamail}); every message opens its own SMTP connection.
  */
 @Component
+@ConditionalOnProperty(name = "odm.email.transport", havingValue = "javamail", matchIfMissing = true)
 public class JavaMailSenderAdapter implements MarketplaceMailSender {
 
     private final JavaMailSender mailSender;
@@ -36,6 +44,26 @@ public class JavaMailSenderAdapter implements MarketplaceMailSender {
         mailSender.send(message);
     }
 
+    /**
+     * Sends the whole batch through {@link JavaMailSender#send(MimeMessage...)}, which uses a single
+     * SMTP connection for all messages, and maps per-message failures back to their messages.
+     */
+    @Override
+    public Map<MimeMessage, Exception> sendBatch(List<MimeMessage> messages) {
+        Map<MimeMessage, Exception> failures = new IdentityHashMap<>();
+        try {
+            mailSender.send(messages.toArray(new MimeMessage[0]));
+        } catch (MailSendException e) {
+            e.getFailedMessages().forEach((message, cause) -> failures.put((MimeMessage) message, cause));
+            if (failures.isEmpty()) {
+                messages.forEach(message -> failures.put(message, e));
+            }
+        } catch (MailException e) {
+            messages.forEach(message -> failures.put(message, e));
+        }
+        return failures;
+    }
+
     @Override
     public MimeMessage createMimeMessage() {
         return mailSender.createMimeMessage();
@@ -0,0 +1,313 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Delivery stage in front of the {@link MarketplaceMailSender}.
+ * When batching is disabled, messages are handed to the mail sender straight away on the calling thread.
+ * When batching is enabled, messages coming from concurrent callers are collected for up to
+ * {@code odm.email.batch.max-delay-ms} or until {@code odm.email.batch.max-size} messages are pending, and then
+ * sent as a single batch; the outcome of each message is reported back to its own caller.
+ * <p>
+ * At most {@code odm.email.max-connections} SMTP sessions, single messages or batches, are open at once; further
+ * senders wait up to {@code odm.email.connection-wait-timeout-ms} for one to end. This is what bounds the load on
+ * the mail server when requests are processed on virtual threads rather than by a fixed pool.
+ * <p>
+ * A batched message always gets an outcome: messages dispatched while the dispatcher shuts down, or still waiting
+ * when it has stopped, fail with a {@link MessagingException}, and {@link #send(MimeMessage)} gives up after
+ * {@code odm.email.batch.result-timeout-ms}.
+ */
+@Component
+public class MailDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(MailDispatcher.class);
+
+    private final MarketplaceMailSender mailSender;
+    private final boolean batchingEnabled;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final Semaphore connections;
+    private final int maxConnections;
+    private final long connectionWaitMillis;
+    private final long resultTimeoutMillis;
+
+    private final BlockingQueue<PendingMessage> queue = new LinkedBlockingQueue<>();
+    // Taken to add a message to the queue and to stop accepting messages, so that none is added once stopped
+    private final Object queueLock = new Object();
+    private final Thread collector;
+    private final ExecutorService batchSender;
+    private volatile boolean running;
+
+    @Autowired
+    public MailDispatcher(MarketplaceMailSender mailSender,
+                          @Value("${odm.email.batch.enabled:false}") boolean batchingEnabled,
+                          @Value("${odm.email.batch.max-size:50}") int maxBatchSize,
+                          @Value("${odm.email.batch.max-delay-ms:50}") long maxDelayMillis,
+                          @Value("${odm.email.batch.sender-threads:2}") int senderThreads,
+                          @Value("${odm.email.max-connections:16}") int maxConnections,
+                          @Value("${odm.email.connection-wait-timeout-ms:30000}") long connectionWaitMillis,
+                          @Value("${odm.email.batch.result-timeout-ms:120000}") long resultTimeoutMillis) {
+        this.mailSender = mailSender;
+        this.resultTimeoutMillis = Math.max(1, resultTimeoutMillis);
+        this.maxConnections = Math.max(1, maxConnections);
+        this.connections = new Semaphore(this.maxConnections, true);
+        this.connectionWaitMillis = Math.max(0, connectionWaitMillis);
+        this.batchingEnabled = batchingEnabled;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelayMillis));
+        if (batchingEnabled) {
+            this.running = true;
+            this.batchSender = Executors.newFixedThreadPool(Math.max(1, senderThreads), new CustomizableThreadFactory("mail-batch-"));
+            this.collector = new Thread(this::collectBatches, "mail-batch-collector");
+            this.collector.setDaemon(true);
+            this.collector.start();
+        } else {
+            this.batchSender = null;
+            this.collector = null;
+        }
+    }
+
+    /**
+     * Same as the constructor used by Spring, with the default {@code odm.email.batch.result-timeout-ms}.
+     */
+    public MailDispatcher(MarketplaceMailSender mailSender, boolean batchingEnabled, int maxBatchSize, long maxDelayMillis,
+                          int senderThreads, int maxConnections, long connectionWaitMillis) {
+        this(mailSender, batchingEnabled, maxBatchSize, maxDelayMillis, senderThreads, maxConnections, connectionWaitMillis, 120_000);
+    }
+
+    /**
+     * Creates a new MIME message from the underlying mail sender.
+     *
+     * @return a new MIME message instance
+     */
+    public MimeMessage createMimeMessage() {
+        return mailSender.createMimeMessage();
+    }
+
+    /**
+     * Submits a message for delivery.
+     *
+     * @param message the MIME message to send
+     * @return a future completed when the message has been accepted by the mail server,
+     * or completed exceptionally with the cause of the delivery failure
+     */
+    public CompletableFuture<Void> dispatch(MimeMessage message) {
+        if (!batchingEnabled) {
+            try {
+                acquireConnection();
+                try {
+                    mailSender.send(message);
+                } finally {
+                    connections.release();
+                }
+                return CompletableFuture.completedFuture(null);
+            } catch (MessagingException | RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        PendingMessage pending = new PendingMessage(message);
+        synchronized (queueLock) {
+            if (!running) {
+                return CompletableFuture.failedFuture(shuttingDown());
+            }
+            queue.add(pending);
+        }
+        return pending.result;
+    }
+
+    /**
+     * Submits a message for delivery and waits for the outcome, at most {@code odm.email.batch.result-timeout-ms}
+     * for a batched message.
+     *
+     * @param message the MIME message to send
+     * @throws MessagingException if the message could not be sent, or its outcome is not known in time
+     */
+    public void send(MimeMessage message) throws MessagingException {
+        try {
+            dispatch(message).get(resultTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Reported without reply code, so retried: the batch may still go out, in which case the email is sent twice
+            throw new MessagingException("No outcome for the email after " + resultTimeoutMillis + " ms", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MessagingException) {
+                throw (MessagingException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new MessagingException(cause.getMessage(), cause instanceof Exception ? (Exception) cause : e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for email delivery", e);
+        }
+    }
+
+    public boolean isBatchingEnabled() {
+        return batchingEnabled;
+    }
+
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the number of SMTP sessions in use.
+     */
+    public int getActiveConnectionCount() {
+        return maxConnections - connections.availablePermits();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (!batchingEnabled) {
+            return;
+        }
+        synchronized (queueLock) {
+            running = false;
+        }
+        // The collector hands the queued messages over before it stops; any left if it did not stop in time fail
+        collector.join(TimeUnit.NANOSECONDS.toMillis(maxDelayNanos) + 1000);
+        PendingMessage left;
+        while ((left = queue.poll()) != null) {
+            left.result.completeExceptionally(shuttingDown());
+        }
+        batchSender.shutdown();
+        if (!batchSender.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Pending email batches were not sent before shutdown");
+            for (Runnable notStarted : batchSender.shutdownNow()) {
+                ((BatchTask) notStarted).batch.forEach(pending -> pending.result.completeExceptionally(shuttingDown()));
+            }
+        }
+    }
+
+    private void collectBatches() {
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingMessage first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<PendingMessage> batch = new ArrayList<>(maxBatchSize);
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || remaining <= 0) {
+                        break;
+                    }
+                    PendingMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                submit(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void submit(List<PendingMessage> batch) {
+        try {
+            batchSender.execute(new BatchTask(batch));
+        } catch (RejectedExecutionException e) {
+            batch.forEach(pending -> pending.result.completeExceptionally(e));
+        }
+    }
+
+    private void sendBatch(List<PendingMessage> batch) {
+        List<MimeMessage> messages = new ArrayList<>(batch.size());
+        batch.forEach(pending -> messages.add(pending.message));
+        Map<MimeMessage, Exception> failures;
+        try {
+            acquireConnection();
+            try {
+                failures = mailSender.sendBatch(messages);
+            } finally {
+                connections.release();
+            }
+        } catch (MessagingException | RuntimeException e) {
+            batch.forEach(pending -> pending.result.completeExceptionally(e));
+            return;
+        }
+        log.debug("Sent batch of {} email(s), {} failed", batch.size(), failures.size());
+        for (PendingMessage pending : batch) {
+            Exception failure = failures.get(pending.message);
+            if (failure == null) {
+                pending.result.complete(null);
+            } else {
+                pending.result.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * Waits for a free SMTP session. A timeout is reported as a {@link MessagingException} without reply code, which
+     * the retry policy treats as transient.
+     */
+    private void acquireConnection() throws MessagingException {
+        try {
+            if (!connections.tryAcquire(connectionWaitMillis, TimeUnit.MILLISECONDS)) {
+                throw new MessagingException("No SMTP connection available after " + connectionWaitMillis
+                        + " ms (" + maxConnections + " in use)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for an SMTP connection", e);
+        }
+    }
+
+    private static MessagingException shuttingDown() {
+        return new MessagingException("Mail dispatcher is shutting down");
+    }
+
+    /**
+     * Sends a batch; kept as a type so that the batches never started at shutdown can be failed.
+     */
+    private final class BatchTask implements Runnable {
+        private final List<PendingMessage> batch;
+
+        BatchTask(List<PendingMessage> batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void run() {
+            sendBatch(batch);
+        }
+    }
+
+    private static class PendingMessage {
+        private final MimeMessage message;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        PendingMessage(MimeMessage message) {
+            this.message = message;
+        }
+    }
+}
@@ -2,6 +2,9 @@ package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsend
 
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Interface for sending emails in the marketplace context.
@@ -26,6 +29,27 @@ public interface MarketplaceMailSender {
      */
     void send(MimeMessage message) throws MessagingException;
 
+    /**
+     * Send several MIME messages as one batch. Implementations that can reuse a single
+     * connection for the whole batch should override this method; the default sends the
+     * messages one by one.
+     *
+     * @param messages the MIME messages to send
+     * @return the messages that could not be sent, each mapped to the cause of its failure;
+     * an empty map when every message was sent
+     */
+    default Map<MimeMessage, Exception> sendBatch(List<MimeMessage> messages) {
+        Map<MimeMessage, Exception> failures = new IdentityHashMap<>();
+        for (MimeMessage message : messages) {
+            try {
+                send(message);
+            } catch (MessagingException | RuntimeException e) {
+                failures.put(message, e);
+            }
+        }
+        return failures;
+    }
+
     /**
      * Create a new MIME message.
      *
@@ -0,0 +1,297 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mail sender spreading messages over several SMTP relays, each with its own pool of connections as in
+ * {@link PooledTransportMailSender}. Enabled with {@code odm.email.transport=multi-relay}; the relays are listed in
+ * {@code odm.email.relays} as {@code host[:port[:weight]]}, comma separated, and share the credentials and
+ * properties of the {@code spring.mail} configuration.
+ * <p>
+ * A relay is chosen per message, either by weighted round-robin ({@code weighted}) or as the relay with the lowest
+ * {@link SmtpRelay#getScore() score} ({@code least-latency}, the default). A transient failure (connection error,
+ * 4xx reply) counts against the relay and the message fails over to the next relay; a permanent failure, such as
+ * a rejected recipient or a template that fails to render, is reported straight away and leaves the relay score
+ * alone. A relay failing {@code odm.email.relay.eject-after-failures}
+ * times in a row, or more often than {@code odm.email.relay.max-error-rate}, is ejected and probed again after
+ * {@code odm.email.relay.eject-ms}, doubling while the probes fail. When every relay is ejected, the one due back
+ * first is used anyway.
+ */
+@Component
+@ConditionalOnProperty(name = "odm.email.transport", havingValue = "multi-relay")
+public class MultiRelayMailSender implements MarketplaceMailSender {
+    private static final Logger log = LoggerFactory.getLogger(MultiRelayMailSender.class);
+
+    /**
+     * How the relay of a message is chosen.
+     */
+    public enum Selection {
+        WEIGHTED, LEAST_LATENCY;
+
+        static Selection parse(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid relay selection '" + value + "', expected weighted or least-latency", e);
+            }
+        }
+    }
+
+    private final JavaMailSenderImpl mailSender;
+    private final List<SmtpRelay> relays;
+    private final Selection selection;
+    private final int ejectAfterFailures;
+    private final double maxErrorRate;
+    private final long ejectMillis;
+    private final ScheduledExecutorService prober;
+
+    @Autowired
+    public MultiRelayMailSender(JavaMailSenderImpl mailSender,
+                                @Value("${odm.email.relays:}") String relays,
+                                @Value("${odm.email.relay.selection:least-latency}") String selection,
+                                @Value("${odm.email.smtp-pool.size:4}") int poolSize,
+                                @Value("${odm.email.smtp-pool.validate-after-idle-ms:30000}") long validateAfterIdleMillis,
+                                @Value("${odm.email.smtp-pool.borrow-timeout-ms:10000}") long borrowTimeoutMillis,
+                                @Value("${odm.email.relay.eject-after-failures:3}") int ejectAfterFailures,
+                                @Value("${odm.email.relay.max-error-rate:0.5}") double maxErrorRate,
+                                @Value("${odm.email.relay.eject-ms:30000}") long ejectMillis) {
+        this.mailSender = mailSender;
+        this.selection = Selection.parse(selection);
+        this.ejectAfterFailures = Math.max(1, ejectAfterFailures);
+        this.maxErrorRate = maxErrorRate;
+        this.ejectMillis = Math.max(1, ejectMillis);
+        List<SmtpRelay> parsed = new ArrayList<>();
+        for (RelayAddress address : parseRelays(relays, mailSender.getHost(), mailSender.getPort())) {
+            SmtpTransportPool pool = new SmtpTransportPool(mailSender.getSession(), mailSender.getProtocol(), address.host,
+                    address.port, mailSender.getUsername(), mailSender.getPassword(),
+                    poolSize, validateAfterIdleMillis, borrowTimeoutMillis);
+            parsed.add(new SmtpRelay(address.host, address.port, address.weight, pool));
+        }
+        this.relays = Collections.unmodifiableList(parsed);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("smtp-relay-probe-");
+        threadFactory.setDaemon(true);
+        this.prober = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        log.info("Sending emails through {} SMTP relay(s) {}, selected by {}", this.relays.size(), this.relays, this.selection);
+    }
+
+    @Override
+    public void send(String to, String subject, String text) throws MessagingException {
+        MimeMessage message = createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(message, true);
+        helper.setTo(to);
+        helper.setSubject(subject);
+        helper.setText(text);
+        send(message);
+    }
+
+    /**
+     * Sends the message through the best relay, failing over to the next ones on transient failures.
+     */
+    @Override
+    public void send(MimeMessage message) throws MessagingException {
+        Address[] recipients = PooledTransportMailSender.prepare(message);
+        List<SmtpRelay> tried = new ArrayList<>(relays.size());
+        MessagingException lastFailure = null;
+        while (tried.size() < relays.size()) {
+            SmtpRelay relay = select(tried);
+            tried.add(relay);
+            long start = System.nanoTime();
+            relay.startSend();
+            try {
+                sendVia(relay, message, recipients);
+                relay.recordSuccess(System.nanoTime() - start);
+                return;
+            } catch (MessagingException | RuntimeException e) {
+                if (!SmtpFailureClassifier.isTransient(e)) {
+                    relay.recordNeutral();
+                    throw e;
+                }
+                if (relay.recordFailure(System.nanoTime() - start, ejectAfterFailures, maxErrorRate)) {
+                    eject(relay, e);
+                }
+                log.warn("SMTP relay {} failed, {}: {}", relay, tried.size() < relays.size() ? "failing over" : "no relay left", e.getMessage());
+                lastFailure = e instanceof MessagingException ? (MessagingException) e
+                        : new MessagingException(e.getMessage(), e);
+            }
+        }
+        throw lastFailure;
+    }
+
+    @Override
+    public MimeMessage createMimeMessage() {
+        return mailSender.createMimeMessage();
+    }
+
+    public List<SmtpRelay> getRelays() {
+        return relays;
+    }
+
+    @PreDestroy
+    public void close() {
+        prober.shutdownNow();
+        relays.forEach(relay -> relay.getPool().close());
+    }
+
+    /**
+     * Chooses the relay of the next send among the ones not tried yet, preferring relays that are not ejected.
+     */
+    SmtpRelay select(List<SmtpRelay> excluded) {
+        List<SmtpRelay> candidates = new ArrayList<>(relays.size());
+        SmtpRelay dueBackFirst = null;
+        for (SmtpRelay relay : relays) {
+            if (excluded.contains(relay)) {
+                continue;
+            }
+            if (!relay.isEjected()) {
+                candidates.add(relay);
+            } else if (dueBackFirst == null || relay.getEjectedUntilNanos() - dueBackFirst.getEjectedUntilNanos() < 0) {
+                dueBackFirst = relay;
+            }
+        }
+        if (candidates.isEmpty()) {
+            return dueBackFirst;
+        }
+        return selection == Selection.WEIGHTED ? selectWeighted(candidates) : selectLeastLatency(candidates);
+    }
+
+    private static SmtpRelay selectLeastLatency(List<SmtpRelay> candidates) {
+        SmtpRelay best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (SmtpRelay relay : candidates) {
+            double score = relay.getScore();
+            if (score < bestScore) {
+                best = relay;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Smooth weighted round-robin: over any window of sum(weights) sends, each relay gets its weight in sends,
+     * spread out rather than in bursts.
+     */
+    private synchronized SmtpRelay selectWeighted(List<SmtpRelay> candidates) {
+        SmtpRelay best = null;
+        int total = 0;
+        for (SmtpRelay relay : candidates) {
+            relay.currentWeight += relay.getWeight();
+            total += relay.getWeight();
+            if (best == null || relay.currentWeight > best.currentWeight) {
+                best = relay;
+            }
+        }
+        best.currentWeight -= total;
+        return best;
+    }
+
+    private static void sendVia(SmtpRelay relay, MimeMessage message, Address[] recipients) throws MessagingException {
+        SmtpTransportPool pool = relay.getPool();
+        SmtpTransportPool.PooledTransport pooled = pool.borrow();
+        boolean healthy = false;
+        try {
+            pooled.getTransport().sendMessage(message, recipients);
+            healthy = true;
+        } catch (SendFailedException e) {
+            // The server refused the message but the connection itself is still usable
+            healthy = true;
+            throw e;
+        } finally {
+            if (healthy) {
+                pool.release(pooled);
+            } else {
+                pool.invalidate(pooled);
+            }
+        }
+    }
+
+    private void eject(SmtpRelay relay, Exception cause) {
+        long probeInMillis = relay.eject(ejectMillis);
+        log.warn("Ejected SMTP relay {} for {} ms after repeated failures: {}", relay, probeInMillis, cause.getMessage());
+        scheduleProbe(relay, probeInMillis);
+    }
+
+    private void scheduleProbe(SmtpRelay relay, long delayMillis) {
+        try {
+            prober.schedule(() -> probe(relay), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
+
+    /**
+     * Opens a connection to an ejected relay; the relay is back in rotation if it succeeds.
+     */
+    private void probe(SmtpRelay relay) {
+        try {
+            SmtpTransportPool.PooledTransport pooled = relay.getPool().borrow();
+            relay.getPool().release(pooled);
+            relay.reinstate();
+            log.info("SMTP relay {} is reachable again and back in rotation", relay);
+        } catch (MessagingException | RuntimeException e) {
+            long probeInMillis = relay.eject(ejectMillis);
+            log.warn("SMTP relay {} still unavailable, probing again in {} ms: {}", relay, probeInMillis, e.getMessage());
+            scheduleProbe(relay, probeInMillis);
+        }
+    }
+
+    static List<RelayAddress> parseRelays(String relays, String defaultHost, int defaultPort) {
+        List<RelayAddress> addresses = new ArrayList<>();
+        if (relays != null) {
+            for (String entry : relays.split(",")) {
+                if (entry.trim().isEmpty()) {
+                    continue;
+                }
+                String[] parts = entry.trim().split(":");
+                if (parts.length > 3 || parts[0].trim().isEmpty()) {
+                    throw new IllegalArgumentException("Invalid SMTP relay '" + entry.trim() + "', expected host[:port[:weight]]");
+                }
+                try {
+                    int port = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : defaultPort;
+                    int weight = parts.length > 2 ? Integer.parseInt(parts[2].trim()) : 1;
+                    addresses.add(new RelayAddress(parts[0].trim(), port, weight));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid SMTP relay '" + entry.trim() + "', expected host[:port[:weight]]", e);
+                }
+            }
+        }
+        if (addresses.isEmpty()) {
+            addresses.add(new RelayAddress(defaultHost, defaultPort, 1));
+        }
+        return addresses;
+    }
+
+    static final class RelayAddress {
+        final String host;
+        final int port;
+        final int weight;
+
+        RelayAddress(String host, int port, int weight) {
+            this.host = host;
+            this.port = port;
+            this.weight = weight;
+        }
+    }
+}
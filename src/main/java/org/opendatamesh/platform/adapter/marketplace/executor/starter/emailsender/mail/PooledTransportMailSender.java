@@ -0,0 +1,142 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.MimeMessage;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mail sender that keeps a pool of authenticated SMTP connections open and reuses them across sends,
+ * instead of opening a new connection for every message as {@link JavaMailSenderAdapter} does.
+ * Enabled with {@code odm.email.transport=pooled}; connection settings are taken from the
+ * {@code spring.mail} configuration.
+ */
+@Component
+@ConditionalOnProperty(name = "odm.email.transport", havingValue = "pooled")
+public class PooledTransportMailSender implements MarketplaceMailSender {
+
+    private final JavaMailSenderImpl mailSender;
+    private final SmtpTransportPool pool;
+
+    @Autowired
+    public PooledTransportMailSender(JavaMailSenderImpl mailSender,
+                                     @Value("${odm.email.smtp-pool.size:4}") int poolSize,
+                                     @Value("${odm.email.smtp-pool.validate-after-idle-ms:30000}") long validateAfterIdleMillis,
+                                     @Value("${odm.email.smtp-pool.borrow-timeout-ms:10000}") long borrowTimeoutMillis) {
+        this.mailSender = mailSender;
+        this.pool = new SmtpTransportPool(mailSender.getSession(), mailSender.getProtocol(), mailSender.getHost(),
+                mailSender.getPort(), mailSender.getUsername(), mailSender.getPassword(),
+                poolSize, validateAfterIdleMillis, borrowTimeoutMillis);
+    }
+
+    @Override
+    public void send(String to, String subject, String text) throws MessagingException {
+        MimeMessage message = createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(message, true);
+        helper.setTo(to);
+        helper.setSubject(subject);
+        helper.setText(text);
+        send(message);
+    }
+
+    @Override
+    public void send(MimeMessage message) throws MessagingException {
+        Address[] recipients = prepare(message);
+        SmtpTransportPool.PooledTransport pooled = pool.borrow();
+        boolean healthy = false;
+        try {
+            pooled.getTransport().sendMessage(message, recipients);
+            healthy = true;
+        } catch (SendFailedException e) {
+            // The server rejected the message or its recipients but the connection itself is still usable
+            healthy = true;
+            throw e;
+        } finally {
+            if (healthy) {
+                pool.release(pooled);
+            } else {
+                pool.invalidate(pooled);
+            }
+        }
+    }
+
+    /**
+     * Sends the whole batch over one pooled connection. If the connection breaks part-way, the failing
+     * message is reported and the rest of the batch continues on a fresh connection.
+     */
+    @Override
+    public Map<MimeMessage, Exception> sendBatch(List<MimeMessage> messages) {
+        Map<MimeMessage, Exception> failures = new IdentityHashMap<>();
+        SmtpTransportPool.PooledTransport pooled = null;
+        try {
+            for (MimeMessage message : messages) {
+                try {
+                    Address[] recipients = prepare(message);
+                    if (pooled == null) {
+                        pooled = pool.borrow();
+                    }
+                    pooled.getTransport().sendMessage(message, recipients);
+                } catch (SendFailedException e) {
+                    failures.put(message, e);
+                } catch (MessagingException | RuntimeException e) {
+                    failures.put(message, e);
+                    if (pooled != null) {
+                        pool.invalidate(pooled);
+                        pooled = null;
+                    }
+                }
+            }
+        } finally {
+            if (pooled != null) {
+                pool.release(pooled);
+            }
+        }
+        return failures;
+    }
+
+    @Override
+    public MimeMessage createMimeMessage() {
+        return mailSender.createMimeMessage();
+    }
+
+    public SmtpTransportPool getPool() {
+        return pool;
+    }
+
+    @PreDestroy
+    public void close() {
+        pool.close();
+    }
+
+    /**
+     * Applies the same preparation as {@link JavaMailSenderImpl} before handing the message to a transport:
+     * default sent date, and header generation that keeps a caller-provided Message-ID.
+     */
+    static Address[] prepare(MimeMessage message) throws MessagingException {
+        if (message.getSentDate() == null) {
+            message.setSentDate(new Date());
+        }
+        String messageId = message.getMessageID();
+        message.saveChanges();
+        if (messageId != null) {
+            message.setHeader("Message-ID", messageId);
+        }
+        Address[] recipients = message.getAllRecipients();
+        if (recipients == null || recipients.length == 0) {
+            throw new SendFailedException("No recipient addresses");
+        }
+        return recipients;
+    }
+}
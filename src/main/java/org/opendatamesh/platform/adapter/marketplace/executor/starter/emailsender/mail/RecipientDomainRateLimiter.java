@@ -0,0 +1,218 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate of emails sent to each recipient domain, so that bursts of emails to one corporate relay do not
+ * get throttled with 4xx replies.
+ * <p>
+ * Every domain has its own token bucket, refilled at {@code permits-per-second} and holding up to {@code burst}
+ * tokens. Buckets are implemented as a single atomic "theoretical arrival time" updated with compare-and-set
+ * (the generic cell rate algorithm), so concurrent workers never wait on a lock, even for the same domain.
+ * <p>
+ * A message over the limit is not rejected: {@link #reserve(String, String)} reserves the next free slot of the
+ * bucket and returns the delay until that slot, and the message is sent again once the delay has elapsed. When it
+ * comes back with the same reservation key it is let through without consuming a second token.
+ * <p>
+ * Limits default to {@code odm.email.rate-limit.default-permits-per-second} and
+ * {@code odm.email.rate-limit.default-burst}; {@code odm.email.rate-limit.domains} overrides them per domain as
+ * a comma separated list of {@code domain=permitsPerSecond[:burst]}, e.g. {@code bigcorp.com=2:10,example.org=5}.
+ * A rate of 0 means unlimited.
+ */
+@Component
+public class RecipientDomainRateLimiter {
+    private static final Logger log = LoggerFactory.getLogger(RecipientDomainRateLimiter.class);
+
+    // Buckets and reservations are swept once the maps grow past these sizes
+    private static final int MAX_IDLE_BUCKETS = 10_000;
+    private static final int MAX_RESERVATIONS = 10_000;
+    private static final long STALE_RESERVATION_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final boolean enabled;
+    private final Limit defaultLimit;
+    private final Map<String, Limit> domainLimits;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final Map<String, Long> reservations = new ConcurrentHashMap<>();
+
+    @Autowired
+    public RecipientDomainRateLimiter(@Value("${odm.email.rate-limit.enabled:false}") boolean enabled,
+                                      @Value("${odm.email.rate-limit.default-permits-per-second:10}") double defaultPermitsPerSecond,
+                                      @Value("${odm.email.rate-limit.default-burst:20}") int defaultBurst,
+                                      @Value("${odm.email.rate-limit.domains:}") String domains) {
+        this.enabled = enabled;
+        this.defaultLimit = new Limit(defaultPermitsPerSecond, defaultBurst);
+        this.domainLimits = parseDomainLimits(domains, defaultBurst);
+        if (enabled) {
+            log.info("Rate limiting emails per recipient domain: default {}, overrides {}", defaultLimit, domainLimits);
+        }
+    }
+
+    /**
+     * Takes a token from the bucket of the recipient domain.
+     *
+     * @param recipient the email address of the recipient
+     * @param reservationKey identifies the message across deliveries, so that a deferred message is let through
+     *                       when it comes back
+     * @return 0 if the message can be sent now, otherwise the delay in milliseconds after which it must be sent
+     * again with the same reservation key
+     */
+    public long reserve(String recipient, String reservationKey) {
+        if (!enabled) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        Long reservedSlot = reservations.remove(reservationKey);
+        if (reservedSlot != null) {
+            if (reservedSlot - now <= 0) {
+                return 0;
+            }
+            // Came back before its slot, e.g. because it was retried for another reason: keep waiting for it
+            reservations.put(reservationKey, reservedSlot);
+            return toDelayMillis(reservedSlot - now);
+        }
+
+        String domain = domainOf(recipient);
+        Limit limit = domainLimits.getOrDefault(domain, defaultLimit);
+        if (limit.isUnlimited()) {
+            return 0;
+        }
+        long slot = bucketFor(domain, limit, now).take(now);
+        if (slot - now <= 0) {
+            return 0;
+        }
+        if (reservations.size() >= MAX_RESERVATIONS) {
+            reservations.values().removeIf(reserved -> now - reserved > STALE_RESERVATION_NANOS);
+        }
+        reservations.put(reservationKey, slot);
+        return toDelayMillis(slot - now);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getReservationCount() {
+        return reservations.size();
+    }
+
+    static String domainOf(String recipient) {
+        if (recipient == null) {
+            return "";
+        }
+        String address = recipient.trim();
+        if (address.endsWith(">")) {
+            address = address.substring(0, address.length() - 1);
+        }
+        int at = address.lastIndexOf('@');
+        return at >= 0 ? address.substring(at + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    private Bucket bucketFor(String domain, Limit limit, long now) {
+        Bucket bucket = buckets.get(domain);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (buckets.size() >= MAX_IDLE_BUCKETS) {
+            // A bucket whose arrival time is in the past is full again and can be recreated at no cost
+            buckets.values().removeIf(idle -> idle.isFull(now));
+        }
+        return buckets.computeIfAbsent(domain, key -> new Bucket(limit, now));
+    }
+
+    private static long toDelayMillis(long nanos) {
+        // Round up, so that the message is never sent back before its slot
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+    }
+
+    private static Map<String, Limit> parseDomainLimits(String domains, int defaultBurst) {
+        if (domains == null || domains.trim().isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Limit> limits = new HashMap<>();
+        for (String entry : domains.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            String[] domainAndLimit = entry.split("=", 2);
+            if (domainAndLimit.length != 2) {
+                throw new IllegalArgumentException("Invalid rate limit '" + entry.trim() + "', expected domain=permitsPerSecond[:burst]");
+            }
+            String[] rateAndBurst = domainAndLimit[1].trim().split(":", 2);
+            try {
+                double permitsPerSecond = Double.parseDouble(rateAndBurst[0].trim());
+                int burst = rateAndBurst.length > 1 ? Integer.parseInt(rateAndBurst[1].trim()) : defaultBurst;
+                limits.put(domainAndLimit[0].trim().toLowerCase(Locale.ROOT), new Limit(permitsPerSecond, burst));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid rate limit '" + entry.trim() + "', expected domain=permitsPerSecond[:burst]", e);
+            }
+        }
+        return Collections.unmodifiableMap(limits);
+    }
+
+    private static final class Limit {
+        private final double permitsPerSecond;
+        private final long intervalNanos;
+        private final long burstToleranceNanos;
+
+        Limit(double permitsPerSecond, int burst) {
+            this.permitsPerSecond = permitsPerSecond;
+            this.intervalNanos = permitsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0;
+            this.burstToleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        }
+
+        boolean isUnlimited() {
+            return intervalNanos <= 0;
+        }
+
+        @Override
+        public String toString() {
+            return isUnlimited() ? "unlimited" : permitsPerSecond + "/s burst " + (burstToleranceNanos / intervalNanos + 1);
+        }
+    }
+
+    /**
+     * Token bucket of one domain, stored as the time at which the bucket would be empty if every token taken so
+     * far had been taken at the refill rate.
+     */
+    private static final class Bucket {
+        private final Limit limit;
+        private final AtomicLong theoreticalArrival;
+
+        Bucket(Limit limit, long now) {
+            this.limit = limit;
+            this.theoreticalArrival = new AtomicLong(now - limit.burstToleranceNanos);
+        }
+
+        /**
+         * Takes the next token, even if it is not available yet.
+         *
+         * @return the time at which the token is available, at or before {@code now} if it is available already
+         */
+        long take(long now) {
+            while (true) {
+                long current = theoreticalArrival.get();
+                long arrival = current - now > 0 ? current : now;
+                if (theoreticalArrival.compareAndSet(current, arrival + limit.intervalNanos)) {
+                    return arrival - limit.burstToleranceNanos;
+                }
+            }
+        }
+
+        boolean isFull(long now) {
+            return theoreticalArrival.get() - now <= 0;
+        }
+    }
+}
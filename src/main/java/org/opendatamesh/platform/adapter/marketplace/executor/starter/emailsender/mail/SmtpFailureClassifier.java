@@ -0,0 +1,136 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPSenderFailedException;
+import com.sun.mail.util.MailConnectException;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.template.TemplateRenderingException;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailParseException;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.mail.MailSendException;
+
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.ParseException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Tells apart the email delivery failures that are worth retrying from the ones that will fail again.
+ * SMTP replies carry the answer in their code: 4xx replies (e.g. 421 "service not available, try again later"
+ * or 451 "local error") are transient, 5xx replies (e.g. 550 "mailbox unavailable") are permanent.
+ * Connection failures and I/O errors are transient; authentication, message preparation and template rendering
+ * errors are permanent. A {@link SendFailedException} listing invalid addresses, or carrying no reply code at all,
+ * is permanent: the server rejected the addresses and would reject them again.
+ */
+public final class SmtpFailureClassifier {
+
+    public enum FailureType {
+        TRANSIENT,
+        PERMANENT
+    }
+
+    private SmtpFailureClassifier() {
+    }
+
+    /**
+     * Classifies a delivery failure by walking its cause chain.
+     *
+     * @param failure the exception thrown while sending an email
+     * @return {@link FailureType#TRANSIENT} if sending again later may succeed
+     */
+    public static FailureType classify(Throwable failure) {
+        FailureType type = classify(failure, Collections.newSetFromMap(new IdentityHashMap<>()));
+        return type != null ? type : FailureType.PERMANENT;
+    }
+
+    public static boolean isTransient(Throwable failure) {
+        return classify(failure) == FailureType.TRANSIENT;
+    }
+
+    private static FailureType classify(Throwable failure, Set<Throwable> visited) {
+        if (failure == null || !visited.add(failure)) {
+            return null;
+        }
+        if (failure instanceof SMTPSendFailedException) {
+            return fromReplyCode(((SMTPSendFailedException) failure).getReturnCode());
+        }
+        if (failure instanceof SMTPAddressFailedException) {
+            return fromReplyCode(((SMTPAddressFailedException) failure).getReturnCode());
+        }
+        if (failure instanceof SMTPSenderFailedException) {
+            return fromReplyCode(((SMTPSenderFailedException) failure).getReturnCode());
+        }
+        if (failure instanceof SendFailedException) {
+            SendFailedException sendFailed = (SendFailedException) failure;
+            if (sendFailed.getInvalidAddresses() != null && sendFailed.getInvalidAddresses().length > 0) {
+                return FailureType.PERMANENT;
+            }
+            FailureType type = fromReplyCodes(sendFailed.getNextException(), visited);
+            return type != null ? type : FailureType.PERMANENT;
+        }
+        if (failure instanceof AuthenticationFailedException || failure instanceof MailAuthenticationException
+                || failure instanceof AddressException || failure instanceof ParseException
+                || failure instanceof MailParseException || failure instanceof MailPreparationException
+                || failure instanceof TemplateRenderingException) {
+            return FailureType.PERMANENT;
+        }
+        if (failure instanceof MailConnectException || failure instanceof IOException) {
+            return FailureType.TRANSIENT;
+        }
+        if (failure instanceof MailSendException) {
+            FailureType type = null;
+            for (Exception cause : ((MailSendException) failure).getFailedMessages().values()) {
+                type = worst(type, classify(cause, visited));
+            }
+            if (type != null) {
+                return type;
+            }
+        }
+        if (failure instanceof MessagingException) {
+            FailureType type = classify(((MessagingException) failure).getNextException(), visited);
+            if (type == null) {
+                type = classify(failure.getCause(), visited);
+            }
+            // A mail failure without an SMTP reply, e.g. a dropped connection or an exhausted connection pool
+            return type != null ? type : FailureType.TRANSIENT;
+        }
+        return classify(failure.getCause(), visited);
+    }
+
+    /**
+     * Classifies the SMTP replies chained as next exceptions, e.g. one per rejected recipient, by the worst of them.
+     *
+     * @return {@code null} if the chain holds no SMTP reply
+     */
+    private static FailureType fromReplyCodes(Exception failure, Set<Throwable> visited) {
+        FailureType type = null;
+        while (failure != null && visited.add(failure)) {
+            if (failure instanceof SMTPSendFailedException) {
+                type = worst(type, fromReplyCode(((SMTPSendFailedException) failure).getReturnCode()));
+            } else if (failure instanceof SMTPAddressFailedException) {
+                type = worst(type, fromReplyCode(((SMTPAddressFailedException) failure).getReturnCode()));
+            } else if (failure instanceof SMTPSenderFailedException) {
+                type = worst(type, fromReplyCode(((SMTPSenderFailedException) failure).getReturnCode()));
+            }
+            failure = failure instanceof MessagingException ? ((MessagingException) failure).getNextException() : null;
+        }
+        return type;
+    }
+
+    private static FailureType fromReplyCode(int replyCode) {
+        return replyCode >= 400 && replyCode < 500 ? FailureType.TRANSIENT : FailureType.PERMANENT;
+    }
+
+    private static FailureType worst(FailureType current, FailureType next) {
+        if (current == FailureType.PERMANENT || next == FailureType.PERMANENT) {
+            return FailureType.PERMANENT;
+        }
+        return next != null ? next : current;
+    }
+}
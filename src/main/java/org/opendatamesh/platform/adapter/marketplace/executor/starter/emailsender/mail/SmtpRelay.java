@@ -0,0 +1,153 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One SMTP relay of the {@link MultiRelayMailSender}, with its connection pool and a rolling health record.
+ * <p>
+ * Latency and error rate are exponentially weighted moving averages of the recent sends, so a relay that slows
+ * down or starts failing loses traffic within a few messages, and its history fades as it recovers. A relay whose
+ * sends fail too often is ejected: it gets no traffic until a probe can connect to it again.
+ */
+public class SmtpRelay {
+    // Weight of the latest send in the moving averages
+    private static final double DECAY = 0.2;
+    // Sends needed before the error rate alone can eject a relay
+    private static final int MIN_SAMPLES = 10;
+    // Latency assumed for the sends in flight on a relay without history
+    private static final double NOMINAL_LATENCY_MILLIS = 100;
+
+    private final String host;
+    private final int port;
+    private final int weight;
+    private final SmtpTransportPool pool;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // Guarded by this
+    private double latencyMillis;
+    private double errorRate;
+    private long samples;
+    private int consecutiveFailures;
+    private int ejections;
+    private long ejectedUntilNanos;
+    private boolean ejected;
+
+    // Smooth weighted round-robin state, guarded by the sender
+    int currentWeight;
+
+    public SmtpRelay(String host, int port, int weight, SmtpTransportPool pool) {
+        this.host = host;
+        this.port = port;
+        this.weight = Math.max(1, weight);
+        this.pool = pool;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    SmtpTransportPool getPool() {
+        return pool;
+    }
+
+    void startSend() {
+        inFlight.incrementAndGet();
+    }
+
+    synchronized void recordSuccess(long latencyNanos) {
+        inFlight.decrementAndGet();
+        double millis = latencyNanos / 1_000_000.0;
+        latencyMillis = samples == 0 ? millis : latencyMillis + DECAY * (millis - latencyMillis);
+        errorRate -= DECAY * errorRate;
+        samples++;
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * Records a send that failed because of the relay, i.e. a transient failure.
+     *
+     * @return true if the relay should now be ejected
+     */
+    synchronized boolean recordFailure(long latencyNanos, int ejectAfterFailures, double maxErrorRate) {
+        inFlight.decrementAndGet();
+        double millis = latencyNanos / 1_000_000.0;
+        latencyMillis = samples == 0 ? millis : latencyMillis + DECAY * (millis - latencyMillis);
+        errorRate += DECAY * (1 - errorRate);
+        samples++;
+        consecutiveFailures++;
+        return !ejected && (consecutiveFailures >= ejectAfterFailures || (samples >= MIN_SAMPLES && errorRate > maxErrorRate));
+    }
+
+    /**
+     * Records a send that failed for reasons of its own, e.g. a rejected recipient, which say nothing of the relay.
+     */
+    void recordNeutral() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Ejects the relay; the time it stays out doubles with every consecutive ejection, up to 8 times the base.
+     *
+     * @return the time until the relay should be probed, in milliseconds
+     */
+    synchronized long eject(long baseMillis) {
+        long millis = baseMillis << Math.min(ejections, 3);
+        ejections++;
+        ejected = true;
+        ejectedUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        return millis;
+    }
+
+    /**
+     * Brings the relay back after a successful probe, with a clean error record. Its latency average is kept, so
+     * that it competes on its known latency rather than drawing every send until its first one completes.
+     */
+    synchronized void reinstate() {
+        ejected = false;
+        ejections = 0;
+        consecutiveFailures = 0;
+        errorRate = 0;
+    }
+
+    public synchronized boolean isEjected() {
+        return ejected;
+    }
+
+    synchronized long getEjectedUntilNanos() {
+        return ejectedUntilNanos;
+    }
+
+    /**
+     * Expected cost of the next send, lower is better: the recent latency, queued behind the sends in flight and
+     * inflated by the recent error rate. A relay without history costs nothing while it has no send in flight, so
+     * that it is tried first, and a nominal latency per send in flight after that.
+     */
+    public synchronized double getScore() {
+        if (samples == 0) {
+            return NOMINAL_LATENCY_MILLIS * inFlight.get();
+        }
+        return latencyMillis * (inFlight.get() + 1) / Math.max(0.05, 1 - errorRate);
+    }
+
+    public synchronized double getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    public synchronized double getErrorRate() {
+        return errorRate;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
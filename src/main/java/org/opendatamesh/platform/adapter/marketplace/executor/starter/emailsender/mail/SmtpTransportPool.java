@@ -0,0 +1,199 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of connected and authenticated SMTP transports.
+ * Connections are kept open between sends so that the TCP handshake, STARTTLS and AUTH are paid once per
+ * connection instead of once per message. A connection that has been idle longer than the validation
+ * threshold is checked with a NOOP before being handed out, and transparently reconnected if the server
+ * dropped it.
+ */
+public class SmtpTransportPool implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(SmtpTransportPool.class);
+
+    private final Session session;
+    private final String protocol;
+    private final String host;
+    private final int port;
+    private final String username;
+    private final String password;
+    private final int maxSize;
+    private final long validateAfterIdleMillis;
+    private final long borrowTimeoutMillis;
+
+    private final BlockingDeque<PooledTransport> idle = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private volatile boolean closed;
+
+    public SmtpTransportPool(Session session, String protocol, String host, int port, String username, String password,
+                             int maxSize, long validateAfterIdleMillis, long borrowTimeoutMillis) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("SMTP pool size must be greater than zero");
+        }
+        this.session = session;
+        this.protocol = protocol != null ? protocol : "smtp";
+        this.host = host;
+        this.port = port;
+        this.username = username != null && !username.isEmpty() ? username : null;
+        this.password = password != null && !password.isEmpty() ? password : null;
+        this.maxSize = maxSize;
+        this.validateAfterIdleMillis = validateAfterIdleMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Borrows a connected transport, waiting up to the borrow timeout when all connections are in use.
+     * The transport must be handed back with {@link #release(PooledTransport)} or {@link #invalidate(PooledTransport)}.
+     *
+     * @return a connected transport
+     * @throws MessagingException if no connection becomes available in time or a new one cannot be opened
+     */
+    public PooledTransport borrow() throws MessagingException {
+        if (closed) {
+            throw new MessagingException("SMTP transport pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new MessagingException("Timed out waiting for an SMTP connection to " + host + ":" + port);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for an SMTP connection", e);
+        }
+
+        try {
+            PooledTransport pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isUsable(pooled)) {
+                    return pooled;
+                }
+                closeQuietly(pooled);
+            }
+            return open();
+        } catch (MessagingException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a healthy transport to the pool so it can be reused by the next send.
+     */
+    public void release(PooledTransport pooled) {
+        pooled.markIdle();
+        if (closed) {
+            closeQuietly(pooled);
+        } else {
+            idle.offerFirst(pooled);
+        }
+        permits.release();
+    }
+
+    /**
+     * Discards a transport whose connection is broken or in an unknown state.
+     */
+    public void invalidate(PooledTransport pooled) {
+        closeQuietly(pooled);
+        permits.release();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        PooledTransport pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            closeQuietly(pooled);
+        }
+    }
+
+    private boolean isUsable(PooledTransport pooled) {
+        Transport transport = pooled.getTransport();
+        if (System.currentTimeMillis() - pooled.getLastUsedAt() < validateAfterIdleMillis) {
+            return true;
+        }
+        // For SMTP transports isConnected() issues a NOOP and closes the transport if the server does not answer
+        boolean connected = transport.isConnected();
+        if (!connected) {
+            log.debug("Discarding stale SMTP connection to {}:{}", host, port);
+        }
+        return connected;
+    }
+
+    private PooledTransport open() throws MessagingException {
+        Transport transport = session.getTransport(protocol);
+        transport.connect(host, port, username, password);
+        connectionsOpened.incrementAndGet();
+        log.debug("Opened SMTP connection to {}:{}", host, port);
+        return new PooledTransport(transport);
+    }
+
+    private void closeQuietly(PooledTransport pooled) {
+        try {
+            pooled.getTransport().close();
+        } catch (MessagingException e) {
+            log.debug("Error closing SMTP connection to {}:{}: {}", host, port, e.getMessage());
+        }
+    }
+
+    /**
+     * A transport owned by the pool, together with the time it was last used.
+     */
+    public static class PooledTransport {
+        private final Transport transport;
+        private volatile long lastUsedAt;
+
+        PooledTransport(Transport transport) {
+            this.transport = transport;
+            this.lastUsedAt = System.currentTimeMillis();
+        }
+
+        public Transport getTransport() {
+            return transport;
+        }
+
+        long getLastUsedAt() {
+            return lastUsedAt;
+        }
+
+        void markIdle() {
+            this.lastUsedAt = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.stereotype.Component;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mail sender that hands messages over to a local MTA through its pickup directory instead of talking SMTP:
+ * each message is written as an RFC 822 file ({@code .eml}) that the MTA picks up and delivers on its own.
+ * Enabled with {@code odm.email.transport=spool}.
+ * <p>
+ * A message is first written to a temporary directory and then renamed into the spool directory, so the MTA never
+ * sees a partial file; both directories must be on the same file system. With {@code odm.email.spool.fsync}
+ * enabled (the default), a message only counts as sent once its file and the rename have reached the disk. The
+ * spool directory is synced once per batch, and concurrent sends share a directory sync.
+ * <p>
+ * The file holds the message as the MTA will send it, including its {@code Bcc} header: the MTA takes the
+ * recipients from the headers and removes the {@code Bcc} line, as {@code sendmail -t} does.
+ */
+@Component
+@ConditionalOnProperty(name = "odm.email.transport", havingValue = "spool")
+public class SpoolDirectoryMailSender implements MarketplaceMailSender {
+    private static final Logger log = LoggerFactory.getLogger(SpoolDirectoryMailSender.class);
+    private static final String[] IGNORED_HEADERS = {"Content-Length"};
+
+    private final Session session = Session.getInstance(new Properties());
+    private final Path spoolDirectory;
+    private final Path tempDirectory;
+    private final boolean fsync;
+    // Tells apart the files of several instances writing to the same spool directory
+    private final String instanceId = Long.toHexString(ThreadLocalRandom.current().nextLong() & 0xffffffffL);
+    private final AtomicLong fileCounter = new AtomicLong();
+
+    // Group commit of the spool directory: renames are numbered, and a sync covers every rename done before it
+    private final AtomicLong renames = new AtomicLong();
+    private final Object directorySyncLock = new Object();
+    private long syncedRenames;
+    private boolean directorySyncSupported = true;
+
+    @Autowired
+    public SpoolDirectoryMailSender(@Value("${odm.email.spool.directory:/var/spool/odm/pickup}") String spoolDirectory,
+                                    @Value("${odm.email.spool.temp-directory:}") String tempDirectory,
+                                    @Value("${odm.email.spool.fsync:true}") boolean fsync) throws IOException {
+        this.spoolDirectory = Paths.get(spoolDirectory);
+        this.tempDirectory = tempDirectory.isEmpty() ? this.spoolDirectory.resolve(".tmp") : Paths.get(tempDirectory);
+        this.fsync = fsync;
+        Files.createDirectories(this.spoolDirectory);
+        Files.createDirectories(this.tempDirectory);
+    }
+
+    @Override
+    public void send(String to, String subject, String text) throws MessagingException {
+        MimeMessage message = createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(message, true);
+        helper.setTo(to);
+        helper.setSubject(subject);
+        helper.setText(text);
+        send(message);
+    }
+
+    @Override
+    public void send(MimeMessage message) throws MessagingException {
+        long rename = spool(message);
+        try {
+            syncDirectory(rename);
+        } catch (IOException e) {
+            throw new MessagingException("Could not sync the spool directory " + spoolDirectory, e);
+        }
+    }
+
+    /**
+     * Writes every message of the batch to the spool directory, then syncs the directory once for all of them.
+     */
+    @Override
+    public Map<MimeMessage, Exception> sendBatch(List<MimeMessage> messages) {
+        Map<MimeMessage, Exception> failures = new IdentityHashMap<>();
+        List<MimeMessage> spooled = new ArrayList<>(messages.size());
+        long lastRename = 0;
+        for (MimeMessage message : messages) {
+            try {
+                lastRename = spool(message);
+                spooled.add(message);
+            } catch (MessagingException | RuntimeException e) {
+                failures.put(message, e);
+            }
+        }
+        if (!spooled.isEmpty()) {
+            try {
+                syncDirectory(lastRename);
+            } catch (IOException e) {
+                MessagingException failure = new MessagingException("Could not sync the spool directory " + spoolDirectory, e);
+                spooled.forEach(message -> failures.put(message, failure));
+            }
+        }
+        return failures;
+    }
+
+    @Override
+    public MimeMessage createMimeMessage() {
+        return new MimeMessage(session);
+    }
+
+    public Path getSpoolDirectory() {
+        return spoolDirectory;
+    }
+
+    /**
+     * Writes a message to a temporary file and renames it into the spool directory.
+     *
+     * @return the number of the rename, to be covered by a later directory sync
+     */
+    private long spool(MimeMessage message) throws MessagingException {
+        PooledTransportMailSender.prepare(message);
+        String fileName = System.currentTimeMillis() + "." + fileCounter.incrementAndGet() + "." + instanceId + ".eml";
+        Path tempFile = tempDirectory.resolve(fileName);
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                OutputStream out = Channels.newOutputStream(channel);
+                message.writeTo(out, IGNORED_HEADERS);
+                out.flush();
+                if (fsync) {
+                    channel.force(true);
+                }
+            }
+            move(tempFile, spoolDirectory.resolve(fileName));
+            return renames.incrementAndGet();
+        } catch (IOException e) {
+            deleteQuietly(tempFile);
+            throw new MessagingException("Could not write message to the spool directory " + spoolDirectory, e);
+        } catch (MessagingException | RuntimeException e) {
+            deleteQuietly(tempFile);
+            throw e;
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            throw new IOException("The temporary directory must be on the same file system as the spool directory", e);
+        }
+    }
+
+    /**
+     * Makes the renames up to the given one durable. A thread that finds a sync in progress waits for it, and
+     * returns straight away if that sync already covered its rename.
+     */
+    private void syncDirectory(long rename) throws IOException {
+        if (!fsync) {
+            return;
+        }
+        synchronized (directorySyncLock) {
+            if (syncedRenames >= rename || !directorySyncSupported) {
+                return;
+            }
+            long covered = renames.get();
+            try (FileChannel directory = FileChannel.open(spoolDirectory, StandardOpenOption.READ)) {
+                directory.force(true);
+            } catch (IOException e) {
+                if (!Files.isDirectory(spoolDirectory)) {
+                    throw e;
+                }
+                // Some platforms, e.g. Windows, cannot open or sync a directory; the renames are left to the file system
+                log.warn("Cannot sync the spool directory {}, renames may be lost in a crash: {}", spoolDirectory, e.getMessage());
+                directorySyncSupported = false;
+            }
+            syncedRenames = covered;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Could not delete temporary spool file {}: {}", file, e.getMessage());
+        }
+    }
+}
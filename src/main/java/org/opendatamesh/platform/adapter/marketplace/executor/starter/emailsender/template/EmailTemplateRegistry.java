@@ -0,0 +1,240 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.template;
+
+import com.github.mustachejava.DefaultMustacheFactory;
+import com.github.mustachejava.Mustache;
+import com.github.mustachejava.MustacheFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of compiled Mustache email templates.
+ * Each template path is loaded and compiled once and kept in memory. Templates loaded from the
+ * file system (e.g. mounted under /etc/odm/templates/email) are checked for modifications at most
+ * once per refresh interval and recompiled only when their last-modified time or size changes,
+ * so template edits go live without a restart. Classpath templates never change and are never reloaded.
+ */
+@Component
+public class EmailTemplateRegistry {
+    private static final Logger log = LoggerFactory.getLogger(EmailTemplateRegistry.class);
+
+    private final MustacheFactory mustacheFactory;
+    private final ResourceLoader resourceLoader;
+    private final long refreshIntervalNanos;
+    private final Map<String, CompiledTemplate> templates = new ConcurrentHashMap<>();
+
+    @Autowired
+    public EmailTemplateRegistry(@Value("${odm.email.template-refresh-interval-ms:2000}") long refreshIntervalMillis) {
+        this.mustacheFactory = new DefaultMustacheFactory();
+        this.resourceLoader = new DefaultResourceLoader();
+        this.refreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, refreshIntervalMillis));
+    }
+
+    /**
+     * Returns the compiled template for the given path, compiling it on first use or when
+     * the underlying file has changed since it was last compiled.
+     *
+     * @param templatePath The path to the template file, either a file system path or a classpath location
+     * @param templateName The name used by Mustache when reporting template errors
+     * @return The compiled template
+     * @throws IllegalArgumentException if templatePath is null
+     * @throws IllegalStateException if the template cannot be loaded from file or classpath
+     */
+    public Mustache getTemplate(String templatePath, String templateName) {
+        validateTemplatePath(templatePath);
+
+        CompiledTemplate cached = templates.get(templatePath);
+        if (cached != null && !cached.isCheckDue(System.nanoTime())) {
+            return cached.getMustache();
+        }
+        return templates.compute(templatePath, (path, current) -> refresh(path, templateName, current)).getMustache();
+    }
+
+    /**
+     * Drops every compiled template, forcing them to be reloaded on next use.
+     */
+    public void clear() {
+        templates.clear();
+    }
+
+    private CompiledTemplate refresh(String templatePath, String templateName, CompiledTemplate current) {
+        long now = System.nanoTime();
+        if (current == null) {
+            return compile(load(templatePath), templateName, now);
+        }
+        if (!current.isCheckDue(now)) {
+            // Another thread refreshed the entry while we were waiting for it
+            return current;
+        }
+
+        TemplateSource source = tryLoadFromFileSystem(templatePath, current);
+        if (source == null) {
+            // The file did not change since the last compilation
+            current.scheduleNextCheck(now + refreshIntervalNanos);
+            return current;
+        }
+
+        try {
+            CompiledTemplate refreshed = compile(source.getContent() != null ? source : load(templatePath), templateName, now);
+            log.info("Email template '{}' changed, recompiled", templatePath);
+            return refreshed;
+        } catch (RuntimeException e) {
+            log.warn("Could not reload template '{}', keeping the previous version: {}", templatePath, e.getMessage());
+            current.scheduleNextCheck(now + refreshIntervalNanos);
+            return current;
+        }
+    }
+
+    private CompiledTemplate compile(TemplateSource source, String templateName, long now) {
+        Mustache mustache = mustacheFactory.compile(new StringReader(source.getContent()), templateName);
+        return new CompiledTemplate(mustache, source, now + refreshIntervalNanos);
+    }
+
+    private TemplateSource load(String templatePath) {
+        TemplateSource source = tryLoadFromFileSystem(templatePath, null);
+        if (source != null && source.getContent() != null) {
+            return source;
+        }
+
+        source = tryLoadFromClasspath(templatePath);
+        if (source != null) {
+            return source;
+        }
+
+        throw new IllegalStateException("Could not load email template from path: " + templatePath);
+    }
+
+    private void validateTemplatePath(String templatePath) {
+        if (templatePath == null) {
+            throw new IllegalArgumentException("Template path cannot be null");
+        }
+    }
+
+    /**
+     * Reads the template from the file system.
+     * When a previously compiled template is given, the file is read only if its attributes differ from the
+     * ones recorded at compilation time. Returns null when the file is unchanged (or was never a file), and
+     * a source without content when a file-based template has disappeared.
+     */
+    private TemplateSource tryLoadFromFileSystem(String templatePath, CompiledTemplate current) {
+        if (templatePath.isEmpty()) {
+            return null;
+        }
+        if (current != null && !current.getSource().isFile()) {
+            return null;
+        }
+
+        try {
+            Path path = Paths.get(templatePath);
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (current != null && current.getSource().hasSameAttributes(attributes)) {
+                return null;
+            }
+            String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+            return TemplateSource.file(content, attributes.lastModifiedTime(), attributes.size());
+        } catch (NoSuchFileException | InvalidPathException e) {
+            return current != null ? TemplateSource.missing() : null;
+        } catch (IOException e) {
+            log.warn("Could not load template from file '{}': {}", templatePath, e.getMessage());
+        }
+        return null;
+    }
+
+    private TemplateSource tryLoadFromClasspath(String templatePath) {
+        try {
+            Resource resource = resourceLoader.getResource(templatePath);
+            if (resource.exists()) {
+                return TemplateSource.classpath(StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            log.warn("Could not load default template from classpath: {}", e.getMessage());
+        }
+        return null;
+    }
+
+    private static class CompiledTemplate {
+        private final Mustache mustache;
+        private final TemplateSource source;
+        private volatile long nextCheckAt;
+
+        CompiledTemplate(Mustache mustache, TemplateSource source, long nextCheckAt) {
+            this.mustache = mustache;
+            this.source = source;
+            this.nextCheckAt = nextCheckAt;
+        }
+
+        Mustache getMustache() {
+            return mustache;
+        }
+
+        TemplateSource getSource() {
+            return source;
+        }
+
+        boolean isCheckDue(long now) {
+            return source.isFile() && now - nextCheckAt >= 0;
+        }
+
+        void scheduleNextCheck(long nextCheckAt) {
+            this.nextCheckAt = nextCheckAt;
+        }
+    }
+
+    private static class TemplateSource {
+        private final String content;
+        private final boolean file;
+        private final FileTime lastModified;
+        private final long size;
+
+        private TemplateSource(String content, boolean file, FileTime lastModified, long size) {
+            this.content = content;
+            this.file = file;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        static TemplateSource file(String content, FileTime lastModified, long size) {
+            return new TemplateSource(content, true, lastModified, size);
+        }
+
+        static TemplateSource classpath(String content) {
+            return new TemplateSource(content, false, null, -1);
+        }
+
+        static TemplateSource missing() {
+            return new TemplateSource(null, true, null, -1);
+        }
+
+        String getContent() {
+            return content;
+        }
+
+        boolean isFile() {
+            return file;
+        }
+
+        boolean hasSameAttributes(BasicFileAttributes attributes) {
+            return attributes.lastModifiedTime().equals(lastModified) && attributes.size() == size;
+        }
+    }
+}
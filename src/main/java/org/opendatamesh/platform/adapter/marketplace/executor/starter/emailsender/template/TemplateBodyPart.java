@@ -0,0 +1,131 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.template;
+
+import com.github.mustachejava.Mustache;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeBodyPart;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.LongConsumer;
+
+/**
+ * Email body part whose content is a Mustache template rendered straight into the message output stream.
+ * <p>
+ * The template is not rendered when the message is assembled but when the message is written to the SMTP server:
+ * the Mustache output is encoded to UTF-8 and quoted-printable on the fly, so no {@code String} or buffer of the
+ * whole body is ever built. The body is always sent as quoted-printable, which spares JavaMail a first rendering
+ * pass to choose the transfer encoding. Rendering errors surface as permanent delivery failures, see
+ * {@link TemplateRenderingException}.
+ * <p>
+ * Reading the content back, e.g. with {@link #getContent()}, renders the template into memory.
+ */
+public class TemplateBodyPart extends MimeBodyPart {
+
+    /**
+     * @param mustache the compiled template
+     * @param context the context the template is rendered against
+     * @param html whether the template renders HTML rather than plain text
+     * @param renderTimeListener receives the time spent rendering, in nanoseconds, each time the body is written
+     */
+    public TemplateBodyPart(Mustache mustache, Object context, boolean html, LongConsumer renderTimeListener) throws MessagingException {
+        setDataHandler(new TemplateDataHandler(new TemplateDataSource(mustache, context, html), renderTimeListener));
+        // Set after the data handler, which resets the content headers
+        setHeader("Content-Transfer-Encoding", "quoted-printable");
+    }
+
+    private static void render(TemplateDataSource source, OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(new NonClosingOutputStream(out), StandardCharsets.UTF_8);
+        try {
+            source.mustache.execute(writer, source.context);
+        } catch (RuntimeException e) {
+            throw new TemplateRenderingException("Failed to render email template " + source.mustache.getName(), e);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes the body by rendering the template into the (already encoding) output stream of the message.
+     */
+    private static class TemplateDataHandler extends DataHandler {
+        private final TemplateDataSource source;
+        private final LongConsumer renderTimeListener;
+
+        TemplateDataHandler(TemplateDataSource source, LongConsumer renderTimeListener) {
+            super(source);
+            this.source = source;
+            this.renderTimeListener = renderTimeListener;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            long start = System.nanoTime();
+            render(source, out);
+            renderTimeListener.accept(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Source of the content for the readers that do not go through {@link TemplateDataHandler#writeTo(OutputStream)}.
+     */
+    private static class TemplateDataSource implements DataSource {
+        private final Mustache mustache;
+        private final Object context;
+        private final String contentType;
+
+        TemplateDataSource(Mustache mustache, Object context, boolean html) {
+            this.mustache = mustache;
+            this.context = context;
+            this.contentType = (html ? "text/html" : "text/plain") + "; charset=UTF-8";
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            render(this, content);
+            return new ByteArrayInputStream(content.toByteArray());
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("Template body is read-only");
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Override
+        public String getName() {
+            return mustache.getName();
+        }
+    }
+
+    /**
+     * Keeps the writer from closing the message output stream, which JavaMail keeps writing to.
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.template;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an email template fails to render while the message is being written.
+ * <p>
+ * Rendering happens inside the write of the message, which only lets {@link IOException}s through, hence the
+ * superclass; unlike a real I/O error, the same message will fail again on any relay, so the failure is permanent
+ * and says nothing about the health of the SMTP server.
+ */
+public class TemplateRenderingException extends IOException {
+
+    public TemplateRenderingException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
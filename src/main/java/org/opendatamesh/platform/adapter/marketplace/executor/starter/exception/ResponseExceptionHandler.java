@@ -1,5 +1,6 @@
 package org.opendatamesh.platform.adapter.marketplace.executor.starter.exception;
 
+import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -17,6 +18,7 @@ import java.util.Objects;
 import java.util.stream.Collectors;
 
 @ControllerAdvice
+@Profile("!reactive")
 public class ResponseExceptionHandler extends ResponseEntityExceptionHandler {
 
 
@@ -35,6 +37,9 @@ public class ResponseExceptionHandler extends ResponseEntityExceptionHandler {
         error.setPath(url);
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
+        if (e instanceof TooManyRequestsException) {
+            headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(((TooManyRequestsException) e).getRetryAfterSeconds()));
+        }
         return handleExceptionInternal(e, error, headers, e.getStatus(), request);
     }
 
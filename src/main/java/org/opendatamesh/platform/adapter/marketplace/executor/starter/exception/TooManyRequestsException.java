@@ -0,0 +1,21 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.exception;
+
+import org.springframework.http.HttpStatus;
+
+public class TooManyRequestsException extends OdmApiException {
+    private final long retryAfterSeconds;
+
+    public TooManyRequestsException(String message, long retryAfterSeconds) {
+        super(message, HttpStatus.TOO_MANY_REQUESTS, "TooManyRequests");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public TooManyRequestsException(String message, Throwable cause, long retryAfterSeconds) {
+        super(message, cause, HttpStatus.TOO_MANY_REQUESTS, "TooManyRequests");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
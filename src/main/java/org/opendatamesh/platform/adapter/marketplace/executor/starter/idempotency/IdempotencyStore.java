@@ -0,0 +1,279 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.idempotency;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers the marketplace requests already accepted, keyed by request identifier and operation, so that a request
+ * posted again by the marketplace within {@code odm.idempotency.ttl-ms} is acknowledged without sending its email
+ * a second time.
+ * <p>
+ * The store holds at most {@code odm.idempotency.max-entries} keys. Since every key lives for the same time,
+ * insertion order is also expiry order: keys are evicted from the head of an insertion queue, either because they
+ * expired or, when the store is full, because they are the oldest. When {@code odm.idempotency.snapshot.enabled}
+ * is set the keys are periodically written to disk and loaded back on startup.
+ */
+@Component
+public class IdempotencyStore {
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyStore.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x4F444D49;
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private final boolean enabled;
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final boolean snapshotEnabled;
+    private final Path snapshotPath;
+    private final long snapshotIntervalMillis;
+
+    private final Map<Key, Long> entries = new ConcurrentHashMap<>();
+    private final Queue<Expiry> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private ScheduledExecutorService snapshotScheduler;
+
+    @Autowired
+    public IdempotencyStore(@Value("${odm.idempotency.enabled:true}") boolean enabled,
+                            @Value("${odm.idempotency.ttl-ms:3600000}") long ttlMillis,
+                            @Value("${odm.idempotency.max-entries:100000}") int maxEntries,
+                            @Value("${odm.idempotency.snapshot.enabled:false}") boolean snapshotEnabled,
+                            @Value("${odm.idempotency.snapshot.path:/var/lib/odm/idempotency.snapshot}") String snapshotPath,
+                            @Value("${odm.idempotency.snapshot.interval-ms:30000}") long snapshotIntervalMillis) {
+        this.enabled = enabled;
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.snapshotEnabled = enabled && snapshotEnabled;
+        this.snapshotPath = Paths.get(snapshotPath);
+        this.snapshotIntervalMillis = Math.max(1000, snapshotIntervalMillis);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!snapshotEnabled) {
+            return;
+        }
+        loadSnapshot();
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("idempotency-snapshot-"));
+        snapshotScheduler.scheduleWithFixedDelay(this::writeSnapshotQuietly, snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdown();
+            writeSnapshotQuietly();
+        }
+    }
+
+    /**
+     * Registers a request, unless the same request was registered less than the TTL ago.
+     *
+     * @param identifier the marketplace request identifier
+     * @param operation the requested operation
+     * @return true if the request is new and must be processed, false if it is a duplicate
+     */
+    public boolean tryAcquire(String identifier, String operation) {
+        if (!enabled || identifier == null) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        evictExpired(now);
+        Key key = new Key(identifier, operation);
+        long expiresAt = now + ttlMillis;
+        while (true) {
+            Long current = entries.putIfAbsent(key, expiresAt);
+            if (current == null) {
+                break;
+            }
+            if (current > now) {
+                return false;
+            }
+            // Expired but not evicted yet: take it over
+            if (entries.replace(key, current, expiresAt)) {
+                size.decrementAndGet();
+                break;
+            }
+        }
+        size.incrementAndGet();
+        insertionOrder.add(new Expiry(key, expiresAt));
+        evictOverflow();
+        return true;
+    }
+
+    /**
+     * Forgets a request, so that it is processed again if the marketplace posts it again. Used when the request was
+     * refused or failed.
+     */
+    public void release(String identifier, String operation) {
+        if (!enabled || identifier == null) {
+            return;
+        }
+        if (entries.remove(new Key(identifier, operation)) != null) {
+            size.decrementAndGet();
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Writes the live keys to the snapshot file, replacing it atomically.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void writeSnapshot() throws IOException {
+        Path directory = snapshotPath.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, snapshotPath.getFileName().toString(), ".tmp");
+        long now = System.currentTimeMillis();
+        int written = 0;
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                for (Map.Entry<Key, Long> entry : entries.entrySet()) {
+                    if (entry.getValue() > now) {
+                        out.writeBoolean(true);
+                        out.writeUTF(entry.getKey().identifier);
+                        out.writeUTF(entry.getKey().operation != null ? entry.getKey().operation : "");
+                        out.writeLong(entry.getValue());
+                        written++;
+                    }
+                }
+                out.writeBoolean(false);
+            }
+            Files.move(temporary, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        log.debug("Wrote {} idempotency key(s) to {}", written, snapshotPath);
+    }
+
+    private void writeSnapshotQuietly() {
+        try {
+            writeSnapshot();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not write idempotency snapshot {}: {}", snapshotPath, e.getMessage());
+        }
+    }
+
+    private void loadSnapshot() {
+        long now = System.currentTimeMillis();
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                log.warn("Ignoring idempotency snapshot {}: unknown format", snapshotPath);
+                return;
+            }
+            while (in.readBoolean()) {
+                String identifier = in.readUTF();
+                String operation = in.readUTF();
+                long expiresAt = in.readLong();
+                if (expiresAt > now && entries.putIfAbsent(new Key(identifier, operation.isEmpty() ? null : operation), expiresAt) == null) {
+                    size.incrementAndGet();
+                    loaded++;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            log.warn("Idempotency snapshot {} is incomplete, {} key(s) loaded: {}", snapshotPath, loaded, e.getMessage());
+        }
+        // Rebuild the eviction queue in expiry order
+        entries.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue())
+                .forEach(entry -> insertionOrder.add(new Expiry(entry.getKey(), entry.getValue())));
+        evictOverflow();
+        log.info("Loaded {} idempotency key(s) from {}", loaded, snapshotPath);
+    }
+
+    private void evictExpired(long now) {
+        Expiry head;
+        while ((head = insertionOrder.peek()) != null && head.expiresAt <= now) {
+            if (insertionOrder.remove(head)) {
+                removeIfCurrent(head);
+            }
+        }
+    }
+
+    private void evictOverflow() {
+        while (size.get() > maxEntries) {
+            Expiry head = insertionOrder.poll();
+            if (head == null) {
+                return;
+            }
+            removeIfCurrent(head);
+        }
+    }
+
+    private void removeIfCurrent(Expiry expiry) {
+        // The key may have been released or re-registered since this queue entry was added
+        if (entries.remove(expiry.key, expiry.expiresAt)) {
+            size.decrementAndGet();
+        }
+    }
+
+    private static final class Key {
+        private final String identifier;
+        private final String operation;
+
+        Key(String identifier, String operation) {
+            this.identifier = identifier;
+            this.operation = operation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return identifier.equals(other.identifier) && Objects.equals(operation, other.operation);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * identifier.hashCode() + Objects.hashCode(operation);
+        }
+    }
+
+    private static final class Expiry {
+        private final Key key;
+        private final long expiresAt;
+
+        Expiry(Key key, long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.journal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceResponseRes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outbox of the results to be posted back to the marketplace service.
+ * A result is written to the outbox, and forced to disk, before the request it belongs to is marked as completed
+ * in the {@link RequestJournal}; a delivery marker is written once the marketplace has acknowledged it. On startup
+ * the results without a delivery marker are handed back to the relay, so a marketplace outage or a restart no
+ * longer loses them. Without {@code odm.outbox.enabled} the outbox is kept in memory only.
+ */
+@Component
+public class CallbackOutbox {
+    private static final Logger log = LoggerFactory.getLogger(CallbackOutbox.class);
+
+    private final ObjectMapper objectMapper;
+    private final boolean persistent;
+    private final String directory;
+    private final int segmentSize;
+    private final long syncTimeoutMillis;
+
+    private final AtomicLong inMemorySequence = new AtomicLong();
+    private List<OutboxEntry> recovered = Collections.emptyList();
+    private LiveEntryJournal journal;
+
+    @Autowired
+    public CallbackOutbox(ObjectMapper objectMapper,
+                          @Value("${odm.outbox.enabled:false}") boolean persistent,
+                          @Value("${odm.outbox.directory:/var/lib/odm/outbox}") String directory,
+                          @Value("${odm.outbox.segment-size-mb:16}") int segmentSizeMb,
+                          @Value("${odm.outbox.sync-timeout-ms:5000}") long syncTimeoutMillis) {
+        this.objectMapper = objectMapper;
+        this.persistent = persistent;
+        this.directory = directory;
+        this.segmentSize = segmentSizeMb * 1024 * 1024;
+        this.syncTimeoutMillis = syncTimeoutMillis;
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!persistent) {
+            return;
+        }
+        journal = LiveEntryJournal.open(Paths.get(directory), "callbacks", segmentSize, syncTimeoutMillis, "callback outbox");
+
+        Map<Long, byte[]> undelivered = journal.takeUnfinished();
+        List<OutboxEntry> entries = new ArrayList<>(undelivered.size());
+        undelivered.forEach((entryId, payload) -> {
+            try {
+                entries.add(read(entryId, payload));
+            } catch (IOException e) {
+                log.error("Skipping unreadable outbox entry {}: {}", entryId, e.getMessage());
+                journal.discard(entryId);
+            }
+        });
+        recovered = entries;
+        if (!entries.isEmpty()) {
+            log.info("Found {} undelivered marketplace result(s) in the outbox", entries.size());
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    /**
+     * Adds a result to the outbox. When the outbox is persistent, waits for the group commit that writes it to disk.
+     *
+     * @param requestIdentifier the identifier of the marketplace request the result refers to
+     * @param operation the operation of the marketplace request
+     * @param response the result to post
+     * @return the outbox entry, to be passed to {@link #markDelivered(OutboxEntry)}
+     * @throws IllegalStateException if the result could not be written to disk
+     */
+    public OutboxEntry append(String requestIdentifier, String operation, MarketplaceResponseRes response) {
+        long createdAt = System.currentTimeMillis();
+        if (!persistent) {
+            return new OutboxEntry(inMemorySequence.incrementAndGet(), requestIdentifier, operation, response, createdAt);
+        }
+        byte[] payload;
+        try {
+            ObjectNode node = objectMapper.createObjectNode();
+            node.put("identifier", requestIdentifier);
+            node.put("operation", operation);
+            node.put("createdAt", createdAt);
+            node.set("response", objectMapper.valueToTree(response));
+            payload = objectMapper.writeValueAsBytes(node);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write marketplace result to the outbox", e);
+        }
+        return new OutboxEntry(journal.append(payload), requestIdentifier, operation, response, createdAt);
+    }
+
+    /**
+     * Removes a result from the outbox, once delivered or abandoned. The marker is written asynchronously: if it
+     * is lost in a crash the result is simply posted again on restart.
+     */
+    public void markDelivered(OutboxEntry entry) {
+        if (!persistent) {
+            return;
+        }
+        journal.complete(entry.getEntryId());
+    }
+
+    /**
+     * Returns the results found undelivered when the outbox was opened, in the order they were added.
+     * They are returned only once.
+     */
+    public synchronized List<OutboxEntry> takeRecovered() {
+        List<OutboxEntry> entries = recovered;
+        recovered = Collections.emptyList();
+        return entries;
+    }
+
+    private OutboxEntry read(long entryId, byte[] payload) throws IOException {
+        JsonNode node = objectMapper.readTree(payload);
+        MarketplaceResponseRes response = objectMapper.treeToValue(node.get("response"), MarketplaceResponseRes.class);
+        return new OutboxEntry(entryId, node.get("identifier").asText(), node.path("operation").asText(null), response,
+                node.get("createdAt").asLong());
+    }
+
+    /**
+     * A result waiting in the outbox, with the number of delivery attempts made so far.
+     */
+    public static class OutboxEntry {
+        private final long entryId;
+        private final String requestIdentifier;
+        private final String operation;
+        private final MarketplaceResponseRes response;
+        private final long createdAt;
+        private volatile int attempts;
+
+        OutboxEntry(long entryId, String requestIdentifier, String operation, MarketplaceResponseRes response, long createdAt) {
+            this.entryId = entryId;
+            this.requestIdentifier = requestIdentifier;
+            this.operation = operation;
+            this.response = response;
+            this.createdAt = createdAt;
+        }
+
+        public long getEntryId() {
+            return entryId;
+        }
+
+        public String getRequestIdentifier() {
+            return requestIdentifier;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public MarketplaceResponseRes getResponse() {
+            return response;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public int incrementAttempts() {
+            return ++attempts;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link SegmentedJournal} of entries that stay live until a completion marker is written for them, as used by the
+ * {@link RequestJournal} and the {@link CallbackOutbox}. An entry is forced to disk before {@link #append(byte[])}
+ * returns; completion markers are written asynchronously, so an entry whose marker is lost in a crash is simply
+ * found unfinished again on restart.
+ * <p>
+ * The live entries are tracked from the moment they are appended, under the journal lock, and the segments are
+ * released up to the oldest live entry under the same lock, so a segment is never released under an entry that is
+ * still being written.
+ */
+final class LiveEntryJournal implements Closeable {
+    private static final byte ENTRY = 1;
+    private static final byte COMPLETED = 2;
+
+    private final SegmentedJournal journal;
+    private final String description;
+    private final long syncTimeoutMillis;
+    private final NavigableSet<Long> liveEntries = new ConcurrentSkipListSet<>();
+    private Map<Long, byte[]> unfinished;
+
+    private LiveEntryJournal(SegmentedJournal journal, Map<Long, byte[]> unfinished, String description, long syncTimeoutMillis) {
+        this.journal = journal;
+        this.unfinished = unfinished;
+        this.description = description;
+        this.syncTimeoutMillis = syncTimeoutMillis;
+        liveEntries.addAll(unfinished.keySet());
+    }
+
+    /**
+     * Opens the journal and collects the entries without a completion marker, which are live until completed or
+     * discarded.
+     *
+     * @param description what the journal holds, for error messages, e.g. {@code "request journal"}
+     */
+    static LiveEntryJournal open(Path directory, String name, int segmentSize, long syncTimeoutMillis, String description) throws IOException {
+        Map<Long, byte[]> unfinished = new LinkedHashMap<>();
+        SegmentedJournal journal = SegmentedJournal.open(directory, name, segmentSize, record -> {
+            if (record.getType() == ENTRY) {
+                unfinished.put(record.getSequence(), record.getPayload());
+            } else if (record.getType() == COMPLETED) {
+                unfinished.remove(ByteBuffer.wrap(record.getPayload()).getLong());
+            }
+        });
+        LiveEntryJournal liveEntryJournal = new LiveEntryJournal(journal, unfinished, description, syncTimeoutMillis);
+        liveEntryJournal.releaseCompletedSegments();
+        return liveEntryJournal;
+    }
+
+    /**
+     * Returns the payloads of the entries found unfinished when the journal was opened, by entry identifier and in
+     * the order they were written. They are returned only once.
+     */
+    synchronized Map<Long, byte[]> takeUnfinished() {
+        Map<Long, byte[]> entries = unfinished;
+        unfinished = Collections.emptyMap();
+        return entries;
+    }
+
+    /**
+     * Durably writes an entry, waiting for the group commit that forces it to disk.
+     *
+     * @return the entry identifier
+     * @throws IllegalStateException if the entry could not be written to disk in time
+     */
+    long append(byte[] payload) {
+        return appendAll(Collections.singletonList(payload))[0];
+    }
+
+    /**
+     * Durably writes several entries, waiting for a single group commit that forces all of them to disk.
+     *
+     * @return the entry identifiers, in the same order as the payloads
+     * @throws IllegalStateException if the entries could not be written to disk in time
+     */
+    long[] appendAll(List<byte[]> payloads) {
+        long[] entryIds = new long[payloads.size()];
+        List<CompletableFuture<Long>> appends = new ArrayList<>(payloads.size());
+        try {
+            for (int i = 0; i < payloads.size(); i++) {
+                int index = i;
+                appends.add(journal.append(ENTRY, payloads.get(i), sequence -> {
+                    entryIds[index] = sequence;
+                    liveEntries.add(sequence);
+                }));
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(syncTimeoutMillis);
+            for (CompletableFuture<Long> append : appends) {
+                append.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            return entryIds;
+        } catch (RuntimeException e) {
+            discard(entryIds);
+            throw e;
+        } catch (ExecutionException | TimeoutException e) {
+            // The entries may still reach the disk, in which case they are found unfinished on restart
+            discard(entryIds);
+            throw new IllegalStateException("Could not write to the " + description, e);
+        } catch (InterruptedException e) {
+            discard(entryIds);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while writing to the " + description, e);
+        }
+    }
+
+    /**
+     * Writes the completion marker of an entry, asynchronously, and releases the segments no longer needed.
+     */
+    void complete(long entryId) {
+        journal.append(COMPLETED, ByteBuffer.allocate(Long.BYTES).putLong(entryId).array());
+        liveEntries.remove(entryId);
+        releaseCompletedSegments();
+    }
+
+    /**
+     * Stops tracking entries without writing their completion marker, e.g. unreadable ones: their segment can be
+     * released, but until then they are found unfinished again on restart.
+     */
+    void discard(long... entryIds) {
+        for (long entryId : entryIds) {
+            liveEntries.remove(entryId);
+        }
+        releaseCompletedSegments();
+    }
+
+    int getLiveEntryCount() {
+        return liveEntries.size();
+    }
+
+    @Override
+    public void close() {
+        journal.close();
+    }
+
+    private void releaseCompletedSegments() {
+        journal.releaseBefore(() -> {
+            Long oldest = liveEntries.ceiling(Long.MIN_VALUE);
+            return oldest != null ? oldest : journal.getNextSequence();
+        });
+    }
+}
@@ -0,0 +1,297 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.journal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongConsumer;
+
+/**
+ * Store of the notifications scheduled for later, such as access start notifications and expiry reminders, so that
+ * they survive a restart. Without {@code odm.notifications.store.enabled} nothing is stored.
+ * <p>
+ * Notifications are written to a {@link SegmentedJournal}, with a removal marker once they have been sent or
+ * cancelled. Since a reminder may wait for months, the oldest segment would otherwise be kept alive by a handful of
+ * notifications: when there are more than {@code odm.notifications.store.max-segments} segments, the notifications
+ * still pending in the oldest one are written again at the end of the journal and the segment is released.
+ */
+@Component
+public class NotificationStore {
+    private static final Logger log = LoggerFactory.getLogger(NotificationStore.class);
+
+    private static final byte SCHEDULED = 1;
+    private static final byte REMOVED = 2;
+
+    private final ObjectMapper objectMapper;
+    private final boolean persistent;
+    private final String directory;
+    private final int segmentSize;
+    private final long syncTimeoutMillis;
+    private final int maxSegments;
+
+    // Pending notifications by identifier, with the sequence of their latest record, and the reverse index; guarded by this
+    private final Map<String, Live> live = new HashMap<>();
+    private final NavigableMap<Long, String> idsBySequence = new TreeMap<>();
+    // Sequences of the records being saved and not yet in the maps, added under the journal lock as soon as they
+    // are appended, so that their segment is never released under them
+    private final NavigableSet<Long> unsettled = new ConcurrentSkipListSet<>();
+    private List<StoredNotification> recovered = Collections.emptyList();
+    private SegmentedJournal journal;
+
+    @Autowired
+    public NotificationStore(ObjectMapper objectMapper,
+                             @Value("${odm.notifications.store.enabled:false}") boolean persistent,
+                             @Value("${odm.notifications.store.directory:/var/lib/odm/notifications}") String directory,
+                             @Value("${odm.notifications.store.segment-size-mb:16}") int segmentSizeMb,
+                             @Value("${odm.notifications.store.sync-timeout-ms:5000}") long syncTimeoutMillis,
+                             @Value("${odm.notifications.store.max-segments:4}") int maxSegments) {
+        this.objectMapper = objectMapper;
+        this.persistent = persistent;
+        this.directory = directory;
+        this.segmentSize = segmentSizeMb * 1024 * 1024;
+        this.syncTimeoutMillis = syncTimeoutMillis;
+        this.maxSegments = Math.max(2, maxSegments);
+    }
+
+    @PostConstruct
+    public synchronized void open() throws IOException {
+        if (!persistent) {
+            return;
+        }
+        Map<String, JsonNode> pending = new LinkedHashMap<>();
+        Map<String, Long> sequences = new LinkedHashMap<>();
+        journal = SegmentedJournal.open(Paths.get(directory), "notifications", segmentSize, record -> {
+            try {
+                if (record.getType() == SCHEDULED) {
+                    JsonNode node = objectMapper.readTree(record.getPayload());
+                    String id = node.get("id").asText();
+                    pending.put(id, node);
+                    sequences.put(id, record.getSequence());
+                } else if (record.getType() == REMOVED) {
+                    String id = new String(record.getPayload(), StandardCharsets.UTF_8);
+                    pending.remove(id);
+                    sequences.remove(id);
+                }
+            } catch (IOException e) {
+                log.error("Skipping unreadable notification record {}: {}", record.getSequence(), e.getMessage());
+            }
+        });
+
+        List<StoredNotification> notifications = new ArrayList<>(pending.size());
+        pending.forEach((id, node) -> {
+            try {
+                StoredNotification notification = new StoredNotification(id, node.get("kind").asText(), node.get("deadline").asLong(),
+                        objectMapper.treeToValue(node.get("request"), MarketplaceRequestRes.class));
+                notifications.add(notification);
+                track(sequences.get(id), notification);
+            } catch (IOException e) {
+                log.error("Skipping unreadable notification {}: {}", id, e.getMessage());
+            }
+        });
+        recovered = notifications;
+        if (!notifications.isEmpty()) {
+            log.info("Found {} scheduled notification(s) in the store", notifications.size());
+        }
+        compact();
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    /**
+     * Stores a notification, replacing any notification with the same identifier. When the store is persistent,
+     * waits for the group commit that writes it to disk.
+     *
+     * @throws IllegalStateException if the notification could not be written to disk
+     */
+    public void save(StoredNotification notification) {
+        if (!persistent) {
+            return;
+        }
+        long[] sequence = new long[1];
+        try {
+            CompletableFuture<Long> write = write(notification, appended -> {
+                sequence[0] = appended;
+                unsettled.add(appended);
+            });
+            long synced = await(write);
+            synchronized (this) {
+                track(synced, notification);
+            }
+        } finally {
+            unsettled.remove(sequence[0]);
+        }
+        synchronized (this) {
+            compact();
+        }
+    }
+
+    /**
+     * Removes a notification once sent or cancelled. The marker is written asynchronously: if it is lost in a crash
+     * the notification is simply sent again on restart, or cancelled again.
+     */
+    public synchronized void remove(String id) {
+        if (!persistent) {
+            return;
+        }
+        Live removed = live.remove(id);
+        if (removed == null) {
+            return;
+        }
+        idsBySequence.remove(removed.sequence);
+        journal.append(REMOVED, id.getBytes(StandardCharsets.UTF_8));
+        compact();
+    }
+
+    /**
+     * Returns the notifications found pending when the store was opened. They are returned only once.
+     */
+    public synchronized List<StoredNotification> takeRecovered() {
+        List<StoredNotification> notifications = recovered;
+        recovered = Collections.emptyList();
+        return notifications;
+    }
+
+    public synchronized int getPendingCount() {
+        return live.size();
+    }
+
+    /**
+     * Writes again the notifications still pending in the oldest segment, then releases the segments that no
+     * pending notification needs any more.
+     */
+    private void compact() {
+        if (journal.getSegmentCount() > maxSegments) {
+            List<StoredNotification> moved = new ArrayList<>();
+            for (String id : idsBySequence.headMap(journal.getOldestSegmentLastSequence(), true).values()) {
+                moved.add(live.get(id).notification);
+            }
+            // Written in one go, so that they share a disk flush
+            List<CompletableFuture<Long>> writes = new ArrayList<>(moved.size());
+            for (StoredNotification notification : moved) {
+                writes.add(write(notification, sequence -> { }));
+            }
+            for (int i = 0; i < moved.size(); i++) {
+                track(await(writes.get(i)), moved.get(i));
+            }
+            log.debug("Moved {} pending notification(s) out of the oldest store segment", moved.size());
+        }
+        // Records being saved count as pending: they are in the journal but not in the maps yet
+        journal.releaseBefore(() -> {
+            long lowest = idsBySequence.isEmpty() ? journal.getNextSequence() : idsBySequence.firstKey();
+            Long oldestUnsettled = unsettled.ceiling(Long.MIN_VALUE);
+            return oldestUnsettled != null ? Math.min(lowest, oldestUnsettled) : lowest;
+        });
+    }
+
+    private void track(long sequence, StoredNotification notification) {
+        Live previous = live.put(notification.getId(), new Live(sequence, notification));
+        if (previous != null) {
+            idsBySequence.remove(previous.sequence);
+        }
+        idsBySequence.put(sequence, notification.getId());
+    }
+
+    private CompletableFuture<Long> write(StoredNotification notification, LongConsumer onSequence) {
+        try {
+            ObjectNode payload = objectMapper.createObjectNode();
+            payload.put("id", notification.getId());
+            payload.put("kind", notification.getKind());
+            payload.put("deadline", notification.getDeadline());
+            payload.set("request", objectMapper.valueToTree(notification.getRequest()));
+            return journal.append(SCHEDULED, objectMapper.writeValueAsBytes(payload), onSequence);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write notification to the store", e);
+        }
+    }
+
+    private long await(CompletableFuture<Long> write) {
+        try {
+            return write.get(syncTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("Could not write notification to the store", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while writing notification to the store", e);
+        }
+    }
+
+    private static final class Live {
+        private final long sequence;
+        private final StoredNotification notification;
+
+        Live(long sequence, StoredNotification notification) {
+            this.sequence = sequence;
+            this.notification = notification;
+        }
+    }
+
+    /**
+     * A notification to send at a given time about a marketplace request.
+     */
+    public static class StoredNotification {
+        private final String id;
+        private final String kind;
+        private final long deadline;
+        private final MarketplaceRequestRes request;
+
+        public StoredNotification(String id, String kind, long deadline, MarketplaceRequestRes request) {
+            this.id = id;
+            this.kind = kind;
+            this.deadline = deadline;
+            this.request = request;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getKind() {
+            return kind;
+        }
+
+        /**
+         * Returns the time the notification is due, in milliseconds since the epoch.
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public MarketplaceRequestRes getRequest() {
+            return request;
+        }
+    }
+}
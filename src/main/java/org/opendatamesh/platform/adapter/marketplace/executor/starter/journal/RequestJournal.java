@@ -0,0 +1,183 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.journal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Write-ahead journal of the marketplace requests accepted by the service.
+ * A request is recorded, and forced to disk, before the 202 is returned to the marketplace; a completion marker is
+ * recorded once its result has been produced. On startup the requests without a completion marker are handed back
+ * so that they can be processed again, which means a pod restart or crash no longer drops queued emails.
+ * Disabled unless {@code odm.journal.enabled} is set.
+ */
+@Component
+public class RequestJournal {
+    private static final Logger log = LoggerFactory.getLogger(RequestJournal.class);
+
+    /**
+     * Entry identifier returned when the journal is disabled.
+     */
+    public static final long NO_ENTRY = -1;
+
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final String directory;
+    private final int segmentSize;
+    private final long syncTimeoutMillis;
+
+    private List<JournaledRequest> recovered = Collections.emptyList();
+    private LiveEntryJournal journal;
+
+    @Autowired
+    public RequestJournal(ObjectMapper objectMapper,
+                          @Value("${odm.journal.enabled:false}") boolean enabled,
+                          @Value("${odm.journal.directory:/var/lib/odm/journal}") String directory,
+                          @Value("${odm.journal.segment-size-mb:16}") int segmentSizeMb,
+                          @Value("${odm.journal.sync-timeout-ms:5000}") long syncTimeoutMillis) {
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.directory = directory;
+        this.segmentSize = segmentSizeMb * 1024 * 1024;
+        this.syncTimeoutMillis = syncTimeoutMillis;
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        journal = LiveEntryJournal.open(Paths.get(directory), "requests", segmentSize, syncTimeoutMillis, "request journal");
+
+        Map<Long, byte[]> unfinished = journal.takeUnfinished();
+        List<JournaledRequest> requests = new ArrayList<>(unfinished.size());
+        unfinished.forEach((entryId, payload) -> {
+            try {
+                requests.add(new JournaledRequest(entryId, objectMapper.readValue(payload, MarketplaceRequestRes.class)));
+            } catch (IOException e) {
+                log.error("Skipping unreadable journal entry {}: {}", entryId, e.getMessage());
+                journal.discard(entryId);
+            }
+        });
+        recovered = requests;
+        if (!requests.isEmpty()) {
+            log.info("Found {} unfinished request(s) in the journal", requests.size());
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Durably records an accepted request, waiting for the group commit that writes it to disk.
+     *
+     * @param request the accepted request
+     * @return the journal entry identifier, to be passed to {@link #recordCompleted(long)};
+     * {@link #NO_ENTRY} when the journal is disabled
+     * @throws IllegalStateException if the request could not be written to disk
+     */
+    public long recordAccepted(MarketplaceRequestRes request) {
+        if (!enabled) {
+            return NO_ENTRY;
+        }
+        return journal.append(serialize(request));
+    }
+
+    /**
+     * Durably records several accepted requests, waiting for a single group commit that writes all of them to disk.
+     *
+     * @param requests the accepted requests
+     * @return the journal entry identifiers, in the same order as the requests;
+     * {@link #NO_ENTRY} for each request when the journal is disabled
+     * @throws IllegalStateException if the requests could not be written to disk
+     */
+    public long[] recordAcceptedAll(List<MarketplaceRequestRes> requests) {
+        if (!enabled) {
+            long[] entryIds = new long[requests.size()];
+            Arrays.fill(entryIds, NO_ENTRY);
+            return entryIds;
+        }
+        List<byte[]> payloads = new ArrayList<>(requests.size());
+        for (MarketplaceRequestRes request : requests) {
+            payloads.add(serialize(request));
+        }
+        return journal.appendAll(payloads);
+    }
+
+    /**
+     * Records that a request no longer needs to be replayed. The marker is written asynchronously: if it is lost
+     * in a crash the request is simply processed again on restart.
+     *
+     * @param entryId the identifier returned by {@link #recordAccepted(MarketplaceRequestRes)}
+     */
+    public void recordCompleted(long entryId) {
+        if (!enabled || entryId == NO_ENTRY) {
+            return;
+        }
+        journal.complete(entryId);
+    }
+
+    /**
+     * Returns the requests found unfinished when the journal was opened. They are returned only once.
+     */
+    public synchronized List<JournaledRequest> takeRecovered() {
+        List<JournaledRequest> requests = recovered;
+        recovered = Collections.emptyList();
+        return requests;
+    }
+
+    public int getLiveEntryCount() {
+        return journal != null ? journal.getLiveEntryCount() : 0;
+    }
+
+    private byte[] serialize(MarketplaceRequestRes request) {
+        try {
+            return objectMapper.writeValueAsBytes(request);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not record request in the journal", e);
+        }
+    }
+
+    /**
+     * A request read back from the journal, with the identifier of its journal entry.
+     */
+    public static class JournaledRequest {
+        private final long entryId;
+        private final MarketplaceRequestRes request;
+
+        JournaledRequest(long entryId, MarketplaceRequestRes request) {
+            this.entryId = entryId;
+            this.request = request;
+        }
+
+        public long getEntryId() {
+            return entryId;
+        }
+
+        public MarketplaceRequestRes getRequest() {
+            return request;
+        }
+    }
+}
@@ -0,0 +1,472 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal made of fixed-size, memory-mapped segment files.
+ * <p>
+ * Every record gets a monotonically increasing sequence number and is protected by a CRC, so a record torn by a
+ * crash is detected and discarded when the journal is reopened. Appends only copy the record into the mapped
+ * segment; durability is provided by a single flusher thread that forces the dirty segments to disk and then
+ * completes the futures of every record written in the meantime (group commit), so concurrent writers share
+ * one fsync instead of paying one each.
+ * <p>
+ * Segments are named {@code <name>-<first sequence>.log}. Older segments can be deleted with
+ * {@link #releaseBefore(long)} once the caller no longer needs the records they contain. A caller that tracks its
+ * live records itself registers each one from {@link #append(byte, byte[], LongConsumer)} and computes the bound
+ * in {@link #releaseBefore(LongSupplier)}: both run under the journal lock, so a record being appended is either
+ * already tracked or not yet assigned a sequence when the bound is computed, and its segment cannot be released
+ * before the caller knows about it.
+ */
+public class SegmentedJournal implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(SegmentedJournal.class);
+
+    private static final int SEGMENT_MAGIC = 0x4F444D4A;
+    private static final int SEGMENT_VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 16;
+    // length + crc + sequence + type
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 8 + 1;
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final String name;
+    private final int segmentSize;
+
+    private final Object lock = new Object();
+    private final List<Segment> segments = new ArrayList<>();
+    private final Set<Segment> dirtySegments = new LinkedHashSet<>();
+    private List<PendingSync> pendingSyncs = new ArrayList<>();
+    private Segment active;
+    private long nextSequence;
+    private boolean closed;
+
+    private final Thread flusher;
+
+    private SegmentedJournal(Path directory, String name, int segmentSize) {
+        this.directory = directory;
+        this.name = name;
+        this.segmentSize = segmentSize;
+        this.flusher = new Thread(this::flushLoop, "journal-flusher-" + name);
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * Opens the journal in the given directory, creating it if needed, and replays every valid record in
+     * sequence order to the given handler before returning.
+     *
+     * @param directory directory holding the segment files
+     * @param name name of the journal, used as segment file prefix
+     * @param segmentSize size in bytes of each segment file
+     * @param replayHandler receives the records already stored in the journal
+     * @return the opened journal, ready for appends
+     * @throws IOException if the segments cannot be read or created
+     */
+    public static SegmentedJournal open(Path directory, String name, int segmentSize, Consumer<JournalRecord> replayHandler) throws IOException {
+        if (segmentSize <= SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Journal segment size is too small: " + segmentSize);
+        }
+        Files.createDirectories(directory);
+        SegmentedJournal journal = new SegmentedJournal(directory, name, segmentSize);
+        journal.load(replayHandler);
+        journal.flusher.start();
+        return journal;
+    }
+
+    /**
+     * Appends a record to the journal.
+     *
+     * @param type application-defined record type
+     * @param payload record content
+     * @return a future completed with the sequence number of the record once it has been forced to disk
+     */
+    public CompletableFuture<Long> append(byte type, byte[] payload) {
+        return append(type, payload, sequence -> { });
+    }
+
+    /**
+     * Appends a record to the journal, passing its sequence number to {@code onSequence} under the journal lock,
+     * before any later append or release. {@code onSequence} must be quick and must not take other locks.
+     *
+     * @param type application-defined record type
+     * @param payload record content
+     * @param onSequence receives the sequence number of the record as soon as it is assigned
+     * @return a future completed with the sequence number of the record once it has been forced to disk
+     */
+    public CompletableFuture<Long> append(byte type, byte[] payload, LongConsumer onSequence) {
+        int recordSize = RECORD_HEADER_SIZE + payload.length;
+        if (recordSize > segmentSize - SEGMENT_HEADER_SIZE) {
+            throw new IllegalArgumentException("Journal record of " + payload.length + " bytes does not fit in a segment");
+        }
+        CompletableFuture<Long> synced = new CompletableFuture<>();
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Journal " + name + " is closed");
+            }
+            try {
+                if (active.remaining() < recordSize) {
+                    roll();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not create a new journal segment", e);
+            }
+            long sequence = nextSequence++;
+            active.write(sequence, type, payload);
+            onSequence.accept(sequence);
+            dirtySegments.add(active);
+            pendingSyncs.add(new PendingSync(sequence, synced));
+            lock.notifyAll();
+        }
+        return synced;
+    }
+
+    /**
+     * Deletes the segments whose records all have a sequence number lower than the given one.
+     * The segment currently being written is never deleted.
+     *
+     * @param sequence the lowest sequence number that must be kept
+     */
+    public void releaseBefore(long sequence) {
+        releaseBefore(() -> sequence);
+    }
+
+    /**
+     * Deletes the segments whose records all have a sequence number lower than the one returned by
+     * {@code lowestNeeded}, which is called under the journal lock: no record can be appended between the
+     * computation of the bound and the release. The segment currently being written is never deleted.
+     *
+     * @param lowestNeeded returns the lowest sequence number that must be kept; it must be quick and must not take
+     *                     other locks, but may call {@link #getNextSequence()}
+     */
+    public void releaseBefore(LongSupplier lowestNeeded) {
+        List<Segment> released = new ArrayList<>();
+        synchronized (lock) {
+            long sequence = lowestNeeded.getAsLong();
+            while (segments.size() > 1 && segments.get(0).lastSequence < sequence) {
+                Segment segment = segments.remove(0);
+                dirtySegments.remove(segment);
+                released.add(segment);
+            }
+        }
+        for (Segment segment : released) {
+            segment.delete();
+        }
+    }
+
+    public long getNextSequence() {
+        synchronized (lock) {
+            return nextSequence;
+        }
+    }
+
+    /**
+     * Returns the sequence number of the last record of the oldest segment, or -1 when the journal has a single
+     * segment. Records up to this one must be released, or written again, before the oldest segment can go.
+     */
+    public long getOldestSegmentLastSequence() {
+        synchronized (lock) {
+            return segments.size() > 1 ? segments.get(0).lastSequence : -1;
+        }
+    }
+
+    public int getSegmentCount() {
+        synchronized (lock) {
+            return segments.size();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            for (Segment segment : segments) {
+                segment.close();
+            }
+        }
+    }
+
+    private void load(Consumer<JournalRecord> replayHandler) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, name + "-*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(Comparator.comparingLong(this::firstSequenceOf));
+
+        nextSequence = 1;
+        for (Path file : files) {
+            Segment segment = Segment.open(file, segmentSize);
+            segment.replay(nextSequence, replayHandler);
+            segments.add(segment);
+            nextSequence = Math.max(nextSequence, segment.lastSequence + 1);
+        }
+        if (segments.isEmpty()) {
+            segments.add(Segment.create(segmentPath(nextSequence), nextSequence, segmentSize));
+        }
+        active = segments.get(segments.size() - 1);
+        log.info("Opened journal '{}' in {} with {} segment(s), next sequence {}", name, directory, segments.size(), nextSequence);
+    }
+
+    private void roll() throws IOException {
+        Segment segment = Segment.create(segmentPath(nextSequence), nextSequence, segmentSize);
+        segments.add(segment);
+        active = segment;
+    }
+
+    private Path segmentPath(long firstSequence) {
+        return directory.resolve(String.format("%s-%020d%s", name, firstSequence, SEGMENT_SUFFIX));
+    }
+
+    private long firstSequenceOf(Path file) {
+        String fileName = file.getFileName().toString();
+        String sequence = fileName.substring(name.length() + 1, fileName.length() - SEGMENT_SUFFIX.length());
+        try {
+            return Long.parseLong(sequence);
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            List<PendingSync> batch;
+            List<Segment> toForce;
+            synchronized (lock) {
+                while (pendingSyncs.isEmpty() && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (pendingSyncs.isEmpty()) {
+                    return;
+                }
+                batch = pendingSyncs;
+                pendingSyncs = new ArrayList<>();
+                toForce = new ArrayList<>(dirtySegments);
+                dirtySegments.clear();
+            }
+            try {
+                for (Segment segment : toForce) {
+                    segment.force();
+                }
+                for (PendingSync pending : batch) {
+                    pending.synced.complete(pending.sequence);
+                }
+            } catch (RuntimeException e) {
+                log.error("Could not force journal '{}' to disk", name, e);
+                for (PendingSync pending : batch) {
+                    pending.synced.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A record read back from the journal.
+     */
+    public static class JournalRecord {
+        private final long sequence;
+        private final byte type;
+        private final byte[] payload;
+
+        JournalRecord(long sequence, byte type, byte[] payload) {
+            this.sequence = sequence;
+            this.type = type;
+            this.payload = payload;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+
+    private static class PendingSync {
+        private final long sequence;
+        private final CompletableFuture<Long> synced;
+
+        PendingSync(long sequence, CompletableFuture<Long> synced) {
+            this.sequence = sequence;
+            this.synced = synced;
+        }
+    }
+
+    private static class Segment {
+        private final Path path;
+        private final long firstSequence;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private volatile long lastSequence;
+
+        private Segment(Path path, long firstSequence, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.firstSequence = firstSequence;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.lastSequence = firstSequence - 1;
+        }
+
+        static Segment create(Path path, long firstSequence, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(SEGMENT_MAGIC);
+            buffer.putInt(SEGMENT_VERSION);
+            buffer.putLong(firstSequence);
+            buffer.force();
+            return new Segment(path, firstSequence, channel, buffer);
+        }
+
+        static Segment open(Path path, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+            if (buffer.getInt() != SEGMENT_MAGIC || buffer.getInt() != SEGMENT_VERSION) {
+                channel.close();
+                throw new IOException("Not a journal segment: " + path);
+            }
+            long firstSequence = buffer.getLong();
+            return new Segment(path, firstSequence, channel, buffer);
+        }
+
+        /**
+         * Reads the valid records of the segment and leaves the write position right after the last one.
+         */
+        void replay(long expectedSequence, Consumer<JournalRecord> handler) {
+            CRC32 crc = new CRC32();
+            buffer.position(SEGMENT_HEADER_SIZE);
+            long sequence = Math.max(expectedSequence, firstSequence);
+            boolean torn = false;
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                int start = buffer.position();
+                int payloadLength = buffer.getInt();
+                int storedCrc = buffer.getInt();
+                if (payloadLength == 0 && storedCrc == 0) {
+                    // Zero-filled tail: end of the written part of the segment
+                    buffer.position(start);
+                    break;
+                }
+                if (payloadLength < 0 || payloadLength > buffer.remaining() - 9) {
+                    torn = true;
+                    buffer.position(start);
+                    break;
+                }
+                long recordSequence = buffer.getLong();
+                byte type = buffer.get();
+                byte[] payload = new byte[payloadLength];
+                buffer.get(payload);
+                crc.reset();
+                crc.update(longBytes(recordSequence));
+                crc.update(type);
+                crc.update(payload);
+                if ((int) crc.getValue() != storedCrc || recordSequence < sequence) {
+                    torn = true;
+                    buffer.position(start);
+                    break;
+                }
+                handler.accept(new JournalRecord(recordSequence, type, payload));
+                lastSequence = recordSequence;
+                sequence = recordSequence + 1;
+            }
+            if (torn) {
+                // Wipe everything after the last valid record so the torn tail cannot be mistaken for data later
+                log.warn("Discarding torn journal record(s) at {}:{}", path, buffer.position());
+                int position = buffer.position();
+                byte[] zeros = new byte[Math.min(64 * 1024, buffer.remaining())];
+                while (buffer.hasRemaining()) {
+                    buffer.put(zeros, 0, Math.min(zeros.length, buffer.remaining()));
+                }
+                buffer.force();
+                buffer.position(position);
+            }
+        }
+
+        int remaining() {
+            return buffer.remaining();
+        }
+
+        void write(long sequence, byte type, byte[] payload) {
+            CRC32 crc = new CRC32();
+            crc.update(longBytes(sequence));
+            crc.update(type);
+            crc.update(payload);
+            int start = buffer.position();
+            // The length is written last so that a concurrent crash never exposes a half-written header as valid
+            buffer.position(start + 4);
+            buffer.putInt((int) crc.getValue());
+            buffer.putLong(sequence);
+            buffer.put(type);
+            buffer.put(payload);
+            buffer.putInt(start, payload.length);
+            lastSequence = sequence;
+        }
+
+        void force() {
+            buffer.force();
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Could not close journal segment {}: {}", path, e.getMessage());
+            }
+        }
+
+        void delete() {
+            close();
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("Could not delete journal segment {}: {}", path, e.getMessage());
+            }
+        }
+
+        private static byte[] longBytes(long value) {
+            byte[] bytes = new byte[8];
+            for (int i = 7; i >= 0; i--) {
+                bytes[i] = (byte) value;
+                value >>>= 8;
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.config.AsyncExecutorConfig;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.MailDispatcher;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.KeyedOrderingExecutor;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.ProcessingStage;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.VirtualThreadTaskExecutor;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.service.AccessNotificationScheduler;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.service.EmailDigestService;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.service.EmailRetryScheduler;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.service.MarketplaceCallbackDispatcher;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Gauges of the queues between the processing stages: request executor queue depth and active workers, requests
+ * waiting in their ordering lane, emails waiting for a batch, emails waiting for a retry, scheduled access
+ * notifications and results waiting to be posted to the marketplace service. When requests run on virtual threads
+ * there is no pool: only the active count is reported, along with the SMTP sessions in use.
+ * <p>
+ * The {@code odm.stage.queue.depth} and {@code odm.stage.active} gauges, tagged with the stage, report the work
+ * waiting for and running in each stage of the pipeline (prepare, delivery, callback) side by side, which shows the
+ * stage holding the others back. Templates are rendered while the message is written to the SMTP server, so
+ * rendering time shows in the delivery stage.
+ * <p>
+ * With the blocking marketplace client, {@code odm.callback.connections}, tagged with the {@code state}
+ * ({@code leased}, {@code available}, {@code pending}), reports the pool of HTTP connections to the marketplace
+ * service: callbacks waiting with {@code pending} connection requests while every connection is leased call for a
+ * larger pool.
+ * <p>
+ * The gauges are registered once this bean is created rather than through a {@code MeterBinder}: Spring Boot binds
+ * the {@code MeterBinder} beans while it creates the registry, and the beans observed here need the registry
+ * themselves, through {@link MarketplaceMetrics}.
+ */
+@Component
+public class MarketplaceGauges {
+    private final MeterRegistry registry;
+    private final TaskExecutor requestExecutor;
+    private final KeyedOrderingExecutor requestLanes;
+    private final MailDispatcher mailDispatcher;
+    private final EmailRetryScheduler retryScheduler;
+    private final EmailDigestService digestService;
+    private final MarketplaceCallbackDispatcher callbackDispatcher;
+    private final ProcessingStage deliveryStage;
+    private final AccessNotificationScheduler notificationScheduler;
+    private final ObjectProvider<PoolingHttpClientConnectionManager> marketplaceConnectionManager;
+    private final boolean orderingEnabled;
+
+    @Autowired
+    public MarketplaceGauges(MeterRegistry registry,
+                             @Qualifier(AsyncExecutorConfig.MARKETPLACE_REQUEST_EXECUTOR) TaskExecutor requestExecutor,
+                             KeyedOrderingExecutor requestLanes,
+                             MailDispatcher mailDispatcher,
+                             EmailRetryScheduler retryScheduler,
+                             EmailDigestService digestService,
+                             MarketplaceCallbackDispatcher callbackDispatcher,
+                             ProcessingStage deliveryStage,
+                             AccessNotificationScheduler notificationScheduler,
+                             ObjectProvider<PoolingHttpClientConnectionManager> marketplaceConnectionManager,
+                             @Value("${odm.processing.ordering.enabled:true}") boolean orderingEnabled) {
+        this.registry = registry;
+        this.requestExecutor = requestExecutor;
+        this.requestLanes = requestLanes;
+        this.mailDispatcher = mailDispatcher;
+        this.retryScheduler = retryScheduler;
+        this.digestService = digestService;
+        this.callbackDispatcher = callbackDispatcher;
+        this.deliveryStage = deliveryStage;
+        this.notificationScheduler = notificationScheduler;
+        this.marketplaceConnectionManager = marketplaceConnectionManager;
+        this.orderingEnabled = orderingEnabled;
+    }
+
+    @PostConstruct
+    public void register() {
+        if (requestExecutor instanceof ThreadPoolTaskExecutor) {
+            ThreadPoolTaskExecutor pool = (ThreadPoolTaskExecutor) requestExecutor;
+            Gauge.builder("odm.processing.queue.size", pool, executor -> executor.getThreadPoolExecutor().getQueue().size())
+                    .description("Requests waiting for a processing worker")
+                    .register(registry);
+            Gauge.builder("odm.processing.active", pool, ThreadPoolTaskExecutor::getActiveCount)
+                    .description("Processing workers busy with a request")
+                    .register(registry);
+            Gauge.builder("odm.processing.pool.size", pool, ThreadPoolTaskExecutor::getPoolSize)
+                    .description("Processing workers started")
+                    .register(registry);
+        } else if (requestExecutor instanceof VirtualThreadTaskExecutor) {
+            Gauge.builder("odm.processing.active", (VirtualThreadTaskExecutor) requestExecutor, VirtualThreadTaskExecutor::getActiveCount)
+                    .description("Virtual threads busy with a request")
+                    .register(registry);
+        }
+        Gauge.builder("odm.stage.queue.depth", this, MarketplaceGauges::getPrepareQueueDepth)
+                .description("Work waiting for a worker of the stage")
+                .tag("stage", "prepare")
+                .register(registry);
+        Gauge.builder("odm.stage.active", this, MarketplaceGauges::getPrepareActiveCount)
+                .description("Workers of the stage busy")
+                .tag("stage", "prepare")
+                .register(registry);
+        Gauge.builder("odm.stage.queue.depth", deliveryStage, ProcessingStage::getQueueDepth)
+                .description("Work waiting for a worker of the stage")
+                .tag("stage", deliveryStage.getName())
+                .register(registry);
+        Gauge.builder("odm.stage.active", deliveryStage, ProcessingStage::getActiveCount)
+                .description("Workers of the stage busy")
+                .tag("stage", deliveryStage.getName())
+                .register(registry);
+        Gauge.builder("odm.stage.queue.depth", callbackDispatcher, MarketplaceCallbackDispatcher::getDueCount)
+                .description("Work waiting for a worker of the stage")
+                .tag("stage", "callback")
+                .register(registry);
+        Gauge.builder("odm.stage.active", callbackDispatcher, MarketplaceCallbackDispatcher::getActiveCount)
+                .description("Workers of the stage busy")
+                .tag("stage", "callback")
+                .register(registry);
+        Gauge.builder("odm.processing.lanes.pending", requestLanes, KeyedOrderingExecutor::getPendingCount)
+                .description("Requests waiting in their ordering lane")
+                .register(registry);
+        Gauge.builder("odm.email.connections.active", mailDispatcher, MailDispatcher::getActiveConnectionCount)
+                .description("SMTP sessions in use")
+                .register(registry);
+        Gauge.builder("odm.email.batch.pending", mailDispatcher, MailDispatcher::getPendingCount)
+                .description("Emails waiting to be sent in a batch")
+                .register(registry);
+        Gauge.builder("odm.email.retry.pending", retryScheduler, EmailRetryScheduler::getPendingCount)
+                .description("Emails waiting for a new delivery attempt")
+                .register(registry);
+        Gauge.builder("odm.email.digest.pending", digestService, EmailDigestService::getPendingCount)
+                .description("Emails waiting in a digest")
+                .register(registry);
+        Gauge.builder("odm.notifications.pending", notificationScheduler, AccessNotificationScheduler::getPendingCount)
+                .description("Access start and expiry emails scheduled and not sent yet")
+                .register(registry);
+        Gauge.builder("odm.callback.pending", callbackDispatcher, MarketplaceCallbackDispatcher::getPendingCount)
+                .description("Results waiting to be posted to the marketplace service")
+                .register(registry);
+        PoolingHttpClientConnectionManager connectionManager = marketplaceConnectionManager.getIfAvailable();
+        if (connectionManager != null) {
+            registerConnectionPool(connectionManager);
+        }
+    }
+
+    private void registerConnectionPool(PoolingHttpClientConnectionManager connectionManager) {
+        Gauge.builder("odm.callback.connections", connectionManager, manager -> manager.getTotalStats().getLeased())
+                .description("HTTP connections to the marketplace service")
+                .tag("state", "leased")
+                .register(registry);
+        Gauge.builder("odm.callback.connections", connectionManager, manager -> manager.getTotalStats().getAvailable())
+                .description("HTTP connections to the marketplace service")
+                .tag("state", "available")
+                .register(registry);
+        Gauge.builder("odm.callback.connections", connectionManager, manager -> manager.getTotalStats().getPending())
+                .description("HTTP connections to the marketplace service")
+                .tag("state", "pending")
+                .register(registry);
+        Gauge.builder("odm.callback.connections.max", connectionManager, PoolingHttpClientConnectionManager::getMaxTotal)
+                .description("Maximum number of HTTP connections to the marketplace service")
+                .register(registry);
+    }
+
+    /**
+     * Requests waiting in the ordering lanes or in the queue of the request executor; the latter only holds lanes
+     * when ordering is enabled.
+     */
+    private double getPrepareQueueDepth() {
+        if (orderingEnabled || !(requestExecutor instanceof ThreadPoolTaskExecutor)) {
+            return requestLanes.getPendingCount();
+        }
+        return ((ThreadPoolTaskExecutor) requestExecutor).getThreadPoolExecutor().getQueue().size();
+    }
+
+    private double getPrepareActiveCount() {
+        if (requestExecutor instanceof ThreadPoolTaskExecutor) {
+            return ((ThreadPoolTaskExecutor) requestExecutor).getActiveCount();
+        }
+        if (requestExecutor instanceof VirtualThreadTaskExecutor) {
+            return ((VirtualThreadTaskExecutor) requestExecutor).getActiveCount();
+        }
+        return 0;
+    }
+}
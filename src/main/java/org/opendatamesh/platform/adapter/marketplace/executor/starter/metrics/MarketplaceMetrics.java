@@ -0,0 +1,136 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers and counters of the stages a marketplace request goes through, tagged by operation
+ * (MARKETPLACE_SUBSCRIBE or MARKETPLACE_UNSUBSCRIBE). Timers publish percentile histograms, so latency
+ * percentiles can be aggregated across instances in Prometheus.
+ * <ul>
+ *     <li>{@code odm.requests.received}: requests received, by outcome (accepted, duplicate, rejected)</li>
+ *     <li>{@code odm.requests.processing}: one processing attempt, from email rendering to result queued</li>
+ *     <li>{@code odm.requests.results}: results produced, by {@link MarketplaceRequestStatus}</li>
+ *     <li>{@code odm.email.render}: template rendering, which happens while the message is written to the SMTP server</li>
+ *     <li>{@code odm.email.send}: email delivery to the SMTP server, by outcome (success, failure)</li>
+ *     <li>{@code odm.callback.wait}: time a result waits before being posted to the marketplace service</li>
+ *     <li>{@code odm.callback.post}: marketplace service POST, by outcome (success, retry, rejected)</li>
+ * </ul>
+ * Meters are registered on first use and cached by name and tags, so recording on the request path does not build
+ * and look up a meter every time.
+ */
+@Component
+public class MarketplaceMetrics {
+    private static final String OPERATION = "operation";
+    private static final String OUTCOME = "outcome";
+    private static final String UNKNOWN = "unknown";
+
+    private final MeterRegistry registry;
+    private final Map<MeterKey, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<MeterKey, Counter> counters = new ConcurrentHashMap<>();
+
+    @Autowired
+    public MarketplaceMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void recordReceived(String operation, String outcome) {
+        counter("odm.requests.received", "Marketplace requests received", operation, OUTCOME, outcome).increment();
+    }
+
+    public void recordProcessing(String operation, long nanos) {
+        timer("odm.requests.processing", "Processing of one attempt of a marketplace request", operation, null, null).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordResult(String operation, MarketplaceRequestStatus status) {
+        counter("odm.requests.results", "Results of marketplace requests", operation, "status", status != null ? status.name() : UNKNOWN).increment();
+    }
+
+    public void recordRender(String operation, long nanos) {
+        timer("odm.email.render", "Email template rendering", operation, null, null).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordSend(String operation, boolean success, long nanos) {
+        timer("odm.email.send", "Email delivery to the SMTP server", operation, OUTCOME, success ? "success" : "failure").record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordCallbackWait(String operation, long millis) {
+        timer("odm.callback.wait", "Time a result waits before being posted to the marketplace service", operation, null, null).record(millis, TimeUnit.MILLISECONDS);
+    }
+
+    public void recordCallbackPost(String operation, String outcome, long nanos) {
+        timer("odm.callback.post", "Marketplace service result POST", operation, OUTCOME, outcome).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer timer(String name, String description, String operation, String tagKey, String tagValue) {
+        MeterKey key = new MeterKey(name, operation != null ? operation : UNKNOWN, tagValue);
+        Timer timer = timers.get(key);
+        if (timer == null) {
+            timer = timers.computeIfAbsent(key, k -> {
+                Timer.Builder builder = Timer.builder(name)
+                        .description(description)
+                        .tag(OPERATION, k.operation)
+                        .publishPercentileHistogram();
+                if (tagKey != null) {
+                    builder.tag(tagKey, tagValue);
+                }
+                return builder.register(registry);
+            });
+        }
+        return timer;
+    }
+
+    private Counter counter(String name, String description, String operation, String tagKey, String tagValue) {
+        MeterKey key = new MeterKey(name, operation != null ? operation : UNKNOWN, tagValue);
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(key, k -> Counter.builder(name)
+                    .description(description)
+                    .tag(OPERATION, k.operation)
+                    .tag(tagKey, tagValue)
+                    .register(registry));
+        }
+        return counter;
+    }
+
+    /**
+     * Name and tag values of a meter; the key of the second tag is fixed by the name.
+     */
+    private static final class MeterKey {
+        private final String name;
+        private final String operation;
+        private final String tagValue;
+
+        MeterKey(String name, String operation, String tagValue) {
+            this.name = name;
+            this.operation = operation;
+            this.tagValue = tagValue;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MeterKey)) {
+                return false;
+            }
+            MeterKey other = (MeterKey) o;
+            return name.equals(other.name) && operation.equals(other.operation) && Objects.equals(tagValue, other.tagValue);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, operation, tagValue);
+        }
+    }
+}
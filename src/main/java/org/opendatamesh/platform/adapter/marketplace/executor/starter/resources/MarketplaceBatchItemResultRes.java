@@ -0,0 +1,85 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.resources;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Outcome of one item of a batch of marketplace requests")
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class MarketplaceBatchItemResultRes {
+    @Schema(description = "Position of the item in the batch, starting from 0", example = "0")
+    private int index;
+
+    @Schema(description = "Identifier of the request, when it could be read", example = "test-request-123")
+    private String identifier;
+
+    @Schema(description = "Whether the request was accepted for processing")
+    private boolean accepted;
+
+    @Schema(description = "HTTP status the item would have received as a single request", example = "202")
+    private int status;
+
+    @Schema(description = "Error name, when the request was refused", example = "BadRequest")
+    private String error;
+
+    @Schema(description = "Reason why the request was refused")
+    private String message;
+
+    @Schema(description = "Seconds to wait before submitting the request again, when it was refused because the service is busy")
+    private Long retryAfterSeconds;
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public void setIdentifier(String identifier) {
+        this.identifier = identifier;
+    }
+
+    public boolean isAccepted() {
+        return accepted;
+    }
+
+    public void setAccepted(boolean accepted) {
+        this.accepted = accepted;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public Long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public void setRetryAfterSeconds(Long retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
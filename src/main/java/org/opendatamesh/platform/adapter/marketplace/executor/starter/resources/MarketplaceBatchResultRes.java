@@ -0,0 +1,51 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.resources;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Schema(description = "Outcome of a batch of marketplace requests")
+public class MarketplaceBatchResultRes {
+    @Schema(description = "Number of requests accepted for processing", example = "2")
+    private int accepted;
+
+    @Schema(description = "Number of requests refused", example = "1")
+    private int rejected;
+
+    @Schema(description = "Outcome of each item, in the order of the batch")
+    private List<MarketplaceBatchItemResultRes> items = new ArrayList<>();
+
+    public int getAccepted() {
+        return accepted;
+    }
+
+    public void setAccepted(int accepted) {
+        this.accepted = accepted;
+    }
+
+    public int getRejected() {
+        return rejected;
+    }
+
+    public void setRejected(int rejected) {
+        this.rejected = rejected;
+    }
+
+    public List<MarketplaceBatchItemResultRes> getItems() {
+        return items;
+    }
+
+    public void setItems(List<MarketplaceBatchItemResultRes> items) {
+        this.items = items;
+    }
+
+    public void addItem(MarketplaceBatchItemResultRes item) {
+        items.add(item);
+        if (item.isAccepted()) {
+            accepted++;
+        } else {
+            rejected++;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with random jitter.
+ * The delay before attempt {@code n + 1} is {@code initialDelay * multiplier^(n - 1)}, capped at {@code maxDelay}
+ * and randomised by up to {@code +/- jitter} of its value, so that operations that failed together do not all
+ * come back at the same moment.
+ */
+public class ExponentialBackoff {
+    private final long initialDelayMillis;
+    private final double multiplier;
+    private final long maxDelayMillis;
+    private final double jitter;
+
+    public ExponentialBackoff(long initialDelayMillis, double multiplier, long maxDelayMillis, double jitter) {
+        this.initialDelayMillis = Math.max(0, initialDelayMillis);
+        this.multiplier = Math.max(1.0, multiplier);
+        this.maxDelayMillis = Math.max(this.initialDelayMillis, maxDelayMillis);
+        this.jitter = Math.min(1.0, Math.max(0.0, jitter));
+    }
+
+    /**
+     * Computes the delay before the attempt following the given one.
+     *
+     * @param attempt the number of the attempt that failed, starting from 1
+     * @return the delay in milliseconds, including jitter
+     */
+    public long delayMillis(int attempt) {
+        double delay = initialDelayMillis * Math.pow(multiplier, Math.max(0, attempt - 1));
+        delay = Math.min(delay, maxDelayMillis);
+        if (jitter > 0) {
+            delay *= 1.0 + ThreadLocalRandom.current().nextDouble(-jitter, jitter);
+        }
+        return Math.max(0, Math.round(delay));
+    }
+}
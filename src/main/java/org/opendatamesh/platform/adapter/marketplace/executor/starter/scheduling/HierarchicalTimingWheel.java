@@ -0,0 +1,357 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Timer for very large numbers of tasks due far in the future, such as reminders weeks or months ahead, based on a
+ * hierarchical timing wheel.
+ * <p>
+ * Deadlines are wall-clock times. Level 0 has {@code wheelSize} buckets of one tick each, and every level above has
+ * buckets as wide as the whole level below, so a handful of levels spans years with a few thousand buckets. A task
+ * goes to the lowest level whose buckets tell its deadline apart from the current time; when the time reaches its
+ * bucket, the bucket is cascaded down to the finer levels, until the task expires from level 0. Scheduling and
+ * cancelling are O(1) and a task moves at most once per level, unlike a {@link HashedWheelTimer}, which walks its
+ * far-off tasks on every round, or a heap of {@code ScheduledFuture}s. Deadlines are rounded up to the tick.
+ * <p>
+ * Tasks run on the worker thread and must only hand work off. Deadlines already past when a task is scheduled, or
+ * when the clock jumps forward, expire on the next tick.
+ */
+public class HierarchicalTimingWheel implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(HierarchicalTimingWheel.class);
+
+    private final long tickMillis;
+    private final int bits;
+    private final int mask;
+    private final Bucket[][] levels;
+    private final LongSupplier clock;
+    private final Thread worker;
+    private final Object lock = new Object();
+    private volatile boolean running = true;
+    // Last tick processed, guarded by lock
+    private long currentTick;
+    private int pending;
+
+    /**
+     * @param threadName name of the worker thread
+     * @param tickMillis duration of one tick, i.e. the precision of the timer
+     * @param wheelSize  number of buckets of each level, rounded up to a power of two
+     * @param levelCount number of levels; tasks further ahead than all the levels span are cascaded again later
+     */
+    public HierarchicalTimingWheel(String threadName, long tickMillis, int wheelSize, int levelCount) {
+        this(tickMillis, wheelSize, levelCount, System::currentTimeMillis, threadName);
+    }
+
+    /**
+     * Creates a timer on the given clock; without a thread name there is no worker and time only advances with
+     * {@link #expireDue()}.
+     */
+    HierarchicalTimingWheel(long tickMillis, int wheelSize, int levelCount, LongSupplier clock, String threadName) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("Tick duration must be greater than zero");
+        }
+        if (wheelSize < 2 || wheelSize > 1 << 16) {
+            throw new IllegalArgumentException("Wheel size must be between 2 and 2^16");
+        }
+        if (levelCount <= 0 || levelCount > 8) {
+            throw new IllegalArgumentException("Level count must be between 1 and 8");
+        }
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        this.bits = Integer.numberOfTrailingZeros(size);
+        this.mask = size - 1;
+        this.levels = new Bucket[levelCount][size];
+        for (Bucket[] level : levels) {
+            for (int i = 0; i < size; i++) {
+                level[i] = new Bucket();
+            }
+        }
+        this.tickMillis = tickMillis;
+        this.clock = clock;
+        this.currentTick = clock.getAsLong() / tickMillis;
+        if (threadName != null) {
+            this.worker = new Thread(this::run, threadName);
+            this.worker.setDaemon(true);
+            this.worker.start();
+        } else {
+            this.worker = null;
+        }
+    }
+
+    /**
+     * Schedules a task to run once at the given time.
+     *
+     * @param task           the task, run on the worker thread
+     * @param deadlineMillis the time to run the task at, in milliseconds since the epoch
+     * @return a handle that can be used to cancel the task
+     * @throws IllegalStateException if the timer has been stopped
+     */
+    public Timeout schedule(Runnable task, long deadlineMillis) {
+        if (!running) {
+            throw new IllegalStateException("Timer has been stopped");
+        }
+        WheelTimeout timeout = new WheelTimeout(task, deadlineMillis, ceilDiv(deadlineMillis, tickMillis));
+        synchronized (lock) {
+            place(timeout, currentTick + 1);
+            pending++;
+        }
+        return timeout;
+    }
+
+    /**
+     * Number of tasks scheduled and neither run nor cancelled yet.
+     */
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pending;
+        }
+    }
+
+    /**
+     * Stops the worker thread. Tasks that have not run yet are discarded.
+     *
+     * @return the number of discarded tasks
+     */
+    public int stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            try {
+                worker.join(tickMillis + 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (lock) {
+            int discarded = pending;
+            pending = 0;
+            return discarded;
+        }
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    /**
+     * Advances the wheel up to the current time and runs the tasks that are due, in deadline order to the tick.
+     */
+    void expireDue() {
+        long nowTick = clock.getAsLong() / tickMillis;
+        while (true) {
+            List<WheelTimeout> expired = new ArrayList<>();
+            synchronized (lock) {
+                // Bound the ticks per pass so that a large clock jump does not hold the lock for long
+                for (int i = 0; i < 4096 && currentTick < nowTick; i++) {
+                    advance(expired);
+                }
+            }
+            for (WheelTimeout timeout : expired) {
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    log.warn("Timer task threw an exception", e);
+                }
+            }
+            synchronized (lock) {
+                if (currentTick >= nowTick) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void run() {
+        while (running) {
+            expireDue();
+            long sleepMillis = tickMillis - Math.floorMod(clock.getAsLong(), tickMillis);
+            try {
+                TimeUnit.MILLISECONDS.sleep(Math.max(1, sleepMillis));
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves to the next tick: cascades the buckets of the upper levels that start at this tick, then expires the
+     * level 0 bucket of the tick.
+     */
+    private void advance(List<WheelTimeout> expired) {
+        long tick = ++currentTick;
+        for (int level = levels.length - 1; level >= 1; level--) {
+            if ((tick & ((1L << (bits * level)) - 1)) == 0) {
+                Bucket bucket = levels[level][(int) ((tick >>> (bits * level)) & mask)];
+                for (WheelTimeout timeout = bucket.clear(); timeout != null; ) {
+                    WheelTimeout next = timeout.next;
+                    timeout.next = null;
+                    place(timeout, tick);
+                    timeout = next;
+                }
+            }
+        }
+        Bucket due = levels[0][(int) (tick & mask)];
+        for (WheelTimeout timeout = due.clear(); timeout != null; ) {
+            WheelTimeout next = timeout.next;
+            timeout.next = null;
+            timeout.bucket = null;
+            timeout.expired = true;
+            pending--;
+            expired.add(timeout);
+            timeout = next;
+        }
+    }
+
+    /**
+     * Adds a timeout to the bucket of the lowest level that tells its deadline apart from the reference tick.
+     *
+     * @param fromTick the first tick still to be expired; earlier deadlines are moved to it
+     */
+    private void place(WheelTimeout timeout, long fromTick) {
+        long tick = Math.max(timeout.deadlineTick, fromTick);
+        long differing = tick ^ currentTick;
+        int level = differing == 0 ? 0 : (63 - Long.numberOfLeadingZeros(differing)) / bits;
+        if (level >= levels.length) {
+            // Further ahead than the wheel spans: parked in the top level and cascaded again when its bucket comes
+            level = levels.length - 1;
+        }
+        levels[level][(int) ((tick >>> (bits * level)) & mask)].add(timeout);
+    }
+
+    private static long ceilDiv(long value, long divisor) {
+        return -Math.floorDiv(-value, divisor);
+    }
+
+    /**
+     * Handle of a scheduled task.
+     */
+    public interface Timeout {
+        /**
+         * Cancels the task if it has not run yet.
+         *
+         * @return true if the task was cancelled by this call
+         */
+        boolean cancel();
+
+        boolean isCancelled();
+
+        boolean isExpired();
+
+        /**
+         * Returns the time the task is due, in milliseconds since the epoch.
+         */
+        long getDeadline();
+    }
+
+    private final class WheelTimeout implements Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private final long deadlineTick;
+        // Guarded by lock
+        private Bucket bucket;
+        private WheelTimeout next;
+        private WheelTimeout prev;
+        private boolean cancelled;
+        private boolean expired;
+
+        WheelTimeout(Runnable task, long deadline, long deadlineTick) {
+            this.task = task;
+            this.deadline = deadline;
+            this.deadlineTick = deadlineTick;
+        }
+
+        @Override
+        public boolean cancel() {
+            synchronized (lock) {
+                if (cancelled || expired) {
+                    return false;
+                }
+                cancelled = true;
+                if (bucket != null) {
+                    bucket.remove(this);
+                    pending--;
+                }
+                return true;
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            synchronized (lock) {
+                return cancelled;
+            }
+        }
+
+        @Override
+        public boolean isExpired() {
+            synchronized (lock) {
+                return expired;
+            }
+        }
+
+        @Override
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+
+    /**
+     * Doubly linked list of timeouts, guarded by the lock of the timer.
+     */
+    private static final class Bucket {
+        private WheelTimeout head;
+        private WheelTimeout tail;
+
+        void add(WheelTimeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            timeout.next = null;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void remove(WheelTimeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        /**
+         * Empties the bucket and returns its former head; the timeouts stay linked through {@code next}.
+         */
+        WheelTimeout clear() {
+            WheelTimeout first = head;
+            for (WheelTimeout timeout = head; timeout != null; timeout = timeout.next) {
+                timeout.prev = null;
+                timeout.bucket = null;
+            }
+            head = null;
+            tail = null;
+            return first;
+        }
+    }
+}
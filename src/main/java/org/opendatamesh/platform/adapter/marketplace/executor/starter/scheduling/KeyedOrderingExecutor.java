@@ -0,0 +1,318 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks on a shared executor, one at a time and in submission order for tasks with the same key, and in
+ * parallel for tasks with different keys.
+ * <p>
+ * Keys are hashed onto a fixed number of lanes. Each lane is a lock-free queue that is drained by at most one
+ * worker at a time: the first task submitted to an idle lane hands the lane to the executor, and the worker runs
+ * the queued tasks until the lane is empty or it has run {@code drainBatchSize} of them, then gives the worker back
+ * so that busy lanes cannot starve the others. Keys that hash onto the same lane are serialized together, so there
+ * should be many more lanes than workers.
+ * <p>
+ * A task submitted with {@link #executeHolding(Object, Runnable)} holds its key from the moment it starts until
+ * {@link #release(Object)} is called, for work it carries on asynchronously, e.g. a retry after a delay: the later
+ * tasks of the key are parked, in order, while the other keys of the lane keep running. The continuations of the
+ * holding task are submitted with {@link #resume(Object, Runnable)}, which runs them in the lane ahead of the parked
+ * tasks.
+ * <p>
+ * At most {@code capacity} tasks wait in the lanes, parked tasks included; further submissions are rejected with a
+ * {@link TaskRejectedException}. The executor only ever holds one drain task per lane, so its queue must be able to
+ * hold as many tasks as there are lanes.
+ */
+public class KeyedOrderingExecutor {
+    private static final Logger log = LoggerFactory.getLogger(KeyedOrderingExecutor.class);
+
+    private final Executor executor;
+    private final Lane[] lanes;
+    private final int mask;
+    private final int capacity;
+    private final int drainBatchSize;
+    private final AtomicInteger pending = new AtomicInteger();
+    // Keys held by a task, or whose parked tasks are not all drained yet
+    private final Map<Object, HeldKey> heldKeys = new ConcurrentHashMap<>();
+
+    /**
+     * @param executor       the executor running the lanes
+     * @param laneCount      number of lanes, rounded up to a power of two
+     * @param capacity       maximum number of tasks waiting in the lanes
+     * @param drainBatchSize maximum number of tasks a worker runs from one lane before giving the worker back
+     */
+    public KeyedOrderingExecutor(Executor executor, int laneCount, int capacity, int drainBatchSize) {
+        this.executor = executor;
+        this.lanes = new Lane[roundLaneCount(laneCount)];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane();
+        }
+        this.mask = lanes.length - 1;
+        this.capacity = Math.max(1, capacity);
+        this.drainBatchSize = Math.max(1, drainBatchSize);
+    }
+
+    /**
+     * Submits a task to the lane of its key.
+     *
+     * @param key  tasks with equal keys run one at a time, in submission order
+     * @param task the task to run
+     * @throws TaskRejectedException if the lanes are full or the executor does not accept tasks any more
+     */
+    public void execute(Object key, Runnable task) {
+        submit(key, task, EntryType.PLAIN);
+    }
+
+    /**
+     * Submits a task that holds its key once it starts: the later tasks of the key do not run until
+     * {@link #release(Object)} is called for it.
+     *
+     * @param key  tasks with equal keys run one at a time, in submission order; must not be null
+     * @param task the task to run
+     * @throws TaskRejectedException if the lanes are full or the executor does not accept tasks any more
+     */
+    public void executeHolding(Object key, Runnable task) {
+        if (key == null) {
+            throw new IllegalArgumentException("Only non-null keys can be held");
+        }
+        submit(key, task, EntryType.HOLDING);
+    }
+
+    /**
+     * Submits the continuation of the task holding a key. It runs in the lane of the key ahead of the parked tasks,
+     * and is not refused when the lanes are full, since it belongs to a task that was already admitted.
+     *
+     * @throws TaskRejectedException if the executor does not accept tasks any more
+     */
+    public void resume(Object key, Runnable task) {
+        pending.incrementAndGet();
+        laneOf(key).submit(new Entry(key, task, EntryType.RESUME));
+    }
+
+    /**
+     * Ends the hold of a key taken by a task submitted with {@link #executeHolding(Object, Runnable)}, and runs the
+     * tasks parked behind it.
+     */
+    public void release(Object key) {
+        boolean[] parked = new boolean[1];
+        heldKeys.computeIfPresent(key, (k, held) -> {
+            held.held = false;
+            parked[0] = !held.parked.isEmpty();
+            return parked[0] ? held : null;
+        });
+        if (parked[0]) {
+            try {
+                laneOf(key).submit(new Entry(key, null, EntryType.DRAIN));
+            } catch (TaskRejectedException e) {
+                log.warn("Executor shut down with tasks parked behind a released key");
+            }
+        }
+    }
+
+    private void submit(Object key, Runnable task, EntryType type) {
+        if (pending.incrementAndGet() > capacity) {
+            pending.decrementAndGet();
+            throw new TaskRejectedException("Ordering lanes are full (" + capacity + " pending tasks)");
+        }
+        laneOf(key).submit(new Entry(key, task, type));
+    }
+
+    /**
+     * Returns the number of tasks waiting in the lanes.
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * Returns the number of lanes actually created for a requested lane count, i.e. the capacity the queue of
+     * the executor needs.
+     */
+    public static int roundLaneCount(int laneCount) {
+        if (laneCount <= 0 || laneCount > 1 << 20) {
+            throw new IllegalArgumentException("Lane count must be between 1 and " + (1 << 20));
+        }
+        int size = 1;
+        while (size < laneCount) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private Lane laneOf(Object key) {
+        int hash = key != null ? key.hashCode() : 0;
+        // Spread the high bits, which the mask would otherwise ignore
+        return lanes[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    private enum EntryType {
+        /** A task of {@link #execute(Object, Runnable)}. */
+        PLAIN,
+        /** A task of {@link #executeHolding(Object, Runnable)}. */
+        HOLDING,
+        /** A continuation of a holding task, run even though its key is held. */
+        RESUME,
+        /** Runs the tasks parked behind a released key. */
+        DRAIN
+    }
+
+    private static final class Entry {
+        final Object key;
+        final Runnable task;
+        final EntryType type;
+
+        Entry(Object key, Runnable task, EntryType type) {
+            this.key = key;
+            this.task = task;
+            this.type = type;
+        }
+    }
+
+    /**
+     * A held key and the tasks parked behind it. Only read and updated inside the atomic operations of
+     * {@link #heldKeys} on the key.
+     */
+    private static final class HeldKey {
+        boolean held = true;
+        final Queue<Entry> parked = new ArrayDeque<>();
+    }
+
+    /**
+     * Tasks of the keys hashed onto one lane, drained by at most one worker at a time.
+     */
+    private final class Lane implements Runnable {
+        private final Queue<Entry> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void submit(Entry entry) {
+            tasks.add(entry);
+            try {
+                schedule();
+            } catch (RejectedExecutionException e) {
+                if (tasks.remove(entry) && entry.type != EntryType.DRAIN) {
+                    pending.decrementAndGet();
+                }
+                throw e instanceof TaskRejectedException ? (TaskRejectedException) e
+                        : new TaskRejectedException("Executor did not accept the ordering lane", e);
+            }
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < drainBatchSize; i++) {
+                    Entry entry = tasks.poll();
+                    if (entry == null) {
+                        break;
+                    }
+                    if (entry.type == EntryType.DRAIN) {
+                        drainParked(entry.key);
+                    } else if (!park(entry)) {
+                        pending.decrementAndGet();
+                        runTask(entry.task);
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+                // A task added after the last poll found the lane still scheduled and left it to this worker
+                if (!tasks.isEmpty()) {
+                    try {
+                        schedule();
+                    } catch (RejectedExecutionException e) {
+                        log.warn("Executor shut down with {} task(s) left in an ordering lane", tasks.size());
+                    }
+                }
+            }
+        }
+
+        /**
+         * Parks a task whose key is held or still has parked tasks, or takes the hold for a holding task that can run.
+         * Tasks are parked when they come out of the lane rather than when they are submitted, so that they keep
+         * their submission order with the tasks already in the lane.
+         *
+         * @return whether the task was parked
+         */
+        private boolean park(Entry entry) {
+            if (entry.type == EntryType.RESUME || entry.key == null) {
+                return false;
+            }
+            boolean[] parked = new boolean[1];
+            if (entry.type == EntryType.HOLDING) {
+                heldKeys.compute(entry.key, (k, held) -> {
+                    if (held == null) {
+                        return new HeldKey();
+                    }
+                    held.parked.add(entry);
+                    parked[0] = true;
+                    return held;
+                });
+            } else if (!heldKeys.isEmpty()) {
+                heldKeys.computeIfPresent(entry.key, (k, held) -> {
+                    held.parked.add(entry);
+                    parked[0] = true;
+                    return held;
+                });
+            }
+            return parked[0];
+        }
+
+        /**
+         * Runs the tasks parked behind a released key, in order, until one of them holds the key again.
+         */
+        private void drainParked(Object key) {
+            while (true) {
+                Entry[] next = new Entry[1];
+                heldKeys.computeIfPresent(key, (k, held) -> {
+                    if (held.held) {
+                        return held;
+                    }
+                    next[0] = held.parked.poll();
+                    if (next[0] == null) {
+                        return null;
+                    }
+                    held.held = next[0].type == EntryType.HOLDING;
+                    return held;
+                });
+                if (next[0] == null) {
+                    return;
+                }
+                pending.decrementAndGet();
+                runTask(next[0].task);
+            }
+        }
+
+        private void runTask(Runnable task) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.error("Task failed in ordering lane", e);
+            }
+        }
+    }
+}
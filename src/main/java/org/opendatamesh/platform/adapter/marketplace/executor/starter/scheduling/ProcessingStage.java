@@ -0,0 +1,142 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One stage of the processing pipeline: a fixed number of workers fed by a bounded queue.
+ * <p>
+ * The previous stage hands tasks over with {@link #submit(Object, Runnable, long)}, which waits for room in the
+ * queue rather than failing straight away: a stage that falls behind slows down the stage feeding it, and the queue
+ * of the first stage fills up and refuses new requests, instead of work piling up in memory between the stages.
+ * <p>
+ * When the stage is ordered, tasks submitted with equal keys run one at a time and in submission order, through a
+ * {@link KeyedOrderingExecutor} over the workers.
+ */
+public class ProcessingStage implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(ProcessingStage.class);
+
+    private final String name;
+    private final ThreadPoolExecutor workers;
+    private final KeyedOrderingExecutor lanes;
+    private final Semaphore slots;
+    private final int capacity;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final long awaitTerminationSeconds;
+
+    /**
+     * @param name                    name of the stage, used for its threads, logs and metrics
+     * @param threads                 number of workers
+     * @param capacity                maximum number of tasks waiting for a worker
+     * @param orderingLanes           number of ordering lanes, or 0 to run tasks in any order
+     * @param drainBatchSize          maximum number of tasks a worker runs from one lane before moving on
+     * @param awaitTerminationSeconds time given to the queued tasks to complete on shutdown
+     */
+    public ProcessingStage(String name, int threads, int capacity, int orderingLanes, int drainBatchSize, long awaitTerminationSeconds) {
+        this(name, threads, capacity, orderingLanes, drainBatchSize, awaitTerminationSeconds,
+                new CustomizableThreadFactory(name + "-stage-"));
+    }
+
+    /**
+     * Same as {@link #ProcessingStage(String, int, int, int, int, long)}, with the workers created by the given
+     * factory, e.g. as virtual threads.
+     */
+    public ProcessingStage(String name, int threads, int capacity, int orderingLanes, int drainBatchSize,
+                           long awaitTerminationSeconds, ThreadFactory threadFactory) {
+        this.name = name;
+        this.capacity = Math.max(1, capacity);
+        this.slots = new Semaphore(this.capacity);
+        this.awaitTerminationSeconds = awaitTerminationSeconds;
+        int workerCount = Math.max(1, threads);
+        // The slots bound the tasks of the stage; the queue of the pool itself holds at most one task per lane
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        this.lanes = orderingLanes > 0
+                ? new KeyedOrderingExecutor(workers, orderingLanes, Integer.MAX_VALUE, drainBatchSize)
+                : null;
+    }
+
+    /**
+     * Queues a task, waiting up to the given time for room in the queue.
+     *
+     * @param key           tasks with equal keys run in submission order when the stage is ordered; ignored otherwise
+     * @param task          the task to run
+     * @param timeoutMillis maximum time to wait for room in the queue
+     * @throws TaskRejectedException if the queue is still full after the timeout, or the stage is shutting down
+     */
+    public void submit(Object key, Runnable task, long timeoutMillis) {
+        try {
+            if (!slots.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new TaskRejectedException("Stage " + name + " is full (" + capacity + " queued tasks)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TaskRejectedException("Interrupted while waiting for room in stage " + name, e);
+        }
+        queued.incrementAndGet();
+        Runnable queuedTask = () -> {
+            queued.decrementAndGet();
+            slots.release();
+            task.run();
+        };
+        try {
+            if (lanes != null) {
+                lanes.execute(key, queuedTask);
+            } else {
+                workers.execute(queuedTask);
+            }
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            slots.release();
+            throw e instanceof TaskRejectedException ? (TaskRejectedException) e
+                    : new TaskRejectedException("Stage " + name + " does not accept tasks any more", e);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of tasks waiting for a worker.
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * Returns the number of workers running a task.
+     */
+    public int getActiveCount() {
+        return workers.getActiveCount();
+    }
+
+    public int getThreads() {
+        return workers.getMaximumPoolSize();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        workers.shutdown();
+        if (!workers.awaitTermination(awaitTerminationSeconds, TimeUnit.SECONDS)) {
+            log.warn("Stage {} still has {} queued task(s) after {} seconds, interrupting its workers",
+                    name, getQueueDepth(), awaitTerminationSeconds);
+            workers.shutdownNow();
+        }
+    }
+}
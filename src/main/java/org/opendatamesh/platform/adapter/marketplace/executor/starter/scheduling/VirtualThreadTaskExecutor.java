@@ -0,0 +1,75 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs every task on its own virtual thread. There is no pool to size: at most {@code maxInFlight} tasks run or
+ * wait at once, and further submissions are rejected with a {@link TaskRejectedException}, like a full queue of a
+ * thread pool. What the tasks wait for is bounded by the resource itself, e.g. SMTP connections.
+ */
+public class VirtualThreadTaskExecutor implements TaskExecutor, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadTaskExecutor.class);
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final int maxInFlight;
+    private final long awaitTerminationSeconds;
+
+    /**
+     * @throws UnsupportedOperationException if the running JVM has no virtual threads
+     */
+    public VirtualThreadTaskExecutor(String threadNamePrefix, int maxInFlight, long awaitTerminationSeconds) {
+        this.executor = VirtualThreads.newThreadPerTaskExecutor(threadNamePrefix);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.permits = new Semaphore(this.maxInFlight);
+        this.awaitTerminationSeconds = awaitTerminationSeconds;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (!permits.tryAcquire()) {
+            throw new TaskRejectedException("Too many tasks in flight (" + maxInFlight + ")");
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw new TaskRejectedException("Executor does not accept tasks any more", e);
+        }
+    }
+
+    /**
+     * Returns the number of tasks running, including the ones blocked on I/O.
+     */
+    public int getActiveCount() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(awaitTerminationSeconds, TimeUnit.SECONDS)) {
+            log.warn("{} task(s) still running after {} seconds, interrupting them", getActiveCount(), awaitTerminationSeconds);
+            executor.shutdownNow();
+        }
+    }
+}
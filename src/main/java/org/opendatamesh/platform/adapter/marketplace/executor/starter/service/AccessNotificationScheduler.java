@@ -0,0 +1,285 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.service;
+
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.DeliveryDeferredException;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.journal.NotificationStore;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.journal.NotificationStore.StoredNotification;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.RequestRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.HierarchicalTimingWheel;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.ProcessingStage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.mail.internet.MimeMessage;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends the emails that fall due after a subscription has been granted: one when access actually starts, at the
+ * start date of the request, and a reminder {@code odm.notifications.expiry-reminder-before-ms} before its end date.
+ * Enabled with {@code odm.notifications.enabled}.
+ * <p>
+ * Pending notifications wait in a {@link HierarchicalTimingWheel}, which schedules and cancels them in O(1) however
+ * many there are, and in the {@link NotificationStore}, so that they survive a restart. Revoking access cancels
+ * the pending notifications of the same consumer and data product. Due notifications are sent by the delivery stage;
+ * rate-limited and transiently failed ones are tried again later.
+ */
+@Service
+public class AccessNotificationScheduler {
+    private static final Logger log = LoggerFactory.getLogger(AccessNotificationScheduler.class);
+    private static final int LOCK_STRIPES = 64;
+
+    private final EmailService emailService;
+    private final NotificationStore store;
+    private final ProcessingStage deliveryStage;
+    private final EmailRetryScheduler retryScheduler;
+    private final boolean enabled;
+    private final long reminderBeforeMillis;
+    private final long tickMillis;
+    private final int wheelSize;
+    private final int wheelLevels;
+
+    private final Map<String, PendingNotification> pending = new ConcurrentHashMap<>();
+    // Identifiers of the pending notifications per consumer and data product, guarded by the lock of the key
+    private final Map<String, Set<String>> idsByKey = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private HierarchicalTimingWheel wheel;
+
+    @Autowired
+    public AccessNotificationScheduler(EmailService emailService,
+                                       NotificationStore store,
+                                       ProcessingStage deliveryStage,
+                                       EmailRetryScheduler retryScheduler,
+                                       @Value("${odm.notifications.enabled:false}") boolean enabled,
+                                       @Value("${odm.notifications.expiry-reminder-before-ms:86400000}") long reminderBeforeMillis,
+                                       @Value("${odm.notifications.timer.tick-ms:1000}") long tickMillis,
+                                       @Value("${odm.notifications.timer.wheel-size:512}") int wheelSize,
+                                       @Value("${odm.notifications.timer.levels:4}") int wheelLevels) {
+        this.emailService = emailService;
+        this.store = store;
+        this.deliveryStage = deliveryStage;
+        this.retryScheduler = retryScheduler;
+        this.enabled = enabled;
+        this.reminderBeforeMillis = reminderBeforeMillis;
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.wheelLevels = wheelLevels;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Starts the timer and schedules again the notifications left pending by the previous run.
+     */
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        wheel = new HierarchicalTimingWheel("access-notification-timer", tickMillis, wheelSize, wheelLevels);
+        List<StoredNotification> recovered = store.takeRecovered();
+        for (StoredNotification notification : recovered) {
+            String key = keyOf(notification.getRequest());
+            synchronized (lockOf(key)) {
+                arm(key, notification);
+            }
+        }
+        if (!recovered.isEmpty()) {
+            log.info("Rescheduled {} access notification(s) from the store", recovered.size());
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (wheel != null) {
+            wheel.stop();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Schedules the notifications of a subscription whose access has been granted. Notifications whose time has
+     * already come are not sent: access granted past its start date, or too close to its end date for a reminder,
+     * is covered by the access email itself.
+     */
+    public void scheduleFor(MarketplaceRequestRes request) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        RequestRes details = request.getRequest();
+        if (details.getStartDate() != null && details.getStartDate().getTime() > now) {
+            schedule(new StoredNotification(EmailService.ACCESS_START_OPERATION + ":" + details.getIdentifier(),
+                    EmailService.ACCESS_START_OPERATION, details.getStartDate().getTime(), request));
+        }
+        if (details.getEndDate() != null && details.getEndDate().getTime() - reminderBeforeMillis > now) {
+            schedule(new StoredNotification(EmailService.EXPIRY_REMINDER_OPERATION + ":" + details.getIdentifier(),
+                    EmailService.EXPIRY_REMINDER_OPERATION, details.getEndDate().getTime() - reminderBeforeMillis, request));
+        }
+    }
+
+    /**
+     * Cancels the pending notifications of the consumer and data product of an unsubscription.
+     *
+     * @return the number of notifications cancelled
+     */
+    public int cancelFor(MarketplaceRequestRes request) {
+        if (!enabled) {
+            return 0;
+        }
+        String key = keyOf(request);
+        synchronized (lockOf(key)) {
+            Set<String> ids = idsByKey.remove(key);
+            if (ids == null) {
+                return 0;
+            }
+            for (String id : ids) {
+                PendingNotification notification = pending.remove(id);
+                if (notification != null) {
+                    notification.timeout.cancel();
+                    store.remove(id);
+                }
+            }
+            log.info("Cancelled {} pending access notification(s) of {}", ids.size(), key);
+            return ids.size();
+        }
+    }
+
+    /**
+     * Number of notifications scheduled and not sent yet.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    private void schedule(StoredNotification notification) {
+        String key = keyOf(notification.getRequest());
+        synchronized (lockOf(key)) {
+            try {
+                store.save(notification);
+            } catch (IllegalStateException e) {
+                // Still sent if the service keeps running
+                log.error("Could not store {} notification of request {}, it will be lost on restart",
+                        notification.getKind(), notification.getRequest().getRequest().getIdentifier(), e);
+            }
+            arm(key, notification);
+        }
+    }
+
+    /**
+     * Puts a notification in the timer; the caller holds the lock of the key.
+     */
+    private void arm(String key, StoredNotification notification) {
+        PendingNotification armed = new PendingNotification(notification, key);
+        armed.timeout = wheel.schedule(() -> onDue(armed), notification.getDeadline());
+        PendingNotification previous = pending.put(notification.getId(), armed);
+        if (previous != null) {
+            previous.timeout.cancel();
+        }
+        idsByKey.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(notification.getId());
+    }
+
+    /**
+     * Runs on the timer thread: hands the notification over to the delivery stage without waiting.
+     */
+    private void onDue(PendingNotification notification) {
+        try {
+            deliveryStage.submit(notification.key, () -> send(notification), 0);
+        } catch (TaskRejectedException e) {
+            retryLater(notification, retryScheduler.nextDelayMillis(1));
+        }
+    }
+
+    private void send(PendingNotification notification) {
+        if (pending.get(notification.stored.getId()) != notification) {
+            // Cancelled or replaced while waiting for the delivery stage
+            return;
+        }
+        MarketplaceRequestRes request = notification.stored.getRequest();
+        String kind = notification.stored.getKind();
+        try {
+            MimeMessage message = EmailService.ACCESS_START_OPERATION.equals(kind)
+                    ? emailService.prepareAccessStartEmail(request)
+                    : emailService.prepareExpiryReminderEmail(request);
+            emailService.deliver(kind, message);
+            log.info("{} email for request {} sent successfully", kind, request.getRequest().getIdentifier());
+            complete(notification);
+        } catch (DeliveryDeferredException e) {
+            retryLater(notification, e.getDelayMillis());
+        } catch (Exception e) {
+            int attempt = ++notification.attempts;
+            if (retryScheduler.shouldRetry(e, attempt)) {
+                retryLater(notification, retryScheduler.nextDelayMillis(attempt));
+            } else {
+                log.error("Failed to send {} email for request {} after {} attempt(s)", kind, request.getRequest().getIdentifier(), attempt, e);
+                complete(notification);
+            }
+        }
+    }
+
+    private void retryLater(PendingNotification notification, long delayMillis) {
+        synchronized (lockOf(notification.key)) {
+            if (pending.get(notification.stored.getId()) != notification) {
+                return;
+            }
+            try {
+                notification.timeout = wheel.schedule(() -> onDue(notification), System.currentTimeMillis() + delayMillis);
+            } catch (IllegalStateException e) {
+                // Shutting down: the store still holds the notification, which is sent again on restart
+            }
+        }
+    }
+
+    private void complete(PendingNotification notification) {
+        synchronized (lockOf(notification.key)) {
+            String id = notification.stored.getId();
+            if (!pending.remove(id, notification)) {
+                return;
+            }
+            Set<String> ids = idsByKey.get(notification.key);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    idsByKey.remove(notification.key);
+                }
+            }
+            store.remove(id);
+        }
+    }
+
+    private Object lockOf(String key) {
+        return locks[Math.floorMod(key.hashCode(), locks.length)];
+    }
+
+    private static String keyOf(MarketplaceRequestRes request) {
+        if (request.getRequest().getConsumer() == null || request.getRequest().getProvider() == null) {
+            return request.getRequest().getIdentifier();
+        }
+        return request.getRequest().getConsumer().getIdentifier() + "|" + request.getRequest().getProvider().getDataProductFqn();
+    }
+
+    private static final class PendingNotification {
+        private final StoredNotification stored;
+        private final String key;
+        private volatile HierarchicalTimingWheel.Timeout timeout;
+        // Only touched by the delivery stage, which runs the notifications of a key one at a time
+        private int attempts;
+
+        PendingNotification(StoredNotification stored, String key) {
+            this.stored = stored;
+            this.key = key;
+        }
+    }
+}
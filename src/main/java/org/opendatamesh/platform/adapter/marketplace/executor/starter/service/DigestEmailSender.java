@@ -0,0 +1,34 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.service;
+
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.DeliveryDeferredException;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
+
+import java.util.List;
+
+/**
+ * Sends the emails of the {@link EmailDigestService}: a digest holding several requests, or the regular email of a
+ * digest holding a single one. Implemented by the {@link EmailService}.
+ */
+public interface DigestEmailSender {
+
+    /**
+     * Sends an email to the requester when access is granted.
+     *
+     * @throws DeliveryDeferredException if the recipient domain is over its rate limit
+     */
+    void sendAccessEmail(MarketplaceRequestRes request);
+
+    /**
+     * Sends an email to the requester when access is revoked.
+     *
+     * @throws DeliveryDeferredException if the recipient domain is over its rate limit
+     */
+    void sendUnsubscribeEmail(MarketplaceRequestRes request);
+
+    /**
+     * Sends a single email summarising several requests of the same requester.
+     *
+     * @throws DeliveryDeferredException if the recipient domain is over its rate limit
+     */
+    void sendDigestEmail(String recipient, List<MarketplaceRequestRes> requests);
+}
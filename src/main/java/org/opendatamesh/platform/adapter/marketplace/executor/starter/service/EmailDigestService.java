@@ -0,0 +1,208 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.service;
+
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.DeliveryDeferredException;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.HashedWheelTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coalesces the emails of the same requester into a single digest email.
+ * The first request of a requester opens a digest that collects that requester's requests for
+ * {@code odm.email.digest.window-ms}, or until {@code odm.email.digest.max-size} requests have been collected; the
+ * digest is then rendered with the digest template and sent as one email. A digest holding a single request is sent
+ * with the regular template of its operation.
+ * <p>
+ * Every request gets its own future, completed once the digest has been sent, so that each request still gets its
+ * own marketplace result. Collecting does not hold a processing worker: digests are sent by
+ * {@code odm.email.digest.sender-threads} dedicated threads.
+ */
+@Service
+public class EmailDigestService {
+    private static final Logger log = LoggerFactory.getLogger(EmailDigestService.class);
+
+    private final DigestEmailSender emailSender;
+    private final boolean enabled;
+    private final long windowMillis;
+    private final int maxSize;
+
+    private final Map<String, Digest> openDigests = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final HashedWheelTimer timer;
+    private final ExecutorService senders;
+
+    @Autowired
+    public EmailDigestService(DigestEmailSender emailSender,
+                              @Value("${odm.email.digest.enabled:false}") boolean enabled,
+                              @Value("${odm.email.digest.window-ms:30000}") long windowMillis,
+                              @Value("${odm.email.digest.max-size:50}") int maxSize,
+                              @Value("${odm.email.digest.sender-threads:2}") int senderThreads) {
+        this.emailSender = emailSender;
+        this.enabled = enabled;
+        this.windowMillis = Math.max(0, windowMillis);
+        this.maxSize = Math.max(1, maxSize);
+        if (enabled) {
+            this.timer = new HashedWheelTimer("email-digest-timer", 100, 512);
+            this.senders = Executors.newFixedThreadPool(Math.max(1, senderThreads), new CustomizableThreadFactory("email-digest-"));
+        } else {
+            this.timer = null;
+            this.senders = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Adds the email of a request to the open digest of its requester, opening one if needed.
+     *
+     * @param request a subscription or unsubscription request
+     * @return a future completed when the digest holding the request has been sent,
+     * or completed exceptionally with the cause of the delivery failure
+     */
+    public CompletableFuture<Void> submit(MarketplaceRequestRes request) {
+        String recipient = request.getRequest().getRequester().getIdentifier();
+        String key = recipient.trim().toLowerCase(Locale.ROOT);
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        Digest[] full = new Digest[1];
+        openDigests.compute(key, (k, digest) -> {
+            if (digest == null) {
+                Digest opened = new Digest(recipient);
+                opened.timeout = timer.schedule(() -> close(k, opened), windowMillis, TimeUnit.MILLISECONDS);
+                digest = opened;
+            }
+            digest.add(request, result);
+            pendingCount.incrementAndGet();
+            if (digest.size() >= maxSize) {
+                full[0] = digest;
+                return null;
+            }
+            return digest;
+        });
+        if (full[0] != null) {
+            full[0].timeout.cancel();
+            submitSend(full[0]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of requests waiting in a digest.
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * Sends the open digests straight away and stops.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (!enabled) {
+            return;
+        }
+        timer.stop();
+        for (String key : new ArrayList<>(openDigests.keySet())) {
+            Digest digest = openDigests.remove(key);
+            if (digest != null) {
+                submitSend(digest);
+            }
+        }
+        senders.shutdown();
+        if (!senders.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Pending digest emails were not sent before shutdown");
+        }
+    }
+
+    private void close(String key, Digest digest) {
+        if (openDigests.remove(key, digest)) {
+            submitSend(digest);
+        }
+    }
+
+    private void submitSend(Digest digest) {
+        try {
+            senders.execute(() -> send(digest));
+        } catch (RejectedExecutionException e) {
+            finish(digest, e);
+        }
+    }
+
+    private void send(Digest digest) {
+        try {
+            if (digest.size() == 1) {
+                MarketplaceRequestRes request = digest.requests.get(0);
+                if ("MARKETPLACE_UNSUBSCRIBE".equals(request.getOperation())) {
+                    emailSender.sendUnsubscribeEmail(request);
+                } else {
+                    emailSender.sendAccessEmail(request);
+                }
+            } else {
+                emailSender.sendDigestEmail(digest.recipient, digest.requests);
+            }
+            finish(digest, null);
+        } catch (DeliveryDeferredException e) {
+            // Over the rate limit of the recipient domain: send the same digest once its turn comes
+            try {
+                timer.schedule(() -> submitSend(digest), e.getDelayMillis(), TimeUnit.MILLISECONDS);
+            } catch (IllegalStateException stopped) {
+                finish(digest, e);
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to send digest of {} email(s) to {}", digest.size(), digest.recipient, e);
+            finish(digest, e);
+        }
+    }
+
+    private void finish(Digest digest, Throwable failure) {
+        pendingCount.addAndGet(-digest.size());
+        for (CompletableFuture<Void> result : digest.results) {
+            if (failure == null) {
+                result.complete(null);
+            } else {
+                result.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * Requests collected for one requester, with the futures of their callers.
+     */
+    private static class Digest {
+        private final String recipient;
+        private final List<MarketplaceRequestRes> requests = new ArrayList<>();
+        private final List<CompletableFuture<Void>> results = new ArrayList<>();
+        private HashedWheelTimer.Timeout timeout;
+
+        Digest(String recipient) {
+            this.recipient = recipient;
+        }
+
+        void add(MarketplaceRequestRes request, CompletableFuture<Void> result) {
+            requests.add(request);
+            results.add(result);
+        }
+
+        int size() {
+            return requests.size();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.service;
+
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.SmtpFailureClassifier;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.ExponentialBackoff;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.HashedWheelTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules new attempts of email deliveries that failed for a transient reason.
+ * The delay grows exponentially with the number of attempts, up to {@code odm.email.retry.max-delay-ms}, and is
+ * randomised by {@code odm.email.retry.jitter} (see {@link ExponentialBackoff}). Pending retries are kept on a
+ * {@link HashedWheelTimer}.
+ */
+@Component
+public class EmailRetryScheduler {
+    private static final Logger log = LoggerFactory.getLogger(EmailRetryScheduler.class);
+
+    private final boolean enabled;
+    private final int maxAttempts;
+    private final ExponentialBackoff backoff;
+    private final HashedWheelTimer timer;
+
+    @Autowired
+    public EmailRetryScheduler(@Value("${odm.email.retry.enabled:true}") boolean enabled,
+                               @Value("${odm.email.retry.max-attempts:5}") int maxAttempts,
+                               @Value("${odm.email.retry.initial-delay-ms:1000}") long initialDelayMillis,
+                               @Value("${odm.email.retry.multiplier:2.0}") double multiplier,
+                               @Value("${odm.email.retry.max-delay-ms:300000}") long maxDelayMillis,
+                               @Value("${odm.email.retry.jitter:0.2}") double jitter,
+                               @Value("${odm.email.retry.timer-tick-ms:100}") long tickMillis,
+                               @Value("${odm.email.retry.timer-wheel-size:512}") int wheelSize) {
+        this.enabled = enabled;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoff = new ExponentialBackoff(initialDelayMillis, multiplier, maxDelayMillis, jitter);
+        this.timer = new HashedWheelTimer("email-retry-timer", tickMillis, wheelSize);
+    }
+
+    /**
+     * Tells whether a failed delivery should be attempted again.
+     *
+     * @param failure the cause of the failure
+     * @param attempt the number of the attempt that failed, starting from 1
+     */
+    public boolean shouldRetry(Throwable failure, int attempt) {
+        return canRetry(attempt) && SmtpFailureClassifier.isTransient(failure);
+    }
+
+    /**
+     * Tells whether an attempt that failed for a reason known to be transient should be followed by another one.
+     *
+     * @param attempt the number of the attempt that failed, starting from 1
+     */
+    public boolean canRetry(int attempt) {
+        return enabled && attempt < maxAttempts;
+    }
+
+    /**
+     * Computes the delay before the attempt following the given one.
+     *
+     * @param attempt the number of the attempt that failed, starting from 1
+     * @return the delay in milliseconds, including jitter
+     */
+    public long nextDelayMillis(int attempt) {
+        return backoff.delayMillis(attempt);
+    }
+
+    /**
+     * Runs a task after the given delay. The task runs on the timer thread and must only hand off work.
+     */
+    public void schedule(Runnable task, long delayMillis) {
+        timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public int getPendingCount() {
+        return timer.getPendingCount();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        int discarded = timer.stop();
+        if (discarded > 0) {
+            log.warn("Discarded {} pending email retries at shutdown", discarded);
+        }
+    }
+}
@@ -1,28 +1,25 @@
 package org.opendatamesh.platform.adapter.marketplace.executor.starter.service;
 
-import com.github.mustachejava.DefaultMustacheFactory;
 import com.github.mustachejava.Mustache;
-import com.github.mustachejava.MustacheFactory;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.template.EmailTemplateRegistry;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.template.TemplateBodyPart;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.metrics.MarketplaceMetrics;
 import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
-import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.MarketplaceMailSender;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.DeliveryDeferredException;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.MailDispatcher;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.RecipientDomainRateLimiter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.stereotype.Service;
-import org.springframework.core.io.Resource;
-import org.springframework.util.StreamUtils;
 
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 /**
  * Service class for handling email operations in the marketplace.
@@ -31,152 +28,243 @@ import java.util.Map;
  */
 
 @Service
-public class EmailService {
+public class EmailService implements DigestEmailSender {
     private static final Logger log = LoggerFactory.getLogger(EmailService.class);
-    private final MarketplaceMailSender mailSender;
-    private final MustacheFactory mustacheFactory;
+    private static final String DIGEST_OPERATION = "DIGEST";
+    public static final String ACCESS_START_OPERATION = "ACCESS_START";
+    public static final String EXPIRY_REMINDER_OPERATION = "EXPIRY_REMINDER";
+    private final MailDispatcher mailSender;
+    private final EmailTemplateRegistry templateRegistry;
     private final String senderEmail;
     private final String subscribeTemplatePath;
     private final String unsubscribeTemplatePath;
+    private final String digestTemplatePath;
+    private final String accessStartTemplatePath;
+    private final String expiryReminderTemplatePath;
     private final boolean useHtml;
+    private final MarketplaceMetrics metrics;
+    private final RecipientDomainRateLimiter rateLimiter;
 
     @Autowired
-    public EmailService(MarketplaceMailSender mailSender,
+    public EmailService(MailDispatcher mailSender,
+                        EmailTemplateRegistry templateRegistry,
+                        MarketplaceMetrics metrics,
+                        RecipientDomainRateLimiter rateLimiter,
                         @Value("${odm.email.from}") String senderEmail,
                         @Value("${odm.email.subscribe-template-path}") String subscribeTemplatePath,
                         @Value("${odm.email.unsubscribe-template-path}") String unsubscribeTemplatePath,
+                        @Value("${odm.email.digest-template-path:classpath:templates/email/digest-template.mustache}") String digestTemplatePath,
+                        @Value("${odm.email.access-start-template-path:classpath:templates/email/access-start-template.mustache}") String accessStartTemplatePath,
+                        @Value("${odm.email.expiry-reminder-template-path:classpath:templates/email/expiry-reminder-template.mustache}") String expiryReminderTemplatePath,
                         @Value("${odm.email.useHtml:false}") boolean useHtml) {
         this.mailSender = mailSender;
         this.senderEmail = senderEmail;
         this.subscribeTemplatePath = subscribeTemplatePath;
         this.unsubscribeTemplatePath = unsubscribeTemplatePath;
-        this.mustacheFactory = new DefaultMustacheFactory();
+        this.digestTemplatePath = digestTemplatePath;
+        this.accessStartTemplatePath = accessStartTemplatePath;
+        this.expiryReminderTemplatePath = expiryReminderTemplatePath;
+        this.templateRegistry = templateRegistry;
         this.useHtml = useHtml;
+        this.metrics = metrics;
+        this.rateLimiter = rateLimiter;
     }
 
     /**
-     * Loads a Mustache template from a file or classpath. The template is used to send emails to the requester.
-     * Templates can be configured using the following properties:
-     * - odm.email.subscribe-template-path
-     * - odm.email.unsubscribe-template-path
+     * Sends an email to the requester when access is granted.
      * 
-     * @param templatePath The path to the template file
-     * @return The template content as a string
-     * @throws IllegalArgumentException if templatePath is null
-     * @throws IllegalStateException if template cannot be loaded from file or classpath
+     * @param request The marketplace request containing the access details
+     * @throws DeliveryDeferredException if the recipient domain is over its rate limit
      */
-    private String loadTemplate(String templatePath) {
-        validateTemplatePath(templatePath);
-        
-        String template = tryLoadFromFileSystem(templatePath);
-        if (template != null) {
-            return template;
-        }
+    @Override
+    public void sendAccessEmail(MarketplaceRequestRes request) {
+        deliver(request.getOperation(), prepareAccessEmail(request));
+        log.info("Access email sent successfully to {}", request.getRequest().getRequester().getIdentifier());
+    }
 
-        template = tryLoadFromClasspath(templatePath);
-        if (template != null) {
-            return template;
-        }
+    /**
+     * Sends an email to the requester when access is revoked.
+     * 
+     * @param request The marketplace request containing the access details
+     * @throws DeliveryDeferredException if the recipient domain is over its rate limit
+     */
+    @Override
+    public void sendUnsubscribeEmail(MarketplaceRequestRes request) {
+        deliver(request.getOperation(), prepareUnsubscribeEmail(request));
+        log.info("Unsubscribe email sent successfully to {}", request.getRequest().getRequester().getIdentifier());
+    }
 
-        throw new IllegalStateException("Could not load email template from path: " + templatePath);
+    /**
+     * Assembles the email sent to the requester when access is granted, to be sent with
+     * {@link #deliver(String, MimeMessage)}. The body is rendered when the email is sent.
+     *
+     * @param request The marketplace request containing the access details
+     * @throws DeliveryDeferredException if the recipient domain is over its rate limit
+     */
+    public MimeMessage prepareAccessEmail(MarketplaceRequestRes request) {
+        return prepare(request, request.getOperation(), subscribeTemplatePath, "subscribe-email-template", "Access Granted: ");
     }
 
-    private void validateTemplatePath(String templatePath) {
-        if (templatePath == null) {
-            throw new IllegalArgumentException("Template path cannot be null");
-        }
+    /**
+     * Assembles the email sent to the requester when access is revoked, to be sent with
+     * {@link #deliver(String, MimeMessage)}. The body is rendered when the email is sent.
+     *
+     * @param request The marketplace request containing the access details
+     * @throws DeliveryDeferredException if the recipient domain is over its rate limit
+     */
+    public MimeMessage prepareUnsubscribeEmail(MarketplaceRequestRes request) {
+        return prepare(request, request.getOperation(), unsubscribeTemplatePath, "unsubscribe-email-template", "Unsubscription Confirmed: ");
     }
 
-    private String tryLoadFromFileSystem(String templatePath) {
-        if (templatePath.isEmpty()) {
-            return null;
-        }
+    /**
+     * Assembles the email sent to the requester when granted access actually starts, at the start date of the
+     * request.
+     *
+     * @param request The subscription request containing the access details
+     * @throws DeliveryDeferredException if the recipient domain is over its rate limit
+     */
+    public MimeMessage prepareAccessStartEmail(MarketplaceRequestRes request) {
+        return prepare(request, ACCESS_START_OPERATION, accessStartTemplatePath, "access-start-email-template", "Access Started: ");
+    }
 
-        try {
-            if (Files.exists(Paths.get(templatePath))) {
-                return new String(Files.readAllBytes(Paths.get(templatePath)), StandardCharsets.UTF_8);
-            }
-        } catch (IOException e) {
-            log.warn("Could not load template from file '{}': {}", templatePath, e.getMessage());
-        }
-        return null;
+    /**
+     * Assembles the email reminding the requester that access is about to expire, shortly before the end date of
+     * the request.
+     *
+     * @param request The subscription request containing the access details
+     * @throws DeliveryDeferredException if the recipient domain is over its rate limit
+     */
+    public MimeMessage prepareExpiryReminderEmail(MarketplaceRequestRes request) {
+        return prepare(request, EXPIRY_REMINDER_OPERATION, expiryReminderTemplatePath, "expiry-reminder-email-template", "Access Expiring Soon: ");
     }
 
-    private String tryLoadFromClasspath(String templatePath) {
+    /**
+     * Sends an email assembled by one of the {@code prepare} methods, rendering its body on the way.
+     *
+     * @param operation the operation the email was prepared for, used to tag metrics
+     * @param message the email to send
+     */
+    public void deliver(String operation, MimeMessage message) {
         try {
-            Resource resource = new org.springframework.core.io.DefaultResourceLoader().getResource(templatePath);
-            if (resource.exists()) {
-                return StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8);
-            }
-        } catch (IOException e) {
-            log.warn("Could not load default template from classpath: {}", e.getMessage());
+            send(operation, message);
+        } catch (MessagingException e) {
+            log.error("Failed to send {} email", describe(operation), e);
+            throw new RuntimeException("Failed to send " + describe(operation) + " email", e);
         }
-        return null;
     }
 
     /**
-     * Sends an email to the requester when access is granted.
-     * 
-     * @param request The marketplace request containing the access details
+     * Sends a single email summarising several requests of the same requester.
+     *
+     * @param recipient the email address of the requester
+     * @param requests the requests to summarise, subscriptions and unsubscriptions alike
+     * @throws DeliveryDeferredException if the recipient domain is over its rate limit
      */
-    public void sendAccessEmail(MarketplaceRequestRes request) {
+    @Override
+    public void sendDigestEmail(String recipient, List<MarketplaceRequestRes> requests) {
         try {
-            String template = loadTemplate(subscribeTemplatePath);
-            Mustache mustache = mustacheFactory.compile(new StringReader(template), "subscribe-email-template");
+            long delayMillis = rateLimiter.reserve(recipient, DIGEST_OPERATION + ":" + requests.get(0).getRequest().getIdentifier());
+            if (delayMillis > 0) {
+                throw new DeliveryDeferredException("Rate limit reached for the domain of " + recipient, delayMillis);
+            }
+            Mustache mustache = templateRegistry.getTemplate(digestTemplatePath, "digest-email-template");
 
+            List<MarketplaceRequestRes> subscriptions = new ArrayList<>();
+            List<MarketplaceRequestRes> unsubscriptions = new ArrayList<>();
+            for (MarketplaceRequestRes request : requests) {
+                if ("MARKETPLACE_UNSUBSCRIBE".equals(request.getOperation())) {
+                    unsubscriptions.add(request);
+                } else {
+                    subscriptions.add(request);
+                }
+            }
             Map<String, Object> context = new HashMap<>();
-            context.put("data", request);
-
-            StringWriter writer = new StringWriter();
-            mustache.execute(writer, context);
-            String emailContent = writer.toString();
+            context.put("requester", recipient);
+            context.put("count", requests.size());
+            context.put("subscriptions", subscriptions);
+            context.put("unsubscriptions", unsubscriptions);
+            context.put("hasSubscriptions", !subscriptions.isEmpty());
+            context.put("hasUnsubscriptions", !unsubscriptions.isEmpty());
 
             MimeMessage message = mailSender.createMimeMessage();
             MimeMessageHelper helper = new MimeMessageHelper(message, true);
 
             helper.setFrom(senderEmail);
-            helper.setTo(request.getRequest().getRequester().getIdentifier());
-            helper.setSubject("Access Granted: " + request.getRequest().getProvider().getDataProductFqn());
-            helper.setText(emailContent, useHtml);
+            helper.setTo(recipient);
+            helper.setSubject("Marketplace Updates: " + requests.size() + " requests processed");
+            setBody(helper, mustache, context, DIGEST_OPERATION);
 
-            mailSender.send(message);
-            log.info("Access email sent successfully to {}", request.getRequest().getRequester().getIdentifier());
+            send(DIGEST_OPERATION, message);
+            log.info("Digest email for {} requests sent successfully to {}", requests.size(), recipient);
         } catch (MessagingException e) {
-            log.error("Failed to send access email", e);
-            throw new RuntimeException("Failed to send access email", e);
+            log.error("Failed to send digest email", e);
+            throw new RuntimeException("Failed to send digest email", e);
         }
     }
 
-    /**
-     * Sends an email to the requester when access is revoked.
-     * 
-     * @param request The marketplace request containing the access details
-     */
-    public void sendUnsubscribeEmail(MarketplaceRequestRes request) {
+    private MimeMessage prepare(MarketplaceRequestRes request, String operation, String templatePath, String templateName, String subjectPrefix) {
         try {
-            String template = loadTemplate(unsubscribeTemplatePath);
-            Mustache mustache = mustacheFactory.compile(new StringReader(template), "unsubscribe-email-template");
+            checkRateLimit(request, operation);
+            Mustache mustache = templateRegistry.getTemplate(templatePath, templateName);
 
             Map<String, Object> context = new HashMap<>();
             context.put("data", request);
 
-            StringWriter writer = new StringWriter();
-            mustache.execute(writer, context);
-            String emailContent = writer.toString();
-
             MimeMessage message = mailSender.createMimeMessage();
             MimeMessageHelper helper = new MimeMessageHelper(message, true);
 
             helper.setFrom(senderEmail);
             helper.setTo(request.getRequest().getRequester().getIdentifier());
-            helper.setSubject("Unsubscription Confirmed: " + request.getRequest().getProvider().getDataProductFqn());
-            helper.setText(emailContent, useHtml);
+            helper.setSubject(subjectPrefix + request.getRequest().getProvider().getDataProductFqn());
+            setBody(helper, mustache, context, operation);
+            return message;
+        } catch (MessagingException e) {
+            log.error("Failed to prepare {} email", describe(operation), e);
+            throw new RuntimeException("Failed to prepare " + describe(operation) + " email", e);
+        }
+    }
+
+    private static String describe(String operation) {
+        switch (operation) {
+            case "MARKETPLACE_UNSUBSCRIBE":
+                return "unsubscribe";
+            case ACCESS_START_OPERATION:
+                return "access start";
+            case EXPIRY_REMINDER_OPERATION:
+                return "expiry reminder";
+            default:
+                return "access";
+        }
+    }
+
+    /**
+     * Checked before the email is rendered, so that deferred emails cost nothing until they can be sent.
+     */
+    private void checkRateLimit(MarketplaceRequestRes request, String operation) {
+        String recipient = request.getRequest().getRequester().getIdentifier();
+        long delayMillis = rateLimiter.reserve(recipient, operation + ":" + request.getRequest().getIdentifier());
+        if (delayMillis > 0) {
+            throw new DeliveryDeferredException("Rate limit reached for the domain of " + recipient, delayMillis);
+        }
+    }
+
+    /**
+     * Adds the body rendered from the template. The template is rendered while the message is written to the SMTP
+     * server, straight into the encoded message, so the time it takes is recorded from there.
+     */
+    private void setBody(MimeMessageHelper helper, Mustache mustache, Map<String, Object> context, String operation) throws MessagingException {
+        helper.getMimeMultipart().addBodyPart(new TemplateBodyPart(mustache, context, useHtml,
+                renderNanos -> metrics.recordRender(operation, renderNanos)));
+    }
 
+    private void send(String operation, MimeMessage message) throws MessagingException {
+        long sendStart = System.nanoTime();
+        boolean success = false;
+        try {
             mailSender.send(message);
-            log.info("Unsubscribe email sent successfully to {}", request.getRequest().getRequester().getIdentifier());
-        } catch (MessagingException e) {
-            log.error("Failed to send unsubscribe email", e);
-            throw new RuntimeException("Failed to send unsubscribe email", e);
+            success = true;
+        } finally {
+            metrics.recordSend(operation, success, System.nanoTime() - sendStart);
         }
     }
-} 
\ No newline at end of file
+}
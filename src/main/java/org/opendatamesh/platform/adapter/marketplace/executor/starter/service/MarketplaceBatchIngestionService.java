@@ -0,0 +1,181 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.exception.BadRequestException;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.exception.OdmApiException;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.exception.TooManyRequestsException;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceBatchItemResultRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceBatchResultRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Accepts many marketplace requests in a single HTTP call.
+ * The body is either a JSON array of requests or a stream of newline-delimited JSON requests (NDJSON). It is read
+ * one item at a time, so the whole body is never held in memory: items are validated with the same rules as a
+ * single request and the valid ones are submitted in chunks of {@code odm.processing.batch.chunk-size}, each chunk
+ * being written to the journal with one disk flush.
+ */
+@Service
+public class MarketplaceBatchIngestionService {
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final MarketplaceRequestSubmitter requestSubmitter;
+    private final int chunkSize;
+    private final int maxItems;
+
+    @Autowired
+    public MarketplaceBatchIngestionService(ObjectMapper objectMapper,
+                                            Validator validator,
+                                            MarketplaceRequestSubmitter requestSubmitter,
+                                            @Value("${odm.processing.batch.chunk-size:100}") int chunkSize,
+                                            @Value("${odm.processing.batch.max-items:10000}") int maxItems) {
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.requestSubmitter = requestSubmitter;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.maxItems = Math.max(1, maxItems);
+    }
+
+    /**
+     * Reads, validates and submits the requests of a batch.
+     *
+     * @param body a JSON array of requests, or requests separated by whitespace or new lines
+     * @return the outcome of every item read
+     * @throws BadRequestException if the body is empty or not JSON at all
+     */
+    public MarketplaceBatchResultRes processBatch(InputStream body) {
+        MarketplaceBatchResultRes result = new MarketplaceBatchResultRes();
+        // Valid requests not submitted yet, and their results in the same order
+        List<MarketplaceRequestRes> chunk = new ArrayList<>(chunkSize);
+        List<MarketplaceBatchItemResultRes> chunkResults = new ArrayList<>(chunkSize);
+        int index = 0;
+
+        // A root-level array is unwrapped by the iterator, so arrays and NDJSON are read the same way
+        try (MappingIterator<JsonNode> items = objectMapper.readerFor(JsonNode.class).readValues(body)) {
+            JsonNode item;
+            while ((item = readNext(items, index, result)) != null) {
+                if (index >= maxItems) {
+                    result.addItem(refused(index, null, new BadRequestException(
+                            "Batch exceeds the maximum of " + maxItems + " items, remaining items were not read")));
+                    break;
+                }
+                MarketplaceBatchItemResultRes itemResult = validate(index, item, chunk);
+                if (itemResult.isAccepted()) {
+                    chunkResults.add(itemResult);
+                    if (chunk.size() == chunkSize) {
+                        submit(chunk, chunkResults, result);
+                    }
+                } else {
+                    result.addItem(itemResult);
+                }
+                index++;
+            }
+        } catch (IOException e) {
+            throw new BadRequestException("Malformed batch body: " + e.getMessage(), e);
+        }
+        submit(chunk, chunkResults, result);
+
+        if (index == 0 && result.getItems().isEmpty()) {
+            throw new BadRequestException("Batch contains no requests");
+        }
+        result.getItems().sort(Comparator.comparingInt(MarketplaceBatchItemResultRes::getIndex));
+        return result;
+    }
+
+    /**
+     * Reads the next item of the batch.
+     *
+     * @return the item, or null at the end of the body or when the rest of the body is malformed
+     */
+    private JsonNode readNext(MappingIterator<JsonNode> items, int index, MarketplaceBatchResultRes result) {
+        try {
+            return items.hasNextValue() ? items.nextValue() : null;
+        } catch (IOException e) {
+            if (index == 0 && result.getItems().isEmpty()) {
+                throw new BadRequestException("Malformed batch body: " + e.getMessage(), e);
+            }
+            // Items before the malformed one have already been submitted and are reported as such
+            result.addItem(refused(index, null, new BadRequestException(
+                    "Malformed batch body, remaining items were not read: " + e.getMessage(), e)));
+            return null;
+        }
+    }
+
+    private MarketplaceBatchItemResultRes validate(int index, JsonNode item, List<MarketplaceRequestRes> chunk) {
+        String identifier = item.path("request").path("identifier").asText(null);
+        MarketplaceRequestRes request;
+        try {
+            request = objectMapper.treeToValue(item, MarketplaceRequestRes.class);
+        } catch (JsonProcessingException e) {
+            return refused(index, identifier, new BadRequestException("Malformed request: " + e.getOriginalMessage(), e));
+        }
+
+        Set<ConstraintViolation<MarketplaceRequestRes>> violations = validator.validate(request);
+        if (!violations.isEmpty()) {
+            String message = violations.stream()
+                    .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                    .sorted()
+                    .collect(Collectors.joining(", "));
+            return refused(index, identifier, new BadRequestException("Validation failed: " + message));
+        }
+        try {
+            requestSubmitter.validateRequest(request);
+        } catch (OdmApiException e) {
+            return refused(index, identifier, e);
+        }
+
+        chunk.add(request);
+        MarketplaceBatchItemResultRes itemResult = new MarketplaceBatchItemResultRes();
+        itemResult.setIndex(index);
+        itemResult.setIdentifier(identifier);
+        itemResult.setAccepted(true);
+        itemResult.setStatus(HttpStatus.ACCEPTED.value());
+        return itemResult;
+    }
+
+    private void submit(List<MarketplaceRequestRes> chunk, List<MarketplaceBatchItemResultRes> chunkResults,
+                        MarketplaceBatchResultRes result) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        List<OdmApiException> outcomes = requestSubmitter.submitAll(chunk);
+        for (int i = 0; i < chunkResults.size(); i++) {
+            MarketplaceBatchItemResultRes itemResult = chunkResults.get(i);
+            OdmApiException refusal = outcomes.get(i);
+            result.addItem(refusal == null ? itemResult : refused(itemResult.getIndex(), itemResult.getIdentifier(), refusal));
+        }
+        chunk.clear();
+        chunkResults.clear();
+    }
+
+    private static MarketplaceBatchItemResultRes refused(int index, String identifier, OdmApiException refusal) {
+        MarketplaceBatchItemResultRes itemResult = new MarketplaceBatchItemResultRes();
+        itemResult.setIndex(index);
+        itemResult.setIdentifier(identifier);
+        itemResult.setAccepted(false);
+        itemResult.setStatus(refusal.getStatus().value());
+        itemResult.setError(refusal.getErrorName());
+        itemResult.setMessage(refusal.getMessage());
+        if (refusal instanceof TooManyRequestsException) {
+            itemResult.setRetryAfterSeconds(((TooManyRequestsException) refusal).getRetryAfterSeconds());
+        }
+        return itemResult;
+    }
+}
@@ -0,0 +1,329 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.service;
+
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.config.MarketplaceServiceConfig;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.journal.CallbackOutbox;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.metrics.MarketplaceMetrics;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceResponseRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.ExponentialBackoff;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.HashedWheelTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Relays operation results from the {@link CallbackOutbox} to the marketplace service.
+ * <p>
+ * Results are posted {@code odm.product-plane.marketplace-service.callback-delay-ms} after being produced, by a
+ * small pool of dispatcher threads. A post that fails is retried with exponential backoff until
+ * {@code odm.outbox.expire-after-ms}; only a 4xx answer other than 408 and 429 is treated as final.
+ * Results of the same request identifier are posted one at a time, in the order they were produced, so a retried
+ * result is never overtaken by a later one. Waiting results are kept on a timer, not on threads, so thousands
+ * of them can be pending while the marketplace service is unavailable.
+ * <p>
+ * Posts go through the {@link MarketplaceResultClient}. When it does not block, as with the {@code reactive}
+ * profile, a dispatcher thread only starts the post and the outcome is handled back on the dispatcher threads once
+ * the marketplace service answered, so the number of posts in flight is not bound to the number of threads.
+ */
+@Component
+public class MarketplaceCallbackDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(MarketplaceCallbackDispatcher.class);
+
+    private final MarketplaceServiceConfig marketplaceServiceConfig;
+    private final MarketplaceResultClient resultClient;
+    private final CallbackOutbox outbox;
+    private final MarketplaceMetrics metrics;
+    private final ExponentialBackoff backoff;
+    private final long expireAfterMillis;
+
+    // Results waiting to be posted, per request identifier; a lane exists while it has results
+    private final Map<String, Queue<CallbackOutbox.OutboxEntry>> lanes = new ConcurrentHashMap<>();
+    private final Set<String> delivering = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    // Lanes whose head is due and waits for a dispatcher thread
+    private final AtomicInteger dueCount = new AtomicInteger();
+    private final HashedWheelTimer timer;
+    private final ThreadPoolExecutor relay;
+    private volatile boolean draining;
+
+    @Autowired
+    public MarketplaceCallbackDispatcher(MarketplaceServiceConfig marketplaceServiceConfig,
+                                         MarketplaceResultClient resultClient,
+                                         CallbackOutbox outbox,
+                                         MarketplaceMetrics metrics,
+                                         @Value("${odm.outbox.retry.initial-delay-ms:1000}") long retryInitialDelayMillis,
+                                         @Value("${odm.outbox.retry.multiplier:2.0}") double retryMultiplier,
+                                         @Value("${odm.outbox.retry.max-delay-ms:60000}") long retryMaxDelayMillis,
+                                         @Value("${odm.outbox.expire-after-ms:86400000}") long expireAfterMillis) {
+        this.marketplaceServiceConfig = marketplaceServiceConfig;
+        this.resultClient = resultClient;
+        this.outbox = outbox;
+        this.metrics = metrics;
+        this.backoff = new ExponentialBackoff(retryInitialDelayMillis, retryMultiplier, retryMaxDelayMillis, 0.2);
+        this.expireAfterMillis = expireAfterMillis;
+        this.timer = new HashedWheelTimer("marketplace-callback-timer", 10, 512);
+        int threads = Math.max(1, marketplaceServiceConfig.getCallbackDispatcherThreads());
+        this.relay = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new CustomizableThreadFactory("marketplace-callback-"));
+    }
+
+    /**
+     * Stores a result in the outbox and queues it to be posted to the marketplace service once the callback delay
+     * has elapsed.
+     *
+     * @param response the result of the operation
+     * @param requestIdentifier the identifier of the marketplace request the result refers to
+     * @param operation the operation of the marketplace request, used to tag metrics
+     */
+    public void dispatch(MarketplaceResponseRes response, String requestIdentifier, String operation) {
+        enqueue(outbox.append(requestIdentifier, operation, response));
+    }
+
+    /**
+     * Queues the results left in the outbox by the previous run.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeOutbox() {
+        List<CallbackOutbox.OutboxEntry> undelivered = outbox.takeRecovered();
+        if (!undelivered.isEmpty()) {
+            log.info("Resuming delivery of {} marketplace result(s) from the outbox", undelivered.size());
+            undelivered.forEach(this::enqueue);
+        }
+    }
+
+    /**
+     * Number of results waiting to be posted, including the ones waiting for the callback delay or a retry.
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * Number of results due to be posted that no dispatcher thread has taken yet.
+     */
+    public int getDueCount() {
+        return dueCount.get();
+    }
+
+    /**
+     * Number of results being posted, whether or not the post holds a dispatcher thread.
+     */
+    public int getActiveCount() {
+        return delivering.size();
+    }
+
+    /**
+     * Stops the timer and makes one last attempt to post the waiting results, in order, without waiting for their
+     * due time. Results that still cannot be posted stay in the outbox when it is persistent.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        draining = true;
+        timer.stop();
+        lanes.keySet().forEach(this::submit);
+        // Posts in flight do not hold a dispatcher thread, so wait for their lanes as well
+        long deadline = System.currentTimeMillis() + 30_000;
+        while ((!delivering.isEmpty() || relay.getActiveCount() > 0 || !relay.getQueue().isEmpty())
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        relay.shutdown();
+        if (!relay.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+            relay.shutdownNow();
+        }
+        if (pendingCount.get() > 0) {
+            log.warn("{} marketplace result(s) were not posted before shutdown{}", pendingCount.get(),
+                    outbox.isPersistent() ? " and will be posted after restart" : "");
+        }
+    }
+
+    private void enqueue(CallbackOutbox.OutboxEntry entry) {
+        pendingCount.incrementAndGet();
+        boolean[] newLane = {false};
+        lanes.compute(entry.getRequestIdentifier(), (identifier, lane) -> {
+            if (lane == null) {
+                lane = new ConcurrentLinkedQueue<>();
+                newLane[0] = true;
+            }
+            lane.add(entry);
+            return lane;
+        });
+        // Only the head of a lane is ever scheduled; the others wait for it to be posted
+        if (newLane[0]) {
+            scheduleHead(entry.getRequestIdentifier(), entry);
+        }
+    }
+
+    private void scheduleHead(String identifier, CallbackOutbox.OutboxEntry head) {
+        long delay = head.getAttempts() == 0
+                ? head.getCreatedAt() + marketplaceServiceConfig.getCallbackDelayMillis() - System.currentTimeMillis()
+                : backoff.delayMillis(head.getAttempts());
+        if (draining) {
+            submit(identifier);
+            return;
+        }
+        try {
+            timer.schedule(() -> submit(identifier), delay, TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException e) {
+            // The timer has just been stopped by shutdown(), which takes care of the lane
+        }
+    }
+
+    private void submit(String identifier) {
+        dueCount.incrementAndGet();
+        try {
+            relay.execute(() -> {
+                dueCount.decrementAndGet();
+                deliverHead(identifier);
+            });
+        } catch (RejectedExecutionException e) {
+            dueCount.decrementAndGet();
+            log.debug("Relay stopped, result for request {} left in the outbox", identifier);
+        }
+    }
+
+    private void deliverHead(String identifier) {
+        // Guards against the lane being posted twice when shutdown() drains it while a post is in progress
+        if (!delivering.add(identifier)) {
+            return;
+        }
+        Queue<CallbackOutbox.OutboxEntry> lane = lanes.get(identifier);
+        CallbackOutbox.OutboxEntry head = lane != null ? lane.peek() : null;
+        if (head == null) {
+            delivering.remove(identifier);
+            return;
+        }
+        deliver(identifier, head);
+    }
+
+    /**
+     * Posts the head of a lane and handles the outcome once the marketplace service answered. The lane stays
+     * marked as delivering until then.
+     */
+    private void deliver(String identifier, CallbackOutbox.OutboxEntry head) {
+        CompletableFuture<Boolean> posted;
+        try {
+            posted = post(head);
+        } catch (RuntimeException e) {
+            log.warn("Could not post result for request {}: {}", identifier, e.getMessage());
+            posted = CompletableFuture.completedFuture(false);
+        }
+        if (posted.isDone()) {
+            // Blocking clients answer on the dispatcher thread already
+            afterPost(identifier, head, posted.getNow(false));
+        } else {
+            posted.whenComplete((done, error) -> onRelay(() -> afterPost(identifier, head, done != null && done)));
+        }
+    }
+
+    /**
+     * Moves the lane on after a post; while draining, keeps posting the following results until one fails.
+     *
+     * @param done true if the result was accepted or rejected for good, false if it should be posted again later
+     */
+    private void afterPost(String identifier, CallbackOutbox.OutboxEntry head, boolean done) {
+        CallbackOutbox.OutboxEntry next;
+        try {
+            if (!done && !isExpired(head)) {
+                next = draining ? null : head;
+            } else {
+                outbox.markDelivered(head);
+                pendingCount.decrementAndGet();
+                CallbackOutbox.OutboxEntry[] following = {null};
+                lanes.compute(identifier, (key, current) -> {
+                    current.poll();
+                    following[0] = current.peek();
+                    return following[0] != null ? current : null;
+                });
+                next = following[0];
+                if (draining && next != null) {
+                    deliver(identifier, next);
+                    return;
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to move on the results of request {}", identifier, e);
+            next = null;
+        }
+        delivering.remove(identifier);
+        if (next != null) {
+            scheduleHead(identifier, next);
+        }
+    }
+
+    private void onRelay(Runnable task) {
+        try {
+            relay.execute(task);
+        } catch (RejectedExecutionException e) {
+            // The relay is stopping: finish the lane on the thread that completed the post
+            task.run();
+        }
+    }
+
+    /**
+     * Posts a result to the marketplace service.
+     *
+     * @return completes with true if the result was accepted or rejected for good, false if it should be posted
+     * again later; never completes exceptionally
+     */
+    private CompletableFuture<Boolean> post(CallbackOutbox.OutboxEntry entry) {
+        int attempt = entry.incrementAttempts();
+        if (attempt == 1) {
+            metrics.recordCallbackWait(entry.getOperation(), System.currentTimeMillis() - entry.getCreatedAt());
+        }
+        long start = System.nanoTime();
+        return resultClient.post(entry.getRequestIdentifier(), entry.getResponse()).handle((ignored, error) -> {
+            String outcome = "retry";
+            boolean done = false;
+            if (error == null) {
+                if (attempt > 1) {
+                    log.info("Posted result for request {} after {} attempts", entry.getRequestIdentifier(), attempt);
+                }
+                outcome = "success";
+                done = true;
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                HttpStatus status = cause instanceof MarketplaceCallbackException
+                        ? HttpStatus.resolve(((MarketplaceCallbackException) cause).getStatusCode()) : null;
+                if (status != null && status.is4xxClientError()
+                        && status != HttpStatus.REQUEST_TIMEOUT && status != HttpStatus.TOO_MANY_REQUESTS) {
+                    log.error("Marketplace service rejected result for request {}: {}", entry.getRequestIdentifier(), cause.getMessage());
+                    outcome = "rejected";
+                    done = true;
+                } else {
+                    log.warn("Could not post result for request {} (attempt {}): {}", entry.getRequestIdentifier(), attempt, cause.getMessage());
+                }
+            }
+            metrics.recordCallbackPost(entry.getOperation(), outcome, System.nanoTime() - start);
+            return done;
+        });
+    }
+
+    private boolean isExpired(CallbackOutbox.OutboxEntry entry) {
+        if (System.currentTimeMillis() - entry.getCreatedAt() < expireAfterMillis) {
+            return false;
+        }
+        log.error("Giving up on result for request {} after {} attempts", entry.getRequestIdentifier(), entry.getAttempts());
+        return true;
+    }
+}
@@ -0,0 +1,23 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.service;
+
+/**
+ * Failure to post a result to the marketplace service.
+ */
+public class MarketplaceCallbackException extends RuntimeException {
+    private final int statusCode;
+
+    /**
+     * @param statusCode the HTTP status answered by the marketplace service, or 0 when no answer was received
+     */
+    public MarketplaceCallbackException(String message, int statusCode, Throwable cause) {
+        super(message, cause);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * Returns the HTTP status answered by the marketplace service, or 0 when no answer was received.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
@@ -1,74 +1,354 @@
 package org.opendatamesh.platform.adapter.marketplace.executor.starter.service;
 
-import org.opendatamesh.platform.adapter.marketplace.executor.starter.config.MarketplaceServiceConfig;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.config.AsyncExecutorConfig;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.DeliveryDeferredException;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.SmtpFailureClassifier;
 import org.opendatamesh.platform.adapter.marketplace.executor.starter.exception.BadRequestException;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.exception.OdmApiException;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.exception.TooManyRequestsException;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.idempotency.IdempotencyStore;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.journal.RequestJournal;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.metrics.MarketplaceMetrics;
 import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
 import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestStatus;
 import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceResponseRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.KeyedOrderingExecutor;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.ProcessingStage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Lazy;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestClientException;
-import org.springframework.web.client.RestTemplate;
 
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.function.Function;
 
+/**
+ * Accepts marketplace requests and runs them through the processing stages: the request executor validates a
+ * request and assembles its email, the delivery stage sends the email, and the callback dispatcher posts the
+ * result to the marketplace service. Each stage has its own workers and bounded queue.
+ */
 @Service
-public class MarketplaceExecutorService {
+public class MarketplaceExecutorService implements MarketplaceRequestSubmitter {
 
     private Logger log = LoggerFactory.getLogger(this.getClass());
 
-    private final MarketplaceServiceConfig marketplaceServiceConfig;
-    private final RestTemplate restTemplate;
+    private final MarketplaceCallbackDispatcher callbackDispatcher;
     private final EmailService emailService;
+    private final EmailDigestService emailDigestService;
+    private final RequestJournal requestJournal;
+    private final EmailRetryScheduler retryScheduler;
+    private final IdempotencyStore idempotencyStore;
+    private final MarketplaceMetrics metrics;
+    private final OpposingOperationWindow cancellationWindow;
+    private final KeyedOrderingExecutor requestLanes;
+    private final ProcessingStage deliveryStage;
+    private final AccessNotificationScheduler notificationScheduler;
+
+    @Value("${odm.processing.retry-after-seconds:5}")
+    private long retryAfterSeconds;
+
+    @Value("${odm.processing.ordering.enabled:true}")
+    private boolean orderingEnabled;
+
+    @Value("${odm.processing.delivery.handoff-timeout-ms:10000}")
+    private long deliveryHandoffTimeoutMillis;
 
     @Autowired
     @Lazy
     private MarketplaceExecutorService self;
 
     @Autowired
-    public MarketplaceExecutorService(MarketplaceServiceConfig marketplaceServiceConfig, EmailService emailService) {
-        this.marketplaceServiceConfig = marketplaceServiceConfig;
-        this.restTemplate = new RestTemplate();
+    public MarketplaceExecutorService(MarketplaceCallbackDispatcher callbackDispatcher, EmailService emailService,
+                                      EmailDigestService emailDigestService, RequestJournal requestJournal, EmailRetryScheduler retryScheduler,
+                                      IdempotencyStore idempotencyStore, MarketplaceMetrics metrics,
+                                      OpposingOperationWindow cancellationWindow, KeyedOrderingExecutor requestLanes,
+                                      ProcessingStage deliveryStage, AccessNotificationScheduler notificationScheduler) {
+        this.callbackDispatcher = callbackDispatcher;
         this.emailService = emailService;
+        this.emailDigestService = emailDigestService;
+        this.requestJournal = requestJournal;
+        this.retryScheduler = retryScheduler;
+        this.idempotencyStore = idempotencyStore;
+        this.metrics = metrics;
+        this.cancellationWindow = cancellationWindow;
+        this.requestLanes = requestLanes;
+        this.deliveryStage = deliveryStage;
+        this.notificationScheduler = notificationScheduler;
     }
 
     public void processRequest(MarketplaceRequestRes request) {
         // Validate request before processing
         validateRequest(request);
 
-        // Process request asynchronously
-        self.processRequestAsync(request);
+        // A request posted again by the marketplace, e.g. after a slow 202, is acknowledged without processing it twice
+        if (!idempotencyStore.tryAcquire(request.getRequest().getIdentifier(), request.getOperation())) {
+            log.info("Ignoring duplicate {} request {}", request.getOperation(), request.getRequest().getIdentifier());
+            metrics.recordReceived(request.getOperation(), "duplicate");
+            return;
+        }
+
+        // Persist the request so that it survives a restart once it has been accepted
+        long journalEntryId;
+        try {
+            journalEntryId = requestJournal.recordAccepted(request);
+        } catch (RuntimeException e) {
+            releaseIdempotencyKey(request);
+            throw e;
+        }
+
+        // Process request asynchronously, refusing it when the processing queue is full
+        try {
+            dispatchAccepted(request, journalEntryId);
+            metrics.recordReceived(request.getOperation(), "accepted");
+        } catch (TaskRejectedException e) {
+            requestJournal.recordCompleted(journalEntryId);
+            releaseIdempotencyKey(request);
+            metrics.recordReceived(request.getOperation(), "rejected");
+            throw new TooManyRequestsException("Too many pending requests, retry later", e, retryAfterSeconds);
+        }
+    }
+
+    /**
+     * Journals and submits a group of requests that have already been validated with
+     * {@link #validateRequest(MarketplaceRequestRes)}. All the requests are written to the journal with a single
+     * disk flush. Duplicates of requests already accepted are reported as accepted and not processed again.
+     *
+     * @param requests the validated requests
+     * @return for each request, in the same order, null if it was accepted or the exception that refused it
+     */
+    @Override
+    public List<OdmApiException> submitAll(List<MarketplaceRequestRes> requests) {
+        List<OdmApiException> outcomes = new ArrayList<>(Collections.nCopies(requests.size(), null));
+        List<Integer> fresh = new ArrayList<>(requests.size());
+        List<MarketplaceRequestRes> freshRequests = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            MarketplaceRequestRes request = requests.get(i);
+            if (idempotencyStore.tryAcquire(request.getRequest().getIdentifier(), request.getOperation())) {
+                fresh.add(i);
+                freshRequests.add(request);
+            } else {
+                metrics.recordReceived(request.getOperation(), "duplicate");
+            }
+        }
+
+        long[] journalEntryIds;
+        try {
+            journalEntryIds = requestJournal.recordAcceptedAll(freshRequests);
+        } catch (RuntimeException e) {
+            freshRequests.forEach(this::releaseIdempotencyKey);
+            throw e;
+        }
+        for (int i = 0; i < freshRequests.size(); i++) {
+            try {
+                dispatchAccepted(freshRequests.get(i), journalEntryIds[i]);
+                metrics.recordReceived(freshRequests.get(i).getOperation(), "accepted");
+            } catch (TaskRejectedException e) {
+                requestJournal.recordCompleted(journalEntryIds[i]);
+                releaseIdempotencyKey(freshRequests.get(i));
+                metrics.recordReceived(freshRequests.get(i).getOperation(), "rejected");
+                outcomes.set(fresh.get(i), new TooManyRequestsException("Too many pending requests, retry later", e, retryAfterSeconds));
+            }
+        }
+        return outcomes;
+    }
+
+    /**
+     * Hands an accepted request over for processing. When the cancellation window is enabled the request is first
+     * held in it, and a subscription and an unsubscription of the same consumer to the same data product that meet
+     * there are completed together without sending any email.
+     *
+     * @throws TaskRejectedException if the request is processed straight away and the processing queue is full
+     */
+    private void dispatchAccepted(MarketplaceRequestRes request, long journalEntryId) {
+        if (!cancellationWindow.canHold(request)) {
+            submitProcessing(request, journalEntryId, 1);
+            return;
+        }
+        OpposingOperationWindow.HeldRequest opposite;
+        try {
+            opposite = cancellationWindow.holdOrCancel(request, journalEntryId,
+                    held -> submitFromWindow(held.getRequest(), held.getJournalEntryId()));
+        } catch (IllegalStateException e) {
+            // The window has been stopped because the application is shutting down
+            submitProcessing(request, journalEntryId, 1);
+            return;
+        }
+        if (opposite != null) {
+            completeCancelled(request, journalEntryId);
+            completeCancelled(opposite.getRequest(), opposite.getJournalEntryId());
+        }
+    }
+
+    /**
+     * Sends the result of a request cancelled by a request of the opposite operation: the marketplace still gets
+     * the outcome it asked for, but no email is sent.
+     */
+    private void completeCancelled(MarketplaceRequestRes request, long journalEntryId) {
+        log.info("{} request {} cancelled out by a request of the opposite operation, no email sent",
+                request.getOperation(), request.getRequest().getIdentifier());
+        if ("MARKETPLACE_UNSUBSCRIBE".equals(request.getOperation())) {
+            sendResponse(createSuccessResponse(request, "Unsubscription processed successfully, no email sent as it cancelled out a subscription of the same consumer",
+                    MarketplaceRequestStatus.REVOKED), request);
+        } else {
+            sendResponse(createSuccessResponse(request, "Subscription processed successfully, no email sent as it was cancelled out by an unsubscription of the same consumer",
+                    MarketplaceRequestStatus.GRANTED), request);
+        }
+        requestJournal.recordCompleted(journalEntryId);
+    }
+
+    /**
+     * Resubmits the requests that were accepted but not completed before the last shutdown.
+     * Runs on its own thread and waits for room in the processing queue instead of failing when it is full.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeJournaledRequests() {
+        List<RequestJournal.JournaledRequest> unfinished = requestJournal.takeRecovered();
+        if (unfinished.isEmpty()) {
+            return;
+        }
+        log.info("Resuming {} unfinished request(s) from the journal", unfinished.size());
+        Thread replay = new Thread(() -> {
+            for (RequestJournal.JournaledRequest entry : unfinished) {
+                if (!resubmit(entry)) {
+                    return;
+                }
+            }
+        }, "journal-replay");
+        replay.start();
+    }
+
+    private boolean resubmit(RequestJournal.JournaledRequest entry) {
+        while (true) {
+            try {
+                submitProcessing(entry.getRequest(), entry.getEntryId(), 1);
+                return true;
+            } catch (TaskRejectedException e) {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
     }
 
-    @Async
-    public void processRequestAsync(MarketplaceRequestRes request) {
+    /**
+     * Submits the first processing attempt of a request. With ordering enabled, the requests of the same consumer
+     * and data product are processed one at a time, in the order they were submitted, so that for instance an
+     * unsubscription is never processed before the subscription it follows: a request holds its ordering key from
+     * its first attempt until it completes, through its retries and deferrals.
+     *
+     * @throws TaskRejectedException if the processing queue is full
+     */
+    private void submitProcessing(MarketplaceRequestRes request, long journalEntryId, int attempt) {
+        if (orderingEnabled) {
+            requestLanes.executeHolding(orderingKey(request), () -> processAttempt(request, journalEntryId, attempt));
+        } else {
+            self.processRequestAsync(request, journalEntryId, attempt);
+        }
+    }
+
+    /**
+     * Submits the continuation of a request that already holds its ordering key, such as a later attempt.
+     *
+     * @throws TaskRejectedException if the processing queue is full
+     */
+    private void submitRetry(MarketplaceRequestRes request, Runnable continuation) {
+        if (orderingEnabled) {
+            requestLanes.resume(orderingKey(request), continuation);
+        } else {
+            self.continueAsync(continuation);
+        }
+    }
+
+    /**
+     * Lets the next request of the same consumer and data product start once a request has completed.
+     */
+    private void releaseOrderingKey(MarketplaceRequestRes request) {
+        if (orderingEnabled) {
+            requestLanes.release(orderingKey(request));
+        }
+    }
+
+    private static String orderingKey(MarketplaceRequestRes request) {
+        if (request.getRequest().getConsumer() == null || request.getRequest().getProvider() == null) {
+            return request.getRequest().getIdentifier();
+        }
+        return request.getRequest().getConsumer().getIdentifier() + "|" + request.getRequest().getProvider().getDataProductFqn();
+    }
+
+    /**
+     * Processes one delivery attempt of a request on the request executor, without ordering.
+     *
+     * @param attempt the number of this attempt, starting from 1
+     */
+    @Async(AsyncExecutorConfig.MARKETPLACE_REQUEST_EXECUTOR)
+    public void processRequestAsync(MarketplaceRequestRes request, long journalEntryId, int attempt) {
+        processAttempt(request, journalEntryId, attempt);
+    }
+
+    /**
+     * Runs the continuation of a request, e.g. a retry, on the request executor, without ordering.
+     */
+    @Async(AsyncExecutorConfig.MARKETPLACE_REQUEST_EXECUTOR)
+    public void continueAsync(Runnable continuation) {
+        continuation.run();
+    }
+
+    /**
+     * Processes one delivery attempt of a request up to the hand-over of its email to the delivery stage. When the
+     * email fails for a transient reason the request is scheduled again with backoff, and its journal entry is kept
+     * until the final outcome has been sent back.
+     *
+     * @param attempt the number of this attempt, starting from 1
+     */
+    private void processAttempt(MarketplaceRequestRes request, long journalEntryId, int attempt) {
+        long start = System.nanoTime();
+        boolean completed = true;
         try {
             // Process the request based on operation type
             switch (request.getOperation()) {
                 case "MARKETPLACE_SUBSCRIBE":
-                    handleSubscribe(request);
+                    completed = handleSubscribe(request, journalEntryId, attempt);
                     break;
                 case "MARKETPLACE_UNSUBSCRIBE":
-                    handleUnsubscribe(request);
+                    completed = handleUnsubscribe(request, journalEntryId, attempt);
                     break;
                 default:
                     throw new IllegalArgumentException("Unsupported operation: " + request.getOperation());
             }
         } catch (Exception e) {
             // Send error response
-            sendResponse(createErrorResponse(request, e.getMessage()), request.getRequest().getIdentifier());
+            releaseIdempotencyKey(request);
+            sendResponse(createErrorResponse(request, e.getMessage()), request);
             log.error(e.getMessage(), e);
+        } finally {
+            if (completed) {
+                requestJournal.recordCompleted(journalEntryId);
+                releaseOrderingKey(request);
+            }
+            metrics.recordProcessing(request.getOperation(), System.nanoTime() - start);
         }
     }
 
-    private void validateRequest(MarketplaceRequestRes request) {
+    /**
+     * Checks the business rules of a request that bean validation does not cover.
+     *
+     * @throws BadRequestException if the request is invalid
+     */
+    @Override
+    public void validateRequest(MarketplaceRequestRes request) {
         if (request.getRequest() == null) {
             throw new BadRequestException("Request details are required");
         }
@@ -87,31 +367,243 @@ public class MarketplaceExecutorService {
         }
     }
 
-    private void handleSubscribe(MarketplaceRequestRes request) {
-        try {
-            // Send access email to the consumer
-            emailService.sendAccessEmail(request);
+    private boolean handleSubscribe(MarketplaceRequestRes request, long journalEntryId, int attempt) {
+        if (emailDigestService.isEnabled()) {
+            emailDigestService.submit(request).whenComplete((sent, failure) -> completeDigested(request, journalEntryId, attempt, failure,
+                    "Subscription processed successfully and access email sent", MarketplaceRequestStatus.GRANTED,
+                    "Failed to process subscription"));
+            return false;
+        }
+        return prepareEmail(request, journalEntryId, attempt, emailService::prepareAccessEmail,
+                "Subscription processed successfully and access email sent", MarketplaceRequestStatus.GRANTED,
+                "Failed to process subscription");
+    }
 
-            // Send success response
-            sendResponse(createSuccessResponse(request, "Subscription processed successfully and access email sent", MarketplaceRequestStatus.GRANTED), request.getRequest().getIdentifier());
+    private boolean handleUnsubscribe(MarketplaceRequestRes request, long journalEntryId, int attempt) {
+        if (emailDigestService.isEnabled()) {
+            emailDigestService.submit(request).whenComplete((sent, failure) -> completeDigested(request, journalEntryId, attempt, failure,
+                    "Unsubscription processed successfully", MarketplaceRequestStatus.REVOKED,
+                    "Failed to process unsubscription"));
+            return false;
+        }
+        return prepareEmail(request, journalEntryId, attempt, emailService::prepareUnsubscribeEmail,
+                "Unsubscription processed successfully", MarketplaceRequestStatus.REVOKED,
+                "Failed to process unsubscription");
+    }
+
+    /**
+     * Assembles the email of a request and hands it over to the delivery stage.
+     *
+     * @return whether the request is complete, i.e. it failed for good before its email reached the delivery stage
+     */
+    private boolean prepareEmail(MarketplaceRequestRes request, long journalEntryId, int attempt,
+                                 Function<MarketplaceRequestRes, MimeMessage> preparer, String successMessage,
+                                 MarketplaceRequestStatus successStatus, String failureMessage) {
+        MimeMessage message;
+        try {
+            message = preparer.apply(request);
         } catch (Exception e) {
-            log.error("Error processing subscription", e);
-            sendResponse(createErrorResponse(request, "Failed to process subscription: " + e.getMessage()), request.getRequest().getIdentifier());
+            return failAttempt(request, journalEntryId, attempt, e, failureMessage);
+        }
+        return handOff(request, journalEntryId, attempt, message, successMessage, successStatus, failureMessage);
+    }
+
+    /**
+     * Hands the email of a request over to the delivery stage, waiting for room in its queue so that a slow SMTP
+     * relay holds back the request executor rather than piling up emails in memory. When the stage does not take
+     * the email within the hand-off timeout, the attempt fails: the same message, which has already consumed its
+     * rate limit token, is handed over again after a backoff from the lane of the request, until the attempts run
+     * out.
+     *
+     * @return whether the request is complete, i.e. it failed for good before its email reached the delivery stage
+     */
+    private boolean handOff(MarketplaceRequestRes request, long journalEntryId, int attempt, MimeMessage message,
+                            String successMessage, MarketplaceRequestStatus successStatus, String failureMessage) {
+        try {
+            deliveryStage.submit(orderingKey(request), () -> deliverEmail(request, journalEntryId, attempt, message,
+                    successMessage, successStatus, failureMessage), deliveryHandoffTimeoutMillis);
+            return false;
+        } catch (TaskRejectedException e) {
+            if (!retryScheduler.canRetry(attempt)) {
+                log.error("{} for request {}, the delivery stage did not take its email within {} ms",
+                        failureMessage, request.getRequest().getIdentifier(), deliveryHandoffTimeoutMillis, e);
+                releaseIdempotencyKey(request);
+                sendResponse(createErrorResponse(request, failureMessage + " (delivery stage busy" + describeAttempts(attempt)
+                        + "): " + e.getMessage()), request);
+                return true;
+            }
+            long delay = retryScheduler.nextDelayMillis(attempt);
+            log.warn("Delivery stage did not take the email of request {} within {} ms (attempt {} of {}), handing it over again in {} ms",
+                    request.getRequest().getIdentifier(), deliveryHandoffTimeoutMillis, attempt, retryScheduler.getMaxAttempts(), delay);
+            scheduleLater(request, () -> resubmitRetry(request, () -> {
+                if (handOff(request, journalEntryId, attempt + 1, message, successMessage, successStatus, failureMessage)) {
+                    requestJournal.recordCompleted(journalEntryId);
+                    releaseOrderingKey(request);
+                }
+            }), delay);
+            return false;
         }
     }
 
-    private void handleUnsubscribe(MarketplaceRequestRes request) {
+    /**
+     * Sends the email of a request on the delivery stage and completes the request.
+     */
+    private void deliverEmail(MarketplaceRequestRes request, long journalEntryId, int attempt, MimeMessage message,
+                              String successMessage, MarketplaceRequestStatus successStatus, String failureMessage) {
+        boolean completed = true;
         try {
-            // Send unsubscribe email notification
-            emailService.sendUnsubscribeEmail(request);
-            // Send success response
-            sendResponse(createSuccessResponse(request, "Unsubscription processed successfully", MarketplaceRequestStatus.REVOKED), request.getRequest().getIdentifier());
+            emailService.deliver(request.getOperation(), message);
+            log.info("{} email for request {} sent successfully", request.getOperation(), request.getRequest().getIdentifier());
+            updateNotifications(request, successStatus);
+            sendResponse(createSuccessResponse(request, successMessage + describeAttempts(attempt), successStatus), request);
         } catch (Exception e) {
-            log.error("Error processing unsubscription request", e);
-            sendResponse(createErrorResponse(request, "Failed to process unsubscription: " + e.getMessage()), request.getRequest().getIdentifier());
+            completed = failAttempt(request, journalEntryId, attempt, e, failureMessage);
+        } finally {
+            if (completed) {
+                requestJournal.recordCompleted(journalEntryId);
+                releaseOrderingKey(request);
+            }
+        }
+    }
+
+    /**
+     * Schedules a failed attempt again, or sends the failure back to the marketplace if it cannot be retried.
+     *
+     * @return whether the request is complete, i.e. it will not be attempted again
+     */
+    private boolean failAttempt(MarketplaceRequestRes request, long journalEntryId, int attempt, Exception failure, String failureMessage) {
+        if (scheduleRetry(request, journalEntryId, attempt, failure) != RetryOutcome.NOT_RETRIED) {
+            return false;
+        }
+        log.error("{} for request {}", failureMessage, request.getRequest().getIdentifier(), failure);
+        releaseIdempotencyKey(request);
+        sendResponse(createErrorResponse(request, failureMessage + describeFailure(failure, attempt) + ": " + failure.getMessage()), request);
+        return true;
+    }
+
+    /**
+     * Sends the result of a request whose email went out in a digest, once the digest has been sent.
+     * Runs on a digest sender thread; a failed digest is retried request by request, each joining a new digest.
+     */
+    private void completeDigested(MarketplaceRequestRes request, long journalEntryId, int attempt, Throwable failure,
+                                  String successMessage, MarketplaceRequestStatus successStatus, String failureMessage) {
+        if (failure == null) {
+            updateNotifications(request, successStatus);
+            sendResponse(createSuccessResponse(request, successMessage + describeAttempts(attempt), successStatus), request);
+        } else {
+            Exception e = failure instanceof Exception ? (Exception) failure : new RuntimeException(failure);
+            if (!failAttempt(request, journalEntryId, attempt, e, failureMessage)) {
+                return;
+            }
+        }
+        requestJournal.recordCompleted(journalEntryId);
+        releaseOrderingKey(request);
+    }
+
+    /**
+     * Schedules the access start and expiry emails of a granted subscription, or cancels them once access is revoked.
+     */
+    private void updateNotifications(MarketplaceRequestRes request, MarketplaceRequestStatus status) {
+        if (status == MarketplaceRequestStatus.GRANTED) {
+            notificationScheduler.scheduleFor(request);
+        } else if (status == MarketplaceRequestStatus.REVOKED) {
+            notificationScheduler.cancelFor(request);
+        }
+    }
+
+    private RetryOutcome scheduleRetry(MarketplaceRequestRes request, long journalEntryId, int attempt, Exception failure) {
+        if (failure instanceof DeliveryDeferredException) {
+            return scheduleDeferred(request, journalEntryId, attempt, (DeliveryDeferredException) failure);
+        }
+        if (!retryScheduler.shouldRetry(failure, attempt)) {
+            return RetryOutcome.NOT_RETRIED;
+        }
+        long delay = retryScheduler.nextDelayMillis(attempt);
+        log.warn("Transient failure sending email for request {} (attempt {} of {}), retrying in {} ms: {}",
+                request.getRequest().getIdentifier(), attempt, retryScheduler.getMaxAttempts(), delay, failure.getMessage());
+        return scheduleLater(request, () -> resubmitRetry(request, () -> processAttempt(request, journalEntryId, attempt + 1)), delay);
+    }
+
+    /**
+     * Sends a request again once its recipient domain is back under its rate limit. The deferral does not count
+     * as a delivery attempt.
+     */
+    private RetryOutcome scheduleDeferred(MarketplaceRequestRes request, long journalEntryId, int attempt, DeliveryDeferredException deferral) {
+        log.debug("Deferring email for request {} by {} ms: {}", request.getRequest().getIdentifier(), deferral.getDelayMillis(), deferral.getMessage());
+        return scheduleLater(request, () -> resubmitRetry(request, () -> processAttempt(request, journalEntryId, attempt)), deferral.getDelayMillis());
+    }
+
+    private void resubmitRetry(MarketplaceRequestRes request, Runnable continuation) {
+        try {
+            submitRetry(request, continuation);
+        } catch (TaskRejectedException e) {
+            // The processing queue is full: try again shortly rather than dropping the retry
+            scheduleLater(request, () -> resubmitRetry(request, continuation), retryScheduler.nextDelayMillis(1));
+        }
+    }
+
+    /**
+     * Submits a request that the cancellation window held without finding its opposite.
+     */
+    private void submitFromWindow(MarketplaceRequestRes request, long journalEntryId) {
+        try {
+            submitProcessing(request, journalEntryId, 1);
+        } catch (TaskRejectedException e) {
+            // The processing queue is full: try again shortly rather than dropping the request
+            scheduleLater(request, () -> submitFromWindow(request, journalEntryId), retryScheduler.nextDelayMillis(1));
+        }
+    }
+
+    /**
+     * Runs a new attempt of a request after a delay. Once the retry timer has stopped, the request is left
+     * unfinished: no result is sent, its idempotency key is kept and its journal entry stays live, so that the
+     * journal, when enabled, processes it again on restart. Its ordering key is not released, so the later requests
+     * of the same consumer and data product are left to the journal as well rather than overtaking it.
+     */
+    private RetryOutcome scheduleLater(MarketplaceRequestRes request, Runnable attempt, long delayMillis) {
+        try {
+            retryScheduler.schedule(attempt, delayMillis);
+            return RetryOutcome.SCHEDULED;
+        } catch (IllegalStateException e) {
+            if (requestJournal.isEnabled()) {
+                log.warn("Request {} left unfinished at shutdown, it will be processed again on restart", request.getRequest().getIdentifier());
+            } else {
+                log.warn("Request {} left unfinished at shutdown and lost, the request journal is disabled", request.getRequest().getIdentifier());
+            }
+            return RetryOutcome.LEFT_PENDING;
         }
     }
 
+    /**
+     * Lets the marketplace submit a request again after it was refused or failed.
+     */
+    private void releaseIdempotencyKey(MarketplaceRequestRes request) {
+        idempotencyStore.release(request.getRequest().getIdentifier(), request.getOperation());
+    }
+
+    private static String describeAttempts(int attempt) {
+        return attempt > 1 ? " after " + attempt + " attempts" : "";
+    }
+
+    private String describeFailure(Exception failure, int attempt) {
+        if (SmtpFailureClassifier.isTransient(failure)) {
+            return " (retries exhausted after " + attempt + (attempt == 1 ? " attempt)" : " attempts)");
+        }
+        return " (permanent failure" + (attempt > 1 ? " after " + attempt + " attempts)" : ")");
+    }
+
+    /**
+     * Outcome of scheduling a failed attempt of a request again.
+     */
+    private enum RetryOutcome {
+        /** A new attempt will run later. */
+        SCHEDULED,
+        /** The failure cannot be retried: the request fails. */
+        NOT_RETRIED,
+        /** The application is shutting down: the request is left for the journal to replay on restart. */
+        LEFT_PENDING
+    }
+
     private MarketplaceResponseRes createSuccessResponse(MarketplaceRequestRes request, String message, MarketplaceRequestStatus status) {
         MarketplaceResponseRes response = new MarketplaceResponseRes();
         response.setStatus(status);
@@ -130,24 +622,8 @@ public class MarketplaceExecutorService {
         return response;
     }
 
-    private void sendResponse(MarketplaceResponseRes response, String requestIdentifier) {
-        try {
-            Thread.sleep(2000);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }
-        try {
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            HttpEntity<MarketplaceResponseRes> entity = new HttpEntity<>(response, headers);
-            restTemplate.postForEntity(
-                    marketplaceServiceConfig.getAddress() + "/api/v1/pp/marketplace/requests/{identifier}/results",
-                    entity,
-                    Void.class,
-                    requestIdentifier
-            );
-        } catch (RestClientException e) {
-            log.warn(e.getMessage(), e);
-        }
-    }
-} 
\ No newline at end of file
+    private void sendResponse(MarketplaceResponseRes response, MarketplaceRequestRes request) {
+        metrics.recordResult(request.getOperation(), response.getStatus());
+        callbackDispatcher.dispatch(response, request.getRequest().getIdentifier(), request.getOperation());
+    }
+}
\ No newline at end of file
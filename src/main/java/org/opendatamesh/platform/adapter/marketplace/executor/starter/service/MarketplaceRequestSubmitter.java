@@ -0,0 +1,28 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.service;
+
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.exception.OdmApiException;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
+
+import java.util.List;
+
+/**
+ * Validates and accepts marketplace requests on behalf of the {@link MarketplaceBatchIngestionService}, which only
+ * needs these two steps of the {@link MarketplaceExecutorService}.
+ */
+public interface MarketplaceRequestSubmitter {
+
+    /**
+     * Checks the business rules of a request that bean validation does not cover.
+     *
+     * @throws OdmApiException if the request is not valid
+     */
+    void validateRequest(MarketplaceRequestRes request);
+
+    /**
+     * Accepts a group of validated requests for processing.
+     *
+     * @param requests the validated requests
+     * @return for each request, in the same order, null if it was accepted or the exception that refused it
+     */
+    List<OdmApiException> submitAll(List<MarketplaceRequestRes> requests);
+}
@@ -0,0 +1,27 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.service;
+
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceResponseRes;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Posts operation results to the marketplace service on behalf of the {@link MarketplaceCallbackDispatcher}.
+ * <p>
+ * The servlet stack posts with a pooled {@link org.springframework.web.client.RestTemplate} on the dispatcher
+ * threads; the {@code reactive} profile posts with a non-blocking {@code WebClient}, so no thread waits for the
+ * marketplace service to answer.
+ */
+public interface MarketplaceResultClient {
+
+    String RESULTS_PATH = "/api/v1/pp/marketplace/requests/{identifier}/results";
+
+    /**
+     * Posts the result of a marketplace request.
+     *
+     * @param requestIdentifier the identifier of the marketplace request the result refers to
+     * @param response the result of the operation
+     * @return completed when the marketplace service accepted the result, or completed exceptionally with a
+     * {@link MarketplaceCallbackException} when it did not
+     */
+    CompletableFuture<Void> post(String requestIdentifier, MarketplaceResponseRes response);
+}
@@ -0,0 +1,187 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.service;
+
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.HashedWheelTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Holds accepted requests for {@code odm.processing.cancellation-window-ms} before they are processed, so that a
+ * subscription and an unsubscription of the same consumer to the same data product, arriving within the window,
+ * cancel each other out and no email is sent for either of them.
+ * <p>
+ * At most one request is held per (consumer, data product) key. A request of the opposite operation takes the held
+ * request out of the window; a request of the same operation releases the held one for processing and is held in
+ * its place. Requests still held when the window ends are released for processing. A window of 0 disables holding.
+ */
+@Component
+public class OpposingOperationWindow {
+    private static final Logger log = LoggerFactory.getLogger(OpposingOperationWindow.class);
+
+    private final long windowMillis;
+    private final Map<Key, HeldRequest> held = new ConcurrentHashMap<>();
+    private final HashedWheelTimer timer;
+
+    @Autowired
+    public OpposingOperationWindow(@Value("${odm.processing.cancellation-window-ms:0}") long windowMillis) {
+        this.windowMillis = Math.max(0, windowMillis);
+        this.timer = this.windowMillis > 0 ? new HashedWheelTimer("cancellation-window-timer", 100, 512) : null;
+    }
+
+    /**
+     * Tells whether a request can be held: the window is enabled and the request names a consumer and a data product.
+     */
+    public boolean canHold(MarketplaceRequestRes request) {
+        return timer != null && Key.of(request) != null;
+    }
+
+    /**
+     * Holds a request, unless a request of the opposite operation is already held for the same key.
+     *
+     * @param request the accepted request, which {@link #canHold(MarketplaceRequestRes)} must accept
+     * @param journalEntryId the journal entry of the request
+     * @param release called with a held request that must now be processed, either because its window ended or
+     *                because a request of the same operation replaced it; runs on the timer thread or on the caller
+     *                and must only hand off work
+     * @return the held request of the opposite operation, taken out of the window, which the caller must complete
+     * together with this request; null if this request is now held
+     */
+    public HeldRequest holdOrCancel(MarketplaceRequestRes request, long journalEntryId, Consumer<HeldRequest> release) {
+        Key key = Key.of(request);
+        HeldRequest incoming = new HeldRequest(request, journalEntryId, release);
+        HeldRequest[] outcome = new HeldRequest[2];
+        held.compute(key, (k, current) -> {
+            if (current != null && !current.request.getOperation().equals(request.getOperation())) {
+                // Opposite operation: both requests leave the window
+                current.timeout.cancel();
+                outcome[0] = current;
+                return null;
+            }
+            if (current != null) {
+                current.timeout.cancel();
+                outcome[1] = current;
+            }
+            incoming.timeout = timer.schedule(() -> expire(k, incoming), windowMillis, TimeUnit.MILLISECONDS);
+            return incoming;
+        });
+        if (outcome[1] != null) {
+            outcome[1].release.accept(outcome[1]);
+        }
+        return outcome[0];
+    }
+
+    public int getHeldCount() {
+        return held.size();
+    }
+
+    /**
+     * Releases the requests still held straight away and stops. A request that cannot be processed any more is
+     * left to the journal, which replays it on restart when enabled.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (timer == null) {
+            return;
+        }
+        timer.stop();
+        List<HeldRequest> remaining = new ArrayList<>();
+        for (Key key : new ArrayList<>(held.keySet())) {
+            HeldRequest request = held.remove(key);
+            if (request != null) {
+                remaining.add(request);
+            }
+        }
+        for (HeldRequest request : remaining) {
+            try {
+                request.release.accept(request);
+            } catch (RuntimeException e) {
+                log.warn("Could not release request {} from the cancellation window at shutdown",
+                        request.request.getRequest().getIdentifier(), e);
+            }
+        }
+    }
+
+    private void expire(Key key, HeldRequest request) {
+        if (held.remove(key, request)) {
+            request.release.accept(request);
+        }
+    }
+
+    /**
+     * An accepted request waiting in the window, with its journal entry.
+     */
+    public static class HeldRequest {
+        private final MarketplaceRequestRes request;
+        private final long journalEntryId;
+        private final Consumer<HeldRequest> release;
+        private HashedWheelTimer.Timeout timeout;
+
+        HeldRequest(MarketplaceRequestRes request, long journalEntryId, Consumer<HeldRequest> release) {
+            this.request = request;
+            this.journalEntryId = journalEntryId;
+            this.release = release;
+        }
+
+        public MarketplaceRequestRes getRequest() {
+            return request;
+        }
+
+        public long getJournalEntryId() {
+            return journalEntryId;
+        }
+    }
+
+    private static final class Key {
+        private final String consumerType;
+        private final String consumerIdentifier;
+        private final String dataProductFqn;
+
+        private Key(String consumerType, String consumerIdentifier, String dataProductFqn) {
+            this.consumerType = consumerType;
+            this.consumerIdentifier = consumerIdentifier;
+            this.dataProductFqn = dataProductFqn;
+        }
+
+        static Key of(MarketplaceRequestRes request) {
+            if (request.getRequest() == null || request.getRequest().getConsumer() == null
+                    || request.getRequest().getProvider() == null
+                    || request.getRequest().getConsumer().getIdentifier() == null
+                    || request.getRequest().getProvider().getDataProductFqn() == null) {
+                return null;
+            }
+            return new Key(request.getRequest().getConsumer().getType(), request.getRequest().getConsumer().getIdentifier(),
+                    request.getRequest().getProvider().getDataProductFqn());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return Objects.equals(consumerType, other.consumerType)
+                    && consumerIdentifier.equals(other.consumerIdentifier)
+                    && dataProductFqn.equals(other.dataProductFqn);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(consumerType, consumerIdentifier, dataProductFqn);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.service;
+
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.config.MarketplaceHttpClientConfig;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.config.MarketplaceServiceConfig;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceResponseRes;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Posts results with the pooled {@link RestTemplate} of {@link MarketplaceHttpClientConfig}. The post blocks the
+ * calling dispatcher thread and the returned future is always complete.
+ */
+@Component
+@Profile("!reactive")
+public class RestTemplateResultClient implements MarketplaceResultClient {
+    private final MarketplaceServiceConfig marketplaceServiceConfig;
+    private final RestTemplate restTemplate;
+
+    @Autowired
+    public RestTemplateResultClient(MarketplaceServiceConfig marketplaceServiceConfig,
+                                    @Qualifier(MarketplaceHttpClientConfig.MARKETPLACE_REST_TEMPLATE) RestTemplate restTemplate) {
+        this.marketplaceServiceConfig = marketplaceServiceConfig;
+        this.restTemplate = restTemplate;
+    }
+
+    @Override
+    public CompletableFuture<Void> post(String requestIdentifier, MarketplaceResponseRes response) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            restTemplate.postForEntity(
+                    marketplaceServiceConfig.getAddress() + RESULTS_PATH,
+                    new HttpEntity<>(response, headers),
+                    Void.class,
+                    requestIdentifier
+            );
+            result.complete(null);
+        } catch (HttpStatusCodeException e) {
+            result.completeExceptionally(new MarketplaceCallbackException(e.getMessage(), e.getRawStatusCode(), e));
+        } catch (RestClientException e) {
+            result.completeExceptionally(new MarketplaceCallbackException(e.getMessage(), 0, e));
+        }
+        return result;
+    }
+}
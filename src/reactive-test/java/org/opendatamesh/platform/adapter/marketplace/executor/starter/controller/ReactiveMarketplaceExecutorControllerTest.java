@@ -0,0 +1,17 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.controller;
+
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.config.TestConfig;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+
+/**
+ * Runs the API tests against the {@code reactive} profile, served by WebFlux.
+ */
+@SpringBootTest(properties = "spring.main.web-application-type=reactive")
+@AutoConfigureWebTestClient
+@ActiveProfiles({"test", "reactive"})
+@Import(TestConfig.class)
+public class ReactiveMarketplaceExecutorControllerTest extends AbstractMarketplaceExecutorControllerTest {
+}
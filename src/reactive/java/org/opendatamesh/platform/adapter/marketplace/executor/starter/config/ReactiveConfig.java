@@ -0,0 +1,75 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.config;
+
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/**
+ * Beans of the {@code reactive} profile, which serves the API with WebFlux on Netty instead of the servlet stack.
+ * <p>
+ * Event loop threads must never block, so the blocking part of accepting a request (writing it to the journal,
+ * reading a batch body as a stream) runs on a small bounded scheduler, and results are posted to the marketplace
+ * service with a non-blocking {@link WebClient}. Emails are still sent by the bounded request executor of
+ * {@link AsyncExecutorConfig}, as SMTP has no non-blocking client.
+ */
+@Configuration
+@Profile("reactive")
+public class ReactiveConfig {
+
+    public static final String BLOCKING_SCHEDULER = "marketplaceBlockingScheduler";
+    public static final String MARKETPLACE_WEB_CLIENT = "marketplaceWebClient";
+
+    @Value("${odm.reactive.blocking-threads:4}")
+    private int blockingThreads;
+
+    @Value("${odm.reactive.blocking-queue-capacity:1000}")
+    private int blockingQueueCapacity;
+
+    @Value("${odm.product-plane.marketplace-service.http-client.max-connections:20}")
+    private int maxConnections;
+
+    @Value("${odm.product-plane.marketplace-service.http-client.connect-timeout-ms:2000}")
+    private int connectTimeoutMillis;
+
+    @Value("${odm.product-plane.marketplace-service.http-client.read-timeout-ms:10000}")
+    private long readTimeoutMillis;
+
+    @Value("${odm.product-plane.marketplace-service.http-client.connection-request-timeout-ms:5000}")
+    private long connectionRequestTimeoutMillis;
+
+    @Value("${odm.product-plane.marketplace-service.http-client.idle-timeout-ms:30000}")
+    private long idleTimeoutMillis;
+
+    @Bean(name = BLOCKING_SCHEDULER, destroyMethod = "dispose")
+    public Scheduler marketplaceBlockingScheduler() {
+        return Schedulers.newBoundedElastic(Math.max(1, blockingThreads), Math.max(1, blockingQueueCapacity),
+                "marketplace-blocking");
+    }
+
+    /**
+     * Same pool size and timeouts as the RestTemplate of {@link MarketplaceHttpClientConfig}; callbacks wait for a
+     * free connection instead of opening more.
+     */
+    @Bean(name = MARKETPLACE_WEB_CLIENT)
+    public WebClient marketplaceWebClient(WebClient.Builder webClientBuilder) {
+        ConnectionProvider connectionProvider = ConnectionProvider.builder("marketplace-callback")
+                .maxConnections(maxConnections)
+                .pendingAcquireTimeout(Duration.ofMillis(connectionRequestTimeoutMillis))
+                .maxIdleTime(Duration.ofMillis(idleTimeoutMillis))
+                .build();
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis)
+                .responseTimeout(Duration.ofMillis(readTimeoutMillis));
+        return webClientBuilder.clientConnector(new ReactorClientHttpConnector(httpClient)).build();
+    }
+}
@@ -0,0 +1,126 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.controller;
+
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.config.ReactiveConfig;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceBatchResultRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.service.MarketplaceBatchIngestionService;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.service.MarketplaceExecutorService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import javax.validation.Valid;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Same API as {@link MarketplaceExecutorController}, served by WebFlux when the {@code reactive} profile is active.
+ * <p>
+ * Requests are read without blocking; accepting them, which may wait for the journal to reach the disk, runs on the
+ * bounded blocking scheduler of {@link ReactiveConfig}. A batch body is handed to the batch ingestion service as
+ * it arrives, a few chunks ahead of the reader, so it is still read one item at a time; a blocking thread reads it.
+ * The Swagger UI is only served by the servlet stack.
+ */
+@RestController
+@Profile("reactive")
+@RequestMapping("/api/v1/up/marketplace-executor")
+public class ReactiveMarketplaceExecutorController {
+    // Body chunks received ahead of the batch reader
+    private static final int BATCH_PREFETCH = 8;
+
+    private final MarketplaceExecutorService marketplaceExecutorService;
+    private final MarketplaceBatchIngestionService marketplaceBatchIngestionService;
+    private final Scheduler blockingScheduler;
+
+    @Autowired
+    public ReactiveMarketplaceExecutorController(MarketplaceExecutorService marketplaceExecutorService,
+                                                 MarketplaceBatchIngestionService marketplaceBatchIngestionService,
+                                                 @Qualifier(ReactiveConfig.BLOCKING_SCHEDULER) Scheduler blockingScheduler) {
+        this.marketplaceExecutorService = marketplaceExecutorService;
+        this.marketplaceBatchIngestionService = marketplaceBatchIngestionService;
+        this.blockingScheduler = blockingScheduler;
+    }
+
+    @PostMapping("/requests")
+    public Mono<ResponseEntity<Void>> processRequest(@Valid @RequestBody Mono<MarketplaceRequestRes> request) {
+        return request
+                .publishOn(blockingScheduler)
+                .doOnNext(marketplaceExecutorService::processRequest)
+                .thenReturn(ResponseEntity.accepted().<Void>build());
+    }
+
+    @PostMapping(value = "/requests/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Mono<ResponseEntity<MarketplaceBatchResultRes>> processBatch(@RequestBody Flux<DataBuffer> body) {
+        // Chunks are copied and released right away, so none is leaked when the reader stops early
+        Flux<byte[]> chunks = body.map(buffer -> {
+            byte[] chunk = new byte[buffer.readableByteCount()];
+            buffer.read(chunk);
+            DataBufferUtils.release(buffer);
+            return chunk;
+        });
+        return Mono.fromCallable(() -> {
+            // Closing the stream cancels the body when the reader stops early, e.g. past the maximum number of items
+            try (Stream<byte[]> stream = chunks.toStream(BATCH_PREFETCH)) {
+                return ResponseEntity.ok(marketplaceBatchIngestionService.processBatch(new ChunkInputStream(stream.iterator())));
+            }
+        }).subscribeOn(blockingScheduler);
+    }
+
+    /**
+     * Reads body chunks as they arrive, blocking while the next one is not there yet.
+     */
+    private static final class ChunkInputStream extends InputStream {
+        private final Iterator<byte[]> chunks;
+        private byte[] current = new byte[0];
+        private int position;
+
+        ChunkInputStream(Iterator<byte[]> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public int read() {
+            if (!fill()) {
+                return -1;
+            }
+            return current[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(length, current.length - position);
+            System.arraycopy(current, position, bytes, offset, count);
+            position += count;
+            return count;
+        }
+
+        private boolean fill() {
+            while (position == current.length) {
+                if (!chunks.hasNext()) {
+                    return false;
+                }
+                current = chunks.next();
+                position = 0;
+            }
+            return true;
+        }
+    }
+}
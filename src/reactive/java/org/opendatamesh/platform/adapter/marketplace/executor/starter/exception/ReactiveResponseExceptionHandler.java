@@ -0,0 +1,78 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.exception;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.validation.ObjectError;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.support.WebExchangeBindException;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Counterpart of {@link ResponseExceptionHandler} for the {@code reactive} profile, producing the same error bodies.
+ */
+@ControllerAdvice
+@Profile("reactive")
+public class ReactiveResponseExceptionHandler {
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveResponseExceptionHandler.class);
+
+    @ExceptionHandler({OdmApiException.class})
+    protected ResponseEntity<Object> handleOdmException(OdmApiException e, ServerHttpRequest request) {
+        if (e.getStatus() == HttpStatus.INTERNAL_SERVER_ERROR) {
+            logger.error(e.getErrorName() + ":" + e.getMessage(), e);
+        } else {
+            logger.info(e.getErrorName() + ":" + e.getMessage());
+        }
+        HttpHeaders headers = new HttpHeaders();
+        if (e instanceof TooManyRequestsException) {
+            headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(((TooManyRequestsException) e).getRetryAfterSeconds()));
+        }
+        return errorResponse(e.getStatus(), e.getErrorName(), e.getMessage(), headers, request);
+    }
+
+    @ExceptionHandler({WebExchangeBindException.class})
+    protected ResponseEntity<Object> handleBindException(WebExchangeBindException e, ServerHttpRequest request) {
+        List<ObjectError> errors = e.getAllErrors();
+        String message = String.format("Errors: %s", errors.stream().map(Objects::toString).collect(Collectors.joining("; ")));
+        return errorResponse(HttpStatus.BAD_REQUEST, "BindException", message, new HttpHeaders(), request);
+    }
+
+    /**
+     * Unreadable bodies, unsupported media types and the like, raised by WebFlux itself.
+     */
+    @ExceptionHandler({ResponseStatusException.class})
+    protected ResponseEntity<Object> handleResponseStatusException(ResponseStatusException e, ServerHttpRequest request) {
+        logger.debug("Request refused by WebFlux", e);
+        return errorResponse(e.getStatus(), e.getClass().getName(), e.getMessage(), e.getResponseHeaders(), request);
+    }
+
+    @ExceptionHandler({RuntimeException.class})
+    protected ResponseEntity<Object> handleRuntimeException(RuntimeException e, ServerHttpRequest request) {
+        logger.error("Unknown server error: ", e);
+        return errorResponse(HttpStatus.INTERNAL_SERVER_ERROR, "ServerError", "Unknown Internal Server Error",
+                new HttpHeaders(), request);
+    }
+
+    private ResponseEntity<Object> errorResponse(HttpStatus status, String error, String message, HttpHeaders headers,
+                                                 ServerHttpRequest request) {
+        ErrorResponse errorResponse = new ErrorResponse();
+        errorResponse.setStatus(status.value());
+        errorResponse.setError(error);
+        errorResponse.setMessage(message);
+        errorResponse.setPath(request.getPath().value());
+        HttpHeaders responseHeaders = new HttpHeaders();
+        responseHeaders.addAll(headers);
+        responseHeaders.setContentType(MediaType.APPLICATION_JSON);
+        return new ResponseEntity<>(errorResponse, responseHeaders, status);
+    }
+}
@@ -0,0 +1,46 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.service;
+
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.config.MarketplaceServiceConfig;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.config.ReactiveConfig;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceResponseRes;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Posts results with the non-blocking {@link WebClient} of {@link ReactiveConfig}: the returned future completes on
+ * a Netty event loop thread when the marketplace service answers.
+ */
+@Component
+@Profile("reactive")
+public class WebClientResultClient implements MarketplaceResultClient {
+    private final MarketplaceServiceConfig marketplaceServiceConfig;
+    private final WebClient webClient;
+
+    @Autowired
+    public WebClientResultClient(MarketplaceServiceConfig marketplaceServiceConfig,
+                                 @Qualifier(ReactiveConfig.MARKETPLACE_WEB_CLIENT) WebClient webClient) {
+        this.marketplaceServiceConfig = marketplaceServiceConfig;
+        this.webClient = webClient;
+    }
+
+    @Override
+    public CompletableFuture<Void> post(String requestIdentifier, MarketplaceResponseRes response) {
+        return webClient.post()
+                .uri(marketplaceServiceConfig.getAddress() + RESULTS_PATH, requestIdentifier)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(response)
+                .retrieve()
+                .toBodilessEntity()
+                .onErrorMap(e -> !(e instanceof MarketplaceCallbackException), e -> new MarketplaceCallbackException(e.getMessage(),
+                        e instanceof WebClientResponseException ? ((WebClientResponseException) e).getRawStatusCode() : 0, e))
+                .then()
+                .toFuture();
+    }
+}
@@ -0,0 +1,46 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.config;
+
+import org.junit.jupiter.api.Test;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.ProcessingStage;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.VirtualThreads;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class AsyncExecutorConfigTest {
+
+    private static AsyncExecutorConfig config(boolean virtualThreadsEnabled) {
+        AsyncExecutorConfig config = new AsyncExecutorConfig();
+        ReflectionTestUtils.setField(config, "virtualThreadsEnabled", virtualThreadsEnabled);
+        ReflectionTestUtils.setField(config, "orderingEnabled", true);
+        ReflectionTestUtils.setField(config, "orderingLanes", 16);
+        ReflectionTestUtils.setField(config, "orderingDrainBatchSize", 16);
+        ReflectionTestUtils.setField(config, "deliveryThreads", 8);
+        ReflectionTestUtils.setField(config, "deliveryQueueCapacity", 100);
+        ReflectionTestUtils.setField(config, "maxEmailConnections", 32);
+        ReflectionTestUtils.setField(config, "awaitTerminationSeconds", 1);
+        return config;
+    }
+
+    @Test
+    public void testDeliveryStageUsesTheDeliveryThreadsOnAPool() throws Exception {
+        ProcessingStage stage = config(false).marketplaceDeliveryStage();
+        try {
+            assertEquals(8, stage.getThreads());
+        } finally {
+            stage.destroy();
+        }
+    }
+
+    @Test
+    public void testDeliveryStageRunsOneVirtualWorkerPerSmtpSession() throws Exception {
+        assumeTrue(VirtualThreads.isSupported(), "Virtual threads require Java 21 or later");
+        ProcessingStage stage = config(true).marketplaceDeliveryStage();
+        try {
+            assertEquals(32, stage.getThreads(), "Sends should only be bounded by odm.email.max-connections");
+        } finally {
+            stage.destroy();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.config;
+
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestStatus;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceResponseRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.service.MarketplaceCallbackException;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.service.MarketplaceResultClient;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.service.RestTemplateResultClient;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MarketplaceHttpClientConfigTest {
+
+    // Marketplace service stub that accepts connections and never answers
+    private ServerSocket stalledMarketplace;
+    private final List<Socket> connections = new CopyOnWriteArrayList<>();
+    private CloseableHttpClient httpClient;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        stalledMarketplace = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            while (!stalledMarketplace.isClosed()) {
+                try {
+                    connections.add(stalledMarketplace.accept());
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }, "stalled-marketplace");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        if (httpClient != null) {
+            httpClient.close();
+        }
+        stalledMarketplace.close();
+        for (Socket connection : connections) {
+            connection.close();
+        }
+    }
+
+    private MarketplaceResultClient resultClient(int maxConnections, int readTimeoutMillis, int connectionRequestTimeoutMillis) {
+        MarketplaceHttpClientConfig config = new MarketplaceHttpClientConfig();
+        ReflectionTestUtils.setField(config, "maxConnections", maxConnections);
+        ReflectionTestUtils.setField(config, "connectTimeoutMillis", 1000);
+        ReflectionTestUtils.setField(config, "readTimeoutMillis", readTimeoutMillis);
+        ReflectionTestUtils.setField(config, "connectionRequestTimeoutMillis", connectionRequestTimeoutMillis);
+        ReflectionTestUtils.setField(config, "idleTimeoutMillis", 30000L);
+        httpClient = config.marketplaceHttpClient(config.marketplaceConnectionManager());
+
+        MarketplaceServiceConfig marketplaceServiceConfig = new MarketplaceServiceConfig();
+        marketplaceServiceConfig.setAddress("http://localhost:" + stalledMarketplace.getLocalPort());
+        return new RestTemplateResultClient(marketplaceServiceConfig, config.marketplaceRestTemplate(httpClient));
+    }
+
+    private static MarketplaceResponseRes response() {
+        MarketplaceResponseRes response = new MarketplaceResponseRes();
+        response.setStatus(MarketplaceRequestStatus.GRANTED);
+        response.setMessage("result");
+        return response;
+    }
+
+    private static Throwable failureOf(CompletableFuture<Void> post) throws InterruptedException {
+        try {
+            post.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (TimeoutException e) {
+            fail("The callback was not bounded by the client timeouts");
+        }
+        return fail("The callback to a stalled marketplace service should fail");
+    }
+
+    private static boolean causedBy(Throwable failure, Class<? extends Throwable> type) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (type.isInstance(cause)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testCallbackFailsAfterTheReadTimeout() throws Exception {
+        // Given
+        MarketplaceResultClient client = resultClient(2, 500, 5000);
+
+        // When
+        long startedAt = System.nanoTime();
+        Throwable failure = failureOf(client.post("req-1", response()));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+
+        // Then
+        assertTrue(failure instanceof MarketplaceCallbackException, "Unexpected failure: " + failure);
+        assertTrue(causedBy(failure, SocketTimeoutException.class), "The callback should fail on the read timeout: " + failure);
+        assertTrue(elapsedMillis >= 500 && elapsedMillis < 5000, "The callback failed after " + elapsedMillis + " ms");
+    }
+
+    @Test
+    public void testWaitForAPooledConnectionIsBounded() throws Exception {
+        // Given: the only pooled connection is held by a callback the marketplace service does not answer
+        MarketplaceResultClient client = resultClient(1, 5000, 300);
+        CompletableFuture<Void> stalled = CompletableFuture.supplyAsync(() -> client.post("req-1", response()))
+                .thenCompose(post -> post);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (connections.isEmpty()) {
+            assertTrue(System.currentTimeMillis() < deadline, "The first callback should reach the marketplace service");
+            Thread.sleep(10);
+        }
+
+        // When
+        long startedAt = System.nanoTime();
+        Throwable failure = failureOf(client.post("req-2", response()));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+
+        // Then
+        assertTrue(causedBy(failure, ConnectionPoolTimeoutException.class), "The callback should fail waiting for the pool: " + failure);
+        assertTrue(elapsedMillis >= 300 && elapsedMillis < 5000, "The callback failed after " + elapsedMillis + " ms");
+        assertFalse(stalled.isDone(), "The first callback should still hold the connection");
+        assertEquals(1, connections.size(), "The pool should not open a second connection");
+    }
+}
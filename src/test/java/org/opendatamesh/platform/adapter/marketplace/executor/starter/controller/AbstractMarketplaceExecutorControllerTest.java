@@ -0,0 +1,128 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.controller;
+
+import org.junit.jupiter.api.Test;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.KeyedOrderingExecutor;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.service.MarketplaceExecutorService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * API tests run against both the servlet stack and the {@code reactive} profile, see the subclasses.
+ */
+public abstract class AbstractMarketplaceExecutorControllerTest {
+
+    private static final String VALID_REQUEST = "{"
+            + "\"v\": \"1.0\","
+            + "\"operation\": \"MARKETPLACE_SUBSCRIBE\","
+            + "\"request\": {"
+            + "  \"name\": \"Test Request\","
+            + "  \"identifier\": \"test-request-123\","
+            + "  \"provider\": {\"dataProductFqn\": \"test/product/1.0.0\", \"dataProductPortsFqn\": [\"test/product/1.0.0/port\"]},"
+            + "  \"consumer\": {\"type\": \"user\", \"identifier\": \"user@example.com\"},"
+            + "  \"requester\": {\"type\": \"user\", \"identifier\": \"user@example.com\"},"
+            + "  \"startDate\": \"2030-01-01T00:00:00.000+0000\","
+            + "  \"endDate\": \"2030-12-31T00:00:00.000+0000\""
+            + "}}";
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @SpyBean
+    private MarketplaceExecutorService marketplaceExecutorService;
+
+    @Autowired
+    private KeyedOrderingExecutor marketplaceRequestLanes;
+
+    @Value("${odm.processing.retry-after-seconds:5}")
+    private int retryAfterSeconds;
+
+    @Test
+    public void testAcceptedRequestReturns202() {
+        doNothing().when(marketplaceExecutorService).processRequest(any(MarketplaceRequestRes.class));
+        webTestClient.post().uri("/api/v1/up/marketplace-executor/requests")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(VALID_REQUEST)
+                .exchange()
+                .expectStatus().isAccepted();
+        verify(marketplaceExecutorService).processRequest(any(MarketplaceRequestRes.class));
+    }
+
+    @Test
+    public void testInvalidRequestReturns400() {
+        webTestClient.post().uri("/api/v1/up/marketplace-executor/requests")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"v\": \"1.0\"}")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody().jsonPath("$.status").isEqualTo(400);
+        verify(marketplaceExecutorService, never()).processRequest(any(MarketplaceRequestRes.class));
+    }
+
+    @Test
+    public void testFullQueueReturns429WithRetryAfter() throws InterruptedException {
+        // Given: the real processing lanes are full, behind a task that has run and still holds its lane
+        String blockedKey = "blocked-lane";
+        CountDownLatch holding = new CountDownLatch(1);
+        marketplaceRequestLanes.executeHolding(blockedKey, holding::countDown);
+        assertTrue(holding.await(5, TimeUnit.SECONDS));
+        try {
+            while (true) {
+                marketplaceRequestLanes.execute(blockedKey, () -> { });
+            }
+        } catch (TaskRejectedException full) {
+            // Lanes are at capacity
+        }
+
+        // When / Then
+        try {
+            webTestClient.post().uri("/api/v1/up/marketplace-executor/requests")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(VALID_REQUEST.replace("test-request-123", "test-request-full-queue"))
+                    .exchange()
+                    .expectStatus().isEqualTo(429)
+                    .expectHeader().valueEquals(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .expectBody().jsonPath("$.error").isEqualTo("TooManyRequests");
+        } finally {
+            marketplaceRequestLanes.release(blockedKey);
+        }
+    }
+
+    @Test
+    public void testNdjsonBatchReportsEachItem() {
+        // Given
+        doAnswer(invocation -> Collections.nCopies(invocation.<List<?>>getArgument(0).size(), null))
+                .when(marketplaceExecutorService).submitAll(anyList());
+        String body = VALID_REQUEST + "\n" + "{\"v\": \"1.0\"}" + "\n";
+
+        // When / Then
+        webTestClient.post().uri("/api/v1/up/marketplace-executor/requests/batch")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue(body)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.accepted").isEqualTo(1)
+                .jsonPath("$.rejected").isEqualTo(1)
+                .jsonPath("$.items[0].identifier").isEqualTo("test-request-123")
+                .jsonPath("$.items[1].status").isEqualTo(400);
+    }
+}
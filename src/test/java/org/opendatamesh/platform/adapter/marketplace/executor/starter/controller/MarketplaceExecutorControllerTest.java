@@ -0,0 +1,33 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.controller;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.config.TestConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the API tests against the servlet stack, through MockMvc.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+@Import(TestConfig.class)
+public class MarketplaceExecutorControllerTest extends AbstractMarketplaceExecutorControllerTest {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    public void testMarketplaceConnectionPoolIsReported() {
+        for (String state : new String[]{"leased", "available", "pending"}) {
+            assertEquals(0.0, meterRegistry.get("odm.callback.connections").tag("state", state).gauge().value(), state);
+        }
+        assertEquals(20.0, meterRegistry.get("odm.callback.connections.max").gauge().value());
+    }
+}
@@ -0,0 +1,253 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal in-process SMTP server for tests.
+ * It speaks just enough SMTP for JavaMail (no TLS, no AUTH), records every received message and counts the
+ * connections it accepted, so tests can verify connection reuse. Latency and random transient failures can be
+ * injected to simulate a slow or overloaded relay.
+ */
+public class FakeSmtpServer implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final Thread acceptThread;
+    private final Queue<ReceivedMessage> messages = new ConcurrentLinkedQueue<>();
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    private final Queue<String> injectedDataReplies = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final AtomicInteger messageCount = new AtomicInteger();
+    private final AtomicInteger failureCount = new AtomicInteger();
+    private volatile long dataLatencyMillis;
+    private volatile double failureRate;
+    private volatile boolean recordMessages = true;
+    private volatile boolean running = true;
+
+    public FakeSmtpServer() throws IOException {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.acceptThread = new Thread(this::acceptLoop, "fake-smtp-" + serverSocket.getLocalPort());
+        this.acceptThread.setDaemon(true);
+        this.acceptThread.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public List<ReceivedMessage> getMessages() {
+        return new ArrayList<>(messages);
+    }
+
+    public int getMessageCount() {
+        return messageCount.get();
+    }
+
+    public int getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Delays the reply to every message transfer, as a slow relay would.
+     */
+    public void setDataLatencyMillis(long dataLatencyMillis) {
+        this.dataLatencyMillis = dataLatencyMillis;
+    }
+
+    /**
+     * Refuses the given fraction of message transfers with a transient "451" reply.
+     */
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * Stops recording message contents, keeping only the count, so long load runs do not fill the heap.
+     */
+    public void discardMessages() {
+        messages.clear();
+        recordMessages = false;
+    }
+
+    /**
+     * Replies to the next message transfers with the given SMTP reply (e.g. "421 4.7.0 Try again later")
+     * instead of accepting them.
+     */
+    public void injectDataReply(String reply) {
+        injectedDataReplies.add(reply);
+    }
+
+    /**
+     * Abruptly closes all client connections, as a server dropping idle connections would.
+     */
+    public void dropConnections() {
+        for (Socket client : clients) {
+            try {
+                client.close();
+            } catch (IOException ignored) {
+                // Already closed
+            }
+        }
+        clients.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        dropConnections();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket client = serverSocket.accept();
+                connectionCount.incrementAndGet();
+                clients.add(client);
+                Thread handler = new Thread(() -> handle(client), "fake-smtp-client");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                if (running) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+
+    private void handle(Socket client) {
+        try (Socket socket = client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             OutputStream out = socket.getOutputStream()) {
+            reply(out, "220 localhost fake SMTP ready");
+            String from = null;
+            List<String> recipients = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line.toUpperCase();
+                switch (command) {
+                    case "EHLO":
+                    case "HELO":
+                        reply(out, "250 localhost");
+                        break;
+                    case "MAIL":
+                        from = line.substring(line.indexOf(':') + 1).trim();
+                        recipients.clear();
+                        reply(out, "250 OK");
+                        break;
+                    case "RCPT":
+                        recipients.add(line.substring(line.indexOf(':') + 1).trim());
+                        reply(out, "250 OK");
+                        break;
+                    case "DATA":
+                        reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                        StringBuilder data = new StringBuilder();
+                        while ((line = in.readLine()) != null && !line.equals(".")) {
+                            data.append(line.startsWith("..") ? line.substring(1) : line).append("\r\n");
+                        }
+                        if (line == null) {
+                            // The client dropped the connection before ending the data, so nothing is delivered
+                            return;
+                        }
+                        delay();
+                        String injected = injectedDataReplies.poll();
+                        if (injected == null && failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+                            injected = "451 4.3.0 Temporary failure, try again later";
+                            failureCount.incrementAndGet();
+                        }
+                        if (injected != null) {
+                            reply(out, injected);
+                        } else {
+                            if (recordMessages) {
+                                messages.add(new ReceivedMessage(from, new ArrayList<>(recipients), data.toString()));
+                            }
+                            messageCount.incrementAndGet();
+                            reply(out, "250 OK queued");
+                        }
+                        break;
+                    case "RSET":
+                        from = null;
+                        recipients.clear();
+                        reply(out, "250 OK");
+                        break;
+                    case "NOOP":
+                        reply(out, "250 OK");
+                        break;
+                    case "QUIT":
+                        reply(out, "221 Bye");
+                        return;
+                    default:
+                        reply(out, "500 Unrecognized command");
+                }
+            }
+        } catch (SocketException e) {
+            // Connection dropped by dropConnections() or by the client
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    private void delay() {
+        if (dataLatencyMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(dataLatencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void reply(OutputStream out, String reply) throws IOException {
+        out.write((reply + "\r\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /**
+     * A message accepted by the server, with its SMTP envelope.
+     */
+    public static class ReceivedMessage {
+        private final String from;
+        private final List<String> recipients;
+        private final String data;
+
+        ReceivedMessage(String from, List<String> recipients, String data) {
+            this.from = from;
+            this.recipients = recipients;
+            this.data = data;
+        }
+
+        public String getFrom() {
+            return from;
+        }
+
+        public List<String> getRecipients() {
+            return recipients;
+        }
+
+        public String getData() {
+            return data;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail;
+
+import org.junit.jupiter.api.Test;
+import org.opendatamesh.platform.adapter.marketplace.emailsender.mail.MockMailSender;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MailDispatcherTest {
+
+    /**
+     * Mock sender that records the size of every batch and fails the messages with a given subject.
+     */
+    private static class BatchRecordingMailSender extends MockMailSender {
+        private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void send(MimeMessage message) throws MessagingException {
+            if ("fail".equals(message.getSubject())) {
+                throw new MessagingException("Rejected by test");
+            }
+            super.send(message);
+        }
+
+        @Override
+        public Map<MimeMessage, Exception> sendBatch(List<MimeMessage> messages) {
+            batchSizes.add(messages.size());
+            return super.sendBatch(messages);
+        }
+    }
+
+    private MimeMessage createMessage(MailDispatcher dispatcher, String subject) throws MessagingException {
+        MimeMessage message = dispatcher.createMimeMessage();
+        message.setSubject(subject);
+        return message;
+    }
+
+    @Test
+    public void testDispatchWithoutBatchingSendsImmediately() throws Exception {
+        // Given
+        BatchRecordingMailSender mailSender = new BatchRecordingMailSender();
+        MailDispatcher dispatcher = new MailDispatcher(mailSender, false, 50, 50, 1, 16, 30_000);
+
+        // When
+        dispatcher.send(createMessage(dispatcher, "ok"));
+
+        // Then
+        assertEquals(1, mailSender.getSentMessages().size(), "Message should be sent on the calling thread");
+        assertTrue(mailSender.batchSizes.isEmpty(), "No batch should be used when batching is disabled");
+        assertThrows(MessagingException.class, () -> dispatcher.send(createMessage(dispatcher, "fail")));
+    }
+
+    @Test
+    public void testConcurrentMessagesAreSentAsOneBatch() throws Exception {
+        // Given
+        BatchRecordingMailSender mailSender = new BatchRecordingMailSender();
+        MailDispatcher dispatcher = new MailDispatcher(mailSender, true, 5, 5000, 1, 16, 30_000);
+
+        // When
+        List<CompletableFuture<Void>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            results.add(dispatcher.dispatch(createMessage(dispatcher, "ok")));
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        dispatcher.shutdown();
+
+        // Then
+        assertEquals(5, mailSender.getSentMessages().size(), "All messages should be sent");
+        assertEquals(List.of(5), mailSender.batchSizes, "A full batch should be flushed without waiting for the delay");
+    }
+
+    @Test
+    public void testFailuresAreReportedPerMessage() throws Exception {
+        // Given
+        BatchRecordingMailSender mailSender = new BatchRecordingMailSender();
+        MailDispatcher dispatcher = new MailDispatcher(mailSender, true, 10, 100, 1, 16, 30_000);
+
+        // When
+        CompletableFuture<Void> first = dispatcher.dispatch(createMessage(dispatcher, "ok"));
+        CompletableFuture<Void> failing = dispatcher.dispatch(createMessage(dispatcher, "fail"));
+        CompletableFuture<Void> last = dispatcher.dispatch(createMessage(dispatcher, "ok"));
+
+        // Then
+        first.get(5, TimeUnit.SECONDS);
+        last.get(5, TimeUnit.SECONDS);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> failing.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof MessagingException, "Failure cause should be reported to its own caller");
+        assertEquals(2, mailSender.getSentMessages().size(), "Only the rejected message should fail");
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testConcurrentSessionsAreBoundedByMaxConnections() throws Exception {
+        // Given
+        AtomicInteger open = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        MockMailSender mailSender = new MockMailSender() {
+            @Override
+            public void send(MimeMessage message) throws MessagingException {
+                peak.accumulateAndGet(open.incrementAndGet(), Math::max);
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    open.decrementAndGet();
+                }
+                super.send(message);
+            }
+        };
+        MailDispatcher dispatcher = new MailDispatcher(mailSender, false, 50, 50, 1, 2, 100);
+        ExecutorService senders = Executors.newFixedThreadPool(4);
+
+        // When
+        List<Future<?>> sends = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            sends.add(senders.submit(() -> {
+                dispatcher.send(createMessage(dispatcher, "ok"));
+                return null;
+            }));
+        }
+        while (dispatcher.getActiveConnectionCount() < 2) {
+            Thread.sleep(5);
+        }
+
+        // Then
+        assertThrows(MessagingException.class, () -> dispatcher.send(createMessage(dispatcher, "ok")),
+                "A sender should give up when no connection frees up in time");
+        release.countDown();
+        for (Future<?> send : sends) {
+            send.get(5, TimeUnit.SECONDS);
+        }
+        senders.shutdown();
+        assertEquals(2, peak.get());
+        assertEquals(0, dispatcher.getActiveConnectionCount());
+    }
+
+    @Test
+    public void testSendGivesUpWhenABatchGetsNoOutcomeInTime() throws Exception {
+        // Given: the SMTP server never answers
+        CountDownLatch release = new CountDownLatch(1);
+        MockMailSender mailSender = new MockMailSender() {
+            @Override
+            public Map<MimeMessage, Exception> sendBatch(List<MimeMessage> messages) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.sendBatch(messages);
+            }
+        };
+        MailDispatcher dispatcher = new MailDispatcher(mailSender, true, 1, 10, 1, 16, 30_000, 200);
+
+        // When
+        long start = System.nanoTime();
+        MessagingException e = assertThrows(MessagingException.class, () -> dispatcher.send(createMessage(dispatcher, "ok")));
+
+        // Then
+        assertTrue(e.getMessage().contains("No outcome"), e.getMessage());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        release.countDown();
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testEveryMessageDispatchedAroundShutdownGetsAnOutcome() throws Exception {
+        // Given
+        BatchRecordingMailSender mailSender = new BatchRecordingMailSender();
+        MailDispatcher dispatcher = new MailDispatcher(mailSender, true, 10, 20, 1, 16, 30_000);
+        ExecutorService senders = Executors.newFixedThreadPool(4);
+        List<CompletableFuture<Void>> results = new CopyOnWriteArrayList<>();
+        CountDownLatch started = new CountDownLatch(4);
+
+        // When: messages keep coming while the dispatcher shuts down
+        List<Future<?>> dispatching = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            dispatching.add(senders.submit(() -> {
+                started.countDown();
+                for (int j = 0; j < 200; j++) {
+                    results.add(dispatcher.dispatch(createMessage(dispatcher, "ok")));
+                }
+                return null;
+            }));
+        }
+        started.await(5, TimeUnit.SECONDS);
+        dispatcher.shutdown();
+        for (Future<?> sender : dispatching) {
+            sender.get(5, TimeUnit.SECONDS);
+        }
+        senders.shutdown();
+
+        // Then
+        int sent = 0;
+        for (CompletableFuture<Void> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                sent++;
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof MessagingException, "Late messages should fail, got " + e.getCause());
+            }
+        }
+        assertEquals(800, results.size());
+        assertEquals(sent, mailSender.getSentMessages().size());
+    }
+}
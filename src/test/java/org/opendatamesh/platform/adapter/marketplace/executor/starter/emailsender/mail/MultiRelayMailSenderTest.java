@@ -0,0 +1,245 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail;
+
+import com.github.mustachejava.DefaultMustacheFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.template.TemplateBodyPart;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MultiRelayMailSenderTest {
+
+    private final List<FakeSmtpServer> servers = new ArrayList<>();
+    private MultiRelayMailSender sender;
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (sender != null) {
+            sender.close();
+        }
+        for (FakeSmtpServer server : servers) {
+            server.close();
+        }
+    }
+
+    private FakeSmtpServer startServer() throws Exception {
+        FakeSmtpServer server = new FakeSmtpServer();
+        servers.add(server);
+        return server;
+    }
+
+    private MultiRelayMailSender createSender(String relays, String selection, long ejectMillis) {
+        JavaMailSenderImpl javaMailSender = new JavaMailSenderImpl();
+        javaMailSender.setHost("localhost");
+        javaMailSender.getJavaMailProperties().put("mail.smtp.auth", "false");
+        sender = new MultiRelayMailSender(javaMailSender, relays, selection, 2, 30000, 5000, 2, 0.5, ejectMillis);
+        return sender;
+    }
+
+    private MimeMessage createMessage(int index) throws Exception {
+        MimeMessage message = sender.createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(message, true);
+        helper.setFrom("sender@example.com");
+        helper.setTo("user" + index + "@example.com");
+        helper.setSubject("Message " + index);
+        helper.setText("Body " + index);
+        return message;
+    }
+
+    @Test
+    public void testWeightedSelectionFollowsTheWeights() throws Exception {
+        // Given
+        FakeSmtpServer heavy = startServer();
+        FakeSmtpServer light = startServer();
+        createSender("localhost:" + heavy.getPort() + ":3,localhost:" + light.getPort() + ":1", "weighted", 30000);
+
+        // When
+        for (int i = 0; i < 40; i++) {
+            sender.send(createMessage(i));
+        }
+
+        // Then
+        assertEquals(30, heavy.getMessageCount());
+        assertEquals(10, light.getMessageCount());
+    }
+
+    @Test
+    public void testLeastLatencySelectionPrefersTheFastRelay() throws Exception {
+        // Given
+        FakeSmtpServer slow = startServer();
+        FakeSmtpServer fast = startServer();
+        slow.setDataLatencyMillis(100);
+        createSender("localhost:" + slow.getPort() + ",localhost:" + fast.getPort(), "least-latency", 30000);
+
+        // When
+        for (int i = 0; i < 40; i++) {
+            sender.send(createMessage(i));
+        }
+
+        // Then
+        assertTrue(fast.getMessageCount() > 30,
+                "Most messages should go to the fast relay, got " + fast.getMessageCount() + " of 40");
+    }
+
+    @Test
+    public void testFailingRelayIsEjectedAndMessagesFailOver() throws Exception {
+        // Given
+        FakeSmtpServer failing = startServer();
+        FakeSmtpServer healthy = startServer();
+        failing.setFailureRate(1.0);
+        createSender("localhost:" + failing.getPort() + ",localhost:" + healthy.getPort(), "weighted", 60000);
+
+        // When
+        for (int i = 0; i < 20; i++) {
+            sender.send(createMessage(i));
+        }
+
+        // Then
+        assertEquals(20, healthy.getMessageCount(), "Every message should fail over to the healthy relay");
+        assertEquals(2, failing.getFailureCount(), "The failing relay should be ejected after two failures");
+        assertTrue(sender.getRelays().get(0).isEjected());
+        assertFalse(sender.getRelays().get(1).isEjected());
+    }
+
+    @Test
+    public void testPermanentFailureIsNotRetriedOnAnotherRelay() throws Exception {
+        // Given
+        FakeSmtpServer first = startServer();
+        FakeSmtpServer second = startServer();
+        first.injectDataReply("554 5.7.1 Message rejected");
+        createSender("localhost:" + first.getPort() + ",localhost:" + second.getPort(), "weighted", 30000);
+
+        // Then
+        assertThrows(MessagingException.class, () -> sender.send(createMessage(0)));
+        assertEquals(0, second.getMessageCount());
+        assertFalse(sender.getRelays().get(0).isEjected(), "A rejected message says nothing about the relay");
+    }
+
+    @Test
+    public void testTemplateRenderingFailureDoesNotCountAgainstTheRelay() throws Exception {
+        // Given
+        FakeSmtpServer first = startServer();
+        FakeSmtpServer second = startServer();
+        createSender("localhost:" + first.getPort() + ",localhost:" + second.getPort(), "weighted", 30000);
+        Object brokenContext = new Object() {
+            @SuppressWarnings("unused")
+            public String getName() {
+                throw new IllegalStateException("broken context");
+            }
+        };
+
+        // When
+        for (int i = 0; i < 4; i++) {
+            MimeMessage message = sender.createMimeMessage();
+            MimeMessageHelper helper = new MimeMessageHelper(message, true);
+            helper.setFrom("sender@example.com");
+            helper.setTo("user" + i + "@example.com");
+            helper.setSubject("Message " + i);
+            helper.getMimeMultipart().addBodyPart(new TemplateBodyPart(
+                    new DefaultMustacheFactory().compile(new StringReader("Hello {{name}}"), "broken"), brokenContext, false, nanos -> { }));
+            assertThrows(MessagingException.class, () -> sender.send(message));
+        }
+        sender.send(createMessage(4));
+
+        // Then
+        for (SmtpRelay relay : sender.getRelays()) {
+            assertFalse(relay.isEjected(), "A broken template says nothing about the relay");
+            assertEquals(0.0, relay.getErrorRate());
+        }
+        assertEquals(1, first.getMessageCount() + second.getMessageCount());
+    }
+
+    @Test
+    public void testEjectedRelayIsReinstatedOnceItRecovers() throws Exception {
+        // Given
+        FakeSmtpServer flaky = startServer();
+        FakeSmtpServer healthy = startServer();
+        flaky.injectDataReply("421 4.3.2 Service not available");
+        flaky.injectDataReply("421 4.3.2 Service not available");
+        createSender("localhost:" + flaky.getPort() + ",localhost:" + healthy.getPort(), "weighted", 100);
+        for (int i = 0; i < 4; i++) {
+            sender.send(createMessage(i));
+        }
+        SmtpRelay relay = sender.getRelays().get(0);
+        assertTrue(relay.isEjected());
+
+        // When
+        long deadline = System.currentTimeMillis() + 5000;
+        while (relay.isEjected() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        for (int i = 0; i < 10; i++) {
+            sender.send(createMessage(i));
+        }
+
+        // Then
+        assertFalse(relay.isEjected(), "The relay should be back after a successful probe");
+        assertTrue(flaky.getMessageCount() > 0, "The reinstated relay should take messages again");
+        assertEquals(14, flaky.getMessageCount() + healthy.getMessageCount());
+    }
+
+    @Test
+    public void testRelayListIsParsed() {
+        List<MultiRelayMailSender.RelayAddress> relays = MultiRelayMailSender.parseRelays(" a:2525:3, b:26 ,c", "localhost", 25);
+        assertEquals(3, relays.size());
+        assertEquals("a", relays.get(0).host);
+        assertEquals(2525, relays.get(0).port);
+        assertEquals(3, relays.get(0).weight);
+        assertEquals(26, relays.get(1).port);
+        assertEquals(1, relays.get(1).weight);
+        assertEquals(25, relays.get(2).port);
+        assertEquals("localhost", MultiRelayMailSender.parseRelays("", "localhost", 25).get(0).host);
+        assertThrows(IllegalArgumentException.class, () -> MultiRelayMailSender.parseRelays("a:port", "localhost", 25));
+        assertThrows(IllegalArgumentException.class, () -> MultiRelayMailSender.parseRelays("a:1:2:3", "localhost", 25));
+    }
+
+    @Test
+    public void testRelayWithoutHistoryIsScoredByItsSendsInFlight() {
+        // Given
+        SmtpRelay fresh = new SmtpRelay("fresh", 25, 1, null);
+        SmtpRelay known = new SmtpRelay("known", 25, 1, null);
+        known.startSend();
+        known.recordSuccess(TimeUnit.MILLISECONDS.toNanos(150));
+
+        // When: the new relay is given sends, as least-latency would
+        int sendsOnFresh = 0;
+        while (fresh.getScore() < known.getScore()) {
+            fresh.startSend();
+            sendsOnFresh++;
+        }
+
+        // Then
+        assertEquals(0.0, new SmtpRelay("idle", 25, 1, null).getScore(), "An idle relay without history should be tried first");
+        assertTrue(sendsOnFresh > 0 && sendsOnFresh < 10, "The relay without history should not draw every send, got " + sendsOnFresh);
+    }
+
+    @Test
+    public void testReinstatedRelayKeepsItsLatency() {
+        // Given: a slow relay ejected after failures
+        SmtpRelay relay = new SmtpRelay("slow", 25, 1, null);
+        for (int i = 0; i < 3; i++) {
+            relay.startSend();
+            relay.recordFailure(TimeUnit.MILLISECONDS.toNanos(400), 3, 0.5);
+        }
+        relay.eject(1000);
+
+        // When
+        relay.reinstate();
+        relay.startSend();
+
+        // Then
+        assertFalse(relay.isEjected());
+        assertEquals(0.0, relay.getErrorRate());
+        assertEquals(400.0, relay.getLatencyMillis(), 0.001);
+        assertEquals(800.0, relay.getScore(), 0.001, "Sends in flight on the reinstated relay should count");
+    }
+}
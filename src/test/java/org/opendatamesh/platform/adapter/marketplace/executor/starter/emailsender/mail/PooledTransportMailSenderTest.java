@@ -0,0 +1,108 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+
+import javax.mail.internet.MimeMessage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PooledTransportMailSenderTest {
+
+    private FakeSmtpServer smtpServer;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        smtpServer = new FakeSmtpServer();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        smtpServer.close();
+    }
+
+    private PooledTransportMailSender createSender(int poolSize, long validateAfterIdleMillis) {
+        JavaMailSenderImpl javaMailSender = new JavaMailSenderImpl();
+        javaMailSender.setHost("localhost");
+        javaMailSender.setPort(smtpServer.getPort());
+        javaMailSender.getJavaMailProperties().put("mail.smtp.auth", "false");
+        return new PooledTransportMailSender(javaMailSender, poolSize, validateAfterIdleMillis, 5000);
+    }
+
+    private MimeMessage createMessage(PooledTransportMailSender sender, int index) throws Exception {
+        MimeMessage message = sender.createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(message, true);
+        helper.setFrom("sender@example.com");
+        helper.setTo("user" + index + "@example.com");
+        helper.setSubject("Message " + index);
+        helper.setText("Body " + index);
+        return message;
+    }
+
+    @Test
+    public void testSequentialSendsReuseOneConnection() throws Exception {
+        // Given
+        PooledTransportMailSender sender = createSender(2, 30000);
+
+        // When
+        for (int i = 0; i < 10; i++) {
+            sender.send(createMessage(sender, i));
+        }
+
+        // Then
+        assertEquals(10, smtpServer.getMessages().size(), "All messages should be delivered");
+        assertEquals(1, smtpServer.getConnectionCount(), "Sequential sends should reuse a single connection");
+        assertEquals(1, sender.getPool().getIdleCount(), "The connection should be back in the pool");
+        sender.close();
+    }
+
+    @Test
+    public void testConcurrentSendsNeverExceedPoolSize() throws Exception {
+        // Given
+        PooledTransportMailSender sender = createSender(3, 30000);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        // When
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            MimeMessage message = createMessage(sender, i);
+            futures.add(executor.submit(() -> {
+                sender.send(message);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // Then
+        assertEquals(40, smtpServer.getMessages().size(), "All messages should be delivered");
+        assertTrue(smtpServer.getConnectionCount() <= 3, "No more connections than the pool size should be opened");
+        sender.close();
+    }
+
+    @Test
+    public void testDroppedConnectionIsReopened() throws Exception {
+        // Given
+        PooledTransportMailSender sender = createSender(1, 0);
+        sender.send(createMessage(sender, 1));
+
+        // When
+        smtpServer.dropConnections();
+        sender.send(createMessage(sender, 2));
+
+        // Then
+        assertEquals(2, smtpServer.getMessages().size(), "Message should be delivered over a new connection");
+        assertEquals(2, smtpServer.getConnectionCount(), "A stale connection should be replaced");
+        sender.close();
+    }
+}
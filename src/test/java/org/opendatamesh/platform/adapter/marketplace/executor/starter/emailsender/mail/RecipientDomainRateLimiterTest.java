@@ -0,0 +1,108 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecipientDomainRateLimiterTest {
+
+    @Test
+    public void testBurstIsSentAndExcessIsDeferred() {
+        // Given: 1 email per second with a burst of 3
+        RecipientDomainRateLimiter limiter = new RecipientDomainRateLimiter(true, 1, 3, "");
+
+        // When / Then
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.reserve("user" + i + "@bigcorp.com", "request-" + i));
+        }
+        long firstDelay = limiter.reserve("user3@bigcorp.com", "request-3");
+        long secondDelay = limiter.reserve("user4@bigcorp.com", "request-4");
+        assertTrue(firstDelay > 900 && firstDelay <= 1000, "Fourth email should wait for the next token, waited " + firstDelay);
+        assertTrue(secondDelay > 1900 && secondDelay <= 2000, "Fifth email should wait for the token after, waited " + secondDelay);
+        assertEquals(0, limiter.reserve("someone@example.org", "request-5"), "Other domains have their own bucket");
+    }
+
+    @Test
+    public void testDeferredEmailKeepsItsSlot() throws Exception {
+        // Given
+        RecipientDomainRateLimiter limiter = new RecipientDomainRateLimiter(true, 20, 1, "");
+        assertEquals(0, limiter.reserve("a@bigcorp.com", "request-1"));
+        long delay = limiter.reserve("b@bigcorp.com", "request-2");
+        assertTrue(delay > 0);
+
+        // When
+        Thread.sleep(delay);
+
+        // Then: the deferred email is let through even though a newcomer arrives at the same time
+        assertEquals(0, limiter.reserve("b@bigcorp.com", "request-2"));
+        assertTrue(limiter.reserve("c@bigcorp.com", "request-3") > 0);
+        assertEquals(1, limiter.getReservationCount());
+    }
+
+    @Test
+    public void testDomainOverridesAndUnlimitedDomains() {
+        // Given: unlimited by default, limited for bigcorp.com only
+        RecipientDomainRateLimiter limiter = new RecipientDomainRateLimiter(true, 0, 5, "BigCorp.com=1:1, example.org=2");
+
+        // When / Then
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, limiter.reserve("user@other.net", "other-" + i));
+        }
+        assertEquals(0, limiter.reserve("Someone <someone@bigcorp.com>", "bigcorp-1"));
+        assertTrue(limiter.reserve("someone@BIGCORP.COM", "bigcorp-2") > 0);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.reserve("user@example.org", "example-" + i), "example.org should use the default burst");
+        }
+        assertTrue(limiter.reserve("user@example.org", "example-5") > 0);
+        assertThrows(IllegalArgumentException.class, () -> new RecipientDomainRateLimiter(true, 1, 1, "bigcorp.com"));
+    }
+
+    @Test
+    public void testConcurrentWorkersShareTheBurst() throws Exception {
+        // Given
+        RecipientDomainRateLimiter limiter = new RecipientDomainRateLimiter(true, 0.1, 50, "");
+        AtomicInteger sentNow = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int worker = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 100; i++) {
+                    if (limiter.reserve("user@bigcorp.com", worker + "-" + i) == 0) {
+                        sentNow.incrementAndGet();
+                    }
+                }
+            });
+            workers.add(thread);
+            thread.start();
+        }
+
+        // When
+        start.countDown();
+        for (Thread thread : workers) {
+            thread.join();
+        }
+
+        // Then
+        assertEquals(50, sentNow.get(), "Exactly the burst should be sent straight away");
+        assertEquals(750, limiter.getReservationCount());
+    }
+
+    @Test
+    public void testDisabledLimiterNeverDefers() {
+        RecipientDomainRateLimiter limiter = new RecipientDomainRateLimiter(false, 1, 1, "");
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, limiter.reserve("user@bigcorp.com", "request-" + i));
+        }
+    }
+}
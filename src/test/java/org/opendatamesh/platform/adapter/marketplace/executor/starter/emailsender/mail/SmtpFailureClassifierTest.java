@@ -0,0 +1,83 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.util.MailConnectException;
+import org.junit.jupiter.api.Test;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.template.TemplateRenderingException;
+import org.springframework.mail.MailSendException;
+
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.InternetAddress;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SmtpFailureClassifierTest {
+
+    private static SMTPSendFailedException sendFailed(int replyCode) {
+        return new SMTPSendFailedException("DATA", replyCode, replyCode + " rejected", null, null, null, null);
+    }
+
+    @Test
+    public void testReplyCodesDecideTransientOrPermanent() {
+        assertTrue(SmtpFailureClassifier.isTransient(sendFailed(421)), "421 should be transient");
+        assertTrue(SmtpFailureClassifier.isTransient(sendFailed(451)), "451 should be transient");
+        assertFalse(SmtpFailureClassifier.isTransient(sendFailed(550)), "550 should be permanent");
+        assertFalse(SmtpFailureClassifier.isTransient(sendFailed(554)), "554 should be permanent");
+    }
+
+    @Test
+    public void testFailuresAreFoundThroughWrappers() throws Exception {
+        // Recipient failures are reported as the next exception of a SendFailedException
+        SendFailedException recipientFailure = new SendFailedException("Invalid Addresses",
+                new SMTPAddressFailedException(new InternetAddress("user@example.com"), "RCPT TO", 450, "450 mailbox busy"),
+                new Address[0], new Address[0], new Address[0]);
+        RuntimeException wrapped = new RuntimeException("Failed to send access email", recipientFailure);
+
+        assertTrue(SmtpFailureClassifier.isTransient(wrapped));
+        assertTrue(SmtpFailureClassifier.isTransient(new MailSendException(Collections.singletonMap(new Object(), sendFailed(421)))));
+        assertFalse(SmtpFailureClassifier.isTransient(new MailSendException(Collections.singletonMap(new Object(), sendFailed(550)))));
+    }
+
+    @Test
+    public void testConnectionAndConfigurationFailures() {
+        assertTrue(SmtpFailureClassifier.isTransient(
+                new MailConnectException(new com.sun.mail.util.SocketConnectException("refused", new ConnectException(), "localhost", 25, 1000))));
+        assertFalse(SmtpFailureClassifier.isTransient(new AuthenticationFailedException("535 bad credentials")));
+        assertFalse(SmtpFailureClassifier.isTransient(new IllegalArgumentException("Template not found")));
+    }
+
+    @Test
+    public void testTemplateRenderingFailureIsPermanent() {
+        // JavaMail wraps the I/O errors of the DATA write, rendering included, the same way
+        TemplateRenderingException rendering = new TemplateRenderingException("Failed to render email template subscribe",
+                new IllegalStateException("broken context"));
+
+        assertFalse(SmtpFailureClassifier.isTransient(new MessagingException("IOException while sending message", rendering)));
+        assertTrue(SmtpFailureClassifier.isTransient(new MessagingException("IOException while sending message",
+                new IOException("Connection reset"))));
+    }
+
+    @Test
+    public void testSendFailureWithInvalidAddressesOrNoReplyCodeIsPermanent() throws Exception {
+        InternetAddress invalid = new InternetAddress("nobody@example.com");
+        SendFailedException invalidAddresses = new SendFailedException("Invalid Addresses", null,
+                new Address[0], new Address[0], new Address[]{invalid});
+        SendFailedException noReplyCode = new SendFailedException("No recipient addresses");
+        // A busy mailbox does not make the send transient when another address was rejected for good
+        SMTPAddressFailedException busy = new SMTPAddressFailedException(new InternetAddress("user@example.com"), "RCPT TO", 450, "450 mailbox busy");
+        busy.setNextException(new SMTPAddressFailedException(invalid, "RCPT TO", 550, "550 no such user"));
+        SendFailedException mixed = new SendFailedException("Invalid Addresses", busy, new Address[0], new Address[0], new Address[0]);
+
+        assertFalse(SmtpFailureClassifier.isTransient(invalidAddresses));
+        assertFalse(SmtpFailureClassifier.isTransient(noReplyCode));
+        assertFalse(SmtpFailureClassifier.isTransient(new RuntimeException("Failed to send access email", noReplyCode)));
+        assertFalse(SmtpFailureClassifier.isTransient(mixed));
+    }
+}
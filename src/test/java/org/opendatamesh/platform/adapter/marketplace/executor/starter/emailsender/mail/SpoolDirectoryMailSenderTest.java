@@ -0,0 +1,112 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mail.javamail.MimeMessageHelper;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpoolDirectoryMailSenderTest {
+
+    @TempDir
+    Path spoolDir;
+
+    private SpoolDirectoryMailSender createSender() throws Exception {
+        return new SpoolDirectoryMailSender(spoolDir.toString(), "", true);
+    }
+
+    private MimeMessage createMessage(SpoolDirectoryMailSender sender, int index) throws Exception {
+        MimeMessage message = sender.createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(message, true);
+        helper.setFrom("sender@example.com");
+        helper.setTo("user" + index + "@example.com");
+        helper.setSubject("Message " + index);
+        helper.setText("Body " + index);
+        return message;
+    }
+
+    private List<Path> spooledFiles() throws Exception {
+        try (Stream<Path> files = Files.list(spoolDir)) {
+            return files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private List<Path> tempFiles() throws Exception {
+        try (Stream<Path> files = Files.list(spoolDir.resolve(".tmp"))) {
+            return files.collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void testMessageIsWrittenAsAnRfc822File() throws Exception {
+        // Given
+        SpoolDirectoryMailSender sender = createSender();
+
+        // When
+        sender.send(createMessage(sender, 1));
+
+        // Then
+        List<Path> files = spooledFiles();
+        assertEquals(1, files.size());
+        assertTrue(files.get(0).getFileName().toString().endsWith(".eml"));
+        assertTrue(tempFiles().isEmpty(), "No temporary file should be left behind");
+        try (InputStream in = Files.newInputStream(files.get(0))) {
+            MimeMessage spooled = new MimeMessage(Session.getInstance(new Properties()), in);
+            assertEquals("Message 1", spooled.getSubject());
+            assertEquals("user1@example.com", spooled.getAllRecipients()[0].toString());
+            assertNotNull(spooled.getSentDate());
+            assertNotNull(spooled.getMessageID());
+        }
+    }
+
+    @Test
+    public void testBatchIsSpooledAndFailuresAreReportedPerMessage() throws Exception {
+        // Given
+        SpoolDirectoryMailSender sender = createSender();
+        List<MimeMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            messages.add(createMessage(sender, i));
+        }
+        MimeMessage withoutRecipient = sender.createMimeMessage();
+        withoutRecipient.setSubject("Nobody");
+        withoutRecipient.setText("Body");
+        messages.add(2, withoutRecipient);
+
+        // When
+        Map<MimeMessage, Exception> failures = sender.sendBatch(messages);
+
+        // Then
+        assertEquals(1, failures.size());
+        assertTrue(failures.containsKey(withoutRecipient));
+        assertEquals(5, spooledFiles().size(), "Every other message should be spooled");
+        assertTrue(tempFiles().isEmpty(), "No temporary file should be left behind");
+    }
+
+    @Test
+    public void testFileNamesAreUnique() throws Exception {
+        // Given
+        SpoolDirectoryMailSender sender = createSender();
+        SpoolDirectoryMailSender otherInstance = createSender();
+
+        // When
+        for (int i = 0; i < 20; i++) {
+            sender.send(createMessage(sender, i));
+            otherInstance.send(createMessage(otherInstance, i));
+        }
+
+        // Then
+        assertEquals(40, spooledFiles().size());
+    }
+}
@@ -0,0 +1,108 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.template;
+
+import com.github.mustachejava.Mustache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EmailTemplateRegistryTest {
+
+    @TempDir
+    Path templateDir;
+
+    @Test
+    public void testClasspathTemplateIsCompiledOnce() {
+        // Given
+        EmailTemplateRegistry registry = new EmailTemplateRegistry(0);
+        String templatePath = "classpath:templates/email/subscribe-template.mustache";
+
+        // When
+        Mustache first = registry.getTemplate(templatePath, "subscribe-email-template");
+        Mustache second = registry.getTemplate(templatePath, "subscribe-email-template");
+
+        // Then
+        assertSame(first, second, "Classpath template should be compiled only once");
+    }
+
+    @Test
+    public void testFileTemplateIsCachedUntilModified() throws Exception {
+        // Given
+        EmailTemplateRegistry registry = new EmailTemplateRegistry(0);
+        Path templateFile = templateDir.resolve("subscribe-template.mustache");
+        Files.write(templateFile, "Hello {{name}}".getBytes(StandardCharsets.UTF_8));
+        String templatePath = templateFile.toString();
+
+        // When
+        Mustache first = registry.getTemplate(templatePath, "subscribe-email-template");
+        Mustache unchanged = registry.getTemplate(templatePath, "subscribe-email-template");
+
+        Files.write(templateFile, "Goodbye {{name}}".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(templateFile, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+        Mustache modified = registry.getTemplate(templatePath, "subscribe-email-template");
+
+        // Then
+        assertSame(first, unchanged, "Unmodified file template should not be recompiled");
+        assertNotSame(first, modified, "Modified file template should be recompiled");
+        assertEquals("Hello user", render(first));
+        assertEquals("Goodbye user", render(modified));
+    }
+
+    @Test
+    public void testFileTemplateIsNotCheckedBeforeRefreshInterval() throws Exception {
+        // Given
+        EmailTemplateRegistry registry = new EmailTemplateRegistry(60000);
+        Path templateFile = templateDir.resolve("unsubscribe-template.mustache");
+        Files.write(templateFile, "Hello {{name}}".getBytes(StandardCharsets.UTF_8));
+        String templatePath = templateFile.toString();
+
+        // When
+        Mustache first = registry.getTemplate(templatePath, "unsubscribe-email-template");
+        Files.write(templateFile, "Goodbye {{name}}".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(templateFile, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+        Mustache second = registry.getTemplate(templatePath, "unsubscribe-email-template");
+
+        // Then
+        assertSame(first, second, "File should not be checked again before the refresh interval elapses");
+    }
+
+    @Test
+    public void testInvalidModificationKeepsPreviousTemplate() throws Exception {
+        // Given
+        EmailTemplateRegistry registry = new EmailTemplateRegistry(0);
+        Path templateFile = templateDir.resolve("broken-template.mustache");
+        Files.write(templateFile, "Hello {{name}}".getBytes(StandardCharsets.UTF_8));
+        String templatePath = templateFile.toString();
+        Mustache first = registry.getTemplate(templatePath, "broken-email-template");
+
+        // When
+        Files.write(templateFile, "Hello {{#name}}".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(templateFile, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+        Mustache afterBrokenEdit = registry.getTemplate(templatePath, "broken-email-template");
+
+        // Then
+        assertSame(first, afterBrokenEdit, "A template that fails to compile should not replace the previous one");
+    }
+
+    @Test
+    public void testMissingTemplateFails() {
+        EmailTemplateRegistry registry = new EmailTemplateRegistry(0);
+
+        assertThrows(IllegalStateException.class,
+                () -> registry.getTemplate(templateDir.resolve("missing.mustache").toString(), "missing-template"));
+        assertThrows(IllegalArgumentException.class, () -> registry.getTemplate(null, "missing-template"));
+    }
+
+    private static String render(Mustache mustache) {
+        StringWriter writer = new StringWriter();
+        mustache.execute(writer, Collections.singletonMap("name", "user"));
+        return writer.toString();
+    }
+}
@@ -0,0 +1,85 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.template;
+
+import com.github.mustachejava.DefaultMustacheFactory;
+import com.github.mustachejava.Mustache;
+import org.junit.jupiter.api.Test;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TemplateBodyPartTest {
+
+    private final Session session = Session.getInstance(new Properties());
+
+    private static Mustache compile(String template) {
+        return new DefaultMustacheFactory().compile(new StringReader(template), "test-template");
+    }
+
+    private MimeMessage messageWith(TemplateBodyPart body) throws Exception {
+        MimeMessage message = new MimeMessage(session);
+        MimeMultipart multipart = new MimeMultipart();
+        multipart.addBodyPart(body);
+        message.setContent(multipart);
+        message.saveChanges();
+        return message;
+    }
+
+    @Test
+    public void testBodyIsRenderedWhenTheMessageIsWritten() throws Exception {
+        // Given
+        AtomicInteger renders = new AtomicInteger();
+        Mustache mustache = compile("Hello {{name}}, access granted to {{#ports}}{{.}} {{/ports}}\u00e8\u20ac");
+        Map<String, Object> context = Map.of("name", "J\u00fcrgen", "ports", List.of("port-1", "port-2"));
+        MimeMessage message = messageWith(new TemplateBodyPart(mustache, context, false, nanos -> renders.incrementAndGet()));
+        assertEquals(0, renders.get(), "Assembling the message should not render the template");
+
+        // When
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out);
+
+        // Then
+        assertEquals(1, renders.get());
+        assertTrue(out.toString("US-ASCII").contains("Content-Transfer-Encoding: quoted-printable"));
+        MimeMessage received = new MimeMessage(session, new ByteArrayInputStream(out.toByteArray()));
+        MimeMultipart content = (MimeMultipart) received.getContent();
+        assertTrue(content.getBodyPart(0).getContentType().startsWith("text/plain; charset=UTF-8"));
+        assertEquals("Hello J\u00fcrgen, access granted to port-1 port-2 \u00e8\u20ac", content.getBodyPart(0).getContent());
+    }
+
+    @Test
+    public void testContentCanBeReadBack() throws Exception {
+        // Given
+        TemplateBodyPart body = new TemplateBodyPart(compile("<p>{{name}}</p>"), Map.of("name", "Ada"), true, nanos -> { });
+
+        // Then
+        assertEquals("<p>Ada</p>", body.getContent());
+        assertEquals("text/html; charset=UTF-8", body.getDataHandler().getContentType());
+    }
+
+    @Test
+    public void testRenderingFailureFailsTheWrite() throws Exception {
+        // Given
+        Object context = new Object() {
+            @SuppressWarnings("unused")
+            public String getName() {
+                throw new IllegalStateException("broken context");
+            }
+        };
+        MimeMessage message = messageWith(new TemplateBodyPart(compile("Hello {{name}}"), context, false, nanos -> { }));
+
+        // Then
+        IOException failure = assertThrows(IOException.class, () -> message.writeTo(new ByteArrayOutputStream()));
+        assertTrue(failure instanceof TemplateRenderingException, "A rendering failure should be told apart from an I/O error");
+    }
+}
@@ -0,0 +1,73 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.idempotency;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdempotencyStoreTest {
+
+    @TempDir
+    Path snapshotDir;
+
+    private IdempotencyStore store(long ttlMillis, int maxEntries, boolean snapshot) {
+        IdempotencyStore store = new IdempotencyStore(true, ttlMillis, maxEntries, snapshot,
+                snapshotDir.resolve("idempotency.snapshot").toString(), 60_000);
+        store.start();
+        return store;
+    }
+
+    @Test
+    public void testDuplicateIsSuppressedUntilReleased() {
+        // Given
+        IdempotencyStore store = store(60_000, 100, false);
+
+        // Then
+        assertTrue(store.tryAcquire("req-1", "MARKETPLACE_SUBSCRIBE"), "First request should be processed");
+        assertFalse(store.tryAcquire("req-1", "MARKETPLACE_SUBSCRIBE"), "Repeated request should be suppressed");
+        assertTrue(store.tryAcquire("req-1", "MARKETPLACE_UNSUBSCRIBE"), "Other operation on the same request should be processed");
+
+        store.release("req-1", "MARKETPLACE_SUBSCRIBE");
+        assertTrue(store.tryAcquire("req-1", "MARKETPLACE_SUBSCRIBE"), "Released request should be processed again");
+    }
+
+    @Test
+    public void testKeysExpireAndStoreIsBounded() throws Exception {
+        // Given
+        IdempotencyStore expiring = store(50, 100, false);
+        IdempotencyStore bounded = store(60_000, 3, false);
+
+        // When
+        expiring.tryAcquire("req-1", "MARKETPLACE_SUBSCRIBE");
+        Thread.sleep(100);
+        for (int i = 0; i < 5; i++) {
+            bounded.tryAcquire("req-" + i, "MARKETPLACE_SUBSCRIBE");
+        }
+
+        // Then
+        assertTrue(expiring.tryAcquire("req-1", "MARKETPLACE_SUBSCRIBE"), "Expired key should not suppress the request");
+        assertEquals(3, bounded.size(), "Store should not exceed its capacity");
+        assertTrue(bounded.tryAcquire("req-0", "MARKETPLACE_SUBSCRIBE"), "Oldest key should have been evicted");
+        assertFalse(bounded.tryAcquire("req-4", "MARKETPLACE_SUBSCRIBE"), "Newest key should be kept");
+    }
+
+    @Test
+    public void testSnapshotSurvivesRestart() throws Exception {
+        // Given
+        IdempotencyStore store = store(60_000, 100, true);
+        store.tryAcquire("req-1", "MARKETPLACE_SUBSCRIBE");
+        store.tryAcquire("req-2", "MARKETPLACE_UNSUBSCRIBE");
+
+        // When
+        store.stop();
+        IdempotencyStore restarted = store(60_000, 100, true);
+
+        // Then
+        assertEquals(2, restarted.size());
+        assertFalse(restarted.tryAcquire("req-1", "MARKETPLACE_SUBSCRIBE"));
+        assertFalse(restarted.tryAcquire("req-2", "MARKETPLACE_UNSUBSCRIBE"));
+        restarted.stop();
+    }
+}
@@ -0,0 +1,174 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.journal;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.journal.NotificationStore.StoredNotification;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.ProviderRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.RequestRes;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NotificationStoreTest {
+
+    // Large enough for about ten notifications per 1 MB segment
+    private static final String LARGE_NAME = String.join("", Collections.nCopies(100_000, "x"));
+
+    @TempDir
+    Path storeDir;
+
+    private NotificationStore open(boolean persistent) throws Exception {
+        // Configured like the application mapper, which ignores the derived properties of the resources
+        ObjectMapper objectMapper = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        NotificationStore store = new NotificationStore(objectMapper, persistent, storeDir.toString(), 1, 5000, 4);
+        store.open();
+        return store;
+    }
+
+    private static StoredNotification notification(String identifier, String kind, long deadline) {
+        ProviderRes provider = new ProviderRes();
+        provider.setDataProductFqn("dp/1.0.0");
+        RequestRes requestRes = new RequestRes();
+        requestRes.setIdentifier(identifier);
+        requestRes.setProvider(provider);
+        requestRes.setEndDate(new Date(deadline));
+        MarketplaceRequestRes request = new MarketplaceRequestRes();
+        request.setOperation("MARKETPLACE_SUBSCRIBE");
+        request.setRequest(requestRes);
+        return new StoredNotification(kind + ":" + identifier, kind, deadline, request);
+    }
+
+    private static StoredNotification largeNotification(String identifier) {
+        StoredNotification notification = notification(identifier, "EXPIRY_REMINDER", 1_000);
+        notification.getRequest().getRequest().setName(LARGE_NAME);
+        return notification;
+    }
+
+    private static Set<String> ids(List<StoredNotification> notifications) {
+        return notifications.stream().map(StoredNotification::getId).collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    private long segmentCount() throws Exception {
+        try (Stream<Path> files = Files.list(storeDir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).count();
+        }
+    }
+
+    @Test
+    public void testPendingNotificationsAreRecoveredAfterReopen() throws Exception {
+        // Given
+        NotificationStore store = open(true);
+        store.save(notification("r1", "ACCESS_START", 1_000));
+        store.save(notification("r2", "EXPIRY_REMINDER", 2_000));
+        store.save(notification("r3", "EXPIRY_REMINDER", 3_000));
+        store.remove("EXPIRY_REMINDER:r2");
+        // Saved again with a new deadline, e.g. after the subscription was replayed
+        store.save(notification("r3", "EXPIRY_REMINDER", 4_000));
+        store.close();
+
+        // When
+        NotificationStore reopened = open(true);
+        List<StoredNotification> recovered = reopened.takeRecovered();
+
+        // Then
+        assertEquals(2, recovered.size());
+        assertEquals(2, reopened.getPendingCount());
+        StoredNotification first = recovered.get(0);
+        assertEquals("ACCESS_START:r1", first.getId());
+        assertEquals("ACCESS_START", first.getKind());
+        assertEquals(1_000, first.getDeadline());
+        assertEquals("r1", first.getRequest().getRequest().getIdentifier());
+        assertEquals("dp/1.0.0", first.getRequest().getRequest().getProvider().getDataProductFqn());
+        assertEquals(4_000, recovered.get(1).getDeadline());
+        assertTrue(reopened.takeRecovered().isEmpty(), "Recovered notifications should be returned only once");
+        reopened.close();
+    }
+
+    @Test
+    public void testNothingIsWrittenWhenNotPersistent() throws Exception {
+        // Given
+        NotificationStore store = open(false);
+
+        // When
+        store.save(notification("r1", "ACCESS_START", 1_000));
+        store.remove("ACCESS_START:r1");
+
+        // Then
+        assertEquals(0, store.getPendingCount());
+        assertEquals(0, storeDir.toFile().list().length, "No store file should be created");
+        store.close();
+    }
+
+    @Test
+    public void testLongPendingNotificationIsMovedOutOfTheOldestSegment() throws Exception {
+        // Given: a reminder due in months, followed by many notifications sent in the meantime
+        NotificationStore store = open(true);
+        store.save(largeNotification("r0"));
+
+        // When
+        for (int i = 1; i <= 80; i++) {
+            store.save(largeNotification("r" + i));
+            store.remove("EXPIRY_REMINDER:r" + i);
+        }
+
+        // Then
+        assertTrue(segmentCount() <= 5, "Old segments should be released, found " + segmentCount());
+        store.close();
+        NotificationStore reopened = open(true);
+        assertEquals(Set.of("EXPIRY_REMINDER:r0"), ids(reopened.takeRecovered()));
+        reopened.close();
+    }
+
+    @Test
+    public void testConcurrentlySavedNotificationsSurviveTheReleaseOfSegments() throws Exception {
+        // Given
+        NotificationStore store = open(true);
+        Set<String> pending = ConcurrentHashMap.newKeySet();
+        ExecutorService writers = Executors.newFixedThreadPool(4);
+
+        // When: each writer removes every other notification straight away, releasing segments while others save
+        List<Future<?>> done = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            int writer = w;
+            done.add(writers.submit(() -> {
+                for (int i = 0; i < 25; i++) {
+                    StoredNotification notification = largeNotification("w" + writer + "-" + i);
+                    store.save(notification);
+                    if (i % 2 == 0) {
+                        store.remove(notification.getId());
+                    } else {
+                        pending.add(notification.getId());
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> writer : done) {
+            writer.get();
+        }
+        writers.shutdown();
+        store.close();
+
+        // Then
+        NotificationStore reopened = open(true);
+        assertEquals(new TreeSet<>(pending), ids(reopened.takeRecovered()));
+        reopened.close();
+    }
+}
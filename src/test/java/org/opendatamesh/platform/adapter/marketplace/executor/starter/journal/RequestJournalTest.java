@@ -0,0 +1,152 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.journal;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.RequestRes;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestJournalTest {
+
+    // Large enough for about ten requests per 1 MB segment
+    private static final String LARGE_NAME = String.join("", Collections.nCopies(100_000, "x"));
+
+    @TempDir
+    Path journalDir;
+
+    private RequestJournal open() throws Exception {
+        // Configured like the application mapper, which ignores the derived properties of the resources
+        ObjectMapper objectMapper = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        RequestJournal journal = new RequestJournal(objectMapper, true, journalDir.toString(), 1, 5000);
+        journal.open();
+        return journal;
+    }
+
+    private static MarketplaceRequestRes request(String identifier, String name) {
+        RequestRes requestRes = new RequestRes();
+        requestRes.setIdentifier(identifier);
+        requestRes.setName(name);
+        MarketplaceRequestRes request = new MarketplaceRequestRes();
+        request.setOperation("MARKETPLACE_SUBSCRIBE");
+        request.setRequest(requestRes);
+        return request;
+    }
+
+    private static List<String> identifiers(List<RequestJournal.JournaledRequest> requests) {
+        return requests.stream().map(r -> r.getRequest().getRequest().getIdentifier()).collect(Collectors.toList());
+    }
+
+    private long segmentCount() throws Exception {
+        try (Stream<Path> files = Files.list(journalDir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).count();
+        }
+    }
+
+    @Test
+    public void testUnfinishedRequestsAreRecoveredAfterReopen() throws Exception {
+        // Given
+        RequestJournal journal = open();
+        long r1 = journal.recordAccepted(request("r1", "Request 1"));
+        journal.recordAccepted(request("r2", "Request 2"));
+        long[] batch = journal.recordAcceptedAll(List.of(request("r3", "Request 3"), request("r4", "Request 4")));
+        journal.recordCompleted(r1);
+        journal.recordCompleted(batch[1]);
+        journal.close();
+
+        // When
+        RequestJournal reopened = open();
+        List<RequestJournal.JournaledRequest> recovered = reopened.takeRecovered();
+
+        // Then
+        assertEquals(List.of("r2", "r3"), identifiers(recovered));
+        assertEquals(batch[0], recovered.get(1).getEntryId());
+        assertEquals("Request 3", recovered.get(1).getRequest().getRequest().getName());
+        assertEquals(2, reopened.getLiveEntryCount());
+        assertTrue(reopened.takeRecovered().isEmpty(), "Recovered requests should be returned only once");
+
+        // Completed after the restart, they are not recovered again
+        reopened.recordCompleted(recovered.get(0).getEntryId());
+        reopened.recordCompleted(recovered.get(1).getEntryId());
+        reopened.close();
+        RequestJournal reopenedAgain = open();
+        assertTrue(reopenedAgain.takeRecovered().isEmpty());
+        reopenedAgain.close();
+    }
+
+    @Test
+    public void testSegmentIsReleasedOnceItsRequestsAreCompleted() throws Exception {
+        // Given: the oldest request is still being processed
+        RequestJournal journal = open();
+        List<Long> entryIds = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            entryIds.add(journal.recordAccepted(request("r" + i, LARGE_NAME)));
+        }
+        for (int i = 1; i < entryIds.size(); i++) {
+            journal.recordCompleted(entryIds.get(i));
+        }
+        assertTrue(segmentCount() > 2, "The requests should span several segments");
+
+        // When
+        journal.recordCompleted(entryIds.get(0));
+
+        // Then
+        assertEquals(1, segmentCount(), "Only the segment being written should be left");
+        journal.close();
+        RequestJournal reopened = open();
+        assertTrue(reopened.takeRecovered().isEmpty());
+        reopened.close();
+    }
+
+    @Test
+    public void testConcurrentlyAcceptedRequestsSurviveTheReleaseOfSegments() throws Exception {
+        // Given
+        RequestJournal journal = open();
+        Set<String> unfinished = ConcurrentHashMap.newKeySet();
+        ExecutorService writers = Executors.newFixedThreadPool(4);
+
+        // When: each writer completes every other request straight away, releasing segments while others append
+        List<Future<?>> done = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            int writer = w;
+            done.add(writers.submit(() -> {
+                for (int i = 0; i < 25; i++) {
+                    String identifier = "w" + writer + "-" + i;
+                    long entryId = journal.recordAccepted(request(identifier, LARGE_NAME));
+                    if (i % 2 == 0) {
+                        journal.recordCompleted(entryId);
+                    } else {
+                        unfinished.add(identifier);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> writer : done) {
+            writer.get();
+        }
+        writers.shutdown();
+        journal.close();
+
+        // Then
+        RequestJournal reopened = open();
+        assertEquals(new TreeSet<>(unfinished), new TreeSet<>(identifiers(reopened.takeRecovered())));
+        reopened.close();
+    }
+}
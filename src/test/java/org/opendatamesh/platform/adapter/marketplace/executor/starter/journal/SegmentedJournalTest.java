@@ -0,0 +1,154 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SegmentedJournalTest {
+
+    private static final byte TYPE = 1;
+
+    @TempDir
+    Path journalDir;
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private List<String> reopenAndRead(int segmentSize) throws Exception {
+        List<String> payloads = new ArrayList<>();
+        SegmentedJournal journal = SegmentedJournal.open(journalDir, "test", segmentSize,
+                record -> payloads.add(new String(record.getPayload(), StandardCharsets.UTF_8)));
+        journal.close();
+        return payloads;
+    }
+
+    private List<Path> segmentFiles() throws Exception {
+        try (Stream<Path> files = Files.list(journalDir)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void testRecordsAreReplayedInOrderAfterReopen() throws Exception {
+        // Given
+        SegmentedJournal journal = SegmentedJournal.open(journalDir, "test", 64 * 1024, record -> { });
+        List<CompletableFuture<Long>> appends = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            appends.add(journal.append(TYPE, bytes("record-" + i)));
+        }
+        for (int i = 0; i < appends.size(); i++) {
+            assertEquals(i + 1, appends.get(i).get(5, TimeUnit.SECONDS), "Sequence numbers should be assigned in order");
+        }
+        journal.close();
+
+        // When
+        List<String> payloads = reopenAndRead(64 * 1024);
+
+        // Then
+        assertEquals(100, payloads.size(), "All synced records should be replayed");
+        assertEquals("record-0", payloads.get(0));
+        assertEquals("record-99", payloads.get(99));
+    }
+
+    @Test
+    public void testJournalRollsSegmentsAndReleasesOldOnes() throws Exception {
+        // Given
+        SegmentedJournal journal = SegmentedJournal.open(journalDir, "test", 1024, record -> { });
+        long last = 0;
+        for (int i = 0; i < 100; i++) {
+            last = journal.append(TYPE, bytes("record-" + i)).get(5, TimeUnit.SECONDS);
+        }
+        assertTrue(journal.getSegmentCount() > 1, "Small segments should roll over");
+
+        // When
+        journal.releaseBefore(last + 1);
+
+        // Then
+        assertEquals(1, journal.getSegmentCount(), "Only the active segment should remain");
+        assertEquals(1, segmentFiles().size(), "Released segment files should be deleted");
+        assertEquals(last + 1, journal.append(TYPE, bytes("next")).get(5, TimeUnit.SECONDS),
+                "Sequence numbers should continue after release");
+        journal.close();
+    }
+
+    @Test
+    public void testTornRecordIsDiscardedOnReopen() throws Exception {
+        // Given
+        SegmentedJournal journal = SegmentedJournal.open(journalDir, "test", 4096, record -> { });
+        journal.append(TYPE, bytes("first")).get(5, TimeUnit.SECONDS);
+        journal.append(TYPE, bytes("second")).get(5, TimeUnit.SECONDS);
+        journal.close();
+
+        // When: corrupt the payload of the second record
+        Path segment = segmentFiles().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            long secondPayloadOffset = 16 + (17 + "first".length()) + 17;
+            file.seek(secondPayloadOffset);
+            file.write('X');
+        }
+
+        // Then
+        List<String> payloads = reopenAndRead(4096);
+        assertEquals(List.of("first"), payloads, "The corrupted record should be discarded");
+
+        SegmentedJournal reopened = SegmentedJournal.open(journalDir, "test", 4096, record -> { });
+        assertEquals(2, reopened.append(TYPE, bytes("third")).get(5, TimeUnit.SECONDS),
+                "Appends should resume right after the last valid record");
+        reopened.close();
+        assertEquals(List.of("first", "third"), reopenAndRead(4096));
+    }
+
+    @Test
+    public void testRecordIsTrackedBeforeAReleaseCanComputeItsBound() throws Exception {
+        // Given: the caller tracks its live records, and has none left in the first segment
+        SegmentedJournal journal = SegmentedJournal.open(journalDir, "test", 1024, record -> { });
+        NavigableSet<Long> live = new ConcurrentSkipListSet<>();
+        while (journal.getSegmentCount() < 2) {
+            journal.append(TYPE, bytes("completed")).get(5, TimeUnit.SECONDS);
+        }
+        CountDownLatch tracking = new CountDownLatch(1);
+        CountDownLatch tracked = new CountDownLatch(1);
+        CompletableFuture<Long> append = CompletableFuture.supplyAsync(() -> journal.append(TYPE, bytes("live"), sequence -> {
+            tracking.countDown();
+            try {
+                tracked.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            live.add(sequence);
+        }).join());
+        assertTrue(tracking.await(5, TimeUnit.SECONDS));
+
+        // When: a release runs while the record is being tracked
+        CompletableFuture<Void> release = CompletableFuture.runAsync(() -> journal.releaseBefore(() -> {
+            Long oldest = live.ceiling(Long.MIN_VALUE);
+            return oldest != null ? oldest : journal.getNextSequence();
+        }));
+        Thread.sleep(100);
+        assertFalse(release.isDone(), "The release should wait for the record to be tracked");
+        tracked.countDown();
+        release.get(5, TimeUnit.SECONDS);
+
+        // Then
+        long sequence = append.get(5, TimeUnit.SECONDS);
+        assertEquals(live.first(), sequence);
+        journal.close();
+        assertTrue(reopenAndRead(1024).contains("live"), "The segment of the live record should be kept");
+    }
+}
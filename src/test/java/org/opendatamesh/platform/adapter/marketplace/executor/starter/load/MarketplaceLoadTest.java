@@ -0,0 +1,242 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.FakeSmtpServer;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * End-to-end load test: the application is booted against an embedded SMTP server and a stub of the marketplace
+ * results endpoint, and {@code /requests} is driven at a target rate. It reports the sustained throughput, the
+ * latency percentiles from acceptance to callback and the heap usage, and writes them to
+ * {@code target/load-test-report.json}.
+ * <p>
+ * Excluded from the default build; run with {@code mvn -Pload-test test}. The load is configured with system
+ * properties: {@code load.rate} (requests per second), {@code load.duration-seconds},
+ * {@code load.drain-timeout-seconds}, {@code load.smtp-latency-ms}, {@code load.smtp-failure-rate},
+ * {@code load.callback-latency-ms} and {@code load.email-transport}.
+ * The heap figures include the load generator, which runs in the same JVM.
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+public class MarketplaceLoadTest {
+
+    private static final int RATE = Integer.getInteger("load.rate", 50);
+    private static final int DURATION_SECONDS = Integer.getInteger("load.duration-seconds", 30);
+    private static final int DRAIN_TIMEOUT_SECONDS = Integer.getInteger("load.drain-timeout-seconds", 120);
+    private static final long SMTP_LATENCY_MS = Long.getLong("load.smtp-latency-ms", 20);
+    private static final double SMTP_FAILURE_RATE = Double.parseDouble(System.getProperty("load.smtp-failure-rate", "0.0"));
+    private static final long CALLBACK_LATENCY_MS = Long.getLong("load.callback-latency-ms", 5);
+    private static final String EMAIL_TRANSPORT = System.getProperty("load.email-transport", "pooled");
+
+    private static final FakeSmtpServer smtpServer;
+    private static final StubMarketplaceServer marketplaceServer;
+
+    static {
+        try {
+            smtpServer = new FakeSmtpServer();
+            smtpServer.discardMessages();
+            smtpServer.setDataLatencyMillis(SMTP_LATENCY_MS);
+            smtpServer.setFailureRate(SMTP_FAILURE_RATE);
+            marketplaceServer = new StubMarketplaceServer();
+            marketplaceServer.setLatencyMillis(CALLBACK_LATENCY_MS);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @LocalServerPort
+    private int port;
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final Map<String, Long> acceptedNanos = new ConcurrentHashMap<>();
+    private final AtomicInteger sent = new AtomicInteger();
+    private final AtomicInteger answered = new AtomicInteger();
+    private final AtomicInteger refused = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong maxHeapUsed = new AtomicLong();
+
+    @DynamicPropertySource
+    static void loadTestProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.mail.port", smtpServer::getPort);
+        registry.add("odm.product-plane.marketplace-service.address", marketplaceServer::getAddress);
+        registry.add("odm.product-plane.marketplace-service.callback-delay-ms", () -> 0);
+        registry.add("odm.email.transport", () -> EMAIL_TRANSPORT);
+        registry.add("odm.email.retry.initial-delay-ms", () -> 100);
+        registry.add("odm.email.retry.max-delay-ms", () -> 2000);
+    }
+
+    @AfterAll
+    static void stopServers() throws IOException {
+        marketplaceServer.close();
+        smtpServer.close();
+    }
+
+    @Test
+    public void testSustainedLoad() throws Exception {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+        scheduler.scheduleAtFixedRate(() -> maxHeapUsed.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max),
+                0, 500, TimeUnit.MILLISECONDS);
+
+        // Drive the service at the target rate
+        long startNanos = System.nanoTime();
+        int totalRequests = RATE * DURATION_SECONDS;
+        scheduler.scheduleAtFixedRate(() -> sendRequest(totalRequests), 0, TimeUnit.SECONDS.toNanos(1) / RATE, TimeUnit.NANOSECONDS);
+        while (sent.get() < totalRequests) {
+            Thread.sleep(50);
+        }
+        scheduler.shutdown();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        long sendEndNanos = System.nanoTime();
+        while (answered.get() < totalRequests && System.nanoTime() - sendEndNanos < TimeUnit.SECONDS.toNanos(30)) {
+            Thread.sleep(50);
+        }
+
+        // Wait for the result of every accepted request to be posted back
+        long drainDeadline = sendEndNanos + TimeUnit.SECONDS.toNanos(DRAIN_TIMEOUT_SECONDS);
+        while (marketplaceServer.getCompletedRequestCount() < acceptedNanos.size() && System.nanoTime() < drainDeadline) {
+            Thread.sleep(100);
+        }
+        long endNanos = System.nanoTime();
+        memory.gc();
+        long heapAfterGc = memory.getHeapMemoryUsage().getUsed();
+
+        List<Long> latencies = new ArrayList<>(acceptedNanos.size());
+        long lastCallbackNanos = startNanos;
+        for (Map.Entry<String, Long> accepted : acceptedNanos.entrySet()) {
+            Long callbackNanos = marketplaceServer.getCallbackNanos(accepted.getKey());
+            if (callbackNanos != null) {
+                latencies.add(callbackNanos - accepted.getValue());
+                lastCallbackNanos = Math.max(lastCallbackNanos, callbackNanos);
+            }
+        }
+        Collections.sort(latencies);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("targetRate", RATE);
+        report.put("durationSeconds", DURATION_SECONDS);
+        report.put("emailTransport", EMAIL_TRANSPORT);
+        report.put("smtpLatencyMs", SMTP_LATENCY_MS);
+        report.put("smtpFailureRate", SMTP_FAILURE_RATE);
+        report.put("callbackLatencyMs", CALLBACK_LATENCY_MS);
+        report.put("sent", sent.get());
+        report.put("accepted", acceptedNanos.size());
+        report.put("refused", refused.get());
+        report.put("failed", failed.get());
+        report.put("completed", latencies.size());
+        report.put("smtpMessages", smtpServer.getMessageCount());
+        report.put("smtpInjectedFailures", smtpServer.getFailureCount());
+        report.put("offeredRate", perSecond(sent.get(), sendEndNanos - startNanos));
+        report.put("sustainedThroughput", perSecond(latencies.size(), lastCallbackNanos - startNanos));
+        report.put("latencyMs", percentiles(latencies));
+        report.put("maxHeapUsedMb", maxHeapUsed.get() / (1024 * 1024));
+        report.put("heapAfterGcMb", heapAfterGc / (1024 * 1024));
+        report.put("elapsedSeconds", TimeUnit.NANOSECONDS.toSeconds(endNanos - startNanos));
+        writeReport(report);
+
+        assertEquals(0, failed.get(), "Requests should be accepted or refused with 429");
+        assertEquals(acceptedNanos.size(), latencies.size(), "Every accepted request should be posted back");
+    }
+
+    private void sendRequest(int totalRequests) {
+        if (sent.get() >= totalRequests) {
+            return;
+        }
+        int index = sent.incrementAndGet();
+        String identifier = "load-" + index;
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/v1/up/marketplace-executor/requests"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(requestBody(identifier)))
+                .build();
+        long sentNanos = System.nanoTime();
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                    if (error != null) {
+                        failed.incrementAndGet();
+                    } else if (response.statusCode() == 202) {
+                        acceptedNanos.put(identifier, sentNanos);
+                    } else if (response.statusCode() == 429) {
+                        refused.incrementAndGet();
+                    } else {
+                        failed.incrementAndGet();
+                    }
+                    answered.incrementAndGet();
+                });
+    }
+
+    private static String requestBody(String identifier) {
+        return "{"
+                + "\"v\": \"1.0\","
+                + "\"operation\": \"MARKETPLACE_SUBSCRIBE\","
+                + "\"request\": {"
+                + "  \"name\": \"Load test request\","
+                + "  \"identifier\": \"" + identifier + "\","
+                + "  \"provider\": {\"dataProductFqn\": \"load/product/1.0.0\", \"dataProductPortsFqn\": [\"load/product/1.0.0/port\"]},"
+                + "  \"consumer\": {\"type\": \"user\", \"identifier\": \"consumer@example.com\"},"
+                + "  \"requester\": {\"type\": \"user\", \"identifier\": \"requester@example.com\"},"
+                + "  \"startDate\": \"2030-01-01T00:00:00.000+0000\","
+                + "  \"endDate\": \"2030-12-31T00:00:00.000+0000\""
+                + "}}";
+    }
+
+    private static double perSecond(long count, long nanos) {
+        return nanos > 0 ? count * (double) TimeUnit.SECONDS.toNanos(1) / nanos : 0;
+    }
+
+    private static Map<String, Double> percentiles(List<Long> sortedNanos) {
+        Map<String, Double> percentiles = new LinkedHashMap<>();
+        if (sortedNanos.isEmpty()) {
+            return percentiles;
+        }
+        for (double percentile : new double[]{50, 90, 95, 99, 99.9}) {
+            int index = (int) Math.ceil(percentile / 100 * sortedNanos.size()) - 1;
+            percentiles.put("p" + (percentile == Math.rint(percentile) ? String.valueOf((int) percentile) : String.valueOf(percentile)),
+                    sortedNanos.get(Math.max(0, index)) / 1_000_000.0);
+        }
+        percentiles.put("max", sortedNanos.get(sortedNanos.size() - 1) / 1_000_000.0);
+        return percentiles;
+    }
+
+    private static void writeReport(Map<String, Object> report) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        String json = objectMapper.writeValueAsString(report);
+        System.out.println("Load test report:\n" + json);
+        Path reportFile = Paths.get("target", "load-test-report.json");
+        Files.createDirectories(reportFile.getParent());
+        Files.writeString(reportFile, json);
+    }
+}
@@ -0,0 +1,89 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.load;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stub of the marketplace service results endpoint
+ * ({@code POST /api/v1/pp/marketplace/requests/{identifier}/results}).
+ * It records the time the first result of every request was received, so that load tests can measure the latency
+ * from request acceptance to callback. A fixed latency can be added to every answer.
+ */
+public class StubMarketplaceServer implements AutoCloseable {
+    private static final String RESULTS_PREFIX = "/api/v1/pp/marketplace/requests/";
+    private static final String RESULTS_SUFFIX = "/results";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, Long> callbackNanos = new ConcurrentHashMap<>();
+    private final AtomicInteger callbackCount = new AtomicInteger();
+    private volatile long latencyMillis;
+
+    public StubMarketplaceServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 200);
+        executor = Executors.newFixedThreadPool(16);
+        server.setExecutor(executor);
+        server.createContext(RESULTS_PREFIX, this::handle);
+        server.start();
+    }
+
+    public String getAddress() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} at which the first result of the request was received, or null.
+     */
+    public Long getCallbackNanos(String identifier) {
+        return callbackNanos.get(identifier);
+    }
+
+    public int getCallbackCount() {
+        return callbackCount.get();
+    }
+
+    public int getCompletedRequestCount() {
+        return callbackNanos.size();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long receivedAt = System.nanoTime();
+        try (HttpExchange ignored = exchange; InputStream body = exchange.getRequestBody()) {
+            body.readAllBytes();
+            String path = exchange.getRequestURI().getPath();
+            if (!"POST".equals(exchange.getRequestMethod()) || !path.endsWith(RESULTS_SUFFIX)) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            String identifier = path.substring(RESULTS_PREFIX.length(), path.length() - RESULTS_SUFFIX.length());
+            callbackNanos.putIfAbsent(identifier, receivedAt);
+            callbackCount.incrementAndGet();
+            exchange.sendResponseHeaders(200, -1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
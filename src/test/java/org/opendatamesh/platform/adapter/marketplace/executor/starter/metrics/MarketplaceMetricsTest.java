@@ -0,0 +1,65 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestStatus;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MarketplaceMetricsTest {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final MarketplaceMetrics metrics = new MarketplaceMetrics(registry);
+
+    @Test
+    public void testCountersAreTaggedByOperationAndOutcome() {
+        // When
+        metrics.recordReceived("MARKETPLACE_SUBSCRIBE", "accepted");
+        metrics.recordReceived("MARKETPLACE_SUBSCRIBE", "accepted");
+        metrics.recordReceived("MARKETPLACE_SUBSCRIBE", "duplicate");
+        metrics.recordResult("MARKETPLACE_UNSUBSCRIBE", MarketplaceRequestStatus.GRANTED);
+
+        // Then
+        assertEquals(2.0, registry.find("odm.requests.received")
+                .tags("operation", "MARKETPLACE_SUBSCRIBE", "outcome", "accepted").counter().count());
+        assertEquals(1.0, registry.find("odm.requests.received")
+                .tags("operation", "MARKETPLACE_SUBSCRIBE", "outcome", "duplicate").counter().count());
+        assertEquals(1.0, registry.find("odm.requests.results")
+                .tags("operation", "MARKETPLACE_UNSUBSCRIBE", "status", "GRANTED").counter().count());
+    }
+
+    @Test
+    public void testTimersRecordDurations() {
+        // When
+        metrics.recordSend("MARKETPLACE_SUBSCRIBE", true, TimeUnit.MILLISECONDS.toNanos(30));
+        metrics.recordSend("MARKETPLACE_SUBSCRIBE", false, TimeUnit.MILLISECONDS.toNanos(10));
+        metrics.recordCallbackWait(null, 250);
+
+        // Then
+        Timer sent = registry.find("odm.email.send").tags("outcome", "success").timer();
+        assertEquals(1, sent.count());
+        assertEquals(30.0, sent.totalTime(TimeUnit.MILLISECONDS), 0.001);
+        assertEquals(1, registry.find("odm.email.send").tags("outcome", "failure").timer().count());
+        assertEquals(1, registry.find("odm.callback.wait").tags("operation", "unknown").timer().count());
+    }
+
+    @Test
+    public void testMetersAreRegisteredOncePerOperationAndOutcome() {
+        // When
+        for (int i = 0; i < 3; i++) {
+            metrics.recordSend("MARKETPLACE_SUBSCRIBE", true, 1);
+            metrics.recordSend("MARKETPLACE_UNSUBSCRIBE", true, 1);
+            metrics.recordReceived("MARKETPLACE_SUBSCRIBE", "accepted");
+        }
+
+        // Then
+        assertEquals(2, registry.find("odm.email.send").timers().size());
+        assertEquals(3, registry.find("odm.email.send").tags("operation", "MARKETPLACE_UNSUBSCRIBE").timer().count());
+        assertEquals(1, registry.find("odm.requests.received").counters().size());
+        assertEquals(3.0, registry.find("odm.requests.received").counter().count());
+    }
+}
@@ -0,0 +1,72 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HashedWheelTimerTest {
+
+    // Small wheel so that the tests also cover timeouts spanning several rounds
+    private final HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10, 8);
+
+    @AfterEach
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    public void testTaskRunsAfterDelay() throws Exception {
+        // Given
+        CountDownLatch fired = new CountDownLatch(1);
+        AtomicLong firedAt = new AtomicLong();
+        long start = System.nanoTime();
+
+        // When
+        timer.schedule(() -> {
+            firedAt.set(System.nanoTime());
+            fired.countDown();
+        }, 200, TimeUnit.MILLISECONDS);
+
+        // Then
+        assertTrue(fired.await(2, TimeUnit.SECONDS), "Task should run");
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(firedAt.get() - start) >= 200, "Task should not run before its delay");
+        assertEquals(0, timer.getPendingCount());
+    }
+
+    @Test
+    public void testCancelledTaskDoesNotRun() throws Exception {
+        // Given
+        AtomicBoolean ran = new AtomicBoolean();
+        HashedWheelTimer.Timeout timeout = timer.schedule(() -> ran.set(true), 50, TimeUnit.MILLISECONDS);
+
+        // When
+        assertTrue(timeout.cancel(), "Pending task should be cancellable");
+        Thread.sleep(200);
+
+        // Then
+        assertFalse(ran.get(), "Cancelled task should not run");
+        assertTrue(timeout.isCancelled());
+        assertEquals(0, timer.getPendingCount());
+    }
+
+    @Test
+    public void testManyTasksAllRun() throws Exception {
+        // Given
+        int tasks = 10_000;
+        CountDownLatch fired = new CountDownLatch(tasks);
+
+        // When
+        for (int i = 0; i < tasks; i++) {
+            timer.schedule(fired::countDown, i % 300, TimeUnit.MILLISECONDS);
+        }
+
+        // Then
+        assertTrue(fired.await(5, TimeUnit.SECONDS), "All tasks should run");
+    }
+}
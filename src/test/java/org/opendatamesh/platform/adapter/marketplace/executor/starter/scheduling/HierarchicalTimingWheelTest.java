@@ -0,0 +1,137 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HierarchicalTimingWheelTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+
+    private HierarchicalTimingWheel createWheel(int wheelSize, int levels) {
+        // Ticks of 10 ms, driven by the test clock
+        return new HierarchicalTimingWheel(10, wheelSize, levels, now::get, null);
+    }
+
+    @Test
+    public void testTasksRunWhenTheClockReachesTheirDeadline() {
+        // Given
+        HierarchicalTimingWheel wheel = createWheel(8, 3);
+        List<String> runs = new ArrayList<>();
+        long start = now.get();
+        wheel.schedule(() -> runs.add("soon"), start + 30);
+        wheel.schedule(() -> runs.add("later"), start + 2_000);
+        wheel.schedule(() -> runs.add("far"), start + 50_000);
+
+        // When / Then
+        now.set(start + 20);
+        wheel.expireDue();
+        assertTrue(runs.isEmpty());
+        now.set(start + 30);
+        wheel.expireDue();
+        assertEquals(List.of("soon"), runs);
+        now.set(start + 1_990);
+        wheel.expireDue();
+        assertEquals(List.of("soon"), runs);
+        now.set(start + 2_000);
+        wheel.expireDue();
+        assertEquals(List.of("soon", "later"), runs);
+        now.set(start + 49_990);
+        wheel.expireDue();
+        assertEquals(2, runs.size(), "A task beyond the span of the wheel should not run early");
+        now.set(start + 50_000);
+        wheel.expireDue();
+        assertEquals(List.of("soon", "later", "far"), runs);
+        assertEquals(0, wheel.getPendingCount());
+    }
+
+    @Test
+    public void testEveryTaskRunsAtItsTick() {
+        // Given: 3 levels of 16 buckets span 4096 ticks, some deadlines are further away
+        HierarchicalTimingWheel wheel = createWheel(16, 3);
+        Random random = new Random(42);
+        long start = now.get();
+        int tasks = 200_000;
+        long[] deadlines = new long[tasks];
+        long[] ranAt = new long[tasks];
+        for (int i = 0; i < tasks; i++) {
+            int index = i;
+            deadlines[i] = start + 10L * (1 + random.nextInt(10_000));
+            wheel.schedule(() -> ranAt[index] = now.get(), deadlines[i]);
+        }
+        assertEquals(tasks, wheel.getPendingCount());
+
+        // When: the clock moves by irregular steps of at most 70 ms
+        while (wheel.getPendingCount() > 0 && now.get() < start + 200_000) {
+            now.addAndGet(10L * (1 + random.nextInt(7)));
+            wheel.expireDue();
+        }
+
+        // Then: each task ran at the first step reaching its deadline
+        for (int i = 0; i < tasks; i++) {
+            assertTrue(ranAt[i] >= deadlines[i], "Task should not run before its deadline");
+            assertTrue(ranAt[i] < deadlines[i] + 70, "Task due at " + deadlines[i] + " ran late at " + ranAt[i]);
+        }
+        assertEquals(0, wheel.getPendingCount());
+    }
+
+    @Test
+    public void testCancelledTaskDoesNotRun() {
+        // Given
+        HierarchicalTimingWheel wheel = createWheel(8, 3);
+        AtomicLong runs = new AtomicLong();
+        HierarchicalTimingWheel.Timeout cancelled = wheel.schedule(runs::incrementAndGet, now.get() + 1_000);
+        HierarchicalTimingWheel.Timeout kept = wheel.schedule(runs::incrementAndGet, now.get() + 1_000);
+
+        // When
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        now.addAndGet(1_000);
+        wheel.expireDue();
+
+        // Then
+        assertEquals(1, runs.get());
+        assertTrue(cancelled.isCancelled());
+        assertTrue(kept.isExpired());
+        assertFalse(kept.cancel(), "An expired task cannot be cancelled");
+        assertEquals(0, wheel.getPendingCount());
+    }
+
+    @Test
+    public void testPastDeadlineRunsOnTheNextTick() {
+        // Given
+        HierarchicalTimingWheel wheel = createWheel(8, 2);
+        AtomicLong runs = new AtomicLong();
+        wheel.schedule(runs::incrementAndGet, now.get() - 60_000);
+
+        // When
+        now.addAndGet(10);
+        wheel.expireDue();
+
+        // Then
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void testWorkerRunsTasksOnTheSystemClock() throws Exception {
+        // Given
+        HierarchicalTimingWheel wheel = new HierarchicalTimingWheel("test-wheel", 10, 64, 2);
+        CountDownLatch ran = new CountDownLatch(1);
+
+        // When
+        wheel.schedule(ran::countDown, System.currentTimeMillis() + 50);
+
+        // Then
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        wheel.schedule(() -> { }, System.currentTimeMillis() + 60_000);
+        assertEquals(1, wheel.stop());
+        assertThrows(IllegalStateException.class, () -> wheel.schedule(() -> { }, System.currentTimeMillis()));
+    }
+}
@@ -0,0 +1,186 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeyedOrderingExecutorTest {
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testTasksOfTheSameKeyRunInOrderOneAtATime() throws Exception {
+        // Given
+        KeyedOrderingExecutor executor = new KeyedOrderingExecutor(pool, 4, 10_000, 3);
+        int keys = 8;
+        int tasksPerKey = 500;
+        Map<String, List<Integer>> runs = new ConcurrentHashMap<>();
+        Map<String, AtomicBoolean> running = new ConcurrentHashMap<>();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(keys * tasksPerKey);
+
+        // When
+        List<Thread> submitters = new ArrayList<>();
+        for (int k = 0; k < keys; k++) {
+            String key = "consumer-" + k + "|product";
+            runs.put(key, new CopyOnWriteArrayList<>());
+            running.put(key, new AtomicBoolean());
+            Thread submitter = new Thread(() -> {
+                for (int i = 0; i < tasksPerKey; i++) {
+                    int sequence = i;
+                    executor.execute(key, () -> {
+                        if (!running.get(key).compareAndSet(false, true)) {
+                            overlapped.set(true);
+                        }
+                        runs.get(key).add(sequence);
+                        running.get(key).set(false);
+                        done.countDown();
+                    });
+                }
+            });
+            submitters.add(submitter);
+            submitter.start();
+        }
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+
+        // Then
+        assertTrue(done.await(10, TimeUnit.SECONDS), "Every task should run");
+        assertFalse(overlapped.get(), "Tasks of the same key should never run concurrently");
+        for (List<Integer> sequence : runs.values()) {
+            for (int i = 0; i < tasksPerKey; i++) {
+                assertEquals(i, sequence.get(i), "Tasks of the same key should run in submission order");
+            }
+        }
+        assertEquals(0, executor.getPendingCount());
+    }
+
+    @Test
+    public void testDifferentLanesRunInParallel() throws Exception {
+        // Given
+        KeyedOrderingExecutor executor = new KeyedOrderingExecutor(pool, 2, 100, 16);
+        CountDownLatch secondStarted = new CountDownLatch(1);
+        CountDownLatch firstDone = new CountDownLatch(1);
+
+        // When: keys 0 and 1 hash onto different lanes, and the first task waits for the second one
+        executor.execute(0, () -> {
+            try {
+                if (secondStarted.await(5, TimeUnit.SECONDS)) {
+                    firstDone.countDown();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.execute(1, secondStarted::countDown);
+
+        // Then
+        assertTrue(firstDone.await(5, TimeUnit.SECONDS), "A busy lane should not block the other lanes");
+    }
+
+    @Test
+    public void testLaterTasksOfAHeldKeyWaitForItsRelease() throws Exception {
+        // Given: a single lane, so that the other key shares the lane of the held one
+        KeyedOrderingExecutor executor = new KeyedOrderingExecutor(pool, 1, 100, 16);
+        List<String> runs = new CopyOnWriteArrayList<>();
+        CountDownLatch otherKeyRan = new CountDownLatch(1);
+        CountDownLatch resumed = new CountDownLatch(1);
+        CountDownLatch allRan = new CountDownLatch(1);
+
+        // When: the first task is deferred, e.g. waiting for a retry, and the key is released once its retry ran
+        executor.executeHolding("key", () -> runs.add("first"));
+        executor.execute("key", () -> runs.add("second"));
+        executor.executeHolding("key", () -> runs.add("third"));
+        executor.execute("key", () -> {
+            runs.add("fourth");
+            allRan.countDown();
+        });
+        executor.execute("other", () -> {
+            runs.add("other");
+            otherKeyRan.countDown();
+        });
+
+        // Then
+        assertTrue(otherKeyRan.await(5, TimeUnit.SECONDS), "A held key should not block the other keys of its lane");
+        assertEquals(List.of("first", "other"), runs);
+        assertEquals(3, executor.getPendingCount(), "Parked tasks should count as pending");
+
+        executor.resume("key", () -> {
+            runs.add("first retried");
+            resumed.countDown();
+        });
+        assertTrue(resumed.await(5, TimeUnit.SECONDS), "The continuation of the holding task should run");
+        executor.release("key");
+        Thread.sleep(100);
+        assertEquals(List.of("first", "other", "first retried", "second", "third"), runs,
+                "Parked tasks should run in order until one holds the key again");
+
+        executor.release("key");
+        assertTrue(allRan.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("first", "other", "first retried", "second", "third", "fourth"), runs);
+        assertEquals(0, executor.getPendingCount());
+    }
+
+    @Test
+    public void testSubmissionsOverCapacityAreRejected() throws Exception {
+        // Given
+        CountDownLatch release = new CountDownLatch(1);
+        KeyedOrderingExecutor executor = new KeyedOrderingExecutor(pool, 1, 2, 16);
+        executor.execute("key", () -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Thread.sleep(100);
+
+        // When
+        executor.execute("key", () -> { });
+        executor.execute("key", () -> { });
+
+        // Then
+        assertThrows(TaskRejectedException.class, () -> executor.execute("key", () -> { }));
+        assertEquals(2, executor.getPendingCount());
+        release.countDown();
+    }
+
+    @Test
+    public void testTaskRejectedByTheExecutorIsNotKept() {
+        // Given
+        KeyedOrderingExecutor executor = new KeyedOrderingExecutor(task -> {
+            throw new RejectedExecutionException("shut down");
+        }, 16, 100, 16);
+
+        // Then
+        assertThrows(TaskRejectedException.class, () -> executor.execute("key", () -> { }));
+        assertEquals(0, executor.getPendingCount());
+    }
+
+    @Test
+    public void testLaneCountIsRoundedUpToAPowerOfTwo() {
+        assertEquals(256, new KeyedOrderingExecutor(pool, 200, 100, 16).getLaneCount());
+        assertEquals(1, KeyedOrderingExecutor.roundLaneCount(1));
+        assertThrows(IllegalArgumentException.class, () -> KeyedOrderingExecutor.roundLaneCount(0));
+    }
+}
@@ -0,0 +1,137 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProcessingStageTest {
+
+    private final List<ProcessingStage> stages = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        for (ProcessingStage stage : stages) {
+            stage.destroy();
+        }
+    }
+
+    private ProcessingStage createStage(int threads, int capacity, int orderingLanes) {
+        ProcessingStage stage = new ProcessingStage("test", threads, capacity, orderingLanes, 16, 5);
+        stages.add(stage);
+        return stage;
+    }
+
+    @Test
+    public void testOrderedStageKeepsTheOrderOfEachKey() throws Exception {
+        // Given
+        ProcessingStage stage = createStage(4, 10_000, 64);
+        List<Integer> first = new CopyOnWriteArrayList<>();
+        List<Integer> second = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(2_000);
+
+        // When
+        for (int i = 0; i < 1_000; i++) {
+            int sequence = i;
+            stage.submit("first", () -> {
+                first.add(sequence);
+                done.countDown();
+            }, 1000);
+            stage.submit("second", () -> {
+                second.add(sequence);
+                done.countDown();
+            }, 1000);
+        }
+
+        // Then
+        assertTrue(done.await(10, TimeUnit.SECONDS), "Every task should run");
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals(i, first.get(i));
+            assertEquals(i, second.get(i));
+        }
+        assertEquals(0, stage.getQueueDepth());
+    }
+
+    @Test
+    public void testFullStageRejectsAfterTheTimeout() throws Exception {
+        // Given
+        ProcessingStage stage = createStage(1, 2, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        stage.submit(null, () -> {
+            started.countDown();
+            awaitQuietly(release);
+        }, 1000);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        stage.submit(null, () -> { }, 1000);
+        stage.submit(null, () -> { }, 1000);
+
+        // When
+        long start = System.nanoTime();
+        assertThrows(TaskRejectedException.class, () -> stage.submit(null, () -> { }, 100));
+
+        // Then
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 90, "The submission should wait for room first");
+        assertEquals(2, stage.getQueueDepth());
+        assertEquals(1, stage.getActiveCount());
+        release.countDown();
+    }
+
+    @Test
+    public void testBlockedSubmissionProceedsWhenAWorkerTakesATask() throws Exception {
+        // Given
+        ProcessingStage stage = createStage(1, 1, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        stage.submit(null, () -> {
+            started.countDown();
+            awaitQuietly(release);
+        }, 1000);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        stage.submit(null, () -> { }, 1000);
+        AtomicBoolean ran = new AtomicBoolean();
+        CountDownLatch lastDone = new CountDownLatch(1);
+
+        // When
+        Thread submitter = new Thread(() -> stage.submit(null, () -> {
+            ran.set(true);
+            lastDone.countDown();
+        }, 5000));
+        submitter.start();
+        Thread.sleep(100);
+        assertTrue(submitter.isAlive(), "The submission should wait while the queue is full");
+        release.countDown();
+
+        // Then
+        assertTrue(lastDone.await(5, TimeUnit.SECONDS));
+        assertTrue(ran.get());
+        submitter.join(5000);
+    }
+
+    @Test
+    public void testStoppedStageRejectsTasks() throws Exception {
+        // Given
+        ProcessingStage stage = createStage(1, 10, 0);
+        stage.destroy();
+
+        // Then
+        assertThrows(TaskRejectedException.class, () -> stage.submit(null, () -> { }, 100));
+        assertEquals(0, stage.getQueueDepth());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
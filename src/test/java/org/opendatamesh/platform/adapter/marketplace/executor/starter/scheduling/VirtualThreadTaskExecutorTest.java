@@ -0,0 +1,70 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class VirtualThreadTaskExecutorTest {
+
+    @Test
+    public void testSupportFollowsTheJavaVersion() {
+        boolean java21 = Runtime.version().feature() >= 21;
+        assertEquals(java21, VirtualThreads.isSupported());
+        if (!java21) {
+            assertThrows(UnsupportedOperationException.class, () -> new VirtualThreadTaskExecutor("test-", 10, 1));
+        }
+    }
+
+    @Test
+    public void testTasksRunOnNamedVirtualThreads() throws Exception {
+        assumeTrue(VirtualThreads.isSupported(), "Virtual threads require Java 21 or later");
+
+        // Given
+        VirtualThreadTaskExecutor executor = new VirtualThreadTaskExecutor("test-request-", 10, 1);
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+
+        // When
+        executor.execute(() -> {
+            thread.set(Thread.currentThread());
+            done.countDown();
+        });
+
+        // Then
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(thread.get().getName().startsWith("test-request-"));
+        assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(thread.get()));
+        executor.destroy();
+    }
+
+    @Test
+    public void testTasksOverMaxInFlightAreRejected() throws Exception {
+        assumeTrue(VirtualThreads.isSupported(), "Virtual threads require Java 21 or later");
+
+        // Given
+        VirtualThreadTaskExecutor executor = new VirtualThreadTaskExecutor("test-request-", 2, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable blocked = () -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        executor.execute(blocked);
+        executor.execute(blocked);
+
+        // Then
+        assertEquals(2, executor.getActiveCount());
+        assertThrows(TaskRejectedException.class, () -> executor.execute(() -> { }));
+        release.countDown();
+        executor.destroy();
+        assertEquals(0, executor.getActiveCount());
+    }
+}
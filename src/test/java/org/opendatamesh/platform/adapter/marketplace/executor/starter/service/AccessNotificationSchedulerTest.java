@@ -0,0 +1,204 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.MailDispatcher;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.MarketplaceMailSender;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.RecipientDomainRateLimiter;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.journal.NotificationStore;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.metrics.MarketplaceMetrics;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.ProcessingStage;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.opendatamesh.platform.adapter.marketplace.executor.starter.service.MarketplaceServiceFixtures.*;
+
+/**
+ * Runs the scheduler with a real timer, delivery stage and store, faking only the SMTP server.
+ */
+public class AccessNotificationSchedulerTest {
+
+    private static final long REMINDER_BEFORE_MILLIS = 60_000;
+
+    /**
+     * Mail sender that records the subject of the messages it sends.
+     */
+    private static class RecordingMailSender implements MarketplaceMailSender {
+        private final Session session = Session.getInstance(new Properties());
+        private final List<String> sent = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void send(String to, String subject, String text) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void send(MimeMessage message) throws MessagingException {
+            sent.add(message.getSubject() + " to " + message.getAllRecipients()[0]);
+        }
+
+        @Override
+        public MimeMessage createMimeMessage() {
+            return new MimeMessage(session);
+        }
+    }
+
+    @TempDir
+    Path storeDir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private final RecordingMailSender mailSender = new RecordingMailSender();
+
+    private RecipientDomainRateLimiter rateLimiter = new RecipientDomainRateLimiter(false, 10, 20, "");
+    private MailDispatcher mailDispatcher;
+    private ProcessingStage deliveryStage;
+    private EmailRetryScheduler retryScheduler;
+    private NotificationStore store;
+    private AccessNotificationScheduler scheduler;
+
+    private void start() throws Exception {
+        mailDispatcher = mailDispatcher(mailSender);
+        EmailService emailService = emailService(mailDispatcher, new MarketplaceMetrics(new SimpleMeterRegistry()), rateLimiter);
+        deliveryStage = new ProcessingStage("delivery", 2, 100, 64, 16, 5);
+        retryScheduler = new EmailRetryScheduler(true, 3, 20, 2.0, 100, 0, 10, 64);
+        store = new NotificationStore(objectMapper, true, storeDir.toString(), 1, 5000, 4);
+        store.open();
+        scheduler = new AccessNotificationScheduler(emailService, store, deliveryStage, retryScheduler,
+                true, REMINDER_BEFORE_MILLIS, 10, 64, 2);
+        scheduler.start();
+    }
+
+    /**
+     * Stops the scheduler and its collaborators, as on shutdown; the store directory is kept.
+     */
+    private void stop() throws Exception {
+        scheduler.stop();
+        deliveryStage.destroy();
+        retryScheduler.shutdown();
+        mailDispatcher.shutdown();
+        store.close();
+        scheduler = null;
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (scheduler != null) {
+            stop();
+        }
+    }
+
+    private static MarketplaceRequestRes subscription(String identifier, String consumer, String requester,
+                                                      long startDate, long endDate) {
+        MarketplaceRequestRes request = request(identifier, "MARKETPLACE_SUBSCRIBE", consumer, requester);
+        request.getRequest().setStartDate(new Date(startDate));
+        request.getRequest().setEndDate(new Date(endDate));
+        return request;
+    }
+
+    @Test
+    public void testNotificationsAreSentWhenDue() throws Exception {
+        // Given
+        start();
+        long now = System.currentTimeMillis();
+
+        // When
+        scheduler.scheduleFor(subscription("r1", "team-a", "owner@example.com", now + 200, now + REMINDER_BEFORE_MILLIS + 400));
+
+        // Then
+        assertEquals(2, scheduler.getPendingCount());
+        assertEquals(2, store.getPendingCount());
+        Thread.sleep(100);
+        assertTrue(mailSender.sent.isEmpty(), "No notification should be sent before it is due");
+        awaitCondition(() -> mailSender.sent.size() == 2);
+        assertEquals(List.of("Access Started: dp/1.0.0 to owner@example.com", "Access Expiring Soon: dp/1.0.0 to owner@example.com"),
+                mailSender.sent);
+        awaitCondition(() -> store.getPendingCount() == 0);
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void testNotificationsAlreadyDueAreNotScheduled() throws Exception {
+        // Given
+        start();
+        long now = System.currentTimeMillis();
+
+        // When: access started yesterday and ends within the reminder period
+        scheduler.scheduleFor(subscription("r1", "team-a", "owner@example.com", now - 86_400_000, now + REMINDER_BEFORE_MILLIS / 2));
+
+        // Then
+        assertEquals(0, scheduler.getPendingCount());
+        assertEquals(0, store.getPendingCount());
+    }
+
+    @Test
+    public void testRevokingAccessCancelsTheNotificationsOfTheConsumerAndDataProduct() throws Exception {
+        // Given
+        start();
+        long now = System.currentTimeMillis();
+        scheduler.scheduleFor(subscription("r1", "team-a", "owner@example.com", now + 300, now + REMINDER_BEFORE_MILLIS + 3_600_000));
+        scheduler.scheduleFor(subscription("r2", "team-b", "owner@example.com", now + 300, now + REMINDER_BEFORE_MILLIS + 3_600_000));
+
+        // When
+        int cancelled = scheduler.cancelFor(request("r3", "MARKETPLACE_UNSUBSCRIBE", "team-a", "owner@example.com"));
+
+        // Then
+        assertEquals(2, cancelled);
+        assertEquals(2, scheduler.getPendingCount(), "The notifications of another consumer should be kept");
+        assertEquals(2, store.getPendingCount(), "Cancelled notifications should be removed from the store");
+        awaitCondition(() -> mailSender.sent.size() == 1);
+        Thread.sleep(200);
+        assertEquals(List.of("Access Started: dp/1.0.0 to owner@example.com"), mailSender.sent,
+                "Only the access start of the other consumer should be sent");
+    }
+
+    @Test
+    public void testPendingNotificationsAreScheduledAgainAfterRestart() throws Exception {
+        // Given
+        start();
+        long now = System.currentTimeMillis();
+        scheduler.scheduleFor(subscription("r1", "team-a", "owner@example.com", now + 500, now + REMINDER_BEFORE_MILLIS + 3_600_000));
+        stop();
+
+        // When
+        start();
+
+        // Then
+        assertEquals(2, scheduler.getPendingCount());
+        awaitCondition(() -> mailSender.sent.size() == 1);
+        assertEquals("Access Started: dp/1.0.0 to owner@example.com", mailSender.sent.get(0));
+        awaitCondition(() -> store.getPendingCount() == 1);
+        assertEquals(1, scheduler.getPendingCount(), "The expiry reminder should still be pending");
+    }
+
+    @Test
+    public void testDeferredNotificationIsSentOnceTheRateLimitAllowsIt() throws Exception {
+        // Given: the domain of the requester allows one email every 200 ms, and has just sent one
+        rateLimiter = new RecipientDomainRateLimiter(true, 0, 20, "limited.example=5:1");
+        start();
+        rateLimiter.reserve("someone@limited.example", "earlier email");
+        long now = System.currentTimeMillis();
+
+        // When
+        scheduler.scheduleFor(subscription("r1", "team-a", "owner@limited.example", now + 20, now + REMINDER_BEFORE_MILLIS + 3_600_000));
+
+        // Then
+        awaitCondition(() -> mailSender.sent.size() == 1);
+        assertTrue(System.currentTimeMillis() - now >= 150, "The notification should wait for the rate limit");
+        assertEquals("Access Started: dp/1.0.0 to owner@limited.example", mailSender.sent.get(0));
+        awaitCondition(() -> store.getPendingCount() == 1);
+        assertEquals(1, scheduler.getPendingCount());
+    }
+}
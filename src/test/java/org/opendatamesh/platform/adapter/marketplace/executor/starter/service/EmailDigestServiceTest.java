@@ -0,0 +1,159 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.DeliveryDeferredException;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.RequestRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.RequesterRes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EmailDigestServiceTest {
+
+    /**
+     * Email sender that records the emails it was asked to send.
+     */
+    private static class RecordingEmailSender implements DigestEmailSender {
+        private final List<String> sent = new CopyOnWriteArrayList<>();
+        private final AtomicInteger deferrals = new AtomicInteger();
+        private volatile RuntimeException failure;
+
+        @Override
+        public void sendAccessEmail(MarketplaceRequestRes request) {
+            sent.add("access:" + request.getRequest().getIdentifier());
+        }
+
+        @Override
+        public void sendUnsubscribeEmail(MarketplaceRequestRes request) {
+            sent.add("unsubscribe:" + request.getRequest().getIdentifier());
+        }
+
+        @Override
+        public void sendDigestEmail(String recipient, List<MarketplaceRequestRes> requests) {
+            if (deferrals.getAndDecrement() > 0) {
+                throw new DeliveryDeferredException("Rate limit reached", 50);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            List<String> identifiers = new ArrayList<>();
+            requests.forEach(request -> identifiers.add(request.getRequest().getIdentifier()));
+            sent.add("digest:" + recipient + ":" + String.join(",", identifiers));
+        }
+    }
+
+    private final RecordingEmailSender emailSender = new RecordingEmailSender();
+    private EmailDigestService digestService;
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        if (digestService != null) {
+            digestService.shutdown();
+        }
+    }
+
+    private static MarketplaceRequestRes request(String identifier, String operation, String requester) {
+        RequesterRes requesterRes = new RequesterRes();
+        requesterRes.setType("user");
+        requesterRes.setIdentifier(requester);
+        RequestRes requestRes = new RequestRes();
+        requestRes.setIdentifier(identifier);
+        requestRes.setRequester(requesterRes);
+        MarketplaceRequestRes request = new MarketplaceRequestRes();
+        request.setOperation(operation);
+        request.setRequest(requestRes);
+        return request;
+    }
+
+    @Test
+    public void testRequestsOfTheSameRequesterShareOneEmail() throws Exception {
+        // Given
+        digestService = new EmailDigestService(emailSender, true, 300, 50, 1);
+
+        // When
+        CompletableFuture<Void> first = digestService.submit(request("r1", "MARKETPLACE_SUBSCRIBE", "team@example.com"));
+        CompletableFuture<Void> second = digestService.submit(request("r2", "MARKETPLACE_UNSUBSCRIBE", "TEAM@example.com"));
+        CompletableFuture<Void> third = digestService.submit(request("r3", "MARKETPLACE_SUBSCRIBE", "team@example.com"));
+        CompletableFuture<Void> alone = digestService.submit(request("r4", "MARKETPLACE_UNSUBSCRIBE", "other@example.com"));
+        assertFalse(first.isDone(), "Digest should wait for the end of its window");
+        CompletableFuture.allOf(first, second, third, alone).get(5, TimeUnit.SECONDS);
+
+        // Then
+        assertEquals(2, emailSender.sent.size());
+        assertTrue(emailSender.sent.contains("digest:team@example.com:r1,r2,r3"));
+        assertTrue(emailSender.sent.contains("unsubscribe:r4"), "A single request should use the regular template");
+        assertEquals(0, digestService.getPendingCount());
+    }
+
+    @Test
+    public void testFullDigestIsSentBeforeTheWindowEnds() throws Exception {
+        // Given
+        digestService = new EmailDigestService(emailSender, true, 60_000, 2, 1);
+
+        // When
+        CompletableFuture<Void> first = digestService.submit(request("r1", "MARKETPLACE_SUBSCRIBE", "team@example.com"));
+        CompletableFuture<Void> second = digestService.submit(request("r2", "MARKETPLACE_SUBSCRIBE", "team@example.com"));
+        CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+
+        // Then
+        assertEquals(List.of("digest:team@example.com:r1,r2"), emailSender.sent);
+    }
+
+    @Test
+    public void testDeferredDigestIsSentLater() throws Exception {
+        // Given
+        emailSender.deferrals.set(2);
+        digestService = new EmailDigestService(emailSender, true, 50, 50, 1);
+
+        // When
+        CompletableFuture<Void> first = digestService.submit(request("r1", "MARKETPLACE_SUBSCRIBE", "team@example.com"));
+        CompletableFuture<Void> second = digestService.submit(request("r2", "MARKETPLACE_SUBSCRIBE", "team@example.com"));
+        CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+
+        // Then
+        assertEquals(List.of("digest:team@example.com:r1,r2"), emailSender.sent);
+    }
+
+    @Test
+    public void testFailedDigestFailsEveryRequest() throws Exception {
+        // Given
+        emailSender.failure = new IllegalStateException("SMTP server unavailable");
+        digestService = new EmailDigestService(emailSender, true, 50, 50, 1);
+
+        // When
+        CompletableFuture<Void> first = digestService.submit(request("r1", "MARKETPLACE_SUBSCRIBE", "team@example.com"));
+        CompletableFuture<Void> second = digestService.submit(request("r2", "MARKETPLACE_SUBSCRIBE", "team@example.com"));
+
+        // Then
+        for (CompletableFuture<Void> result : List.of(first, second)) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+            assertEquals("SMTP server unavailable", e.getCause().getMessage());
+        }
+        assertEquals(0, digestService.getPendingCount());
+    }
+
+    @Test
+    public void testShutdownSendsOpenDigests() throws Exception {
+        // Given
+        digestService = new EmailDigestService(emailSender, true, 60_000, 50, 1);
+        CompletableFuture<Void> first = digestService.submit(request("r1", "MARKETPLACE_SUBSCRIBE", "team@example.com"));
+        CompletableFuture<Void> second = digestService.submit(request("r2", "MARKETPLACE_SUBSCRIBE", "team@example.com"));
+
+        // When
+        digestService.shutdown();
+        digestService = null;
+
+        // Then
+        assertTrue(first.isDone() && second.isDone());
+        assertEquals(List.of("digest:team@example.com:r1,r2"), emailSender.sent);
+    }
+}
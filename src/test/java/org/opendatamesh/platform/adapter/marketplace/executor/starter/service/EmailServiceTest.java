@@ -136,6 +136,36 @@ public class EmailServiceTest {
             "Email should contain the requester identifier");
     }
 
+    @Test
+    public void testMalformedRecipientFailsThePreparation() {
+        // Given
+        MarketplaceRequestRes request = createTestRequest();
+        request.getRequest().getRequester().setIdentifier("Broken <user@example.com");
+
+        // When
+        RuntimeException e = assertThrows(RuntimeException.class, () -> emailService.prepareAccessEmail(request));
+
+        // Then
+        assertEquals("Failed to prepare access email", e.getMessage());
+        assertTrue(capturingMailSender.getSentMessages().isEmpty(), "Nothing should be sent");
+    }
+
+    @Test
+    public void testPreparedEmailIsOnlySentWhenDelivered() throws Exception {
+        // Given
+        MarketplaceRequestRes request = createTestRequest();
+
+        // When
+        MimeMessage prepared = emailService.prepareAccessEmail(request);
+
+        // Then
+        assertTrue(capturingMailSender.getSentMessages().isEmpty(), "Preparing an email should not send it");
+        emailService.deliver(request.getOperation(), prepared);
+        assertEquals(1, capturingMailSender.getSentMessages().size());
+        assertEquals("Access Granted: " + request.getRequest().getProvider().getDataProductFqn(),
+                capturingMailSender.getSentMessages().get(0).getSubject());
+    }
+
     private static String getTextFromMimeMessage(MimeMessage message) throws Exception {
         Object content = message.getContent();
         if (content instanceof String) {
@@ -0,0 +1,124 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.exception.BadRequestException;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.exception.OdmApiException;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.exception.TooManyRequestsException;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceBatchItemResultRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceBatchResultRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
+
+import javax.validation.Validation;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MarketplaceBatchIngestionServiceTest {
+
+    /**
+     * Submitter that accepts subscriptions and unsubscriptions, records the submitted chunks and refuses the requests
+     * whose identifier starts with "busy".
+     */
+    private static class RecordingSubmitter implements MarketplaceRequestSubmitter {
+        private final List<Integer> chunkSizes = new ArrayList<>();
+
+        @Override
+        public void validateRequest(MarketplaceRequestRes request) {
+            if (!"MARKETPLACE_SUBSCRIBE".equals(request.getOperation()) && !"MARKETPLACE_UNSUBSCRIBE".equals(request.getOperation())) {
+                throw new BadRequestException("Invalid operation type");
+            }
+        }
+
+        @Override
+        public List<OdmApiException> submitAll(List<MarketplaceRequestRes> requests) {
+            chunkSizes.add(requests.size());
+            List<OdmApiException> outcomes = new ArrayList<>();
+            for (MarketplaceRequestRes request : requests) {
+                outcomes.add(request.getRequest().getIdentifier().startsWith("busy")
+                        ? new TooManyRequestsException("Too many pending requests, retry later", 5) : null);
+            }
+            return outcomes;
+        }
+    }
+
+    private final RecordingSubmitter submitter = new RecordingSubmitter();
+    private final MarketplaceBatchIngestionService batchService = new MarketplaceBatchIngestionService(new ObjectMapper(),
+            Validation.buildDefaultValidatorFactory().getValidator(), submitter, 2, 100);
+
+    private static String request(String identifier, String operation) {
+        return "{\"v\": \"1.0\", \"operation\": \"" + operation + "\", \"request\": {"
+                + "\"name\": \"Test Request\", \"identifier\": \"" + identifier + "\","
+                + "\"provider\": {\"dataProductFqn\": \"test/product/1.0.0\", \"dataProductPortsFqn\": [\"test/product/1.0.0/port\"]},"
+                + "\"consumer\": {\"type\": \"user\", \"identifier\": \"user@example.com\"},"
+                + "\"requester\": {\"type\": \"user\", \"identifier\": \"user@example.com\"}}}";
+    }
+
+    private MarketplaceBatchResultRes process(String body) {
+        return batchService.processBatch(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testJsonArrayIsValidatedPerItem() {
+        // Given
+        String body = "[" + request("req-1", "MARKETPLACE_SUBSCRIBE") + ","
+                + request("req-2", "MARKETPLACE_DELETE") + ","
+                + request("req-3", "MARKETPLACE_UNSUBSCRIBE") + "]";
+
+        // When
+        MarketplaceBatchResultRes result = process(body);
+
+        // Then
+        assertEquals(2, result.getAccepted());
+        assertEquals(1, result.getRejected());
+        MarketplaceBatchItemResultRes invalid = result.getItems().get(1);
+        assertEquals("req-2", invalid.getIdentifier());
+        assertFalse(invalid.isAccepted());
+        assertEquals(400, invalid.getStatus());
+        assertEquals(List.of(2), submitter.chunkSizes, "Valid items should be submitted together");
+    }
+
+    @Test
+    public void testNdjsonIsSubmittedInChunks() {
+        // Given
+        String body = request("req-1", "MARKETPLACE_SUBSCRIBE") + "\n"
+                + request("req-2", "MARKETPLACE_SUBSCRIBE") + "\n"
+                + request("busy-3", "MARKETPLACE_SUBSCRIBE") + "\n"
+                + "{\"v\": \"1.0\", \"operation\": \"MARKETPLACE_SUBSCRIBE\"}\n";
+
+        // When
+        MarketplaceBatchResultRes result = process(body);
+
+        // Then
+        assertEquals(List.of(2, 1), submitter.chunkSizes, "Valid items should be submitted in chunks of 2");
+        assertEquals(4, result.getItems().size());
+        assertTrue(result.getItems().get(0).isAccepted());
+        assertTrue(result.getItems().get(1).isAccepted());
+        assertEquals(429, result.getItems().get(2).getStatus());
+        assertEquals(5L, result.getItems().get(2).getRetryAfterSeconds());
+        assertEquals(400, result.getItems().get(3).getStatus(), "Item missing the request details should fail bean validation");
+    }
+
+    @Test
+    public void testMalformedTailIsReported() {
+        // Given
+        String body = request("req-1", "MARKETPLACE_SUBSCRIBE") + "\n{\"v\": ";
+
+        // When
+        MarketplaceBatchResultRes result = process(body);
+
+        // Then
+        assertEquals(1, result.getAccepted());
+        assertEquals(1, result.getRejected());
+        assertTrue(result.getItems().get(1).getMessage().startsWith("Malformed batch body"));
+    }
+
+    @Test
+    public void testEmptyBodyIsRejected() {
+        assertThrows(BadRequestException.class, () -> process(""));
+        assertThrows(BadRequestException.class, () -> process("not json"));
+    }
+}
@@ -0,0 +1,326 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.config.MarketplaceServiceConfig;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.journal.CallbackOutbox;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.metrics.MarketplaceMetrics;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestStatus;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceResponseRes;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MarketplaceCallbackDispatcherTest {
+
+    /**
+     * RestTemplate that fails a configurable number of posts and records the messages it accepted.
+     */
+    private static class RecordingRestTemplate extends RestTemplate {
+        private final AtomicInteger failuresLeft = new AtomicInteger();
+        private final List<String> delivered = new CopyOnWriteArrayList<>();
+        private volatile RestClientException failure = new ResourceAccessException("Connection refused");
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> ResponseEntity<T> postForEntity(String url, Object request, Class<T> responseType, Object... uriVariables) {
+            if (failuresLeft.getAndDecrement() > 0) {
+                throw failure;
+            }
+            MarketplaceResponseRes response = ((org.springframework.http.HttpEntity<MarketplaceResponseRes>) request).getBody();
+            delivered.add(uriVariables[0] + ":" + response.getMessage());
+            return ResponseEntity.ok().build();
+        }
+    }
+
+    @TempDir
+    Path outboxDir;
+
+    private final RecordingRestTemplate restTemplate = new RecordingRestTemplate();
+
+    private final ScheduledExecutorService eventLoop = Executors.newSingleThreadScheduledExecutor();
+    private MarketplaceCallbackDispatcher dispatcher;
+    private long callbackDelayMillis = 0;
+
+    private MarketplaceServiceConfig config() {
+        MarketplaceServiceConfig config = new MarketplaceServiceConfig();
+        config.setAddress("http://localhost:8085");
+        config.setCallbackDelayMillis(callbackDelayMillis);
+        config.setCallbackDispatcherThreads(2);
+        return config;
+    }
+
+    private MarketplaceCallbackDispatcher createDispatcher() {
+        MarketplaceServiceConfig config = config();
+        return createDispatcher(new RestTemplateResultClient(config, restTemplate));
+    }
+
+    private MarketplaceCallbackDispatcher createDispatcher(MarketplaceResultClient resultClient) {
+        return createDispatcher(resultClient, new CallbackOutbox(new ObjectMapper(), false, null, 1, 1000));
+    }
+
+    private MarketplaceCallbackDispatcher createDispatcher(MarketplaceResultClient resultClient, CallbackOutbox outbox) {
+        dispatcher = new MarketplaceCallbackDispatcher(config(), resultClient, outbox,
+                new MarketplaceMetrics(new SimpleMeterRegistry()), 20, 2.0, 100, 86_400_000);
+        return dispatcher;
+    }
+
+    /**
+     * Answers posts later, from another thread, like a non-blocking client; fails the posts while failures are left.
+     */
+    private MarketplaceResultClient asyncClient(AtomicInteger failuresLeft, AtomicInteger inFlight, AtomicInteger peakInFlight) {
+        return (requestIdentifier, response) -> {
+            peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            eventLoop.schedule(() -> {
+                inFlight.decrementAndGet();
+                if (failuresLeft.getAndDecrement() > 0) {
+                    result.completeExceptionally(new MarketplaceCallbackException("Service Unavailable", 503, null));
+                } else {
+                    restTemplate.delivered.add(requestIdentifier + ":" + response.getMessage());
+                    result.complete(null);
+                }
+            }, 20, TimeUnit.MILLISECONDS);
+            return result;
+        };
+    }
+
+    private static MarketplaceResponseRes response(String message) {
+        MarketplaceResponseRes response = new MarketplaceResponseRes();
+        response.setStatus(MarketplaceRequestStatus.GRANTED);
+        response.setMessage(message);
+        return response;
+    }
+
+    private void awaitDelivered(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dispatcher.getPendingCount() > 0 || restTemplate.delivered.size() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Results were not delivered in time, still pending: " + dispatcher.getPendingCount());
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+        eventLoop.shutdownNow();
+    }
+
+    @Test
+    public void testFailedPostsAreRetriedInOrder() throws Exception {
+        // Given
+        createDispatcher();
+        restTemplate.failuresLeft.set(3);
+
+        // When
+        dispatcher.dispatch(response("first"), "req-1", "MARKETPLACE_SUBSCRIBE");
+        dispatcher.dispatch(response("second"), "req-1", "MARKETPLACE_SUBSCRIBE");
+        dispatcher.dispatch(response("third"), "req-1", "MARKETPLACE_SUBSCRIBE");
+
+        // Then
+        awaitDelivered(3);
+        assertEquals(List.of("req-1:first", "req-1:second", "req-1:third"), restTemplate.delivered,
+                "Results of the same request should be delivered in order despite retries");
+    }
+
+    @Test
+    public void testUndeliveredResultsArePostedAfterRestart() throws Exception {
+        // Given: the marketplace service is down when the service stops
+        CallbackOutbox outbox = new CallbackOutbox(new ObjectMapper(), true, outboxDir.toString(), 1, 5000);
+        outbox.open();
+        createDispatcher(new RestTemplateResultClient(config(), restTemplate), outbox);
+        dispatcher.dispatch(response("delivered"), "req-0", "MARKETPLACE_SUBSCRIBE");
+        awaitDelivered(1);
+        restTemplate.failuresLeft.set(Integer.MAX_VALUE);
+        dispatcher.dispatch(response("first"), "req-1", "MARKETPLACE_SUBSCRIBE");
+        dispatcher.dispatch(response("second"), "req-2", "MARKETPLACE_UNSUBSCRIBE");
+        dispatcher.shutdown();
+        assertEquals(2, dispatcher.getPendingCount());
+        outbox.close();
+
+        // When
+        restTemplate.failuresLeft.set(0);
+        CallbackOutbox reopened = new CallbackOutbox(new ObjectMapper(), true, outboxDir.toString(), 1, 5000);
+        reopened.open();
+        createDispatcher(new RestTemplateResultClient(config(), restTemplate), reopened);
+        dispatcher.resumeOutbox();
+
+        // Then
+        awaitDelivered(3);
+        // Results of different requests are posted concurrently, so only their set is checked
+        assertEquals(Set.of("req-0:delivered", "req-1:first", "req-2:second"), new HashSet<>(restTemplate.delivered));
+        dispatcher.shutdown();
+        reopened.close();
+        CallbackOutbox reopenedAgain = new CallbackOutbox(new ObjectMapper(), true, outboxDir.toString(), 1, 5000);
+        reopenedAgain.open();
+        assertTrue(reopenedAgain.takeRecovered().isEmpty(), "Delivered results should not be posted again");
+        reopenedAgain.close();
+        dispatcher = null;
+    }
+
+    @Test
+    public void testClientErrorIsNotRetried() throws Exception {
+        // Given
+        createDispatcher();
+        restTemplate.failure = new HttpClientErrorException(HttpStatus.NOT_FOUND);
+        restTemplate.failuresLeft.set(1);
+
+        // When
+        dispatcher.dispatch(response("rejected"), "req-1", "MARKETPLACE_SUBSCRIBE");
+        dispatcher.dispatch(response("accepted"), "req-1", "MARKETPLACE_SUBSCRIBE");
+
+        // Then
+        awaitDelivered(1);
+        assertEquals(List.of("req-1:accepted"), restTemplate.delivered,
+                "A result rejected with 404 should be dropped without blocking the next one");
+    }
+
+    @Test
+    public void testNonBlockingPostsKeepResultsInOrder() throws Exception {
+        // Given
+        AtomicInteger failuresLeft = new AtomicInteger(2);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger peakInFlight = new AtomicInteger();
+        createDispatcher(asyncClient(failuresLeft, inFlight, peakInFlight));
+
+        // When: more requests than dispatcher threads are posted at the same time
+        for (int i = 0; i < 10; i++) {
+            dispatcher.dispatch(response("first"), "req-" + i, "MARKETPLACE_SUBSCRIBE");
+            dispatcher.dispatch(response("second"), "req-" + i, "MARKETPLACE_SUBSCRIBE");
+        }
+
+        // Then
+        awaitDelivered(20);
+        for (int i = 0; i < 10; i++) {
+            String identifier = "req-" + i;
+            List<String> lane = restTemplate.delivered.stream()
+                    .filter(delivered -> delivered.startsWith(identifier + ":"))
+                    .collect(Collectors.toList());
+            assertEquals(List.of(identifier + ":first", identifier + ":second"), lane);
+        }
+        assertEquals(0, inFlight.get());
+        assertTrue(peakInFlight.get() > 2, "Posts in flight should not be limited by the 2 dispatcher threads");
+    }
+
+    @Test
+    public void testQueueDepthOnlyCountsDueResultsWaitingForAThread() throws Exception {
+        // Given: posts that hold both dispatcher threads until released
+        callbackDelayMillis = 200;
+        CountDownLatch release = new CountDownLatch(1);
+        createDispatcher((requestIdentifier, response) -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            restTemplate.delivered.add(requestIdentifier + ":" + response.getMessage());
+            return CompletableFuture.completedFuture(null);
+        });
+
+        // When
+        for (int i = 0; i < 3; i++) {
+            dispatcher.dispatch(response("result"), "req-" + i, "MARKETPLACE_SUBSCRIBE");
+        }
+
+        // Then: waiting for the callback delay is not queueing
+        assertEquals(3, dispatcher.getPendingCount());
+        assertEquals(0, dispatcher.getDueCount());
+        assertEquals(0, dispatcher.getActiveCount());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dispatcher.getActiveCount() < 2 || dispatcher.getDueCount() < 1) {
+            assertTrue(System.currentTimeMillis() < deadline, "The results should become due");
+            Thread.sleep(5);
+        }
+        assertEquals(2, dispatcher.getActiveCount());
+        assertEquals(1, dispatcher.getDueCount(), "The third result should wait for a dispatcher thread");
+        release.countDown();
+        awaitDelivered(3);
+        assertEquals(0, dispatcher.getDueCount());
+        assertEquals(0, dispatcher.getActiveCount());
+    }
+
+    @Test
+    public void testResultsArePostedAfterTheCallbackDelay() throws Exception {
+        // Given
+        callbackDelayMillis = 300;
+        createDispatcher();
+
+        // When
+        long dispatchedAt = System.nanoTime();
+        dispatcher.dispatch(response("delayed"), "req-1", "MARKETPLACE_SUBSCRIBE");
+
+        // Then
+        Thread.sleep(100);
+        assertTrue(restTemplate.delivered.isEmpty(), "The result should not be posted before the callback delay");
+        awaitDelivered(1);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - dispatchedAt);
+        assertTrue(elapsedMillis >= 300, "The result was posted after " + elapsedMillis + " ms, before the callback delay");
+        assertEquals(List.of("req-1:delayed"), restTemplate.delivered);
+    }
+
+    @Test
+    public void testDispatchDoesNotHoldTheCallingThread() throws Exception {
+        // Given: a long callback delay
+        callbackDelayMillis = 10_000;
+        CountDownLatch posted = new CountDownLatch(1);
+        createDispatcher((requestIdentifier, response) -> {
+            posted.countDown();
+            return CompletableFuture.completedFuture(null);
+        });
+
+        // When
+        long startedAt = System.nanoTime();
+        dispatcher.dispatch(response("result"), "req-1", "MARKETPLACE_SUBSCRIBE");
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+
+        // Then
+        assertTrue(elapsedMillis < 1000, "dispatch() should return at once, it took " + elapsedMillis + " ms");
+        assertEquals(1, dispatcher.getPendingCount());
+        assertEquals(1, posted.getCount(), "The result should not be posted by the calling thread");
+    }
+
+    @Test
+    public void testWaitingResultsArePostedOnShutdown() throws Exception {
+        // Given: results still waiting for a long callback delay
+        callbackDelayMillis = 60_000;
+        createDispatcher();
+        dispatcher.dispatch(response("first"), "req-1", "MARKETPLACE_SUBSCRIBE");
+        dispatcher.dispatch(response("second"), "req-1", "MARKETPLACE_SUBSCRIBE");
+        dispatcher.dispatch(response("other"), "req-2", "MARKETPLACE_UNSUBSCRIBE");
+
+        // When
+        dispatcher.shutdown();
+
+        // Then
+        assertEquals(0, dispatcher.getPendingCount(), "Shutdown should post the waiting results without waiting for the delay");
+        assertEquals(Set.of("req-1:first", "req-1:second", "req-2:other"), new HashSet<>(restTemplate.delivered));
+        assertTrue(restTemplate.delivered.indexOf("req-1:first") < restTemplate.delivered.indexOf("req-1:second"),
+                "Results of the same request should be posted in order on shutdown");
+        dispatcher = null;
+    }
+}
@@ -0,0 +1,353 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.config.MarketplaceServiceConfig;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.MailDispatcher;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.MarketplaceMailSender;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.RecipientDomainRateLimiter;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.idempotency.IdempotencyStore;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.journal.CallbackOutbox;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.journal.NotificationStore;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.journal.RequestJournal;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.metrics.MarketplaceMetrics;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceResponseRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.KeyedOrderingExecutor;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.scheduling.ProcessingStage;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.opendatamesh.platform.adapter.marketplace.executor.starter.service.MarketplaceServiceFixtures.*;
+
+/**
+ * Runs the executor service with its real collaborators, faking only the SMTP server and the marketplace service.
+ */
+public class MarketplaceExecutorServiceTest {
+
+    private static final String SUBSCRIBE = "MARKETPLACE_SUBSCRIBE";
+    private static final String UNSUBSCRIBE = "MARKETPLACE_UNSUBSCRIBE";
+
+    /**
+     * Mail sender that records the subject of the messages it sends, and fails the next sends to a recipient with
+     * the failures queued for it. Sends wait while the sender is closed.
+     */
+    private static class FakeMailSender implements MarketplaceMailSender {
+        private final Session session = Session.getInstance(new Properties());
+        private final Map<String, Queue<MessagingException>> failures = new ConcurrentHashMap<>();
+        private final List<String> attempts = new CopyOnWriteArrayList<>();
+        private final List<String> sent = new CopyOnWriteArrayList<>();
+        private volatile CountDownLatch open = new CountDownLatch(0);
+
+        void failNext(String recipient, MessagingException failure) {
+            failures.computeIfAbsent(recipient, r -> new ConcurrentLinkedQueue<>()).add(failure);
+        }
+
+        @Override
+        public void send(String to, String subject, String text) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void send(MimeMessage message) throws MessagingException {
+            String recipient = message.getAllRecipients()[0].toString();
+            attempts.add(message.getSubject());
+            try {
+                open.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Queue<MessagingException> queued = failures.get(recipient);
+            MessagingException failure = queued != null ? queued.poll() : null;
+            if (failure != null) {
+                throw failure;
+            }
+            sent.add(message.getSubject());
+        }
+
+        @Override
+        public MimeMessage createMimeMessage() {
+            return new MimeMessage(session);
+        }
+    }
+
+    /**
+     * Marketplace service that accepts every result.
+     */
+    private static class RecordingResultClient implements MarketplaceResultClient {
+        private final BlockingQueue<String> results = new LinkedBlockingQueue<>();
+
+        @Override
+        public CompletableFuture<Void> post(String requestIdentifier, MarketplaceResponseRes response) {
+            results.add(requestIdentifier + ":" + response.getStatus() + ":" + response.getMessage());
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    @TempDir
+    Path journalDir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private final FakeMailSender mailSender = new FakeMailSender();
+    private final RecordingResultClient resultClient = new RecordingResultClient();
+    private final ExecutorService requestPool = Executors.newFixedThreadPool(4);
+
+    private MailDispatcher mailDispatcher;
+    private RequestJournal requestJournal;
+    private EmailRetryScheduler retryScheduler;
+    private IdempotencyStore idempotencyStore;
+    private OpposingOperationWindow cancellationWindow;
+    private ProcessingStage deliveryStage;
+    private MarketplaceCallbackDispatcher callbackDispatcher;
+    private AccessNotificationScheduler notificationScheduler;
+    private MarketplaceExecutorService service;
+
+    // Settings of the service created by start()
+    private boolean journalEnabled;
+    private boolean notificationsEnabled;
+    private RecipientDomainRateLimiter rateLimiter = new RecipientDomainRateLimiter(false, 10, 20, "");
+    private int deliveryThreads = 2;
+    private int deliveryCapacity = 100;
+    private long deliveryHandoffTimeoutMillis = 1000;
+    private long cancellationWindowMillis = 0;
+
+    private void start() throws Exception {
+        MarketplaceMetrics metrics = new MarketplaceMetrics(new SimpleMeterRegistry());
+        mailDispatcher = mailDispatcher(mailSender);
+        EmailService emailService = emailService(mailDispatcher, metrics, rateLimiter);
+        requestJournal = openJournal();
+        retryScheduler = new EmailRetryScheduler(true, 3, 20, 2.0, 100, 0, 10, 64);
+        idempotencyStore = new IdempotencyStore(true, 60_000, 1000, false, journalDir.resolve("idempotency").toString(), 30_000);
+        cancellationWindow = new OpposingOperationWindow(cancellationWindowMillis);
+        deliveryStage = new ProcessingStage("delivery", deliveryThreads, deliveryCapacity, 64, 16, 5);
+        MarketplaceServiceConfig config = new MarketplaceServiceConfig();
+        config.setAddress("http://localhost:8085");
+        config.setCallbackDelayMillis(0);
+        config.setCallbackDispatcherThreads(1);
+        callbackDispatcher = new MarketplaceCallbackDispatcher(config, resultClient,
+                new CallbackOutbox(objectMapper, false, null, 1, 1000), metrics, 20, 2.0, 100, 86_400_000);
+        notificationScheduler = new AccessNotificationScheduler(emailService,
+                new NotificationStore(objectMapper, false, null, 1, 1000, 4), deliveryStage, retryScheduler,
+                notificationsEnabled, 0, 1000, 64, 2);
+        notificationScheduler.start();
+        service = new MarketplaceExecutorService(callbackDispatcher, emailService,
+                new EmailDigestService(emailService, false, 0, 1, 1), requestJournal, retryScheduler, idempotencyStore,
+                metrics, cancellationWindow, new KeyedOrderingExecutor(requestPool, 64, 1000, 16), deliveryStage,
+                notificationScheduler);
+        ReflectionTestUtils.setField(service, "orderingEnabled", true);
+        ReflectionTestUtils.setField(service, "retryAfterSeconds", 5);
+        ReflectionTestUtils.setField(service, "deliveryHandoffTimeoutMillis", deliveryHandoffTimeoutMillis);
+    }
+
+    private RequestJournal openJournal() throws Exception {
+        RequestJournal journal = new RequestJournal(objectMapper, journalEnabled, journalDir.resolve("journal").toString(), 1, 5000);
+        journal.open();
+        return journal;
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        mailSender.open.countDown();
+        if (service != null) {
+            notificationScheduler.stop();
+            retryScheduler.shutdown();
+            cancellationWindow.shutdown();
+            deliveryStage.destroy();
+            callbackDispatcher.shutdown();
+            mailDispatcher.shutdown();
+            requestJournal.close();
+        }
+        requestPool.shutdownNow();
+    }
+
+    @Test
+    public void testRetryLeftPendingAtShutdownIsReplayedFromTheJournal() throws Exception {
+        // Given
+        journalEnabled = true;
+        start();
+        mailSender.failNext("user@example.com", new MessagingException("Connection dropped"));
+        retryScheduler.shutdown();
+
+        // When
+        service.processRequest(request("r1", SUBSCRIBE, "user@example.com"));
+
+        // Then
+        assertNull(resultClient.results.poll(500, TimeUnit.MILLISECONDS),
+                "A request left pending at shutdown should not be reported as failed");
+        assertEquals(1, mailSender.attempts.size());
+        assertEquals(1, requestJournal.getLiveEntryCount(), "The journal entry should stay live");
+        assertFalse(idempotencyStore.tryAcquire("r1", SUBSCRIBE), "The idempotency key should be kept");
+        requestJournal.close();
+        RequestJournal reopened = openJournal();
+        List<RequestJournal.JournaledRequest> recovered = reopened.takeRecovered();
+        reopened.close();
+        assertEquals(1, recovered.size());
+        assertEquals("r1", recovered.get(0).getRequest().getRequest().getIdentifier());
+    }
+
+    @Test
+    public void testLaterRequestOfTheSameConsumerWaitsForADeferredOne() throws Exception {
+        // Given: the emails go to the requesters, and only the domain of the first one is over its rate limit
+        rateLimiter = new RecipientDomainRateLimiter(true, 0, 20, "limited.example=5:1");
+        start();
+        rateLimiter.reserve("someone@limited.example", "earlier email");
+
+        // When
+        service.processRequest(request("r1", SUBSCRIBE, "team-a", "owner@limited.example"));
+        service.processRequest(request("r2", UNSUBSCRIBE, "team-a", "owner@example.com"));
+
+        // Then
+        String first = resultClient.results.poll(5, TimeUnit.SECONDS);
+        String second = resultClient.results.poll(5, TimeUnit.SECONDS);
+        assertNotNull(first);
+        assertTrue(first.startsWith("r1:GRANTED:"), "The deferred subscription should complete first, got " + first);
+        assertNotNull(second);
+        assertTrue(second.startsWith("r2:REVOKED:"), second);
+        assertEquals(List.of("Access Granted: dp/1.0.0", "Unsubscription Confirmed: dp/1.0.0"), mailSender.sent);
+    }
+
+    @Test
+    public void testLaterRequestOfTheSameConsumerWaitsForARetriedOne() throws Exception {
+        // Given
+        start();
+        mailSender.failNext("user@example.com", new MessagingException("Connection dropped"));
+
+        // When
+        service.processRequest(request("r1", SUBSCRIBE, "user@example.com"));
+        service.processRequest(request("r2", UNSUBSCRIBE, "user@example.com"));
+
+        // Then
+        assertEquals("r1:GRANTED:Subscription processed successfully and access email sent after 2 attempts",
+                resultClient.results.poll(5, TimeUnit.SECONDS));
+        assertEquals("r2:REVOKED:Unsubscription processed successfully", resultClient.results.poll(5, TimeUnit.SECONDS));
+        assertEquals(List.of("Access Granted: dp/1.0.0", "Access Granted: dp/1.0.0", "Unsubscription Confirmed: dp/1.0.0"),
+                mailSender.attempts);
+    }
+
+    @Test
+    public void testHandOffTimeoutCountsAsAnAttemptAndKeepsTheEmail() throws Exception {
+        // Given: one delivery worker stuck on a send, with one email queued behind it
+        deliveryThreads = 1;
+        deliveryCapacity = 1;
+        deliveryHandoffTimeoutMillis = 50;
+        // One email per 100 s to the domain of the third request: preparing its email twice would defer it
+        rateLimiter = new RecipientDomainRateLimiter(true, 0, 20, "limited.example=0.01:1");
+        start();
+        mailSender.open = new CountDownLatch(1);
+        service.processRequest(request("r1", SUBSCRIBE, "a@example.com"));
+        awaitCondition(() -> mailSender.attempts.size() == 1);
+        service.processRequest(request("r2", SUBSCRIBE, "b@example.com"));
+        awaitCondition(() -> deliveryStage.getQueueDepth() == 1);
+
+        // When
+        service.processRequest(request("r3", SUBSCRIBE, "c@limited.example"));
+
+        // Then
+        assertEquals("r3:ERROR:Failed to process subscription (delivery stage busy after 3 attempts): Stage delivery is full (1 queued tasks)",
+                resultClient.results.poll(5, TimeUnit.SECONDS));
+        assertFalse(idempotencyStore.tryAcquire("r1", SUBSCRIBE));
+        assertTrue(idempotencyStore.tryAcquire("r3", SUBSCRIBE), "A failed request can be submitted again");
+        mailSender.open.countDown();
+        assertNotNull(resultClient.results.poll(5, TimeUnit.SECONDS));
+        assertNotNull(resultClient.results.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAccessNotificationsAreKeptUntilAnUnsubscriptionRevokesAccess() throws Exception {
+        // Given
+        notificationsEnabled = true;
+        start();
+        MarketplaceRequestRes subscription = request("r1", SUBSCRIBE, "user@example.com");
+        subscription.getRequest().setStartDate(new Date(System.currentTimeMillis() + 3_600_000));
+        service.processRequest(subscription);
+        assertEquals("r1:GRANTED:Subscription processed successfully and access email sent",
+                resultClient.results.poll(5, TimeUnit.SECONDS));
+        assertEquals(1, notificationScheduler.getPendingCount());
+        for (int i = 0; i < 3; i++) {
+            mailSender.failNext("user@example.com", new MessagingException("Connection dropped"));
+        }
+
+        // When
+        service.processRequest(request("r2", UNSUBSCRIBE, "user@example.com"));
+
+        // Then
+        String failed = resultClient.results.poll(5, TimeUnit.SECONDS);
+        assertNotNull(failed);
+        assertTrue(failed.startsWith("r2:ERROR:"), failed);
+        assertEquals(1, notificationScheduler.getPendingCount(), "A failed unsubscription should leave access notifications in place");
+        service.processRequest(request("r3", UNSUBSCRIBE, "user@example.com"));
+        assertEquals("r3:REVOKED:Unsubscription processed successfully", resultClient.results.poll(5, TimeUnit.SECONDS));
+        assertEquals(0, notificationScheduler.getPendingCount());
+    }
+
+    @Test
+    public void testDuplicateRequestIsProcessedOnce() throws Exception {
+        // Given: the first request is still sending its email
+        start();
+        mailSender.open = new CountDownLatch(1);
+        service.processRequest(request("r1", SUBSCRIBE, "user@example.com"));
+        awaitCondition(() -> mailSender.attempts.size() == 1);
+
+        // When: the marketplace posts it again, while it is in flight and once it is done
+        service.processRequest(request("r1", SUBSCRIBE, "user@example.com"));
+        mailSender.open.countDown();
+        assertEquals("r1:GRANTED:Subscription processed successfully and access email sent",
+                resultClient.results.poll(5, TimeUnit.SECONDS));
+        service.processRequest(request("r1", SUBSCRIBE, "user@example.com"));
+
+        // Then
+        assertNull(resultClient.results.poll(300, TimeUnit.MILLISECONDS), "A duplicate should not get a result of its own");
+        assertEquals(List.of("Access Granted: dp/1.0.0"), mailSender.attempts);
+    }
+
+    @Test
+    public void testOpposingRequestsWithinTheWindowCompleteWithoutEmails() throws Exception {
+        // Given
+        journalEnabled = true;
+        cancellationWindowMillis = 500;
+        start();
+
+        // When
+        service.processRequest(request("r1", SUBSCRIBE, "user@example.com"));
+        service.processRequest(request("r2", UNSUBSCRIBE, "user@example.com"));
+
+        // Then: both callbacks are sent straight away, in no particular order
+        Set<String> results = new HashSet<>();
+        results.add(resultClient.results.poll(200, TimeUnit.MILLISECONDS));
+        results.add(resultClient.results.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(Set.of(
+                "r1:GRANTED:Subscription processed successfully, no email sent as it was cancelled out by an unsubscription of the same consumer",
+                "r2:REVOKED:Unsubscription processed successfully, no email sent as it cancelled out a subscription of the same consumer"),
+                results);
+        assertEquals(0, cancellationWindow.getHeldCount());
+        assertEquals(0, requestJournal.getLiveEntryCount(), "Both journal entries should be completed");
+        assertNull(resultClient.results.poll(700, TimeUnit.MILLISECONDS), "Nothing should be released when the window ends");
+        assertTrue(mailSender.attempts.isEmpty());
+    }
+}
@@ -0,0 +1,78 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.service;
+
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.MailDispatcher;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.MarketplaceMailSender;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.mail.RecipientDomainRateLimiter;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.emailsender.template.EmailTemplateRegistry;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.metrics.MarketplaceMetrics;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.ConsumerRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.ProviderRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.RequestRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.RequesterRes;
+
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Requests and email wiring shared by the tests that run the services with their real collaborators.
+ */
+public final class MarketplaceServiceFixtures {
+
+    private MarketplaceServiceFixtures() {
+    }
+
+    /**
+     * Mail dispatcher without connection pooling that sends through the given fake SMTP server.
+     */
+    public static MailDispatcher mailDispatcher(MarketplaceMailSender mailSender) {
+        return new MailDispatcher(mailSender, false, 50, 50, 1, 16, 5000);
+    }
+
+    /**
+     * Email service rendering the bundled templates, without digests.
+     */
+    public static EmailService emailService(MailDispatcher mailDispatcher, MarketplaceMetrics metrics,
+                                            RecipientDomainRateLimiter rateLimiter) {
+        return new EmailService(mailDispatcher, new EmailTemplateRegistry(0), metrics, rateLimiter, "sender@example.com",
+                "classpath:templates/email/subscribe-template.mustache",
+                "classpath:templates/email/unsubscribe-template.mustache",
+                "classpath:templates/email/digest-template.mustache",
+                "classpath:templates/email/access-start-template.mustache",
+                "classpath:templates/email/expiry-reminder-template.mustache", false);
+    }
+
+    public static MarketplaceRequestRes request(String identifier, String operation, String consumer) {
+        return request(identifier, operation, consumer, consumer);
+    }
+
+    public static MarketplaceRequestRes request(String identifier, String operation, String consumer, String requesterIdentifier) {
+        ConsumerRes consumerRes = new ConsumerRes();
+        consumerRes.setType("user");
+        consumerRes.setIdentifier(consumer);
+        RequesterRes requester = new RequesterRes();
+        requester.setType("user");
+        requester.setIdentifier(requesterIdentifier);
+        ProviderRes provider = new ProviderRes();
+        provider.setDataProductFqn("dp/1.0.0");
+        RequestRes requestRes = new RequestRes();
+        requestRes.setName("Request " + identifier);
+        requestRes.setIdentifier(identifier);
+        requestRes.setConsumer(consumerRes);
+        requestRes.setRequester(requester);
+        requestRes.setProvider(provider);
+        MarketplaceRequestRes request = new MarketplaceRequestRes();
+        request.setOperation(operation);
+        request.setRequest(requestRes);
+        return request;
+    }
+
+    public static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the condition");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.opendatamesh.platform.adapter.marketplace.executor.starter.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.ConsumerRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.MarketplaceRequestRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.ProviderRes;
+import org.opendatamesh.platform.adapter.marketplace.executor.starter.resources.RequestRes;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpposingOperationWindowTest {
+
+    private final List<String> released = new CopyOnWriteArrayList<>();
+    private final Consumer<OpposingOperationWindow.HeldRequest> release =
+            held -> released.add(held.getRequest().getRequest().getIdentifier());
+    private OpposingOperationWindow window;
+
+    @AfterEach
+    public void tearDown() {
+        if (window != null) {
+            window.shutdown();
+        }
+    }
+
+    private static MarketplaceRequestRes request(String identifier, String operation, String consumer, String dataProductFqn) {
+        ConsumerRes consumerRes = new ConsumerRes();
+        consumerRes.setType("user");
+        consumerRes.setIdentifier(consumer);
+        ProviderRes providerRes = new ProviderRes();
+        providerRes.setDataProductFqn(dataProductFqn);
+        RequestRes requestRes = new RequestRes();
+        requestRes.setIdentifier(identifier);
+        requestRes.setConsumer(consumerRes);
+        requestRes.setProvider(providerRes);
+        MarketplaceRequestRes request = new MarketplaceRequestRes();
+        request.setOperation(operation);
+        request.setRequest(requestRes);
+        return request;
+    }
+
+    @Test
+    public void testOppositeOperationsCancelEachOther() {
+        // Given
+        window = new OpposingOperationWindow(60_000);
+        assertNull(window.holdOrCancel(request("r1", "MARKETPLACE_SUBSCRIBE", "user@example.com", "dp/1.0.0"), 1, release));
+
+        // When
+        OpposingOperationWindow.HeldRequest opposite =
+                window.holdOrCancel(request("r2", "MARKETPLACE_UNSUBSCRIBE", "user@example.com", "dp/1.0.0"), 2, release);
+
+        // Then
+        assertNotNull(opposite);
+        assertEquals("r1", opposite.getRequest().getRequest().getIdentifier());
+        assertEquals(1, opposite.getJournalEntryId());
+        assertEquals(0, window.getHeldCount());
+        window.shutdown();
+        assertTrue(released.isEmpty(), "Cancelled requests should not be released");
+    }
+
+    @Test
+    public void testOtherConsumersAndProductsAreNotCancelled() {
+        // Given
+        window = new OpposingOperationWindow(60_000);
+        window.holdOrCancel(request("r1", "MARKETPLACE_SUBSCRIBE", "user@example.com", "dp/1.0.0"), 1, release);
+
+        // When
+        assertNull(window.holdOrCancel(request("r2", "MARKETPLACE_UNSUBSCRIBE", "other@example.com", "dp/1.0.0"), 2, release));
+        assertNull(window.holdOrCancel(request("r3", "MARKETPLACE_UNSUBSCRIBE", "user@example.com", "dp/2.0.0"), 3, release));
+
+        // Then
+        assertEquals(3, window.getHeldCount());
+    }
+
+    @Test
+    public void testSameOperationReleasesTheHeldRequest() {
+        // Given
+        window = new OpposingOperationWindow(60_000);
+        window.holdOrCancel(request("r1", "MARKETPLACE_SUBSCRIBE", "user@example.com", "dp/1.0.0"), 1, release);
+
+        // When
+        assertNull(window.holdOrCancel(request("r2", "MARKETPLACE_SUBSCRIBE", "user@example.com", "dp/1.0.0"), 2, release));
+
+        // Then
+        assertEquals(List.of("r1"), released);
+        assertEquals(1, window.getHeldCount());
+    }
+
+    @Test
+    public void testHeldRequestIsReleasedWhenTheWindowEnds() throws InterruptedException {
+        // Given
+        window = new OpposingOperationWindow(100);
+
+        // When
+        window.holdOrCancel(request("r1", "MARKETPLACE_SUBSCRIBE", "user@example.com", "dp/1.0.0"), 1, release);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (released.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+
+        // Then
+        assertEquals(List.of("r1"), released);
+        assertEquals(0, window.getHeldCount());
+    }
+
+    @Test
+    public void testShutdownReleasesHeldRequests() {
+        // Given
+        window = new OpposingOperationWindow(60_000);
+        window.holdOrCancel(request("r1", "MARKETPLACE_SUBSCRIBE", "user@example.com", "dp/1.0.0"), 1, release);
+
+        // When
+        window.shutdown();
+        window = null;
+
+        // Then
+        assertEquals(List.of("r1"), released);
+    }
+
+    @Test
+    public void testDisabledWindowHoldsNothing() {
+        window = new OpposingOperationWindow(0);
+        assertFalse(window.canHold(request("r1", "MARKETPLACE_SUBSCRIBE", "user@example.com", "dp/1.0.0")));
+    }
+}